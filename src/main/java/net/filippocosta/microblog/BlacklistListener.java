@@ -0,0 +1,21 @@
+package net.filippocosta.microblog;
+
+// OVERVIEW:
+//   Un `BlacklistListener` riceve una notifica ogni volta che un post di un
+//   `SocialNetworkWithReports` entra o esce dalla blacklist, ovvero ogni volta
+//   che cambia il valore di `postIsBlacklisted` per quel post.
+//
+//   Le notifiche possono arrivare contemporaneamente da thread diversi (quelli
+//   che invocano `report`, `reportAll` e `register`) e vengono consegnate mentre
+//   il post interessato è bloccato: le implementazioni devono perciò essere
+//   thread-safe e molto rapide.
+public interface BlacklistListener {
+
+    // MODIFIES:
+    //   Dipende dall'implementazione.
+    // EFFECTS:
+    //   Notifica che il post con ID `postId` è appena entrato nella blacklist se
+    //   `blacklisted == true`, oppure che ne è appena uscito se
+    //   `blacklisted == false`.
+    public void blacklistChanged(int postId, boolean blacklisted);
+}
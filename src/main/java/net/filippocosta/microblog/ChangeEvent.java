@@ -0,0 +1,134 @@
+package net.filippocosta.microblog;
+
+// OVERVIEW:
+//   Un evento di modifica di un `SocialNetwork`, consegnato ai `ChangeListener`.
+//   Il tipo di dato astratto è
+//     <kind, username, postId, parentId, target, state, count>
+//   dove `kind` è il tipo di modifica. Il significato degli altri campi
+//   dipende da `kind`:
+//     - `USER_REGISTERED`: `username` è il nuovo utente.
+//     - `POST_CREATED`: `username` ha pubblicato il post `postId`, in risposta
+//       al post `parentId` (`-1` se non è una risposta).
+//     - `POST_DELETED`: il post `postId` di `username` è stato eliminato.
+//     - `LIKE_CHANGED`: `username` ha messo (`state == true`) o tolto
+//       (`state == false`) il like al post `postId`.
+//     - `FOLLOW_CHANGED`: `username` ha iniziato (`state == true`) o smesso
+//       (`state == false`) di seguire `target`.
+//     - `POST_REPORTED`: `username` ha segnalato il post `postId`, che ora ha
+//       `count` segnalazioni.
+//     - `BLACKLIST_CHANGED`: il post `postId` è entrato (`state == true`) o
+//       uscito (`state == false`) dalla blacklist.
+//   I campi non pertinenti valgono `null`, `-1` oppure `false`. Le istanze
+//   sono immutabili.
+public final class ChangeEvent {
+    // AF(e):
+    //   <e.kind, e.username, e.postId, e.parentId, e.target, e.state, e.count>
+    // RI(e):
+    //   e.kind != null
+    //   && (e.kind != BLACKLIST_CHANGED <==> e.username != null)
+    //   && (e.kind == FOLLOW_CHANGED <==> e.target != null)
+
+    // I tipi di modifica.
+    public enum Kind {
+        USER_REGISTERED,
+        POST_CREATED,
+        POST_DELETED,
+        LIKE_CHANGED,
+        FOLLOW_CHANGED,
+        POST_REPORTED,
+        BLACKLIST_CHANGED,
+    }
+
+    private final Kind kind;
+    private final String username;
+    private final int postId;
+    private final int parentId;
+    private final String target;
+    private final boolean state;
+    private final int count;
+
+    private ChangeEvent(Kind kind, String username, int postId, int parentId, String target, boolean state, int count) {
+        this.kind = kind;
+        this.username = username;
+        this.postId = postId;
+        this.parentId = parentId;
+        this.target = target;
+        this.state = state;
+        this.count = count;
+    }
+
+    static ChangeEvent userRegistered(String username) {
+        return new ChangeEvent(Kind.USER_REGISTERED, username, -1, -1, null, false, -1);
+    }
+
+    static ChangeEvent postCreated(Post post) {
+        int parentId = post.getParent() == null ? -1 : post.getParent().getId();
+        return new ChangeEvent(Kind.POST_CREATED, post.getAuthor(), post.getId(), parentId, null, false, -1);
+    }
+
+    static ChangeEvent postDeleted(Post post) {
+        return new ChangeEvent(Kind.POST_DELETED, post.getAuthor(), post.getId(), -1, null, false, -1);
+    }
+
+    static ChangeEvent likeChanged(String username, int postId, boolean liked) {
+        return new ChangeEvent(Kind.LIKE_CHANGED, username, postId, -1, null, liked, -1);
+    }
+
+    static ChangeEvent followChanged(String follower, String followee, boolean following) {
+        return new ChangeEvent(Kind.FOLLOW_CHANGED, follower, -1, -1, followee, following, -1);
+    }
+
+    static ChangeEvent postReported(String username, int postId, int count) {
+        return new ChangeEvent(Kind.POST_REPORTED, username, postId, -1, null, false, count);
+    }
+
+    static ChangeEvent blacklistChanged(int postId, boolean blacklisted) {
+        return new ChangeEvent(Kind.BLACKLIST_CHANGED, null, postId, -1, null, blacklisted, -1);
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    public String getUsername() {
+        return this.username;
+    }
+
+    public int getPostId() {
+        return this.postId;
+    }
+
+    public int getParentId() {
+        return this.parentId;
+    }
+
+    public String getTarget() {
+        return this.target;
+    }
+
+    public boolean getState() {
+        return this.state;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    @Override
+    public String toString() {
+        switch (this.kind) {
+            case USER_REGISTERED:
+                return String.format("%s(%s)", this.kind, this.username);
+            case POST_CREATED:
+                return String.format("%s(%s, %d, %d)", this.kind, this.username, this.postId, this.parentId);
+            case FOLLOW_CHANGED:
+                return String.format("%s(%s, %s, %b)", this.kind, this.username, this.target, this.state);
+            case POST_REPORTED:
+                return String.format("%s(%s, %d, %d)", this.kind, this.username, this.postId, this.count);
+            case BLACKLIST_CHANGED:
+                return String.format("%s(%d, %b)", this.kind, this.postId, this.state);
+            default:
+                return String.format("%s(%s, %d, %b)", this.kind, this.username, this.postId, this.state);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// OVERVIEW:
+//   Il flusso delle modifiche di un `SocialNetwork`: consegna i blocchi di
+//   `ChangeEvent` pubblicati ai `ChangeListener` registrati, in modo sincrono
+//   oppure, tramite una coda e un thread per listener, asincrono.
+//
+//   Finché non ci sono listener `isActive()` restituisce `false` e chi
+//   pubblica può evitare di costruire gli eventi.
+//
+//   Un listener che lancia un'eccezione ha perso un blocco e le strutture che
+//   mantiene non sono più allineate alla rete: l'eccezione viene registrata
+//   nel log e il listener rimosso. Chi ha pubblicato il blocco non la riceve,
+//   dato che la modifica è già stata applicata.
+class ChangeFeed {
+    // AF(c):
+    //   {<s.listener, s.queue != null> | s ∈ c.subscriptions}
+    // RI(c):
+    //   c.subscriptions != null
+    //   && (forall s ∈ c.subscriptions ==> s.listener != null
+    //                                   && (s.queue != null <==> s.thread != null))
+
+    private static final Logger LOGGER = Logger.getLogger(ChangeFeed.class.getName());
+
+    private class Subscription {
+        private final ChangeListener listener;
+        // Coda e thread di consegna, `null` se il listener è sincrono.
+        private final BlockingQueue<ChangeEvent> queue;
+        private final Thread thread;
+
+        private Subscription(final ChangeListener listener, boolean async) {
+            this.listener = listener;
+            if (async) {
+                this.queue = new LinkedBlockingQueue<>();
+                this.thread = new Thread(new Runnable() {
+                    public void run() {
+                        Subscription.this.deliverLoop();
+                    }
+                }, "ChangeFeed");
+                this.thread.setDaemon(true);
+                this.thread.start();
+            } else {
+                this.queue = null;
+                this.thread = null;
+            }
+        }
+
+        private void deliverLoop() {
+            List<ChangeEvent> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(this.queue.take());
+                    this.queue.drainTo(batch);
+                    try {
+                        this.listener.changesPublished(Collections.unmodifiableList(batch));
+                    } catch (RuntimeException e) {
+                        ChangeFeed.this.failed(this, e);
+                        return;
+                    }
+                    batch = new ArrayList<>();
+                }
+            } catch (InterruptedException e) {
+                // Listener rimosso.
+            }
+        }
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se c'è almeno un listener registrato.
+    boolean isActive() {
+        return !this.subscriptions.isEmpty();
+    }
+
+    // REQUIRES:
+    //   `listener != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `listener == null`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Registra `listener`, sincrono se `async == false`, asincrono
+    //   altrimenti.
+    void add(ChangeListener listener, boolean async) throws NullPointerException {
+        if (listener == null) {
+            throw new NullPointerException();
+        }
+        this.subscriptions.add(new Subscription(listener, async));
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Rimuove ogni registrazione di `listener`. Gli eventi non ancora
+    //   consegnati a un listener asincrono vengono scartati.
+    void remove(ChangeListener listener) {
+        for (Subscription subscription : this.subscriptions) {
+            if (subscription.listener == listener) {
+                this.subscriptions.remove(subscription);
+                if (subscription.thread != null) {
+                    subscription.thread.interrupt();
+                }
+            }
+        }
+    }
+
+    // MODIFIES:
+    //   I listener registrati.
+    // EFFECTS:
+    //   Consegna `event` come blocco a sé stante.
+    void publish(ChangeEvent event) {
+        this.publish(Collections.singletonList(event));
+    }
+
+    // REQUIRES:
+    //   `events` non viene più modificato.
+    // MODIFIES:
+    //   I listener registrati.
+    // EFFECTS:
+    //   Consegna il blocco `events` ai listener sincroni e lo accoda per quelli
+    //   asincroni. Un blocco vuoto non viene consegnato. Rimuove i listener
+    //   sincroni che lanciano un'eccezione, senza propagarla.
+    void publish(List<ChangeEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<ChangeEvent> batch = Collections.unmodifiableList(events);
+        for (Subscription subscription : this.subscriptions) {
+            if (subscription.queue == null) {
+                try {
+                    subscription.listener.changesPublished(batch);
+                } catch (RuntimeException e) {
+                    this.failed(subscription, e);
+                }
+            } else {
+                subscription.queue.addAll(events);
+            }
+        }
+    }
+
+    // Registra nel log l'eccezione `e` lanciata dal listener di
+    // `subscription` e rimuove la registrazione.
+    private void failed(Subscription subscription, RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Listener " + subscription.listener + " rimosso dopo un'eccezione", e);
+        this.subscriptions.remove(subscription);
+        if (subscription.thread != null && subscription.thread != Thread.currentThread()) {
+            subscription.thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.filippocosta.microblog;
+
+import java.util.List;
+
+// OVERVIEW:
+//   Un `ChangeListener` riceve le modifiche di un `SocialNetwork` sotto forma
+//   di blocchi di `ChangeEvent`, così da poter aggiornare in modo incrementale
+//   indici, cache e altre strutture derivate senza dover rileggere l'intera
+//   rete. Si registra con `SocialNetwork.addChangeListener`.
+//
+//   Un listener sincrono riceve, nel thread che esegue l'operazione e prima
+//   che questa termini, gli eventi dell'operazione stessa raggruppati in
+//   blocchi (per esempio il like a un post di presentazione e il conseguente
+//   nuovo follower arrivano assieme; i post eliminati da `deletePost` e le
+//   loro uscite dalla blacklist in due blocchi distinti). Le notifiche
+//   possono arrivare contemporaneamente da thread diversi, eventualmente
+//   mentre un post è bloccato: le implementazioni devono essere thread-safe e
+//   molto rapide.
+//
+//   Un listener asincrono riceve le notifiche da un thread dedicato, in
+//   blocchi che raccolgono tutti gli eventi accumulati dalla consegna
+//   precedente, nell'ordine in cui sono stati pubblicati.
+//
+//   Un listener, sincrono o asincrono, che lancia un'eccezione viene rimosso
+//   e l'eccezione registrata nel log; l'operazione che ha prodotto gli
+//   eventi non ne risente.
+public interface ChangeListener {
+
+    // REQUIRES:
+    //   L'implementazione non modifica `events` e non lancia eccezioni.
+    // MODIFIES:
+    //   Dipende dall'implementazione.
+    // EFFECTS:
+    //   Notifica gli eventi `events`, in ordine di pubblicazione.
+    public void changesPublished(List<ChangeEvent> events);
+}
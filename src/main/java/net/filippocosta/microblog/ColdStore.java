@@ -0,0 +1,342 @@
+package net.filippocosta.microblog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// OVERVIEW:
+//   Archivio su disco dei post "freddi" di un `SocialNetwork`, ovvero dei
+//   thread (un post senza genitore e tutte le sue risposte, dirette e
+//   indirette) che nessuno modifica da tempo. Ogni compattazione scrive un
+//   nuovo `PostSegment` immutabile nella cartella dell'archivio. Il tipo di
+//   dato astratto è l'insieme
+//     {post_0, post_1, ... post_n}
+//   dei post archiviati e non ancora scongelati.
+//
+//   L'unità di archiviazione è il thread: i puntatori tra genitore e risposte
+//   restano così all'interno dello heap oppure all'interno dello stesso
+//   segmento. Un thread letto viene decodificato per intero e tenuto in una
+//   cache LRU limitata nel numero di post; i post della cache vanno trattati
+//   in sola lettura. Per modificare un post archiviato il suo thread va prima
+//   scongelato con `thaw`, che lo ricostruisce e lo consegna allo heap: da quel
+//   momento le copie su disco del thread vengono ignorate.
+final class ColdStore implements CheckRep {
+    // AF(c):
+    //   {p | p post di un record di s ∈ c.segments && p.rootId ∉ s.thawed}
+    // RI(c):
+    //   c.directory != null && c.segments != null
+    //   && c.threads != null && c.maxCachedPosts >= 0
+    //   && c.cachedPosts == sum(t.size() | t ∈ c.threads.values())
+    //   && (c.threads.size() <= 1 || c.cachedPosts <= c.maxCachedPosts)
+    //   && (forall r ∈ c.threads.keySet() ==> r ∉ c.find(r).segment.thawed)
+    //   && c.live == #AF(c)
+    //
+    //   Un thread scongelato può essere archiviato di nuovo in un segmento
+    //   successivo: la sua versione corrente è sempre quella del segmento più
+    //   recente che lo contiene, le precedenti sono scongelate.
+
+    // Un segmento e gli ID dei post radice dei suoi thread scongelati.
+    private static final class Segment {
+        private final PostSegment file;
+        private final Set<Integer> thawed = ConcurrentHashMap.newKeySet();
+
+        private Segment(PostSegment file) {
+            this.file = file;
+        }
+    }
+
+    // Il record di un post e il segmento che lo contiene.
+    private static final class Location {
+        private final Segment segment;
+        private final PostSegment.Record record;
+
+        private Location(Segment segment, PostSegment.Record record) {
+            this.segment = segment;
+            this.record = record;
+        }
+
+        private boolean isThawed() {
+            return this.segment.thawed.contains(this.record.rootId);
+        }
+    }
+
+    private final Path directory;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    // Thread decodificati, per ID della radice, in ordine di accesso.
+    private final LinkedHashMap<Integer, Map<Integer, Post>> threads = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxCachedPosts;
+    private int cachedPosts = 0;
+    private int live = 0;
+
+    // REQUIRES:
+    //   `directory != null && maxCachedPosts >= 0`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `directory == null`.
+    //   `IllegalArgumentException` se e solo se `maxCachedPosts < 0`.
+    //   `IOException` se la cartella non può essere creata.
+    // EFFECTS:
+    //   Crea un archivio vuoto nella cartella `directory`, che tiene in memoria
+    //   al più `maxCachedPosts` post decodificati (oltre all'ultimo thread letto).
+    ColdStore(Path directory, int maxCachedPosts) throws NullPointerException, IllegalArgumentException, IOException {
+        if (directory == null) {
+            throw new NullPointerException();
+        } else if (maxCachedPosts < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxCachedPosts = maxCachedPosts;
+    }
+
+    // Il numero di post archiviati e non scongelati.
+    synchronized int size() {
+        return this.live;
+    }
+
+    // REQUIRES:
+    //   `records` contiene thread interi, nessuno dei quali è già archiviato.
+    // THROWS:
+    //   `IOException` se il segmento non può essere scritto.
+    // MODIFIES:
+    //   `this` e il file system.
+    // EFFECTS:
+    //   Scrive `records` in un nuovo segmento, che al ritorno è già su disco.
+    synchronized void archive(List<PostSegment.Record> records) throws IOException {
+        Path file = this.directory.resolve(String.format("segment-%06d.seg", this.segments.size()));
+        this.segments.add(new Segment(PostSegment.write(file, records)));
+        this.live += records.size();
+    }
+
+    // MODIFIES:
+    //   `this` (solo la cache dei thread).
+    // EFFECTS:
+    //   Restituisce il post archiviato con ID `id`, `null` se non esiste o se
+    //   il suo thread è stato scongelato. Il post va trattato in sola lettura.
+    synchronized Post lookup(int id) {
+        Location location = this.find(id);
+        if (location == null || location.isThawed()) {
+            return null;
+        }
+        PostSegment.Record record = location.record;
+        Map<Integer, Post> thread = this.threads.get(record.rootId);
+        if (thread == null) {
+            thread = ColdStore.decode(location.segment.file, record.rootId);
+            this.threads.put(record.rootId, thread);
+            this.cachedPosts += thread.size();
+            this.evict();
+        }
+        return thread.get(id);
+    }
+
+    // REQUIRES:
+    //   `hot` non contiene post del thread di `id`.
+    // MODIFIES:
+    //   `this` e `hot`.
+    // EFFECTS:
+    //   Se `id` è il post di un thread archiviato e non scongelato, aggiunge i
+    //   post del thread a `hot`, segna il thread come scongelato e restituisce
+    //   il post con ID `id`. Restituisce `null` altrimenti.
+    synchronized Post thaw(int id, Map<Integer, Post> hot) {
+        Location location = this.find(id);
+        if (location == null || location.isThawed()) {
+            return null;
+        }
+        PostSegment.Record record = location.record;
+        Map<Integer, Post> thread = this.threads.remove(record.rootId);
+        if (thread != null) {
+            this.cachedPosts -= thread.size();
+        } else {
+            thread = ColdStore.decode(location.segment.file, record.rootId);
+        }
+        // Prima nello heap e poi fuori dall'archivio: una lettura concorrente
+        // vede sempre il thread in almeno uno dei due.
+        hot.putAll(thread);
+        location.segment.thawed.add(record.rootId);
+        this.live -= thread.size();
+        return thread.get(id);
+    }
+
+    // I thread si spostano tra `hot` e l'archivio soltanto detenendo il lock
+    // di `this` (`archive` e `thaw`), e in entrambi i casi il thread è prima
+    // aggiunto alla destinazione e poi tolto dall'origine: leggendo `hot` e
+    // l'elenco dei thread scongelati sotto lo stesso lock ogni post compare
+    // almeno una volta, e i doppioni sono soltanto i thread appena archiviati
+    // e non ancora tolti da `hot`.
+    //
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce un iteratore sui post di `hot` e su quelli archiviati e
+    //   non scongelati, come erano all'istante dell'invocazione, senza
+    //   ripetizioni e in ordine non specificato. I post archiviati vengono
+    //   decodificati senza passare dalla cache, un segmento alla volta e
+    //   soltanto quando l'iterazione li raggiunge; vanno trattati in sola
+    //   lettura.
+    synchronized Iterator<Post> posts(Map<Integer, Post> hot) {
+        final List<Post> heap = new ArrayList<>(hot.values());
+        final Set<Integer> heapIds = new HashSet<>();
+        for (Post post : heap) {
+            heapIds.add(post.getId());
+        }
+        final List<PostSegment> files = new ArrayList<>(this.segments.size());
+        final List<Set<Integer>> thawed = new ArrayList<>(this.segments.size());
+        for (Segment segment : this.segments) {
+            files.add(segment.file);
+            thawed.add(new HashSet<>(segment.thawed));
+        }
+        return new Iterator<Post>() {
+            private final Iterator<Post> hotPosts = heap.iterator();
+            private int segment = 0;
+            private Map<Integer, PostSegment.Record> records = null;
+            private Iterator<Integer> roots = Collections.emptyIterator();
+            private Iterator<Post> thread = Collections.emptyIterator();
+            private Post next = null;
+
+            public boolean hasNext() {
+                while (this.next == null) {
+                    if (this.hotPosts.hasNext()) {
+                        this.next = this.hotPosts.next();
+                    } else if (this.thread.hasNext()) {
+                        this.next = this.thread.next();
+                    } else if (this.roots.hasNext()) {
+                        this.thread = ColdStore.build(this.records, this.roots.next()).values().iterator();
+                    } else if (this.segment < files.size()) {
+                        Set<Integer> skipped = thawed.get(this.segment);
+                        this.records = new HashMap<>();
+                        List<Integer> live = new ArrayList<>();
+                        for (PostSegment.Record record : ColdStore.readAll(files.get(this.segment))) {
+                            this.records.put(record.id, record);
+                            if (record.id == record.rootId && !skipped.contains(record.id) && !heapIds.contains(record.id)) {
+                                live.add(record.id);
+                            }
+                        }
+                        this.roots = live.iterator();
+                        this.segment++;
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public Post next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Post post = this.next;
+                this.next = null;
+                return post;
+            }
+        };
+    }
+
+    public synchronized boolean checkRep() {
+        boolean ri = this.directory != null && this.maxCachedPosts >= 0;
+        int cached = 0;
+        for (Map.Entry<Integer, Map<Integer, Post>> entry : this.threads.entrySet()) {
+            cached += entry.getValue().size();
+            Location location = this.find(entry.getKey());
+            ri = ri && location != null && !location.isThawed();
+        }
+        for (Segment segment : this.segments) {
+            ri = ri && segment.file.checkRep();
+        }
+        return ri
+            && cached == this.cachedPosts
+            && (this.threads.size() <= 1 || cached <= this.maxCachedPosts)
+            && ColdStore.count(this.posts(Collections.<Integer, Post>emptyMap())) == this.live;
+    }
+
+    // Il record del post `id` nel segmento più recente che lo contiene.
+    private Location find(int id) {
+        for (int i = this.segments.size() - 1; i >= 0; i--) {
+            Segment segment = this.segments.get(i);
+            if (segment.file.mightContain(id)) {
+                try {
+                    PostSegment.Record record = segment.file.read(id);
+                    if (record != null) {
+                        return new Location(segment, record);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Decodifica il thread con radice `rootId` di `segment`.
+    private static Map<Integer, Post> decode(PostSegment segment, int rootId) {
+        Map<Integer, PostSegment.Record> records = new HashMap<>();
+        List<Integer> pending = new ArrayList<>();
+        pending.add(rootId);
+        while (!pending.isEmpty()) {
+            PostSegment.Record record;
+            try {
+                record = segment.read(pending.remove(pending.size() - 1));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            records.put(record.id, record);
+            for (int reply : record.replyIds) {
+                pending.add(reply);
+            }
+        }
+        return ColdStore.build(records, rootId);
+    }
+
+    // Ricostruisce il thread con radice `rootId` a partire da `records`,
+    // rispettando l'ordine originale delle risposte.
+    private static Map<Integer, Post> build(Map<Integer, PostSegment.Record> records, int rootId) {
+        Map<Integer, Post> thread = new LinkedHashMap<>();
+        List<PostSegment.Record> stack = new ArrayList<>();
+        stack.add(records.get(rootId));
+        while (!stack.isEmpty()) {
+            PostSegment.Record record = stack.remove(stack.size() - 1);
+            Post post = Post.restore(record.id, record.author, record.text, record.timestamp,
+                                     record.replyRestriction, thread.get(record.parentId), record.likes);
+            thread.put(post.getId(), post);
+            for (int i = record.replyIds.length - 1; i >= 0; i--) {
+                stack.add(records.get(record.replyIds[i]));
+            }
+        }
+        return thread;
+    }
+
+    private static int count(Iterator<Post> posts) {
+        int count = 0;
+        while (posts.hasNext()) {
+            posts.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static List<PostSegment.Record> readAll(PostSegment segment) {
+        try {
+            return segment.readAll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map<Integer, Post>> eldest = this.threads.values().iterator();
+        while (this.threads.size() > 1 && this.cachedPosts > this.maxCachedPosts) {
+            this.cachedPosts -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+}
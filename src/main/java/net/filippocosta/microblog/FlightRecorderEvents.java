@@ -0,0 +1,136 @@
+package net.filippocosta.microblog;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// OVERVIEW:
+//   Questa classe raccoglie gli eventi JDK Flight Recorder (JFR) emessi dai
+//   percorsi più frequentati di MicroBlog. Ogni evento misura la durata
+//   dell'operazione (tra `begin` e `commit`) e ne riporta i parametri salienti,
+//   così da poter correlare i picchi di latenza con specifici utenti, post o
+//   thread senza dover collegare un profiler.
+//
+//   Gli eventi vanno usati secondo lo schema
+//
+//     FlightRecorderEvents.WritePost event = new FlightRecorderEvents.WritePost();
+//     event.begin();
+//     ...
+//     if (event.shouldCommit()) {
+//         event.postId = ...;
+//         event.commit();
+//     }
+//
+//   Quando JFR non sta registrando, `shouldCommit` restituisce `false` e
+//   l'oggetto evento viene in genere eliminato dal compilatore JIT (escape
+//   analysis): il costo si riduce a poche istruzioni. I campi vanno valorizzati
+//   soltanto dentro il blocco `if`, per non pagare nemmeno il loro calcolo.
+//
+//   Tutti gli eventi appartengono alla categoria "MicroBlog" e non registrano lo
+//   stack trace, che raramente serve e costerebbe molto su percorsi così
+//   frequentati.
+final class FlightRecorderEvents {
+    // Questa classe non contiene alcuno stato interno e nessun costruttore
+    // pubblico. Ciò rende superfluo la descrizione di AF e RI.
+
+    private FlightRecorderEvents() {}
+
+    @Name("net.filippocosta.microblog.WritePost")
+    @Label("Write Post")
+    @Description("Pubblicazione di un post con SocialNetwork.writePost")
+    @Category("MicroBlog")
+    @StackTrace(false)
+    static final class WritePost extends Event {
+        @Label("Post ID")
+        int postId;
+        @Label("Author")
+        String author;
+        @Label("Parent ID")
+        @Description("ID del post a cui si risponde, -1 se assente")
+        int parentId;
+        @Label("Text Length")
+        int textLength;
+    }
+
+    @Name("net.filippocosta.microblog.Like")
+    @Label("Like")
+    @Description("Like o dislike con SocialNetwork.like e SocialNetwork.dislike")
+    @Category("MicroBlog")
+    @StackTrace(false)
+    static final class Like extends Event {
+        @Label("Post ID")
+        int postId;
+        @Label("Username")
+        String username;
+        @Label("Like")
+        @Description("true per like, false per dislike")
+        boolean like;
+        @Label("Follow Changed")
+        @Description("true se l'operazione ha modificato il grafo dei follower")
+        boolean followChanged;
+    }
+
+    @Name("net.filippocosta.microblog.Containing")
+    @Label("Containing")
+    @Description("Ricerca di post con SocialNetwork.containing")
+    @Category("MicroBlog")
+    @StackTrace(false)
+    static final class Containing extends Event {
+        @Label("Terms")
+        int terms;
+        @Label("Posts Scanned")
+        int postsScanned;
+        @Label("Result Size")
+        int resultSize;
+        @Label("Cached")
+        @Description("Risultato letto dalla cache, senza scandire i post")
+        boolean cached;
+    }
+
+    @Name("net.filippocosta.microblog.DeepCopy")
+    @Label("Deep Copy")
+    @Description("Copia profonda di un post con Post.deepCopy")
+    @Category("MicroBlog")
+    @StackTrace(false)
+    static final class DeepCopy extends Event {
+        @Label("Post ID")
+        int postId;
+        @Label("Author")
+        String author;
+        @Label("Posts Copied")
+        @Description("Numero di post copiati, risposte incluse")
+        int postsCopied;
+    }
+
+    @Name("net.filippocosta.microblog.Report")
+    @Label("Report")
+    @Description("Segnalazione di un post con SocialNetworkWithReports.report")
+    @Category("MicroBlog")
+    @StackTrace(false)
+    static final class Report extends Event {
+        @Label("Post ID")
+        int postId;
+        @Label("Username")
+        String username;
+        @Label("Accepted")
+        @Description("false se la segnalazione non è valida")
+        boolean accepted;
+        @Label("Report Count")
+        int reportCount;
+        @Label("Blacklisted")
+        boolean blacklisted;
+    }
+
+    @Name("net.filippocosta.microblog.Blacklist")
+    @Label("Blacklist")
+    @Description("Calcolo della blacklist con SocialNetworkWithReports.blacklist")
+    @Category("MicroBlog")
+    @StackTrace(false)
+    static final class Blacklist extends Event {
+        @Label("Result Size")
+        int resultSize;
+    }
+}
@@ -0,0 +1,369 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// OVERVIEW:
+//   Una classifica dei post "caldi" di un `SocialNetwork`, globale e per
+//   hashtag. Il punteggio di un post `p` all'istante `t` è
+//     (1 + |p.getLikes()| + REPLY_WEIGHT * p.totalReplies()) * 2^(-(t - p.getTimestamp()) / halfLife)
+//   e la classifica restituisce i post in ordine di punteggio decrescente (a
+//   parità di punteggio, dal più recente). Il tipo di dato astratto è la
+//   funzione
+//     top: <hashtag, n> -> [post_0, ... post_j]
+//   con `j < n`, sui post di `network` che contengono `hashtag` (tutti se
+//   `hashtag == null`).
+//
+//   Il punteggio decade nel tempo, ma l'ordine tra due post no: il fattore
+//   `2^(-t / halfLife)` è comune a tutti. Ogni post viene quindi ordinato per
+//   il logaritmo del punteggio all'istante `0`,
+//     ln(1 + likes + REPLY_WEIGHT * replies) + ln(2) * timestamp / halfLife
+//   che non cambia col passare del tempo: nessun punteggio va mai
+//   riscalato, e il punteggio a `t` si ottiene sottraendo `ln(2) * t / halfLife`
+//   soltanto quando serve. Lavorando nello spazio dei logaritmi i valori non
+//   traboccano anche per post vecchi di anni.
+//
+//   La classifica si mantiene aggiornata tramite un `ChangeListener` sincrono
+//   registrato su `network`: un like, un dislike o una risposta cambiano il
+//   punteggio del post e, per le risposte, di tutti i suoi antenati, che
+//   vengono riposizionati negli insiemi ordinati della classifica globale e
+//   dei loro hashtag in tempo logaritmico. I primi `n` post sono i primi `n`
+//   elementi di questi insiemi. Le interrogazioni possono essere eseguite da
+//   più thread contemporaneamente, anche durante le modifiche di `network`.
+class HotRanking implements CheckRep, AutoCloseable {
+    // AF(c):
+    //   La funzione `top` descritta sopra sui post di `c.network`.
+    // RI(c):
+    //   c.network != null && c.halfLifeMillis > 0
+    //   && c.ranking.size() == c.entries.size()
+    //   && (forall <k, e> ∈ c.entries
+    //       ==> e.id == k
+    //        && c.ranking.contains(e)
+    //        && e.key == HotRanking.key(e.likes, e.replies, e.timestamp, c.halfLifeMillis)
+    //        && (forall h ∈ e.hashtags ==> c.byHashtag.get(h).contains(e)))
+    //   && (forall <h, s> ∈ c.byHashtag
+    //       ==> !s.isEmpty() && (forall e ∈ s ==> c.entries.get(e.id) == e))
+    //   && c.entries.keySet() == {id | id ∈ c.network.postIds()}
+    //   && (forall id ∈ c.network.postIds()
+    //       ==> c.entries.get(id).likes == c.network.peekPost(id).getLikes().size()
+    //        && c.entries.get(id).replies == c.network.countReplies(id))
+
+    // Peso di una risposta rispetto a un like: rispondere costa più fatica.
+    static final double REPLY_WEIGHT = 2.0;
+    private static final double LN_2 = Math.log(2);
+
+    // Lo stato di un post nella classifica. `key` cambia solo mentre l'entry
+    // è fuori dagli insiemi ordinati.
+    private static final class Entry implements Comparable<Entry> {
+        private final int id;
+        // L'ID del genitore, `-1` se il post non è una risposta.
+        private final int parentId;
+        private final long timestamp;
+        // Gli hashtag del post, in minuscolo e senza ripetizioni.
+        private final String[] hashtags;
+        private int likes = 0;
+        private int replies = 0;
+        private double key;
+
+        private Entry(int id, int parentId, long timestamp, String[] hashtags) {
+            this.id = id;
+            this.parentId = parentId;
+            this.timestamp = timestamp;
+            this.hashtags = hashtags;
+        }
+
+        // In ordine decrescente di chiave e poi di ID.
+        public int compareTo(Entry other) {
+            int cmp = Double.compare(other.key, this.key);
+            return cmp != 0 ? cmp : Integer.compare(other.id, this.id);
+        }
+    }
+
+    private final SocialNetwork network;
+    private final long halfLifeMillis;
+    private final ChangeListener listener;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final NavigableSet<Entry> ranking = new TreeSet<>();
+    private final Map<String, NavigableSet<Entry>> byHashtag = new HashMap<>();
+
+    // REQUIRES:
+    //   `network != null && halfLifeMillis > 0`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `network == null`.
+    //   `IllegalArgumentException` se e solo se `halfLifeMillis <= 0`.
+    // MODIFIES:
+    //   `network`.
+    // EFFECTS:
+    //   Classifica i post di `network`, con punteggi che si dimezzano ogni
+    //   `halfLifeMillis` millisecondi, e restituisce una classifica che resta
+    //   aggiornata finché non viene chiusa con `close`.
+    HotRanking(SocialNetwork network, long halfLifeMillis) throws NullPointerException, IllegalArgumentException {
+        if (network == null) {
+            throw new NullPointerException();
+        } else if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.network = network;
+        this.halfLifeMillis = halfLifeMillis;
+        this.listener = new ChangeListener() {
+            public void changesPublished(List<ChangeEvent> events) {
+                HotRanking.this.apply(events);
+            }
+        };
+        this.lock.writeLock().lock();
+        try {
+            // Prima il listener, poi i post già presenti: `add` ignora i post
+            // aggiunti due volte. In ordine di ID ogni genitore precede le
+            // proprie risposte.
+            network.addChangeListener(this.listener, false);
+            List<Integer> ids = new ArrayList<>();
+            Iterator<Integer> iterator = network.postIds();
+            while (iterator.hasNext()) {
+                ids.add(iterator.next());
+            }
+            Collections.sort(ids);
+            for (int id : ids) {
+                Post post = network.peekPost(id);
+                if (post != null) {
+                    this.add(post);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Smette di seguire le modifiche di `network`.
+    public void close() {
+        this.network.removeChangeListener(this.listener);
+    }
+
+    // REQUIRES:
+    //   `n >= 1`.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se `n < 1`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce gli ID dei (al più) `n` post con il punteggio più alto tra
+    //   quelli con l'hashtag `hashtag` (senza `#`, senza distinzione tra
+    //   maiuscole e minuscole), oppure tra tutti se `hashtag == null`, in
+    //   ordine di punteggio decrescente. Il costo è proporzionale a `n`.
+    List<Integer> topIds(String hashtag, int n) throws IllegalArgumentException {
+        if (n < 1) {
+            throw new IllegalArgumentException();
+        }
+        List<Integer> ids = new ArrayList<>(Math.min(n, 64));
+        this.lock.readLock().lock();
+        try {
+            NavigableSet<Entry> ranking = hashtag == null
+                                        ? this.ranking
+                                        : this.byHashtag.get(hashtag.toLowerCase(Locale.ROOT));
+            if (ranking != null) {
+                Iterator<Entry> iterator = ranking.iterator();
+                while (iterator.hasNext() && ids.size() < n) {
+                    ids.add(iterator.next().id);
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return ids;
+    }
+
+    // Come `topIds`, ma restituisce le copie dei post.
+    List<Post> top(String hashtag, int n) throws IllegalArgumentException {
+        List<Post> posts = new ArrayList<>();
+        for (int id : this.topIds(hashtag, n)) {
+            Post post = this.network.peekPost(id);
+            if (post != null) {
+                posts.add(post.deepCopy());
+            }
+        }
+        return posts;
+    }
+
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se il post non è in classifica.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il punteggio del post con ID `id` all'istante `nowMillis`.
+    double score(int id, long nowMillis) throws IllegalArgumentException {
+        this.lock.readLock().lock();
+        try {
+            Entry entry = this.entries.get(id);
+            if (entry == null) {
+                throw new IllegalArgumentException();
+            }
+            return Math.exp(entry.key - LN_2 * nowMillis / this.halfLifeMillis);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public boolean checkRep() {
+        this.lock.readLock().lock();
+        try {
+            boolean ri = this.halfLifeMillis > 0 && this.ranking.size() == this.entries.size();
+            for (Map.Entry<Integer, Entry> pair : this.entries.entrySet()) {
+                Entry entry = pair.getValue();
+                ri = ri
+                  && entry.id == pair.getKey()
+                  && this.ranking.contains(entry)
+                  && entry.key == HotRanking.key(entry.likes, entry.replies, entry.timestamp, this.halfLifeMillis);
+                for (String hashtag : entry.hashtags) {
+                    NavigableSet<Entry> ranking = this.byHashtag.get(hashtag);
+                    ri = ri && ranking != null && ranking.contains(entry);
+                }
+            }
+            for (NavigableSet<Entry> ranking : this.byHashtag.values()) {
+                ri = ri && !ranking.isEmpty();
+                for (Entry entry : ranking) {
+                    ri = ri && this.entries.get(entry.id) == entry;
+                }
+            }
+            int posts = 0;
+            Iterator<Integer> iterator = this.network.postIds();
+            while (iterator.hasNext()) {
+                int id = iterator.next();
+                Post post = this.network.peekPost(id);
+                Entry entry = this.entries.get(id);
+                ri = ri
+                  && post != null
+                  && entry != null
+                  && entry.likes == post.getLikes().size()
+                  && entry.replies == this.network.countReplies(id);
+                posts++;
+            }
+            ri = ri && posts == this.entries.size();
+            return ri;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Il logaritmo del punteggio all'istante `0` di un post con `likes` like e
+    // `replies` risposte pubblicato all'istante `timestamp`.
+    private static double key(int likes, int replies, long timestamp, long halfLifeMillis) {
+        return Math.log(1 + likes + REPLY_WEIGHT * replies) + LN_2 * timestamp / halfLifeMillis;
+    }
+
+    // Aggiorna la classifica a fronte delle modifiche di `network`.
+    private void apply(List<ChangeEvent> events) {
+        this.lock.writeLock().lock();
+        try {
+            for (ChangeEvent event : events) {
+                switch (event.getKind()) {
+                    case POST_CREATED:
+                        Post post = this.network.peekPost(event.getPostId());
+                        if (post != null) {
+                            this.add(post);
+                        }
+                        break;
+                    case POST_DELETED:
+                        this.remove(event.getPostId());
+                        break;
+                    case LIKE_CHANGED:
+                        Entry entry = this.entries.get(event.getPostId());
+                        if (entry != null) {
+                            this.update(entry, event.getState() ? 1 : -1, 0);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // Aggiunge `post` alla classifica, come nuova risposta dei suoi antenati.
+    // Va invocato detenendo il lock di scrittura.
+    private void add(Post post) {
+        if (this.entries.containsKey(post.getId())) {
+            return;
+        }
+        Set<String> hashtags = new HashSet<>();
+        for (String hashtag : post.getHashtags()) {
+            hashtags.add(hashtag.toLowerCase(Locale.ROOT));
+        }
+        Entry entry = new Entry(post.getId(),
+                                post.getParent() == null ? -1 : post.getParent().getId(),
+                                post.getTimestamp().toEpochMilli(),
+                                hashtags.toArray(new String[0]));
+        entry.likes = post.getLikes().size();
+        entry.key = HotRanking.key(entry.likes, 0, entry.timestamp, this.halfLifeMillis);
+        this.entries.put(entry.id, entry);
+        this.insert(entry);
+        for (Entry ancestor = this.entries.get(entry.parentId); ancestor != null; ancestor = this.entries.get(ancestor.parentId)) {
+            this.update(ancestor, 0, 1);
+        }
+    }
+
+    // Rimuove il post con ID `id` dalla classifica. I post eliminati assieme
+    // arrivano in visita anticipata: soltanto il primo, il cui genitore è
+    // ancora in classifica, toglie le risposte ai propri antenati, per tutto il
+    // proprio sottoalbero. Va invocato detenendo il lock di scrittura.
+    private void remove(int id) {
+        Entry entry = this.entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        this.extract(entry);
+        for (Entry ancestor = this.entries.get(entry.parentId); ancestor != null; ancestor = this.entries.get(ancestor.parentId)) {
+            this.update(ancestor, 0, -(entry.replies + 1));
+        }
+        // Le risposte di `entry` non devono toccare di nuovo gli antenati.
+        entry.replies = 0;
+    }
+
+    // Aggiunge `likes` like e `replies` risposte a `entry` e la riposiziona.
+    private void update(Entry entry, int likes, int replies) {
+        this.extract(entry);
+        entry.likes += likes;
+        entry.replies += replies;
+        entry.key = HotRanking.key(entry.likes, entry.replies, entry.timestamp, this.halfLifeMillis);
+        this.insert(entry);
+    }
+
+    private void insert(Entry entry) {
+        this.ranking.add(entry);
+        for (String hashtag : entry.hashtags) {
+            NavigableSet<Entry> ranking = this.byHashtag.get(hashtag);
+            if (ranking == null) {
+                ranking = new TreeSet<>();
+                this.byHashtag.put(hashtag, ranking);
+            }
+            ranking.add(entry);
+        }
+    }
+
+    private void extract(Entry entry) {
+        this.ranking.remove(entry);
+        for (String hashtag : entry.hashtags) {
+            NavigableSet<Entry> ranking = this.byHashtag.get(hashtag);
+            if (ranking != null) {
+                ranking.remove(entry);
+                if (ranking.isEmpty()) {
+                    this.byHashtag.remove(hashtag);
+                }
+            }
+        }
+    }
+}
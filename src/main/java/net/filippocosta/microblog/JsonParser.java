@@ -0,0 +1,222 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// OVERVIEW:
+//   Analizzatore dei documenti JSON ricevuti da `MicroBlogServer`, che sono
+//   piccoli (un post è al più `Post.MAX_LENGTH` caratteri): il documento
+//   viene convertito per intero in oggetti Java,
+//     - oggetto: `Map<String, Object>` (nell'ordine del documento);
+//     - array: `List<Object>`;
+//     - stringa: `String`;
+//     - numero: `Long` se intero, `Double` altrimenti;
+//     - `true` e `false`: `Boolean`;
+//     - `null`: `null`.
+//
+//   L'analisi è ricorsiva: oggetti e array possono essere annidati al più
+//   `MAX_DEPTH` livelli, così che un corpo di sole parentesi aperte non
+//   esaurisca lo stack del thread che lo analizza.
+final class JsonParser {
+    // Profondità massima di annidamento di oggetti e array.
+    static final int MAX_DEPTH = 64;
+
+    private final String json;
+    private int position = 0;
+    private int depth = 0;
+
+    private JsonParser(String json) {
+        this.json = json;
+    }
+
+    // REQUIRES:
+    //   `json != null` ed è un documento JSON valido.
+    // THROWS:
+    //   `NullPointerException` se e solo se `json == null`.
+    //   `IllegalArgumentException` se e solo se `json` non è un documento
+    //   JSON valido oppure annida oggetti e array oltre `MAX_DEPTH` livelli.
+    // EFFECTS:
+    //   Restituisce il valore descritto da `json`.
+    static Object parse(String json) throws NullPointerException, IllegalArgumentException {
+        if (json == null) {
+            throw new NullPointerException();
+        }
+        JsonParser parser = new JsonParser(json);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.position != json.length()) {
+            throw parser.error();
+        }
+        return value;
+    }
+
+    private Object value() throws IllegalArgumentException {
+        this.skipWhitespace();
+        if (this.position == this.json.length()) {
+            throw this.error();
+        }
+        char c = this.json.charAt(this.position);
+        if (c == '{' || c == '[') {
+            if (this.depth == MAX_DEPTH) {
+                throw new IllegalArgumentException("JSON annidato oltre " + MAX_DEPTH + " livelli");
+            }
+            this.depth++;
+            Object value = c == '{' ? this.object() : this.array();
+            this.depth--;
+            return value;
+        } else if (c == '"') {
+            return this.string();
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            return this.number();
+        } else if (this.json.startsWith("true", this.position)) {
+            this.position += 4;
+            return Boolean.TRUE;
+        } else if (this.json.startsWith("false", this.position)) {
+            this.position += 5;
+            return Boolean.FALSE;
+        } else if (this.json.startsWith("null", this.position)) {
+            this.position += 4;
+            return null;
+        }
+        throw this.error();
+    }
+
+    private Map<String, Object> object() throws IllegalArgumentException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        this.position++;
+        if (this.consume('}')) {
+            return object;
+        }
+        do {
+            this.skipWhitespace();
+            if (this.position == this.json.length() || this.json.charAt(this.position) != '"') {
+                throw this.error();
+            }
+            String name = this.string();
+            if (!this.consume(':')) {
+                throw this.error();
+            }
+            object.put(name, this.value());
+        } while (this.consume(','));
+        if (!this.consume('}')) {
+            throw this.error();
+        }
+        return object;
+    }
+
+    private List<Object> array() throws IllegalArgumentException {
+        List<Object> array = new ArrayList<>();
+        this.position++;
+        if (this.consume(']')) {
+            return array;
+        }
+        do {
+            array.add(this.value());
+        } while (this.consume(','));
+        if (!this.consume(']')) {
+            throw this.error();
+        }
+        return array;
+    }
+
+    private String string() throws IllegalArgumentException {
+        StringBuilder s = new StringBuilder();
+        this.position++;
+        while (this.position < this.json.length()) {
+            char c = this.json.charAt(this.position++);
+            if (c == '"') {
+                return s.toString();
+            } else if (c < 0x20) {
+                throw this.error();
+            } else if (c != '\\') {
+                s.append(c);
+                continue;
+            } else if (this.position == this.json.length()) {
+                break;
+            }
+            char escape = this.json.charAt(this.position++);
+            switch (escape) {
+                case '"':
+                case '\\':
+                case '/':
+                    s.append(escape);
+                    break;
+                case 'b':
+                    s.append('\b');
+                    break;
+                case 'f':
+                    s.append('\f');
+                    break;
+                case 'n':
+                    s.append('\n');
+                    break;
+                case 'r':
+                    s.append('\r');
+                    break;
+                case 't':
+                    s.append('\t');
+                    break;
+                case 'u':
+                    if (this.position + 4 > this.json.length()) {
+                        throw this.error();
+                    }
+                    try {
+                        s.append((char) Integer.parseInt(this.json.substring(this.position, this.position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw this.error();
+                    }
+                    this.position += 4;
+                    break;
+                default:
+                    throw this.error();
+            }
+        }
+        throw this.error();
+    }
+
+    private Object number() throws IllegalArgumentException {
+        int start = this.position;
+        boolean integer = true;
+        while (this.position < this.json.length()) {
+            char c = this.json.charAt(this.position);
+            if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+                integer = false;
+            } else if (c != '-' && (c < '0' || c > '9')) {
+                break;
+            }
+            this.position++;
+        }
+        String number = this.json.substring(start, this.position);
+        try {
+            return integer ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw this.error();
+        }
+    }
+
+    // Salta gli spazi e consuma `c`, se è il carattere successivo.
+    private boolean consume(char c) {
+        this.skipWhitespace();
+        if (this.position < this.json.length() && this.json.charAt(this.position) == c) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.json.length()) {
+            char c = this.json.charAt(this.position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            this.position++;
+        }
+    }
+
+    private IllegalArgumentException error() {
+        return new IllegalArgumentException("JSON non valido alla posizione " + this.position);
+    }
+}
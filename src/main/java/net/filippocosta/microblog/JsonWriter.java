@@ -0,0 +1,156 @@
+package net.filippocosta.microblog;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+// OVERVIEW:
+//   Scrittore di JSON in streaming: i valori vengono scritti direttamente su
+//   un `Writer` man mano che sono prodotti, senza costruire in memoria né
+//   l'albero del documento né la stringa risultante. Virgole e due punti sono
+//   inseriti automaticamente; è compito del chiamante aprire e chiudere
+//   oggetti e array in modo bilanciato e far precedere da `name` ogni valore
+//   di un oggetto.
+final class JsonWriter implements Flushable {
+    // AF(w):
+    //   Il documento JSON scritto finora su `w.out`.
+    // RI(w):
+    //   w.out != null && 0 <= w.depth < w.written.length
+
+    private final Writer out;
+    // Per ogni livello di annidamento, se vi è già stato scritto un elemento.
+    private boolean[] written = new boolean[8];
+    private int depth = 0;
+    // Se l'ultimo elemento scritto è il nome di un campo.
+    private boolean afterName = false;
+
+    // REQUIRES:
+    //   `out != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `out == null`.
+    // EFFECTS:
+    //   Restituisce uno scrittore di JSON su `out`.
+    JsonWriter(Writer out) throws NullPointerException {
+        if (out == null) {
+            throw new NullPointerException();
+        }
+        this.out = out;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        this.separate();
+        this.out.write('{');
+        this.push();
+        return this;
+    }
+
+    JsonWriter endObject() throws IOException {
+        this.depth--;
+        this.out.write('}');
+        return this;
+    }
+
+    JsonWriter beginArray() throws IOException {
+        this.separate();
+        this.out.write('[');
+        this.push();
+        return this;
+    }
+
+    JsonWriter endArray() throws IOException {
+        this.depth--;
+        this.out.write(']');
+        return this;
+    }
+
+    // Scrive il nome del prossimo campo dell'oggetto corrente.
+    JsonWriter name(String name) throws IOException {
+        this.separate();
+        this.string(name);
+        this.out.write(':');
+        this.afterName = true;
+        return this;
+    }
+
+    // Scrive la stringa `value`, oppure `null` se `value == null`.
+    JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return this.nullValue();
+        }
+        this.separate();
+        this.string(value);
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        this.separate();
+        this.out.write(Long.toString(value));
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        this.separate();
+        this.out.write(value ? "true" : "false");
+        return this;
+    }
+
+    JsonWriter nullValue() throws IOException {
+        this.separate();
+        this.out.write("null");
+        return this;
+    }
+
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    // Scrive la virgola che separa un elemento dal precedente, se serve.
+    private void separate() throws IOException {
+        if (this.afterName) {
+            this.afterName = false;
+            return;
+        }
+        if (this.written[this.depth]) {
+            this.out.write(',');
+        }
+        this.written[this.depth] = true;
+    }
+
+    private void push() {
+        this.depth++;
+        if (this.depth == this.written.length) {
+            this.written = Arrays.copyOf(this.written, 2 * this.written.length);
+        }
+        this.written[this.depth] = false;
+    }
+
+    private void string(String s) throws IOException {
+        this.out.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            this.out.write(s, start, i - start);
+            this.out.write(escape);
+            start = i + 1;
+        }
+        this.out.write(s, start, s.length() - start);
+        this.out.write('"');
+    }
+}
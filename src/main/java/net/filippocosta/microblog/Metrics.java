@@ -0,0 +1,320 @@
+package net.filippocosta.microblog;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// OVERVIEW:
+//   Raccoglie le metriche di un'istanza di `SocialNetwork`: per ogni operazione
+//   pubblica (vedi `Operation`) il numero di invocazioni e un istogramma delle
+//   latenze; inoltre espone come "gauge" le dimensioni delle strutture dati
+//   interne del social network. Le metriche sono consultabili tramite JMX
+//   (`register`) oppure come testo (`dump`).
+//
+//   La raccolta è disattivata di default. Da disattivata, il costo di una
+//   misurazione si riduce alla lettura di un campo `volatile` all'inizio e di
+//   un confronto alla fine. Da attivata, viene misurata soltanto l'invocazione
+//   più esterna di ciascun thread: se un'operazione ne invoca un'altra (per
+//   esempio `blacklist` invoca `getPostById`) viene contata solo la prima.
+//
+//   Gli istogrammi sono log-lineari: ogni potenza di due è suddivisa in
+//   `SUB_BUCKETS` intervalli uguali, il che garantisce un errore relativo
+//   inferiore a `1 / SUB_BUCKETS` senza alcuna allocazione per misurazione.
+final class Metrics implements MetricsMXBean {
+    // AF(m):
+    //   <m.enabled,
+    //    {<op, m.counts[op.ordinal()].sum(), m.latencies[op.ordinal()]> | op ∈ Operation},
+    //    m.network.getStructureSizes()>
+    // RI(m):
+    //   m.network != null
+    //   && m.counts != null && m.counts.length == Operation.values().length
+    //   && m.totalLatencies != null && m.totalLatencies.length == m.counts.length
+    //   && m.latencies != null && m.latencies.length == m.counts.length
+    //   && (forall i | 0 <= i < m.latencies.length
+    //       ==> m.latencies[i] != null && m.latencies[i].length() == BUCKETS)
+
+    // OVERVIEW:
+    //   Le operazioni misurate. Il tipo di dato astratto associato è l'insieme
+    //   delle costanti elencate.
+    public enum Operation {
+        // AF(o):
+        //   Non necessaria perchè tipo di dato concreto e astratto coincidono.
+        // RI(o):
+        //   true
+
+        REGISTER,
+        WRITE_POST,
+        DELETE_POST,
+        LIKE,
+        DISLIKE,
+        GET_POSTS,
+        GET_POSTS_BY_ID,
+        GET_POST_BY_ID,
+        GET_USERS,
+        COMPLETE_USERNAME,
+        GET_FOLLOWERS,
+        GET_FOLLOWEES,
+        GET_MENTIONED_USERS,
+        GET_PRESENTATION_POST,
+        USER_EXISTS,
+        WRITTEN_BY,
+        POSTS_BETWEEN,
+        GET_THREAD,
+        COUNT_REPLIES,
+        CONTAINING,
+        INFLUENCERS,
+        REPORT,
+        REPORT_ALL,
+        POST_IS_BLACKLISTED,
+        BLACKLIST,
+    }
+
+    // Numero di intervalli in cui è suddivisa ogni potenza di due.
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    // Valore restituito da `start` quando la raccolta è disattivata.
+    private static final long DISABLED = 0;
+    // Valore restituito da `start` per le invocazioni annidate.
+    private static final long NESTED = Long.MIN_VALUE;
+
+    private final SocialNetwork network;
+    private volatile boolean enabled = false;
+    private final LongAdder[] counts;
+    private final LongAdder[] totalLatencies;
+    private final AtomicLongArray[] latencies;
+    // Profondità di annidamento delle operazioni misurate, per thread.
+    private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    // REQUIRES:
+    //   `network != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `network == null`.
+    // EFFECTS:
+    //   Restituisce un nuovo raccoglitore di metriche, disattivato, per
+    //   `network`.
+    Metrics(SocialNetwork network) throws NullPointerException {
+        if (network == null) {
+            throw new NullPointerException();
+        }
+        this.network = network;
+        int n = Operation.values().length;
+        this.counts = new LongAdder[n];
+        this.totalLatencies = new LongAdder[n];
+        this.latencies = new AtomicLongArray[n];
+        for (int i = 0; i < n; i++) {
+            this.counts[i] = new LongAdder();
+            this.totalLatencies[i] = new LongAdder();
+            this.latencies[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    // Inizia la misurazione di un'operazione. Il valore restituito va passato
+    // a `stop`, tipicamente in un blocco `finally`.
+    long start() {
+        if (!this.enabled) {
+            return DISABLED;
+        }
+        int[] depth = this.depth.get();
+        depth[0]++;
+        return depth[0] == 1 ? System.nanoTime() : NESTED;
+    }
+
+    // Conclude la misurazione di `operation` iniziata con il valore `start`
+    // restituito da `start()`.
+    void stop(Operation operation, long start) {
+        if (start == DISABLED) {
+            return;
+        }
+        this.depth.get()[0]--;
+        if (start == NESTED) {
+            return;
+        }
+        long elapsed = java.lang.Math.max(0, System.nanoTime() - start);
+        int i = operation.ordinal();
+        this.counts[i].increment();
+        this.totalLatencies[i].add(elapsed);
+        this.latencies[i].incrementAndGet(Metrics.bucketOf(elapsed));
+    }
+
+    // REQUIRES:
+    //   `name != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `name == null`.
+    //   `IllegalStateException` se la registrazione fallisce, per esempio
+    //   perché esiste già un MBean con lo stesso nome.
+    // MODIFIES:
+    //   Il server MBean della piattaforma.
+    // EFFECTS:
+    //   Registra `this` sul server MBean della piattaforma con nome
+    //   "net.filippocosta.microblog:type=SocialNetwork,name=`name`" e
+    //   restituisce tale nome.
+    public ObjectName register(String name) throws NullPointerException, IllegalStateException {
+        if (name == null) {
+            throw new NullPointerException();
+        }
+        try {
+            ObjectName objectName = Metrics.objectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // REQUIRES:
+    //   `name != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `name == null`.
+    // MODIFIES:
+    //   Il server MBean della piattaforma.
+    // EFFECTS:
+    //   Rimuove dal server MBean della piattaforma l'MBean registrato con
+    //   `register(name)`, se presente.
+    public void unregister(String name) throws NullPointerException {
+        if (name == null) {
+            throw new NullPointerException();
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = Metrics.objectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            counts.put(operation.name(), this.counts[operation.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    public Map<String, Long> getMeanLatencies() {
+        Map<String, Long> means = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            long count = this.counts[operation.ordinal()].sum();
+            means.put(operation.name(), count == 0 ? 0 : this.totalLatencies[operation.ordinal()].sum() / count);
+        }
+        return means;
+    }
+
+    public Map<String, Long> getStructureSizes() {
+        return this.network.getStructureSizes();
+    }
+
+    public long getLatencyPercentile(String operation, double percentile) throws IllegalArgumentException {
+        if (operation == null || percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException();
+        }
+        return this.percentile(Operation.valueOf(operation), percentile);
+    }
+
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format("%-22s %10s %12s %12s %12s %12s%n",
+                                  "operation", "count", "mean_ns", "p50_ns", "p99_ns", "max_ns"));
+        Map<String, Long> means = this.getMeanLatencies();
+        for (Operation operation : Operation.values()) {
+            long count = this.counts[operation.ordinal()].sum();
+            if (count == 0) {
+                continue;
+            }
+            dump.append(String.format("%-22s %10d %12d %12d %12d %12d%n",
+                                      operation.name(),
+                                      count,
+                                      means.get(operation.name()),
+                                      this.percentile(operation, 50),
+                                      this.percentile(operation, 99),
+                                      this.percentile(operation, 100)));
+        }
+        for (Map.Entry<String, Long> entry : this.getStructureSizes().entrySet()) {
+            dump.append(String.format("size.%-17s %10d%n", entry.getKey(), entry.getValue()));
+        }
+        return dump.toString();
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i].reset();
+            this.totalLatencies[i].reset();
+            for (int j = 0; j < BUCKETS; j++) {
+                this.latencies[i].set(j, 0);
+            }
+        }
+    }
+
+    // Restituisce il limite superiore dell'intervallo dell'istogramma di
+    // `operation` in cui cade il percentile `percentile`.
+    private long percentile(Operation operation, double percentile) {
+        AtomicLongArray histogram = this.latencies[operation.ordinal()];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += histogram.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = java.lang.Math.max(1, (long) java.lang.Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= rank) {
+                return Metrics.bucketUpperBound(i);
+            }
+        }
+        return Metrics.bucketUpperBound(BUCKETS - 1);
+    }
+
+    // Restituisce l'intervallo dell'istogramma in cui cade `value >= 0`. I
+    // valori minori di `SUB_BUCKETS` hanno un intervallo ciascuno; gli altri
+    // vengono identificati dalla posizione del bit più significativo e dai
+    // `SUB_BUCKET_BITS` bit successivi.
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Restituisce il massimo valore che cade nell'intervallo `bucket`.
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("net.filippocosta.microblog:type=SocialNetwork,name=" + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,57 @@
+package net.filippocosta.microblog;
+
+import java.util.Map;
+
+// OVERVIEW:
+//   Interfaccia di gestione (JMX) delle metriche di un'istanza di
+//   `SocialNetwork`, registrabile sul server MBean della piattaforma tramite
+//   `Metrics.register`. Le operazioni sono identificate dal nome delle costanti
+//   di `Metrics.Operation` (per esempio "WRITE_POST").
+public interface MetricsMXBean {
+
+    // EFFECTS:
+    //   Restituisce `true` se e solo se la raccolta delle metriche è attiva.
+    public boolean isEnabled();
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Attiva (`enabled == true`) o disattiva la raccolta delle metriche.
+    public void setEnabled(boolean enabled);
+
+    // EFFECTS:
+    //   Restituisce il numero di invocazioni registrate per ciascuna
+    //   operazione.
+    public Map<String, Long> getOperationCounts();
+
+    // EFFECTS:
+    //   Restituisce la latenza media, in nanosecondi, di ciascuna operazione.
+    public Map<String, Long> getMeanLatencies();
+
+    // EFFECTS:
+    //   Restituisce la dimensione corrente di ciascuna struttura dati interna
+    //   del social network.
+    public Map<String, Long> getStructureSizes();
+
+    // REQUIRES:
+    //   `operation` è il nome di una costante di `Metrics.Operation`
+    //   && `0 <= percentile <= 100`.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se le condizioni sopracitate non
+    //   sono rispettate.
+    // EFFECTS:
+    //   Restituisce una stima (per eccesso, con errore relativo inferiore al
+    //   13%) del percentile `percentile` della latenza di `operation`, in
+    //   nanosecondi; `0` se non ci sono invocazioni registrate.
+    public long getLatencyPercentile(String operation, double percentile) throws IllegalArgumentException;
+
+    // EFFECTS:
+    //   Restituisce un resoconto testuale di tutte le metriche.
+    public String dump();
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Azzera contatori e istogrammi.
+    public void reset();
+}
@@ -0,0 +1,636 @@
+package net.filippocosta.microblog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// OVERVIEW:
+//   Servizio HTTP/JSON che espone un `SocialNetworkWithReports` tramite
+//   l'`HttpServer` del JDK. Ogni richiesta viene gestita da un proprio thread
+//   virtuale, così che migliaia di client lenti non occupino altrettanti
+//   thread di sistema. Le risposte vengono scritte in streaming con
+//   `JsonWriter`, senza costruire il documento in memoria.
+//
+//   Le operazioni disponibili sono:
+//
+//     POST /users                  {"username": u}                  -> 201 {"username": u}
+//     POST /posts                  {"author": a, "text": t,
+//                                   "parent": id?, "replyRestriction": r?} -> 201 post
+//     GET  /posts/{id}                                              -> 200 post
+//     POST /posts/{id}/like        {"username": u}                  -> 204
+//     POST /posts/{id}/dislike     {"username": u}                  -> 204
+//     POST /posts/{id}/report      {"username": u}                  -> 204
+//     GET  /search?q=...&k=10                                       -> 200 {"posts": [...]}
+//     GET  /hot?tag=...&k=10                                        -> 200 {"posts": [...]}
+//     GET  /users/{u}/timeline?cursor=...&limit=20                  -> 200 {"posts": [...], "next": c}
+//     POST /batch                  una richiesta per riga           -> 200 una risposta per riga
+//
+//   dove un post è l'oggetto
+//     {"id", "author", "text", "timestamp", "parent", "replyRestriction", "likes", "replies"}
+//   con `replies` la lista degli ID delle risposte dirette. La timeline di un
+//   utente è l'elenco dei suoi post in ordine di pubblicazione, a pagine.
+//   `/hot` restituisce i post più popolari del momento, tutti o soltanto
+//   quelli con l'hashtag `tag` (vedi `HotRanking`).
+//
+//   Gli errori hanno corpo {"error": messaggio} e codice 400 (richiesta non
+//   valida, compreso il like al proprio post), 404 (utente o post
+//   inesistente), 405 (metodo non ammesso), 409 (nome utente occupato o
+//   segnalazione non valida) o 413 (corpo troppo grande).
+//
+//   `/batch` realizza il pipelining delle richieste: il client invia in un
+//   unico corpo, una per riga (NDJSON), le richieste
+//     {"method": m, "path": p, "body": b?}
+//   e riceve, una per riga e nello stesso ordine, le risposte
+//     {"status": s, "body": b?}
+//   man mano che vengono eseguite, senza attendere ciascuna risposta prima
+//   di inviare la richiesta successiva. Ogni riga è soggetta allo stesso
+//   limite di dimensione del corpo di una richiesta singola: a una riga
+//   troppo lunga corrisponde la risposta 413.
+//
+//   `SocialNetworkWithReports` permette letture concorrenti ma non scritture
+//   concorrenti: le scritture vengono quindi serializzate da un
+//   `ReadWriteLock`, mentre le letture procedono in parallelo. Il corpo delle
+//   risposte viene scritto dopo aver rilasciato il lock.
+//
+// Da riga di comando avvia il servizio su una rete vuota, con
+// `enableNoDelay`, per esempio:
+//
+//   java net.filippocosta.microblog.MicroBlogServer 8080
+public class MicroBlogServer implements AutoCloseable {
+    // Dimensione massima del corpo di una richiesta e di ogni riga di `/batch`.
+    static final int MAX_BODY = 64 * 1024;
+    // Valori massimi di `k` per `/search` e `/hot` e di `limit` per le timeline.
+    static final int MAX_RESULTS = 100;
+    // Tempo di dimezzamento dei punteggi di `/hot`: sei ore.
+    static final long HOT_HALF_LIFE = 6L * 60 * 60 * 1000;
+
+    // Esiti di `readLine`.
+    private static final int LINE_OK = 0;
+    private static final int LINE_TOO_LONG = 1;
+    private static final int LINE_END_OF_STREAM = 2;
+
+    private final SocialNetworkWithReports network;
+    private final SearchEngine search;
+    private final HotRanking hot;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Il corpo di una risposta, scritto dopo gli header.
+    private interface Body {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    private static final class Response {
+        private final int status;
+        // `null` se la risposta non ha corpo.
+        private final Body body;
+
+        private Response(int status, Body body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        private static Response error(int status, final String message) {
+            return new Response(status, new Body() {
+                public void write(JsonWriter out) throws IOException {
+                    out.beginObject().name("error").value(message).endObject();
+                }
+            });
+        }
+    }
+
+    // I campi di un post letti sotto il lock, da serializzare dopo averlo
+    // rilasciato. Non copia le risposte, a differenza di `Post.deepCopy`.
+    private static final class PostView implements Body {
+        private final int id;
+        private final String author;
+        private final String text;
+        private final String timestamp;
+        private final int parent;
+        private final Post.ReplyRestriction replyRestriction;
+        private final List<String> likes;
+        private final int[] replies;
+
+        private PostView(Post post) {
+            this.id = post.getId();
+            this.author = post.getAuthor();
+            this.text = post.getText();
+            this.timestamp = post.getTimestamp().toString();
+            this.parent = post.getParent() == null ? -1 : post.getParent().getId();
+            this.replyRestriction = post.getReplyRestriction();
+            this.likes = new ArrayList<>(post.getLikes());
+            List<Post> replies = post.getReplies();
+            this.replies = new int[replies.size()];
+            for (int i = 0; i < this.replies.length; i++) {
+                this.replies[i] = replies.get(i).getId();
+            }
+        }
+
+        private static List<PostView> of(List<Post> posts) {
+            List<PostView> views = new ArrayList<>(posts.size());
+            for (Post post : posts) {
+                views.add(new PostView(post));
+            }
+            return views;
+        }
+
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject()
+               .name("id").value(this.id)
+               .name("author").value(this.author)
+               .name("text").value(this.text)
+               .name("timestamp").value(this.timestamp)
+               .name("parent");
+            if (this.parent < 0) {
+                out.nullValue();
+            } else {
+                out.value(this.parent);
+            }
+            out.name("replyRestriction").value(this.replyRestriction.name())
+               .name("likes").beginArray();
+            for (String like : this.likes) {
+                out.value(like);
+            }
+            out.endArray().name("replies").beginArray();
+            for (int reply : this.replies) {
+                out.value(reply);
+            }
+            out.endArray().endObject();
+        }
+    }
+
+    // REQUIRES:
+    //   `network != null && address != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `network == null || address == null`.
+    //   `IOException` se non è possibile mettersi in ascolto su `address`.
+    // EFFECTS:
+    //   Restituisce un servizio, non ancora avviato, che espone `network`
+    //   all'indirizzo `address` (porta `0` per una porta libera qualsiasi).
+    public MicroBlogServer(SocialNetworkWithReports network, InetSocketAddress address) throws NullPointerException, IOException {
+        if (network == null || address == null) {
+            throw new NullPointerException();
+        }
+        this.network = network;
+        this.search = new SearchEngine(network);
+        this.hot = new HotRanking(network, HOT_HALF_LIFE);
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                MicroBlogServer.this.handle(exchange);
+            }
+        });
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Avvia il servizio.
+    public void start() {
+        this.server.start();
+    }
+
+    // Restituisce la porta su cui il servizio è in ascolto.
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Arresta il servizio, interrompendo le richieste in corso.
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.search.close();
+        this.hot.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            URI uri = exchange.getRequestURI();
+            if (uri.getRawPath().equals("/batch")) {
+                if (method.equals("POST")) {
+                    this.batch(exchange);
+                } else {
+                    MicroBlogServer.send(exchange, Response.error(405, "Metodo non ammesso"));
+                }
+                return;
+            }
+            Object body = null;
+            if (method.equals("POST")) {
+                byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+                if (bytes.length > MAX_BODY) {
+                    MicroBlogServer.send(exchange, Response.error(413, "Corpo della richiesta troppo grande"));
+                    return;
+                }
+                try {
+                    body = JsonParser.parse(new String(bytes, StandardCharsets.UTF_8));
+                } catch (IllegalArgumentException e) {
+                    MicroBlogServer.send(exchange, Response.error(400, e.getMessage()));
+                    return;
+                }
+            }
+            MicroBlogServer.send(exchange, this.dispatch(method, uri.getRawPath(), uri.getRawQuery(), body));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Esegue le richieste di `/batch` man mano che arrivano, scrivendo ogni
+    // risposta su una riga. L'uscita viene svuotata quando non ci sono altre
+    // richieste già ricevute, così che le risposte a più richieste consecutive
+    // viaggino insieme.
+    private void batch(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        StringBuilder buffer = new StringBuilder();
+        int read;
+        while ((read = MicroBlogServer.readLine(in, buffer)) != LINE_END_OF_STREAM) {
+            String line = buffer.toString();
+            if (read == LINE_OK && line.trim().isEmpty()) {
+                continue;
+            }
+            Response response;
+            try {
+                if (read == LINE_TOO_LONG) {
+                    response = Response.error(413, "Richiesta troppo grande");
+                } else {
+                    response = this.batchRequest(line);
+                }
+            } catch (IllegalArgumentException e) {
+                response = Response.error(400, e.getMessage());
+            }
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject().name("status").value(response.status);
+            if (response.body != null) {
+                json.name("body");
+                response.body.write(json);
+            }
+            json.endObject();
+            out.write('\n');
+            if (!in.ready()) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+
+    // Esegue una richiesta di `/batch`, già letta per intero in `line`.
+    private Response batchRequest(String line) throws IllegalArgumentException {
+        Map<String, Object> request = MicroBlogServer.object(JsonParser.parse(line));
+        String target = MicroBlogServer.string(request, "method");
+        String path = MicroBlogServer.string(request, "path");
+        String query = null;
+        int separator = path.indexOf('?');
+        if (separator >= 0) {
+            query = path.substring(separator + 1);
+            path = path.substring(0, separator);
+        }
+        return this.dispatch(target, path, query, request.get("body"));
+    }
+
+    // Legge da `in` la prossima riga, senza il terminatore, in `line`. Una
+    // riga di più di `MAX_BODY` caratteri viene scartata fino al terminatore
+    // senza trattenerla in memoria, come se fosse il corpo troppo grande di
+    // una richiesta singola. Restituisce `LINE_OK`, `LINE_TOO_LONG` oppure,
+    // se lo stream è terminato senza altri caratteri, `LINE_END_OF_STREAM`.
+    private static int readLine(BufferedReader in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        boolean tooLong = false;
+        int c = in.read();
+        if (c == -1) {
+            return LINE_END_OF_STREAM;
+        }
+        while (c != -1 && c != '\n') {
+            if (line.length() < MAX_BODY) {
+                line.append((char) c);
+            } else {
+                tooLong = true;
+            }
+            c = in.read();
+        }
+        if (tooLong) {
+            line.setLength(0);
+            return LINE_TOO_LONG;
+        }
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+        }
+        return LINE_OK;
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        if (response.body == null) {
+            exchange.sendResponseHeaders(response.status, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // Lunghezza `0`: il corpo viene inviato a blocchi (chunked), man mano
+        // che viene scritto.
+        exchange.sendResponseHeaders(response.status, 0);
+        Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        response.body.write(new JsonWriter(out));
+        out.flush();
+    }
+
+    // Esegue la richiesta `method path?query` con corpo `body` e ne
+    // restituisce la risposta, convertendo in codici di errore le eccezioni
+    // di `network`.
+    private Response dispatch(String method, String path, String query, Object body) {
+        try {
+            return this.route(method, path, MicroBlogServer.parameters(query), body);
+        } catch (NoSuchElementException e) {
+            return Response.error(404, e.getMessage() == null ? "Non trovato" : e.getMessage());
+        } catch (PostReportException e) {
+            return Response.error(409, "Segnalazione non valida");
+        } catch (NullPointerException | IllegalArgumentException e) {
+            return Response.error(400, e.getMessage() == null ? "Richiesta non valida" : e.getMessage());
+        }
+    }
+
+    private Response route(String method, String path, Map<String, String> parameters, Object body)
+        throws NoSuchElementException, PostReportException, IllegalArgumentException {
+        String[] segments = path.startsWith("/") ? path.substring(1).split("/") : new String[0];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = URLDecoder.decode(segments[i], StandardCharsets.UTF_8);
+        }
+        String resource = segments.length > 0 ? segments[0] : "";
+        if (resource.equals("users") && segments.length == 1) {
+            return method.equals("POST") ? this.register(MicroBlogServer.object(body)) : MicroBlogServer.notAllowed();
+        } else if (resource.equals("users") && segments.length == 3 && segments[2].equals("timeline")) {
+            return method.equals("GET") ? this.timeline(segments[1], parameters) : MicroBlogServer.notAllowed();
+        } else if (resource.equals("posts") && segments.length == 1) {
+            return method.equals("POST") ? this.writePost(MicroBlogServer.object(body)) : MicroBlogServer.notAllowed();
+        } else if (resource.equals("posts") && segments.length == 2) {
+            return method.equals("GET") ? this.getPost(MicroBlogServer.id(segments[1])) : MicroBlogServer.notAllowed();
+        } else if (resource.equals("posts") && segments.length == 3
+                   && (segments[2].equals("like") || segments[2].equals("dislike") || segments[2].equals("report"))) {
+            if (!method.equals("POST")) {
+                return MicroBlogServer.notAllowed();
+            }
+            return this.interact(MicroBlogServer.id(segments[1]), segments[2],
+                                 MicroBlogServer.string(MicroBlogServer.object(body), "username"));
+        } else if (resource.equals("search") && segments.length == 1) {
+            return method.equals("GET") ? this.search(parameters) : MicroBlogServer.notAllowed();
+        } else if (resource.equals("hot") && segments.length == 1) {
+            return method.equals("GET") ? this.hot(parameters) : MicroBlogServer.notAllowed();
+        }
+        throw new NoSuchElementException("Risorsa inesistente");
+    }
+
+    private Response register(Map<String, Object> body) throws IllegalArgumentException {
+        final String username = MicroBlogServer.string(body, "username");
+        this.lock.writeLock().lock();
+        try {
+            if (this.network.userExists(username)) {
+                return Response.error(409, "Nome utente occupato");
+            }
+            this.network.register(username);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        return new Response(201, new Body() {
+            public void write(JsonWriter out) throws IOException {
+                out.beginObject().name("username").value(username).endObject();
+            }
+        });
+    }
+
+    private Response writePost(Map<String, Object> body) throws NoSuchElementException, IllegalArgumentException {
+        Post.Builder builder = new Post.Builder(MicroBlogServer.string(body, "author"), MicroBlogServer.string(body, "text"));
+        Object restriction = body.get("replyRestriction");
+        if (restriction != null) {
+            if (!(restriction instanceof String)) {
+                throw new IllegalArgumentException("replyRestriction non valido");
+            }
+            builder.setReplyRestriction(Post.ReplyRestriction.valueOf((String) restriction));
+        }
+        Object parent = body.get("parent");
+        if (parent != null && !(parent instanceof Long)) {
+            throw new IllegalArgumentException("parent non valido");
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (parent != null) {
+                Post post = this.network.peekPost((int) (long) (Long) parent);
+                if (post == null) {
+                    throw new NoSuchElementException("Post inesistente");
+                }
+                builder.inResponseTo(post);
+            }
+            return new Response(201, new PostView(this.network.writePost(builder)));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private Response getPost(int id) throws NoSuchElementException {
+        this.lock.readLock().lock();
+        try {
+            Post post = this.network.peekPost(id);
+            if (post == null) {
+                throw new NoSuchElementException("Post inesistente");
+            }
+            return new Response(200, new PostView(post));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private Response interact(int id, String action, String username)
+        throws NoSuchElementException, PostReportException, IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            Post post = this.network.peekPost(id);
+            if (post == null) {
+                throw new NoSuchElementException("Post inesistente");
+            } else if (action.equals("report")) {
+                this.network.report(id, username);
+            } else if (action.equals("like")) {
+                // Come per le segnalazioni, nessuno può mettere like ai propri post.
+                if (post.getAuthor().equals(username)) {
+                    throw new IllegalArgumentException("Like al proprio post");
+                }
+                this.network.like(this.network.internalPost(id), username);
+            } else {
+                this.network.dislike(this.network.internalPost(id), username);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        return new Response(204, null);
+    }
+
+    private Response search(Map<String, String> parameters) throws NullPointerException, IllegalArgumentException {
+        String query = parameters.get("q");
+        if (query == null) {
+            throw new IllegalArgumentException("Parametro q mancante");
+        }
+        int k = MicroBlogServer.limit(parameters.get("k"), 10);
+        List<PostView> posts;
+        this.lock.readLock().lock();
+        try {
+            posts = PostView.of(this.search.search(query, k));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return new Response(200, MicroBlogServer.page(posts, null, false));
+    }
+
+    private Response hot(Map<String, String> parameters) throws IllegalArgumentException {
+        int k = MicroBlogServer.limit(parameters.get("k"), 10);
+        List<PostView> posts = new ArrayList<>();
+        this.lock.readLock().lock();
+        try {
+            for (int id : this.hot.topIds(parameters.get("tag"), k)) {
+                Post post = this.network.peekPost(id);
+                if (post != null) {
+                    posts.add(new PostView(post));
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return new Response(200, MicroBlogServer.page(posts, null, false));
+    }
+
+    private Response timeline(String username, Map<String, String> parameters)
+        throws NoSuchElementException, IllegalArgumentException {
+        int limit = MicroBlogServer.limit(parameters.get("limit"), 20);
+        PostPage page;
+        this.lock.readLock().lock();
+        try {
+            if (!this.network.userExists(username)) {
+                throw new NoSuchElementException("Utente inesistente");
+            }
+            page = this.network.writtenBy(username, parameters.get("cursor"), limit);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return new Response(200, MicroBlogServer.page(PostView.of(page.getPosts()), page.getNextCursor(), true));
+    }
+
+    private static Body page(final List<PostView> posts, final String next, final boolean paged) {
+        return new Body() {
+            public void write(JsonWriter out) throws IOException {
+                out.beginObject().name("posts").beginArray();
+                for (PostView post : posts) {
+                    post.write(out);
+                }
+                out.endArray();
+                if (paged) {
+                    out.name("next").value(next);
+                }
+                out.endObject();
+            }
+        };
+    }
+
+    private static Response notAllowed() {
+        return Response.error(405, "Metodo non ammesso");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(Object body) throws IllegalArgumentException {
+        if (!(body instanceof Map)) {
+            throw new IllegalArgumentException("Il corpo deve essere un oggetto JSON");
+        }
+        return (Map<String, Object>) body;
+    }
+
+    private static String string(Map<String, Object> body, String name) throws IllegalArgumentException {
+        Object value = body.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Campo " + name + " mancante o non valido");
+        }
+        return (String) value;
+    }
+
+    private static int id(String segment) throws NoSuchElementException {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            throw new NoSuchElementException("Post inesistente");
+        }
+    }
+
+    private static int limit(String value, int otherwise) throws IllegalArgumentException {
+        if (value == null) {
+            return otherwise;
+        }
+        int limit = Integer.parseInt(value);
+        if (limit < 1 || limit > MAX_RESULTS) {
+            throw new IllegalArgumentException("Limite non valido");
+        }
+        return limit;
+    }
+
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    // Disattiva l'algoritmo di Nagle sulle connessioni di tutti gli
+    // `HttpServer` del JDK creati in seguito, impostando la proprietà di
+    // sistema `sun.net.httpserver.nodelay` se non è già stata impostata (per
+    // esempio con `-Dsun.net.httpserver.nodelay=false`). Le risposte a blocchi
+    // terminano con un segmento TCP piccolo che, con Nagle e l'ACK ritardato
+    // del client, attenderebbe decine di millisecondi prima di partire.
+    //
+    // REQUIRES:
+    //   Nessun `HttpServer` è ancora stato creato nella JVM: la proprietà
+    //   viene letta una sola volta.
+    // MODIFIES:
+    //   Le proprietà di sistema.
+    // EFFECTS:
+    //   Imposta `sun.net.httpserver.nodelay` a `true` se non è definita.
+    public static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        MicroBlogServer.enableNoDelay();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        MicroBlogServer server = new MicroBlogServer(new SocialNetworkWithReports(), new InetSocketAddress(port));
+        server.start();
+        System.out.println("-- MicroBlog in ascolto sulla porta " + server.getPort());
+    }
+}
@@ -0,0 +1,173 @@
+package net.filippocosta.microblog;
+
+import java.time.Instant;
+
+// OVERVIEW:
+//   Una mutazione applicata a un `PrimarySocialNetwork`, nella forma in cui
+//   viene trasmessa alle sue `ReadReplica`. Il tipo di dato astratto è
+//     <sequence, kind, username, postId, parentId, text, timestamp, replyRestriction>
+//   dove `sequence` è il numero progressivo della mutazione (a partire da 1)
+//   nel flusso del primario, `kind` il tipo di operazione e `username`
+//   l'utente che la esegue. I campi restanti dipendono da `kind`:
+//     - `REGISTER`: nessuno.
+//     - `WRITE_POST`: ID, genitore (`-1` se assente), testo, data di
+//       pubblicazione e limiti alle risposte del post pubblicato.
+//     - `LIKE`, `DISLIKE`, `REPORT`, `DELETE_POST`: l'ID del post.
+//   I campi non pertinenti valgono `-1` oppure `null`. Le istanze sono
+//   immutabili.
+final class Mutation {
+    // AF(m):
+    //   <m.sequence, m.kind, m.username, m.postId, m.parentId, m.text, m.timestamp, m.replyRestriction>
+    // RI(m):
+    //   m.sequence >= 1 && m.kind != null && m.username != null
+    //   && (m.kind == WRITE_POST <==> m.text != null)
+    //   && (m.kind == WRITE_POST <==> m.timestamp != null)
+    //   && (m.kind == WRITE_POST <==> m.replyRestriction != null)
+    //   && (m.kind == REGISTER <==> m.postId == -1)
+
+    // I tipi di mutazione.
+    enum Kind {
+        REGISTER,
+        WRITE_POST,
+        LIKE,
+        DISLIKE,
+        REPORT,
+        DELETE_POST,
+    }
+
+    private final long sequence;
+    private final Kind kind;
+    private final String username;
+    private final int postId;
+    private final int parentId;
+    private final String text;
+    private final Instant timestamp;
+    private final Post.ReplyRestriction replyRestriction;
+
+    private Mutation(long sequence, Kind kind, String username, int postId, int parentId,
+                     String text, Instant timestamp, Post.ReplyRestriction replyRestriction) {
+        this.sequence = sequence;
+        this.kind = kind;
+        this.username = username;
+        this.postId = postId;
+        this.parentId = parentId;
+        this.text = text;
+        this.timestamp = timestamp;
+        this.replyRestriction = replyRestriction;
+    }
+
+    // EFFECTS:
+    //   Restituisce la mutazione numero `sequence`: la registrazione di
+    //   `username`.
+    static Mutation register(long sequence, String username) {
+        return new Mutation(sequence, Kind.REGISTER, username, -1, -1, null, null, null);
+    }
+
+    // EFFECTS:
+    //   Restituisce la mutazione numero `sequence`: la pubblicazione di `post`,
+    //   che deve essere l'istanza (o una copia) appena pubblicata.
+    static Mutation writePost(long sequence, Post post) {
+        return new Mutation(sequence,
+                            Kind.WRITE_POST,
+                            post.getAuthor(),
+                            post.getId(),
+                            post.getParent() == null ? -1 : post.getParent().getId(),
+                            post.getText(),
+                            post.getTimestamp(),
+                            post.getReplyRestriction());
+    }
+
+    // REQUIRES:
+    //   `kind != REGISTER && kind != WRITE_POST`.
+    // EFFECTS:
+    //   Restituisce la mutazione numero `sequence`: l'operazione `kind`
+    //   eseguita da `username` sul post con ID `postId`.
+    static Mutation onPost(long sequence, Kind kind, String username, int postId) {
+        return new Mutation(sequence, kind, username, postId, -1, null, null, null);
+    }
+
+    long getSequence() {
+        return this.sequence;
+    }
+
+    Kind getKind() {
+        return this.kind;
+    }
+
+    String getUsername() {
+        return this.username;
+    }
+
+    int getPostId() {
+        return this.postId;
+    }
+
+    int getParentId() {
+        return this.parentId;
+    }
+
+    String getText() {
+        return this.text;
+    }
+
+    Instant getTimestamp() {
+        return this.timestamp;
+    }
+
+    Post.ReplyRestriction getReplyRestriction() {
+        return this.replyRestriction;
+    }
+
+    // MODIFIES:
+    //   `network`.
+    // EFFECTS:
+    //   Applica la mutazione a `network`, che deve trovarsi nello stato del
+    //   primario subito prima della mutazione. Lancia
+    //   `IllegalStateException` se `network` rifiuta la mutazione, ovvero se
+    //   replica e primario divergono.
+    void applyTo(SocialNetworkWithReports network) throws IllegalStateException {
+        try {
+            switch (this.kind) {
+                case REGISTER:
+                    network.register(this.username);
+                    break;
+                case WRITE_POST:
+                    Post.Builder builder = new Post.Builder(this.username, this.text)
+                        .setReplyRestriction(this.replyRestriction)
+                        .replicaOf(this.postId, this.timestamp);
+                    if (this.parentId >= 0) {
+                        builder.inResponseTo(Mutation.post(network, this.parentId));
+                    }
+                    network.writePost(builder);
+                    break;
+                case LIKE:
+                    network.like(Mutation.post(network, this.postId), this.username);
+                    break;
+                case DISLIKE:
+                    network.dislike(Mutation.post(network, this.postId), this.username);
+                    break;
+                case REPORT:
+                    network.report(this.postId, this.username);
+                    break;
+                case DELETE_POST:
+                    network.deletePost(Mutation.post(network, this.postId), this.username);
+                    break;
+            }
+        } catch (RuntimeException | PostReportException e) {
+            throw new IllegalStateException("Mutazione " + this.sequence + " non applicabile", e);
+        }
+    }
+
+    private static Post post(SocialNetwork network, int id) throws IllegalArgumentException {
+        Post post = network.internalPost(id);
+        if (post == null) {
+            throw new IllegalArgumentException();
+        }
+        return post;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s %s %d", this.sequence, this.kind, this.username, this.postId);
+    }
+}
@@ -0,0 +1,403 @@
+package net.filippocosta.microblog;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// OVERVIEW:
+//   Una coda di scritture verso un `SocialNetworkWithReports`, applicate da un
+//   unico thread scrittore. Il tipo di dato astratto è quello della rete,
+//   assieme alla sequenza delle mutazioni accettate e non ancora applicate e
+//   al numero di mutazioni già applicate e pubblicate:
+//     <{user_0, ... user_n}, {<post_0, segnalazioni_0>, ... <post_m, segnalazioni_m>},
+//      [mutation_k+1, ... mutation_h], k>
+//
+//   Le mutazioni (`writePost`, `like`, `dislike` e `report`) vengono scritte
+//   in un buffer circolare preallocato di `capacity` caselle e restituiscono
+//   subito un `CompletableFuture`, completato con il risultato (o con
+//   l'eccezione della rete) dopo che la mutazione è stata applicata. Lo
+//   scrittore applica a blocchi tutte le mutazioni pubblicate e consecutive,
+//   senza lock: nessuna struttura della rete è contesa tra più scrittori. Se
+//   il buffer è pieno chi scrive attende che lo scrittore liberi una casella,
+//   per cui la memoria occupata dalla coda è costante.
+//
+//   Se l'applicazione di una mutazione lancia un errore (per esempio
+//   `OutOfMemoryError`), il suo future viene completato con l'errore, la
+//   coda viene chiusa e le mutazioni già accodate vengono rifiutate con
+//   `IllegalStateException` invece di essere applicate.
+//
+//   Le letture (`read`) vengono eseguite dal thread chiamante sulla rete
+//   stessa, senza attendere lo scrittore: `SocialNetwork` garantisce letture
+//   puntuali sicure durante le scritture di un singolo scrittore. Una lettura
+//   iniziata dopo il completamento del future di una mutazione ne vede gli
+//   effetti (read-your-writes).
+//
+//   Esempio:
+//
+//     MutationPipeline pipeline = new MutationPipeline(network, 1024);
+//     Post post = pipeline.writePost(builder).join();
+//     pipeline.like(post.getId(), "Bob").join();
+//     int likes = pipeline.read(... network.getPostById(post.getId()).getLikes().size() ...);
+//     pipeline.close();
+public class MutationPipeline implements CheckRep, AutoCloseable {
+    // AF(p):
+    //   <AF_SocialNetworkWithReports(p.network),
+    //    [p.slots[s % p.capacity] | p.published <= s < (p.claimed & ~CLOSED)],
+    //    p.published>
+    // RI(p):
+    //   p.network != null && p.slots.length == p.available.length() == p.capacity
+    //   && p.capacity è una potenza di due
+    //   && 0 <= p.published <= (p.claimed & ~CLOSED)
+    //   && (forall s | p.published <= s < (p.claimed & ~CLOSED)
+    //       && p.available.get(s % p.capacity) == s
+    //       ==> p.slots[s % p.capacity].kind != null
+    //        && p.slots[s % p.capacity].result != null)
+
+    // I tipi di mutazione accodabili.
+    private enum Kind {
+        WRITE_POST,
+        LIKE,
+        DISLIKE,
+        REPORT,
+    }
+
+    // Una casella del buffer. I campi vengono scritti da chi accoda la
+    // mutazione prima di pubblicarla in `available`, e letti e azzerati dallo
+    // scrittore prima di liberare la casella con `published`.
+    private static final class Slot {
+        private Kind kind;
+        private Post.Builder builder;
+        private int postId;
+        private String username;
+        private CompletableFuture<Object> result;
+        // L'esito dell'applicazione, in attesa di completare `result`.
+        private Object value;
+        private Throwable failure;
+    }
+
+    // Bit di `claimed` che indica che la coda è stata chiusa.
+    private static final long CLOSED = Long.MIN_VALUE;
+    // Iterazioni di attesa attiva prima di sospendere un thread.
+    private static final int SPINS = 128;
+
+    private final SocialNetworkWithReports network;
+    private final int capacity;
+    private final Slot[] slots;
+    // Per ogni casella, la sequenza dell'ultima mutazione pubblicata (`-1` se
+    // nessuna): la casella contiene la mutazione `s` se e solo se vale `s`.
+    private final AtomicLongArray available;
+    // La prossima sequenza da assegnare, con il bit `CLOSED` dopo `close`.
+    private final AtomicLong claimed = new AtomicLong();
+    // Il numero di mutazioni applicate e pubblicate: le caselle delle
+    // sequenze inferiori sono libere.
+    private volatile long published = 0;
+    // Se lo scrittore è sospeso in attesa di nuove mutazioni.
+    private volatile boolean sleeping = false;
+    // L'errore che ha interrotto l'applicazione delle mutazioni, `null` se
+    // nessuno. Viene scritto e letto soltanto dallo scrittore.
+    private Throwable crash = null;
+    private final Thread writer;
+
+    // REQUIRES:
+    //   `network != null`, `capacity` è una potenza di due positiva e
+    //   `network` non viene modificato se non tramite `this` finché `this`
+    //   non viene chiuso.
+    // THROWS:
+    //   `NullPointerException` se e solo se `network == null`.
+    //   `IllegalArgumentException` se e solo se `capacity` non è una potenza
+    //   di due positiva.
+    // EFFECTS:
+    //   Restituisce una coda vuota verso `network` con un buffer di
+    //   `capacity` caselle, e ne avvia il thread scrittore.
+    public MutationPipeline(SocialNetworkWithReports network, int capacity) throws NullPointerException, IllegalArgumentException {
+        if (network == null) {
+            throw new NullPointerException();
+        } else if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException();
+        }
+        this.network = network;
+        this.capacity = capacity;
+        this.slots = new Slot[capacity];
+        this.available = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new Slot();
+            this.available.set(i, -1);
+        }
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                MutationPipeline.this.writeLoop();
+            }
+        }, "MutationPipeline");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // REQUIRES:
+    //   `builder != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `builder == null`.
+    //   `IllegalStateException` se e solo se `this` è stato chiuso.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Accoda `network.writePost(builder)` e restituisce un future completato
+    //   con il post pubblicato, oppure con l'eccezione lanciata dalla rete.
+    //   `builder` non va modificato prima del completamento.
+    public CompletableFuture<Post> writePost(Post.Builder builder) throws NullPointerException, IllegalStateException {
+        if (builder == null) {
+            throw new NullPointerException();
+        }
+        return this.<Post>enqueue(Kind.WRITE_POST, builder, -1, null);
+    }
+
+    // REQUIRES:
+    //   `username != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    //   `IllegalStateException` se e solo se `this` è stato chiuso.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Accoda il like di `username` al post con ID `postId`. Il future viene
+    //   completato con `null`, oppure con `IllegalArgumentException` se il
+    //   post non esiste o con l'eccezione lanciata da `network.like`.
+    public CompletableFuture<Void> like(int postId, String username) throws NullPointerException, IllegalStateException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        return this.<Void>enqueue(Kind.LIKE, null, postId, username);
+    }
+
+    // Come `like`, per `network.dislike`.
+    public CompletableFuture<Void> dislike(int postId, String username) throws NullPointerException, IllegalStateException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        return this.<Void>enqueue(Kind.DISLIKE, null, postId, username);
+    }
+
+    // Come `like`, per `network.report(postId, username)`: il future viene
+    // completato con `PostReportException` se la segnalazione non è valida.
+    public CompletableFuture<Void> report(int postId, String username) throws NullPointerException, IllegalStateException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        return this.<Void>enqueue(Kind.REPORT, null, postId, username);
+    }
+
+    // REQUIRES:
+    //   `query != null` e `query` non modifica la rete.
+    // THROWS:
+    //   `NullPointerException` se e solo se `query == null`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Esegue `query` sulla rete e ne restituisce il risultato. La rete
+    //   contiene almeno le prime `this.getPublished()` mutazioni.
+    public <T> T read(ReadReplica.Query<T> query) throws NullPointerException {
+        if (query == null) {
+            throw new NullPointerException();
+        }
+        return query.apply(this.network);
+    }
+
+    // Il numero di mutazioni già applicate e pubblicate.
+    public long getPublished() {
+        return this.published;
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Rifiuta le mutazioni successive, attende che lo scrittore abbia
+    //   applicato (o rifiutato, dopo un errore) quelle già accodate e lo
+    //   arresta.
+    public void close() {
+        this.markClosed();
+        LockSupport.unpark(this.writer);
+        boolean interrupted = false;
+        while (this.writer.isAlive()) {
+            try {
+                this.writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean checkRep() {
+        long published = this.published;
+        long claimed = this.claimed.get() & ~CLOSED;
+        return this.network.checkRep()
+            && this.slots.length == this.capacity
+            && this.available.length() == this.capacity
+            && Integer.bitCount(this.capacity) == 1
+            && 0 <= published
+            && published <= claimed;
+    }
+
+    // Assegna una sequenza alla mutazione, attende che la sua casella sia
+    // libera, la scrive e la pubblica.
+    private <T> CompletableFuture<T> enqueue(Kind kind, Post.Builder builder, int postId, String username) throws IllegalStateException {
+        long sequence;
+        do {
+            sequence = this.claimed.get();
+            if ((sequence & CLOSED) != 0) {
+                throw new IllegalStateException("Coda chiusa");
+            }
+        } while (!this.claimed.compareAndSet(sequence, sequence + 1));
+        for (int spins = 0; sequence - this.published >= this.capacity; spins++) {
+            MutationPipeline.pause(spins);
+        }
+        int index = (int) sequence & (this.capacity - 1);
+        Slot slot = this.slots[index];
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        slot.kind = kind;
+        slot.builder = builder;
+        slot.postId = postId;
+        slot.username = username;
+        slot.result = result;
+        this.available.set(index, sequence);
+        if (this.sleeping) {
+            LockSupport.unpark(this.writer);
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> typed = (CompletableFuture<T>) result;
+        return typed;
+    }
+
+    // Applica a blocchi le mutazioni pubblicate finché `this` non viene
+    // chiuso e la coda svuotata.
+    private void writeLoop() {
+        long next = 0;
+        int spins = 0;
+        while (true) {
+            long end = next;
+            while (end - next < this.capacity
+                   && this.available.get((int) end & (this.capacity - 1)) == end) {
+                end++;
+            }
+            if (end == next) {
+                long claimed = this.claimed.get();
+                if ((claimed & CLOSED) != 0 && (claimed & ~CLOSED) == next) {
+                    return;
+                } else if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    // Sospensione senza perdere risvegli: chi pubblica dopo
+                    // `sleeping = true` vede il flag e risveglia lo scrittore,
+                    // chi ha pubblicato prima viene visto dal nuovo controllo.
+                    this.sleeping = true;
+                    if (this.available.get((int) next & (this.capacity - 1)) != next
+                        && (this.claimed.get() & CLOSED) == 0) {
+                        LockSupport.park(this);
+                    }
+                    this.sleeping = false;
+                }
+                continue;
+            }
+            spins = 0;
+            for (long s = next; s < end; s++) {
+                Slot slot = this.slots[(int) s & (this.capacity - 1)];
+                if (this.crash != null) {
+                    slot.failure = new IllegalStateException("Coda chiusa dopo un errore", this.crash);
+                    continue;
+                }
+                try {
+                    this.apply(slot);
+                } catch (Throwable t) {
+                    // Lo scrittore sopravvive: rifiuta il resto della coda
+                    // e termina come dopo `close`.
+                    slot.failure = t;
+                    this.crash = t;
+                    this.markClosed();
+                }
+            }
+            // Prima si copiano gli esiti e si liberano le caselle, poi si
+            // completano i future: le azioni dipendenti eseguite dallo
+            // scrittore possono così accodare altre mutazioni anche a buffer
+            // pieno.
+            CompletableFuture<?>[] results = new CompletableFuture<?>[(int) (end - next)];
+            Object[] values = new Object[results.length];
+            Throwable[] failures = new Throwable[results.length];
+            for (long s = next; s < end; s++) {
+                Slot slot = this.slots[(int) s & (this.capacity - 1)];
+                int i = (int) (s - next);
+                results[i] = slot.result;
+                values[i] = slot.value;
+                failures[i] = slot.failure;
+                slot.kind = null;
+                slot.builder = null;
+                slot.username = null;
+                slot.result = null;
+                slot.value = null;
+                slot.failure = null;
+            }
+            this.published = end;
+            for (int i = 0; i < results.length; i++) {
+                @SuppressWarnings("unchecked")
+                CompletableFuture<Object> result = (CompletableFuture<Object>) results[i];
+                if (failures[i] != null) {
+                    result.completeExceptionally(failures[i]);
+                } else {
+                    result.complete(values[i]);
+                }
+            }
+            next = end;
+        }
+    }
+
+    // Imposta il bit `CLOSED` di `claimed`, se non già impostato.
+    private void markClosed() {
+        long claimed;
+        do {
+            claimed = this.claimed.get();
+        } while ((claimed & CLOSED) == 0 && !this.claimed.compareAndSet(claimed, claimed | CLOSED));
+    }
+
+    // Applica la mutazione di `slot`, registrandone l'esito.
+    private void apply(Slot slot) {
+        try {
+            switch (slot.kind) {
+                case WRITE_POST:
+                    slot.value = this.network.writePost(slot.builder);
+                    break;
+                case LIKE:
+                    this.network.like(this.post(slot.postId), slot.username);
+                    break;
+                case DISLIKE:
+                    this.network.dislike(this.post(slot.postId), slot.username);
+                    break;
+                case REPORT:
+                    this.network.report(slot.postId, slot.username);
+                    break;
+            }
+        } catch (RuntimeException | PostReportException e) {
+            slot.failure = e;
+        }
+    }
+
+    private Post post(int id) throws IllegalArgumentException {
+        Post post = this.network.internalPost(id);
+        if (post == null) {
+            throw new IllegalArgumentException();
+        }
+        return post;
+    }
+
+    // Attesa di chi trova il buffer pieno: prima attiva, poi sempre più lunga.
+    private static void pause(int spins) {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else if (spins < 2 * SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(10000);
+        }
+    }
+}
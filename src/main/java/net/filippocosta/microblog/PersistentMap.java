@@ -0,0 +1,460 @@
+package net.filippocosta.microblog;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// OVERVIEW:
+//   Una mappa immutabile e persistente, realizzata come hash array mapped trie
+//   (HAMT): `plus` e `minus` non modificano la mappa ma ne restituiscono una
+//   nuova versione, che condivide con la precedente tutti i nodi non toccati.
+//   Ogni versione costa quindi O(log_32 n) nodi nuovi, e le versioni
+//   precedenti restano valide e leggibili da qualunque thread senza
+//   sincronizzazione. Il tipo di dato astratto è l'insieme di coppie
+//     {<k_0, v_0>, <k_1, v_1>, ... <k_n, v_n>}
+//   con chiavi distinte e non nulle e valori non nulli.
+//
+//   Ogni nodo interno ha fino a 32 figli, indicizzati da 5 bit dell'hash
+//   della chiave e memorizzati in un array compatto accanto a una bitmap dei
+//   figli presenti. Le chiavi con lo stesso hash finiscono in un nodo di
+//   collisione.
+final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+    // AF(m):
+    //   {<l.key, l.value> | l foglia raggiungibile da m.root}
+    // RI(m):
+    //   m.size == #AF(m)
+    //   && (m.root == null <==> m.size == 0)
+    //   && ogni foglia si trova nel nodo indicato dai bit del proprio hash,
+    //      e le chiavi sono distinte
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<>(null, 0);
+
+    // Una coppia chiave-valore, con l'hash della chiave.
+    private static final class Leaf implements Map.Entry<Object, Object> {
+        private final int hash;
+        private final Object key;
+        private final Object value;
+
+        private Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        public Object getKey() {
+            return this.key;
+        }
+
+        public Object getValue() {
+            return this.value;
+        }
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return this.key.equals(entry.getKey()) && this.value.equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.key.hashCode() ^ this.value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    // Un nodo interno. `children` contiene foglie e nodi; in un nodo di
+    // collisione (`bitmap == 0`) soltanto foglie, tutte con hash `hash`.
+    private static final class Node {
+        private final int bitmap;
+        private final int hash;
+        private final Object[] children;
+
+        private Node(int bitmap, int hash, Object[] children) {
+            this.bitmap = bitmap;
+            this.hash = hash;
+            this.children = children;
+        }
+
+        private boolean isCollision() {
+            return this.bitmap == 0;
+        }
+
+        private Leaf get(int hash, int shift, Object key) {
+            Node node = this;
+            while (true) {
+                if (node.isCollision()) {
+                    for (Object child : node.children) {
+                        Leaf leaf = (Leaf) child;
+                        if (leaf.hash == hash && leaf.key.equals(key)) {
+                            return leaf;
+                        }
+                    }
+                    return null;
+                }
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((node.bitmap & bit) == 0) {
+                    return null;
+                }
+                Object child = node.children[Integer.bitCount(node.bitmap & (bit - 1))];
+                if (child instanceof Leaf) {
+                    Leaf leaf = (Leaf) child;
+                    return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+                }
+                node = (Node) child;
+                shift += BITS;
+            }
+        }
+
+        // Restituisce il nodo con `leaf` al posto della foglia con la stessa
+        // chiave, o in aggiunta se assente; `this` se `leaf` è già presente.
+        private Node plus(Leaf leaf, int shift) {
+            if (this.isCollision()) {
+                for (int i = 0; i < this.children.length; i++) {
+                    Leaf other = (Leaf) this.children[i];
+                    if (other.key.equals(leaf.key)) {
+                        return other.value == leaf.value ? this : new Node(0, this.hash, Node.replace(this.children, i, leaf));
+                    }
+                }
+                return new Node(0, this.hash, Node.insert(this.children, this.children.length, leaf));
+            }
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int index = Integer.bitCount(this.bitmap & (bit - 1));
+            if ((this.bitmap & bit) == 0) {
+                return new Node(this.bitmap | bit, 0, Node.insert(this.children, index, leaf));
+            }
+            Object child = this.children[index];
+            Object replacement;
+            if (child instanceof Node) {
+                replacement = ((Node) child).plus(leaf, shift + BITS);
+            } else {
+                Leaf other = (Leaf) child;
+                if (other.hash == leaf.hash && other.key.equals(leaf.key)) {
+                    replacement = other.value == leaf.value ? other : leaf;
+                } else {
+                    replacement = Node.merge(other, leaf, shift + BITS);
+                }
+            }
+            return replacement == child ? this : new Node(this.bitmap, 0, Node.replace(this.children, index, replacement));
+        }
+
+        // Restituisce il nodo senza la foglia con chiave `key` (`this` se
+        // assente): `null` se resta vuoto, la foglia rimasta se ne resta una
+        // sola, così che i nodi si ricompattino verso la radice.
+        private Object minus(int hash, int shift, Object key) {
+            if (this.isCollision()) {
+                for (int i = 0; i < this.children.length; i++) {
+                    if (((Leaf) this.children[i]).key.equals(key)) {
+                        return this.children.length == 2
+                             ? this.children[1 - i]
+                             : new Node(0, this.hash, Node.remove(this.children, i));
+                    }
+                }
+                return this;
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((this.bitmap & bit) == 0) {
+                return this;
+            }
+            int index = Integer.bitCount(this.bitmap & (bit - 1));
+            Object child = this.children[index];
+            Object replacement;
+            if (child instanceof Node) {
+                replacement = ((Node) child).minus(hash, shift + BITS, key);
+            } else {
+                Leaf leaf = (Leaf) child;
+                replacement = leaf.hash == hash && leaf.key.equals(key) ? null : leaf;
+            }
+            if (replacement == child) {
+                return this;
+            } else if (replacement != null) {
+                // Una foglia risalita da un sottonodo resta qui, se non è sola.
+                if (this.children.length == 1 && replacement instanceof Leaf) {
+                    return replacement;
+                }
+                return new Node(this.bitmap, 0, Node.replace(this.children, index, replacement));
+            } else if (this.children.length == 1) {
+                return null;
+            } else if (this.children.length == 2 && this.children[1 - index] instanceof Leaf) {
+                return this.children[1 - index];
+            }
+            return new Node(this.bitmap & ~bit, 0, Node.remove(this.children, index));
+        }
+
+        // Un nodo al livello `shift` con le due foglie `a` e `b`, di chiavi
+        // distinte.
+        private static Node merge(Leaf a, Leaf b, int shift) {
+            if (a.hash == b.hash) {
+                return new Node(0, a.hash, new Object[] {a, b});
+            }
+            int indexA = (a.hash >>> shift) & MASK;
+            int indexB = (b.hash >>> shift) & MASK;
+            if (indexA == indexB) {
+                return new Node(1 << indexA, 0, new Object[] {Node.merge(a, b, shift + BITS)});
+            }
+            return new Node((1 << indexA) | (1 << indexB), 0, indexA < indexB ? new Object[] {a, b} : new Object[] {b, a});
+        }
+
+        private static Object[] insert(Object[] array, int index, Object element) {
+            Object[] copy = new Object[array.length + 1];
+            System.arraycopy(array, 0, copy, 0, index);
+            copy[index] = element;
+            System.arraycopy(array, index, copy, index + 1, array.length - index);
+            return copy;
+        }
+
+        private static Object[] replace(Object[] array, int index, Object element) {
+            Object[] copy = array.clone();
+            copy[index] = element;
+            return copy;
+        }
+
+        private static Object[] remove(Object[] array, int index) {
+            Object[] copy = new Object[array.length - 1];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 1, copy, index, array.length - index - 1);
+            return copy;
+        }
+    }
+
+    // La radice: `null`, una foglia oppure un nodo.
+    private final Object root;
+    private final int size;
+
+    private PersistentMap(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    // Restituisce la mappa vuota.
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    // REQUIRES:
+    //   `key != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `key == null`.
+    // EFFECTS:
+    //   Restituisce il valore associato a `key`, `null` se assente.
+    @SuppressWarnings("unchecked")
+    V get(Object key) throws NullPointerException {
+        Leaf leaf = this.leaf(key);
+        return leaf == null ? null : (V) leaf.value;
+    }
+
+    // Come `get(key) != null`.
+    boolean containsKey(Object key) throws NullPointerException {
+        return this.leaf(key) != null;
+    }
+
+    // REQUIRES:
+    //   `key != null && value != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `key == null || value == null`.
+    // EFFECTS:
+    //   Restituisce la mappa `this` in cui `key` è associata a `value`;
+    //   `this` stessa se vi era già associata la stessa istanza.
+    PersistentMap<K, V> plus(K key, V value) throws NullPointerException {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int hash = PersistentMap.hash(key);
+        Leaf leaf = new Leaf(hash, key, value);
+        int size = this.containsKey(key) ? this.size : this.size + 1;
+        Object root;
+        if (this.root == null) {
+            root = leaf;
+        } else if (this.root instanceof Node) {
+            root = ((Node) this.root).plus(leaf, 0);
+        } else {
+            Leaf other = (Leaf) this.root;
+            if (other.hash == hash && other.key.equals(key)) {
+                root = other.value == value ? other : leaf;
+            } else {
+                root = Node.merge(other, leaf, 0);
+            }
+        }
+        return root == this.root ? this : new PersistentMap<K, V>(root, size);
+    }
+
+    // REQUIRES:
+    //   `key != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `key == null`.
+    // EFFECTS:
+    //   Restituisce la mappa `this` senza la chiave `key`; `this` stessa se
+    //   `key` è assente.
+    PersistentMap<K, V> minus(Object key) throws NullPointerException {
+        if (!this.containsKey(key)) {
+            return this;
+        } else if (this.size == 1) {
+            return PersistentMap.empty();
+        }
+        // Con almeno due chiavi la radice è un nodo.
+        Object root = ((Node) this.root).minus(PersistentMap.hash(key), 0, key);
+        return new PersistentMap<K, V>(root, this.size - 1);
+    }
+
+    // EFFECTS:
+    //   Restituisce un iteratore, in ordine non specificato, sulle coppie di
+    //   `this`. L'iteratore non supporta `remove`.
+    @SuppressWarnings("unchecked")
+    public Iterator<Map.Entry<K, V>> iterator() {
+        final Object root = this.root;
+        Iterator<?> iterator = new Iterator<Leaf>() {
+            // Il percorso dalla radice al nodo corrente, con la posizione del
+            // prossimo figlio da visitare in ciascuno.
+            private final Node[] nodes = new Node[8];
+            private final int[] positions = new int[8];
+            private int depth = -1;
+            private Leaf next;
+
+            {
+                if (root instanceof Leaf) {
+                    this.next = (Leaf) root;
+                } else if (root != null) {
+                    this.push((Node) root);
+                    this.advance();
+                }
+            }
+
+            private void push(Node node) {
+                this.depth++;
+                this.nodes[this.depth] = node;
+                this.positions[this.depth] = 0;
+            }
+
+            private void advance() {
+                this.next = null;
+                while (this.depth >= 0) {
+                    Node node = this.nodes[this.depth];
+                    if (this.positions[this.depth] == node.children.length) {
+                        this.depth--;
+                        continue;
+                    }
+                    Object child = node.children[this.positions[this.depth]++];
+                    if (child instanceof Leaf) {
+                        this.next = (Leaf) child;
+                        return;
+                    }
+                    this.push((Node) child);
+                }
+            }
+
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            public Leaf next() {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                Leaf leaf = this.next;
+                if (this.depth >= 0) {
+                    this.advance();
+                } else {
+                    this.next = null;
+                }
+                return leaf;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return (Iterator<Map.Entry<K, V>>) iterator;
+    }
+
+    // EFFECTS:
+    //   Restituisce una vista di `this` come `Map` non modificabile, con
+    //   `get` e `containsKey` in tempo O(log_32 n).
+    Map<K, V> asMap() {
+        final PersistentMap<K, V> map = this;
+        return new AbstractMap<K, V>() {
+            @Override
+            public Set<Map.Entry<K, V>> entrySet() {
+                return new AbstractSet<Map.Entry<K, V>>() {
+                    @Override
+                    public Iterator<Map.Entry<K, V>> iterator() {
+                        return map.iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return map.size;
+                    }
+                };
+            }
+
+            @Override
+            public V get(Object key) {
+                return key == null ? null : map.get(key);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key != null && map.containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return map.size;
+            }
+        };
+    }
+
+    // Verifica l'invariante di rappresentazione (RI) per l'istanza `this`.
+    boolean checkRep() {
+        int leaves = 0;
+        for (Map.Entry<K, V> entry : this) {
+            Leaf leaf = (Leaf) (Object) entry;
+            leaves++;
+            if (leaf.hash != PersistentMap.hash(leaf.key) || this.leaf(leaf.key) != leaf || leaf.value == null) {
+                return false;
+            }
+        }
+        return leaves == this.size && (this.root == null) == (this.size == 0);
+    }
+
+    private Leaf leaf(Object key) throws NullPointerException {
+        int hash = PersistentMap.hash(key);
+        if (this.root instanceof Node) {
+            return ((Node) this.root).get(hash, 0, key);
+        } else if (this.root != null) {
+            Leaf leaf = (Leaf) this.root;
+            return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+        }
+        return null;
+    }
+
+    // Mescola i bit alti di `hashCode` in quelli bassi, usati per primi.
+    private static int hash(Object key) throws NullPointerException {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -3,10 +3,10 @@ package net.filippocosta.microblog;
 import java.time.Instant;
 import java.util.List;
 import java.util.Queue;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // OVERVIEW:
 //   Questa classe descrive e implementa le funzionalità dei post, che sono la
@@ -32,7 +32,7 @@ class Post implements CheckRep {
     // AF(p):
     //   <p.id,
     //    p.author,
-    //    p.text,
+    //    PostText.decode(p.text),
     //    p.timestamp,
     //    {p.likes.get(i) | 0 <= i <= n},
     //    p.parent,
@@ -43,7 +43,7 @@ class Post implements CheckRep {
     //   && User.usernameIsOk(p.author)
     //
     //   && p.text != null
-    //   && p.text.length() <= Post.MAX_LENGTH
+    //   && PostText.decode(p.text).length() <= Post.MAX_LENGTH
     //
     //   && p.timestamp != null
     //
@@ -66,35 +66,59 @@ class Post implements CheckRep {
     //       (forall i | 0 <= i < p.replies.size() ==> p.replies.get(i) == p.author)
     //        || p.getTaggedUsers().contains(p.replies.get(i).author)))
     //
-    //   && p.hashtags != null
-    //   && (forall i | 0 <= i < p.hashtags.size()
-    //       ==> p.hashtags.get(i) != null
-    //        && p.text.contains(String.format("#%s", p.hashtags.get(i)))
-    //
-    //   && p.taggedUsers != null
-    //   && (forall i | 0 <= i < p.taggedUsers.size()
-    //       ==> p.taggedUsers.get(i) != null
-    //        && p.text.contains(String.format("@%s", p.taggedUsers.get(i)))
+    //   && (p.tags == null
+    //       || (p.tags.length % 2 == 1
+    //           && 0 <= p.tags[0] && 2 * p.tags[0] < p.tags.length
+    //           && (forall i | 1 <= i < p.tags.length
+    //               ==> 1 <= p.tags[i] <= p.text.length
+    //                && (i % 2 == 1 ==> p.tags[i] < p.tags[i + 1]))))
+    //   && (forall i | 0 <= i < p.replies.size()
+    //       ==> p.replies.get(i).rootId == p.rootId
+    //        && p.replies.get(i).depth == p.depth + 1)
+    //   && (forall i | 0 <= i < p.getHashtags().size()
+    //       ==> p.getHashtags().get(i) != null
+    //        && p.getText().contains(String.format("#%s", p.getHashtags().get(i)))
+    //   && (forall i | 0 <= i < p.getTaggedUsers().size()
+    //       ==> p.getTaggedUsers().get(i) != null
+    //        && p.getText().contains(String.format("@%s", p.getTaggedUsers().get(i)))
 
     // Questo contatore permette di generare ID autoincrementate senza rischi di
-    // collisione.
-    private static int ID_COUNTER = 0;
+    // collisione, anche quando più thread creano post contemporaneamente (vedi
+    // `ShardedSocialNetwork`).
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger(0);
 
     // Lunghezza massima dei post su MicroBlog.
     public static int MAX_LENGTH = 140;
 
     // Attributi imposti dalla specifica del progetto:
-    private int id;
+    private final int id;
     private final String author;
-    private final String text;
+    // Il testo in forma compatta (vedi `PostText`), decodificato soltanto
+    // quando viene letto e condiviso tra i post con lo stesso testo.
+    private final byte[] text;
     private final Instant timestamp;
+    // `likes` e `replies` si modificano e si copiano soltanto tenendo il lock
+    // di `this`, così che una copia non veda mai una lista a metà modifica.
     private List<String> likes;
     // Attributi relativi alle funzionalità aggiuntive (descritte nella relazione):
     private final Post parent;
     private List<Post> replies;
     private final ReplyRestriction replyRestriction;
-    private final List<String> hashtags;
-    private final List<String> taggedUsers;
+    // L'ID del post radice del thread (quello che non è una risposta) e la
+    // distanza da esso, fissati alla pubblicazione: trovare la radice non
+    // richiede di risalire i genitori.
+    private final int rootId;
+    private final int depth;
+    // Hashtag e tag del post, calcolati soltanto al primo accesso e memorizzati
+    // come coppie di posizioni nei byte di `text` (vedi
+    // `PostText.toByteOffsets`) anziché come sottostringhe:
+    //   [h, start_0, end_0, ... start_h-1, end_h-1, start_h, end_h, ...]
+    // dove `h` è il numero di hashtag, seguiti dalle coppie dei tag. Vale `null`
+    // finché il testo non è stato analizzato.
+    private volatile int[] tags;
+
+    // Gli indici di un post senza hashtag né tag, condivisi da tutti i post.
+    private static final int[] NO_TAGS = {0};
 
     // OVERVIEW:
     //   Un `Builder` è un oggetto modificabile utile alla creazione di istanze
@@ -127,6 +151,10 @@ class Post implements CheckRep {
         private final String text;
         private Post parent;
         private ReplyRestriction replyRestriction = ReplyRestriction.EVERYONE;
+        // ID e data di pubblicazione imposti da `replicaOf`; `-1` e `null` se il
+        // post riceverà un nuovo ID e la data corrente.
+        private int id = -1;
+        private Instant timestamp = null;
 
         // REQUIRES:
         //   `author != null && text != null && text.length() <= 140`.
@@ -205,6 +233,62 @@ class Post implements CheckRep {
             return this;
         }
 
+        // MODIFIES:
+        //   Nessuna modifica.
+        // EFFECTS:
+        //   Restituisce il nome utente dell'autore del post da pubblicare.
+        String getAuthor() {
+            return this.author;
+        }
+
+        // MODIFIES:
+        //   Nessuna modifica.
+        // EFFECTS:
+        //   Restituisce il post a cui si intende rispondere, `null` se assente.
+        Post getParent() {
+            return this.parent;
+        }
+
+        // Sostituisce il post a cui si intende rispondere con `post`, che deve
+        // avere lo stesso ID. Serve a `SocialNetwork` per agganciare la risposta
+        // alla propria istanza del post anziché a una sua copia.
+        //
+        // REQUIRES:
+        //   `post != null && this.getParent() != null && post.getId() == this.getParent().getId()`.
+        // MODIFIES:
+        //   `this`.
+        // EFFECTS:
+        //   Dopo l'invocazione `this.getParent() == post`.
+        void resolveParent(Post post) {
+            this.parent = post;
+        }
+
+        // Fa sì che il post costruito sia una replica di un post già pubblicato
+        // altrove, con il suo stesso ID e la sua stessa data di pubblicazione.
+        // Serve a `ReadReplica` per applicare le mutazioni di un
+        // `PrimarySocialNetwork`.
+        //
+        // REQUIRES:
+        //   `id >= 0 && timestamp != null`.
+        // THROWS:
+        //   `NullPointerException` se e solo se `timestamp == null`.
+        //   `IllegalArgumentException` se e solo se `id < 0`.
+        // MODIFIES:
+        //   `this`.
+        // EFFECTS:
+        //   Dopo l'invocazione `build()` restituisce un post con ID `id` e data
+        //   di pubblicazione `timestamp`, senza consumare un nuovo ID.
+        Builder replicaOf(int id, Instant timestamp) throws NullPointerException, IllegalArgumentException {
+            if (timestamp == null) {
+                throw new NullPointerException();
+            } else if (id < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.id = id;
+            this.timestamp = timestamp;
+            return this;
+        }
+
         // EFFECTS:
         //   Restituisce una nuova istanza di `Post`. Se
         //     this_pre := <author, text, parent, replyRestriction>
@@ -247,22 +331,182 @@ class Post implements CheckRep {
         EVERYONE,
     }
 
+    // Raccoglie gli indici di hashtag e tag prodotti da `Tokenizer.tokenize`,
+    // ignorando le parole.
+    private static class TagCollector implements Tokenizer.Sink {
+        private int[] hashtags = new int[4];
+        private int hashtagsSize = 0;
+        private int[] taggedUsers = new int[4];
+        private int taggedUsersSize = 0;
+
+        public void token(Tokenizer.Kind kind, int start, int end) {
+            if (kind == Tokenizer.Kind.HASHTAG) {
+                this.hashtags = TagCollector.append(this.hashtags, this.hashtagsSize, start, end);
+                this.hashtagsSize += 2;
+            } else if (kind == Tokenizer.Kind.MENTION) {
+                this.taggedUsers = TagCollector.append(this.taggedUsers, this.taggedUsersSize, start, end);
+                this.taggedUsersSize += 2;
+            }
+        }
+
+        // Restituisce gli indici raccolti nel formato descritto in `Post.tags`.
+        private int[] toTags() {
+            if (this.hashtagsSize == 0 && this.taggedUsersSize == 0) {
+                return Post.NO_TAGS;
+            }
+            int[] tags = new int[1 + this.hashtagsSize + this.taggedUsersSize];
+            tags[0] = this.hashtagsSize / 2;
+            System.arraycopy(this.hashtags, 0, tags, 1, this.hashtagsSize);
+            System.arraycopy(this.taggedUsers, 0, tags, 1 + this.hashtagsSize, this.taggedUsersSize);
+            return tags;
+        }
+
+        private static int[] append(int[] pairs, int size, int start, int end) {
+            if (size + 2 > pairs.length) {
+                int[] larger = new int[pairs.length * 2];
+                System.arraycopy(pairs, 0, larger, 0, size);
+                pairs = larger;
+            }
+            pairs[size] = start;
+            pairs[size + 1] = end;
+            return pairs;
+        }
+    }
+
+    // Vista immutabile su una parte degli hashtag o dei tag di un post: le
+    // sottostringhe vengono decodificate solo quando un elemento viene letto,
+    // mentre `contains` confronta direttamente i byte di `text`, senza
+    // decodificare il testo.
+    private static class TagList extends AbstractList<String> {
+        private final byte[] text;
+        private final int[] tags;
+        private final int from;
+        private final int size;
+
+        private TagList(byte[] text, int[] tags, int from, int size) {
+            this.text = text;
+            this.tags = tags;
+            this.from = from;
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= this.size) {
+                throw new IndexOutOfBoundsException();
+            }
+            int i = this.from + 2 * index;
+            return PostText.substring(this.text, this.tags[i], this.tags[i + 1]);
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String)) {
+                return false;
+            }
+            String s = (String) o;
+            for (int i = this.from; i < this.from + 2 * this.size; i += 2) {
+                if (PostText.regionEquals(this.text, this.tags[i], this.tags[i + 1], s)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     // Costruttore per la classe `Post`.
     private Post(Builder builder) {
-        this.id = ID_COUNTER;
+        if (builder.timestamp != null) {
+            this.id = builder.id;
+            this.timestamp = builder.timestamp;
+        } else {
+            this.id = ID_COUNTER.getAndIncrement();
+            this.timestamp = Instant.now();
+        }
         this.author = builder.author;
-        this.text = builder.text;
+        this.text = PostText.encode(builder.text);
         this.replyRestriction = builder.replyRestriction;
-        this.timestamp = Instant.now();
         this.likes = new ArrayList<String>();
         this.replies = new ArrayList<Post>();
-        this.hashtags = Post.parseHashtags(text);
-        this.taggedUsers = Post.parseTaggedUsers(text);
         this.parent = builder.parent;
         if (this.parent != null) {
-            this.parent.replies.add(this);
+            this.rootId = this.parent.rootId;
+            this.depth = this.parent.depth + 1;
+            synchronized (this.parent) {
+                this.parent.replies.add(this);
+            }
+        } else {
+            this.rootId = this.id;
+            this.depth = 0;
         }
-        ID_COUNTER += 1;
+    }
+
+    // Ricostruisce un post già pubblicato a partire dai suoi campi, senza i
+    // controlli di `Builder.inResponseTo` e senza consumare un nuovo ID. Serve
+    // a `ColdStore` per decodificare i post archiviati su disco: le risposte
+    // vanno ricostruite dopo il genitore, nell'ordine originale.
+    //
+    // REQUIRES:
+    //   I campi sono quelli di un post valido, `likes` non contiene `author`.
+    // EFFECTS:
+    //   Restituisce il post <id, author, text, timestamp, likes, parent, [], restriction>
+    //   e lo aggiunge alle risposte di `parent` se `parent != null`.
+    static Post restore(int id, String author, String text, Instant timestamp, ReplyRestriction restriction,
+                        Post parent, List<String> likes) {
+        Builder builder = new Builder(author, text).setReplyRestriction(restriction).replicaOf(id, timestamp);
+        builder.parent = parent;
+        Post post = new Post(builder);
+        post.likes.addAll(likes);
+        return post;
+    }
+
+    // Costruttore di copia per la classe `Post`, usato da `deepCopy`. La copia
+    // mantiene ID e data di pubblicazione dell'originale e condivide con esso
+    // gli indici (immutabili) di hashtag e tag, se già calcolati, così da non
+    // dover analizzare nuovamente il testo. Le risposte vengono copiate a loro volta e hanno
+    // come genitore la copia; `parent` invece non viene modificato.
+    private Post(Post original, Post parent) {
+        this.id = original.id;
+        this.author = original.author;
+        this.text = original.text;
+        this.replyRestriction = original.replyRestriction;
+        this.timestamp = original.timestamp;
+        // Le risposte vengono copiate dopo aver rilasciato il lock di
+        // `original`: non si tiene mai più di un lock alla volta.
+        List<Post> replies;
+        synchronized (original) {
+            this.likes = new ArrayList<String>(original.likes);
+            replies = new ArrayList<Post>(original.replies);
+        }
+        this.replies = new ArrayList<Post>(replies.size());
+        this.tags = original.tags;
+        this.rootId = original.rootId;
+        this.depth = original.depth;
+        this.parent = parent;
+        for (Post reply : replies) {
+            this.replies.add(new Post(reply, this));
+        }
+    }
+
+    // Costruttore di copia usato da `freeze`: come `Post(Post, Post)`, ma la
+    // copia non ha né genitore né risposte e ha i like `likes`.
+    private Post(Post original, List<String> likes) {
+        this.id = original.id;
+        this.author = original.author;
+        this.text = original.text;
+        this.replyRestriction = original.replyRestriction;
+        this.timestamp = original.timestamp;
+        this.likes = new ArrayList<String>(likes);
+        this.replies = new ArrayList<Post>(0);
+        this.tags = original.tags;
+        this.rootId = original.rootId;
+        this.depth = original.depth;
+        this.parent = null;
     }
 
     // MODIFIES:
@@ -284,9 +528,25 @@ class Post implements CheckRep {
     // MODIFIES:
     //   Nessuna modifica.
     // EFFECTS:
-    //   Restituisce il corpo di testo del post.
+    //   Restituisce il corpo di testo del post, decodificandolo dalla
+    //   rappresentazione compatta a ogni invocazione: hashtag, tag e ricerche
+    //   (`getHashtags`, `getTaggedUsers`, `textContains`) non ne hanno bisogno,
+    //   e chi legge il testo più volte ne conservi il risultato.
     public String getText() {
-        return this.text;
+        return PostText.decode(this.text);
+    }
+
+    // REQUIRES:
+    //   `term != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `term == null`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `this.getText().contains(term)`, di norma senza decodificare
+    //   il testo.
+    boolean textContains(String term) throws NullPointerException {
+        return PostText.contains(this.text, term);
     }
 
     // MODIFIES:
@@ -323,6 +583,24 @@ class Post implements CheckRep {
         return this.parent;
     }
 
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce l'ID del post radice del thread a cui appartiene il post:
+    //   quello del post stesso se non è una risposta.
+    public int getRootId() {
+        return this.rootId;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce la profondità del post nel proprio thread: `0` se non è
+    //   una risposta, altrimenti quella del genitore più uno.
+    public int getDepth() {
+        return this.depth;
+    }
+
     // MODIFIES:
     //   Nessuna modifica.
     // EFFECTS:
@@ -341,8 +619,12 @@ class Post implements CheckRep {
     //   cancelletto. Per esempio:
     //
     //     > Tra poco ci sono gli esami! #paura #studio #programmazione2
+    //
+    //   Il testo viene analizzato soltanto al primo accesso a `getHashtags` o a
+    //   `getTaggedUsers`; la lista restituita non è modificabile.
     public List<String> getHashtags() {
-        return this.hashtags;
+        int[] tags = this.getTags();
+        return new TagList(this.text, tags, 1, tags[0]);
     }
 
     // MODIFIES:
@@ -356,8 +638,12 @@ class Post implements CheckRep {
     //
     //     > Oggi sono uscito a mangiare un gelato con @filippo_costa!
     //     > Grazie a @danielerossi e @gianni99 per una serata fantastica :)
+    //
+    //   Il testo viene analizzato soltanto al primo accesso a `getHashtags` o a
+    //   `getTaggedUsers`; la lista restituita non è modificabile.
     public List<String> getTaggedUsers() {
-        return this.taggedUsers;
+        int[] tags = this.getTags();
+        return new TagList(this.text, tags, 1 + 2 * tags[0], (tags.length - 1) / 2 - tags[0]);
     }
 
     // REQUIRES:
@@ -399,7 +685,9 @@ class Post implements CheckRep {
         if (username == null) {
             throw new NullPointerException();
         }
-        return this.likes.contains(username);
+        synchronized (this) {
+            return this.likes.contains(username);
+        }
     }
 
     // Determina se il post è controverso o meno. Un post è considerato
@@ -474,12 +762,30 @@ class Post implements CheckRep {
         if (username == this.author) {
             throw new IllegalArgumentException("You can't like your own post.");
         }
-        if (this.likes.contains(username)) {
-            this.likes.remove(username);
-            return false;
-        } else {
-            this.likes.add(username);
-            return true;
+        synchronized (this) {
+            if (this.likes.contains(username)) {
+                this.likes.remove(username);
+                return false;
+            } else {
+                this.likes.add(username);
+                return true;
+            }
+        }
+    }
+
+    // Stacca il post dal proprio genitore, usato da `SocialNetwork` quando il
+    // post viene eliminato.
+    //
+    // MODIFIES:
+    //   `this.getParent()`.
+    // EFFECTS:
+    //   Se `this.getParent() != null`, rimuove `this` dalle risposte del
+    //   genitore. `this.getParent()` resta invariato.
+    void detach() {
+        if (this.parent != null) {
+            synchronized (this.parent) {
+                this.parent.replies.remove(this);
+            }
         }
     }
 
@@ -487,23 +793,42 @@ class Post implements CheckRep {
     //   Nessuna modifica.
     // EFFECTS:
     //   Restituisce una cosiddetta "deep copy" di `this`.
+    //
+    //   La copia ha lo stesso ID e la stessa data di pubblicazione di `this`,
+    //   le stesse risposte (a loro volta copiate) e lo stesso genitore, al quale
+    //   però non viene aggiunta come risposta. Si può copiare un post mentre
+    //   altri thread gli mettono like o rispondono: like e risposte di ciascun
+    //   post vengono letti in un unico istante, senza
+    //   `ConcurrentModificationException`.
     public Post deepCopy() {
-        Post.Builder builder = new Post.Builder(this.getAuthor(), this.getText())
-            .setReplyRestriction(this.getReplyRestriction());
-        if (this.getParent() != null) {
-            builder = builder.inResponseTo(this.getParent());
-        }
-        Post copy = builder.build();
-        copy.id = this.id;
-        for (String like : this.getLikes()) {
-            copy.toggleLike(like);
-        }
-        for (Post reply : this.getReplies()) {
-            reply.deepCopy();
+        FlightRecorderEvents.DeepCopy event = new FlightRecorderEvents.DeepCopy();
+        event.begin();
+        Post copy = new Post(this, this.parent);
+        if (event.shouldCommit()) {
+            event.postId = this.id;
+            event.author = this.author;
+            event.postsCopied = copy.totalReplies() + 1;
+            event.commit();
         }
         return copy;
     }
 
+    // Restituisce una copia di `this` staccata dal thread, senza genitore né
+    // risposte, per le versioni immutabili di `Snapshot`: il costo non dipende
+    // dal numero di risposte. La copia non va modificata.
+    Post freeze() {
+        synchronized (this) {
+            return new Post(this, this.likes);
+        }
+    }
+
+    // Come `freeze`, ma la copia ha i like `likes` (che non contiene
+    // l'autore) al posto di quelli di `this`: `Snapshot` conserva i like a
+    // parte, in mappe persistenti.
+    Post freeze(List<String> likes) {
+        return new Post(this, likes);
+    }
+
     // Verifica l'invariante di rappresentazione (RI) per l'instanza `this`.
     //
     // Nota bene: questo metodo è pensato unicamente per favorire il debugging e
@@ -515,16 +840,22 @@ class Post implements CheckRep {
     //   Restituisce `true` se e solo se il post verifica l'invariante di
     //   rappresentazione della classe `Post`, `false` altrimenti.
     public boolean checkRep() {
+        String text = this.getText();
         boolean ri = this.author != null
                   && User.usernameIsOk(this.author)
-                  && this.text != null
-                  && this.text.length() <= Post.MAX_LENGTH
+                  && text != null
+                  && text.length() <= Post.MAX_LENGTH
                   && this.timestamp != null
                   && this.likes != null
                   && !this.likes.contains(this.author)
-                  && this.replies != null
-                  && this.hashtags != null
-                  && this.taggedUsers != null;
+                  && this.replies != null;
+        int[] tags = this.tags;
+        if (tags != null) {
+            ri = ri && tags.length % 2 == 1 && tags[0] >= 0 && 2 * tags[0] < tags.length;
+            for (int i = 1; i < tags.length; i += 2) {
+                ri = ri && 1 <= tags[i] && tags[i] < tags[i + 1] && tags[i + 1] <= this.text.length;
+            }
+        }
         for (String like : this.likes) {
             ri = ri && (like != null) && User.usernameIsOk(like);
         }
@@ -533,18 +864,20 @@ class Post implements CheckRep {
               && (reply != null)
               && reply.checkRep()
               && reply.timestamp.isAfter(this.timestamp)
-              && reply.parent.id == this.id;
+              && reply.parent.id == this.id
+              && reply.rootId == this.rootId
+              && reply.depth == this.depth + 1;
         }
-        for (String hashtag : this.hashtags) {
-            ri = ri && (hashtag != null) && this.text.contains(String.format("#%s", hashtag));
+        for (String hashtag : this.getHashtags()) {
+            ri = ri && (hashtag != null) && text.contains(String.format("#%s", hashtag));
         }
-        for (String taggedUser : this.taggedUsers) {
-            ri = ri && (taggedUser != null) && this.text.contains(String.format("@%s", taggedUser));
+        for (String taggedUser : this.getTaggedUsers()) {
+            ri = ri && (taggedUser != null) && text.contains(String.format("@%s", taggedUser));
         }
         if (this.replyRestriction == ReplyRestriction.ONLY_AUTHOR) {
             ri = ri && this.replies.size() == 0;
         } else if (this.replyRestriction == ReplyRestriction.ONLY_AUTHOR_OR_TAGGED_USERS) {
-            List<String> taggedUsers = new ArrayList<String>();
+            List<String> taggedUsers = this.getTaggedUsers();
             for (Post reply : this.replies) {
                 ri = ri && ((reply.author == this.author) || taggedUsers.contains(reply.author));
             }
@@ -553,23 +886,22 @@ class Post implements CheckRep {
         return ri;
     }
 
-    private static List<String> parseHashtags(String text) {
-        List<String> hashtags = new ArrayList<>();
-        Matcher regex = Pattern.compile("#[a-zA-Z0-9_]+").matcher(text);
-        while (regex.find()) {
-            // `.substring(1)` per rimuovere il carattere cancelletto.
-            hashtags.add(regex.group().substring(1));
-        }
-        return hashtags;
-    }
-
-    private static List<String> parseTaggedUsers(String text) {
-        List<String> taggedUsers = new ArrayList<>();
-        Matcher regex = Pattern.compile("@[a-zA-Z0-9_]+").matcher(text);
-        while (regex.find()) {
-            // `.substring(1)` per rimuovere il carattere chiocciola.
-            taggedUsers.add(regex.group().substring(1));
+    // Restituisce gli indici di hashtag e tag del post (vedi `this.tags`),
+    // analizzando il testo in un'unica passata al primo accesso. Più thread
+    // possono calcolare gli indici contemporaneamente: il risultato è lo stesso
+    // e l'array viene pubblicato, già completo, tramite un campo `volatile`.
+    private int[] getTags() {
+        int[] tags = this.tags;
+        if (tags == null) {
+            TagCollector collector = new TagCollector();
+            String text = this.getText();
+            Tokenizer.tokenize(text, collector);
+            tags = collector.toTags();
+            if (tags != Post.NO_TAGS) {
+                PostText.toByteOffsets(this.text, text, tags, 1);
+            }
+            this.tags = tags;
         }
-        return taggedUsers;
+        return tags;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package net.filippocosta.microblog;
+
+import java.util.Collections;
+import java.util.List;
+
+// OVERVIEW:
+//   Una pagina di risultati di un'interrogazione paginata su `SocialNetwork`. Il
+//   tipo di dato astratto associato è
+//     <{post_0, post_1, ... post_k}, nextCursor>
+//   dove la lista dei post è ordinata come previsto dall'interrogazione e
+//   `nextCursor` è un cursore opaco da passare all'interrogazione successiva per
+//   ottenere la pagina seguente, oppure `null` se non ci sono altri risultati.
+//   Le istanze sono immutabili.
+class PostPage {
+    // AF(p):
+    //   <{p.posts.get(i) | 0 <= i < p.posts.size()}, p.nextCursor>
+    // RI(p):
+    //   p.posts != null
+    //   && (forall i | 0 <= i < p.posts.size() ==> p.posts.get(i) != null)
+
+    private final List<Post> posts;
+    private final String nextCursor;
+
+    // REQUIRES:
+    //   `posts != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `posts == null`.
+    // EFFECTS:
+    //   Restituisce la pagina <posts, nextCursor>.
+    PostPage(List<Post> posts, String nextCursor) throws NullPointerException {
+        if (posts == null) {
+            throw new NullPointerException();
+        }
+        this.posts = Collections.unmodifiableList(posts);
+        this.nextCursor = nextCursor;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce la lista (non modificabile) dei post della pagina.
+    public List<Post> getPosts() {
+        return this.posts;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il cursore della pagina successiva, `null` se questa è
+    //   l'ultima pagina.
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se esiste una pagina successiva, ovvero
+    //   `this.getNextCursor() != null`.
+    public boolean hasNext() {
+        return this.nextCursor != null;
+    }
+}
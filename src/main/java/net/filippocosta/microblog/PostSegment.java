@@ -0,0 +1,405 @@
+package net.filippocosta.microblog;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// OVERVIEW:
+//   Un segmento è un file immutabile che contiene, in ordine di ID, i record
+//   di un insieme di post archiviati da `ColdStore`. Il tipo di dato astratto
+//   è la mappa
+//     {<id_0, record_0>, <id_1, record_1>, ... <id_n, record_n>}
+//
+//   Il file è composto da un'intestazione, dai record (ciascuno preceduto
+//   dalla sua lunghezza), da un indice sparso con la posizione di un record
+//   ogni `INDEX_INTERVAL` e da un filtro di Bloom sugli ID. Indice e filtro
+//   vengono caricati sullo heap all'apertura, mentre i record restano su disco
+//   e vengono letti tramite una mappatura in memoria del file: cercare un ID
+//   assente costa, quasi sempre, solo il filtro; cercarne uno presente costa
+//   una ricerca binaria sull'indice e la decodifica di al più
+//   `INDEX_INTERVAL` record.
+//
+//   I testi ripetuti all'interno di un segmento vengono scritti una sola
+//   volta: i record successivi memorizzano soltanto la posizione del primo
+//   record con lo stesso testo, che funge da dizionario.
+final class PostSegment {
+    // AF(s):
+    //   {<r.id, r> | r record di `s.file`}
+    // RI(s):
+    //   s.file != null && s.data != null
+    //   && s.indexIds.length == s.indexOffsets.length
+    //   && s.indexIds è strettamente crescente
+    //   && s.bloom != null && s.bloom.length > 0 && s.bloomHashes > 0
+    //   && (forall record r ==> s.mightContain(r.id))
+
+    // Ogni quanti record l'indice sparso memorizza una posizione.
+    static final int INDEX_INTERVAL = 32;
+    // Bit del filtro di Bloom per ID e numero di funzioni hash: circa l'1% di
+    // falsi positivi.
+    private static final int BLOOM_BITS_PER_ID = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int MAGIC = 0x4d425347;
+    private static final int VERSION = 2;
+    // Il testo di un record è scritto per intero oppure come riferimento al
+    // primo record del segmento con lo stesso testo.
+    private static final byte TEXT_INLINE = 0;
+    private static final byte TEXT_REFERENCE = 1;
+    // Intestazione: `MAGIC` e `VERSION`. Coda: posizione dell'indice e `MAGIC`.
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 12;
+
+    // OVERVIEW:
+    //   I campi di un post archiviato. Le istanze sono immutabili.
+    static final class Record {
+        final int id;
+        final int parentId;
+        final int rootId;
+        final Instant timestamp;
+        final Post.ReplyRestriction replyRestriction;
+        final String author;
+        final String text;
+        final List<String> likes;
+        final int[] replyIds;
+
+        private Record(int id, int parentId, int rootId, Instant timestamp, Post.ReplyRestriction replyRestriction,
+                       String author, String text, List<String> likes, int[] replyIds) {
+            this.id = id;
+            this.parentId = parentId;
+            this.rootId = rootId;
+            this.timestamp = timestamp;
+            this.replyRestriction = replyRestriction;
+            this.author = author;
+            this.text = text;
+            this.likes = likes;
+            this.replyIds = replyIds;
+        }
+    }
+
+    private final Path file;
+    private final MappedByteBuffer data;
+    private final int count;
+    private final int[] indexIds;
+    private final long[] indexOffsets;
+    // Posizione del primo byte dopo l'ultimo record.
+    private final long recordsEnd;
+    private final long[] bloom;
+    private final int bloomHashes;
+
+    private PostSegment(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // La mappatura resta valida anche dopo la chiusura del canale.
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer data = this.data.duplicate();
+        if (data.capacity() < HEADER_SIZE + TRAILER_SIZE
+            || data.getInt(0) != MAGIC
+            || data.getInt(4) != VERSION
+            || data.getInt(data.capacity() - 4) != MAGIC) {
+            throw new IOException("Segmento non valido: " + file);
+        }
+        long footer = data.getLong(data.capacity() - TRAILER_SIZE);
+        this.recordsEnd = footer;
+        data.position((int) footer);
+        this.count = data.getInt();
+        int indexSize = data.getInt();
+        this.indexIds = new int[indexSize];
+        this.indexOffsets = new long[indexSize];
+        for (int i = 0; i < indexSize; i++) {
+            this.indexIds[i] = data.getInt();
+            this.indexOffsets[i] = data.getLong();
+        }
+        this.bloomHashes = data.getInt();
+        this.bloom = new long[data.getInt()];
+        for (int i = 0; i < this.bloom.length; i++) {
+            this.bloom[i] = data.getLong();
+        }
+    }
+
+    // REQUIRES:
+    //   `file != null` e `file` è stato scritto da `write`.
+    // THROWS:
+    //   `IOException` se il file non può essere letto o non è un segmento.
+    // EFFECTS:
+    //   Apre il segmento `file`.
+    static PostSegment open(Path file) throws IOException {
+        return new PostSegment(file);
+    }
+
+    // REQUIRES:
+    //   `file != null && records != null && !records.isEmpty()`, gli ID di
+    //   `records` sono distinti e `file` non esiste.
+    // THROWS:
+    //   `IOException` se il file non può essere scritto.
+    //   `IllegalArgumentException` se `records` è vuoto.
+    // MODIFIES:
+    //   Il file system.
+    // EFFECTS:
+    //   Scrive i post `records` nel nuovo segmento `file`, forzandone la
+    //   scrittura su disco, e lo restituisce aperto.
+    static PostSegment write(Path file, List<Record> records) throws IOException, IllegalArgumentException {
+        if (records.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        List<Record> sorted = new ArrayList<>(records);
+        Collections.sort(sorted, new Comparator<Record>() {
+            public int compare(Record a, Record b) {
+                return Integer.compare(a.id, b.id);
+            }
+        });
+        int indexSize = (sorted.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+        int[] indexIds = new int[indexSize];
+        long[] indexOffsets = new long[indexSize];
+        long[] bloom = new long[java.lang.Math.max(1, (sorted.size() * BLOOM_BITS_PER_ID + 63) / 64)];
+        try (OutputStream stream = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            // Per ogni testo, la posizione del primo record che lo contiene.
+            Map<String, Long> texts = new HashMap<>();
+            for (int i = 0; i < sorted.size(); i++) {
+                Record record = sorted.get(i);
+                if (i % INDEX_INTERVAL == 0) {
+                    indexIds[i / INDEX_INTERVAL] = record.id;
+                    indexOffsets[i / INDEX_INTERVAL] = out.size();
+                }
+                PostSegment.addToBloom(bloom, record.id);
+                buffer.reset();
+                Long text = texts.get(record.text);
+                if (text == null) {
+                    texts.put(record.text, (long) out.size());
+                }
+                PostSegment.encode(new DataOutputStream(buffer), record, text == null ? -1 : text);
+                out.writeInt(buffer.size());
+                buffer.writeTo(out);
+            }
+            long footer = out.size();
+            out.writeInt(sorted.size());
+            out.writeInt(indexSize);
+            for (int i = 0; i < indexSize; i++) {
+                out.writeInt(indexIds[i]);
+                out.writeLong(indexOffsets[i]);
+            }
+            out.writeInt(BLOOM_HASHES);
+            out.writeInt(bloom.length);
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            out.writeLong(footer);
+            out.writeInt(MAGIC);
+            out.flush();
+        }
+        // Il segmento deve essere su disco prima che i post lascino lo heap.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        return new PostSegment(file);
+    }
+
+    // Costruisce il record di `post`, che appartiene al thread con radice
+    // `rootId`.
+    static Record record(Post post, int rootId) {
+        List<Post> replies = post.getReplies();
+        int[] replyIds = new int[replies.size()];
+        for (int i = 0; i < replyIds.length; i++) {
+            replyIds[i] = replies.get(i).getId();
+        }
+        return new Record(post.getId(), post.getParent() == null ? -1 : post.getParent().getId(), rootId,
+                          post.getTimestamp(), post.getReplyRestriction(), post.getAuthor(), post.getText(),
+                          new ArrayList<>(post.getLikes()), replyIds);
+    }
+
+    Path getFile() {
+        return this.file;
+    }
+
+    // Il numero di record del segmento.
+    int size() {
+        return this.count;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `false` se il segmento di certo non contiene `id`, `true`
+    //   se potrebbe contenerlo.
+    boolean mightContain(int id) {
+        if (this.indexIds.length == 0 || id < this.indexIds[0]) {
+            return false;
+        }
+        int h1 = PostSegment.mix(id);
+        int h2 = PostSegment.mix(h1 ^ 0x5bd1e995);
+        long bits = 64L * this.bloom.length;
+        for (int i = 0; i < this.bloomHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & 0x7fffffffffffffffL) % bits;
+            if ((this.bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // THROWS:
+    //   `IOException` se il segmento è danneggiato.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il record con ID `id`, `null` se non è presente.
+    Record read(int id) throws IOException {
+        if (!this.mightContain(id)) {
+            return null;
+        }
+        int block = Arrays.binarySearch(this.indexIds, id);
+        if (block < 0) {
+            block = -block - 2;
+        }
+        ByteBuffer data = this.data.duplicate();
+        long position = this.indexOffsets[block];
+        for (int i = 0; i < INDEX_INTERVAL && position < this.recordsEnd; i++) {
+            int length = data.getInt((int) position);
+            int recordId = data.getInt((int) position + 4);
+            if (recordId == id) {
+                return PostSegment.decode(data, position);
+            } else if (recordId > id) {
+                return null;
+            }
+            position += 4 + length;
+        }
+        return null;
+    }
+
+    // THROWS:
+    //   `IOException` se il segmento è danneggiato.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce tutti i record del segmento, in ordine di ID.
+    List<Record> readAll() throws IOException {
+        List<Record> records = new ArrayList<>(this.count);
+        ByteBuffer data = this.data.duplicate();
+        long position = HEADER_SIZE;
+        while (position < this.recordsEnd) {
+            records.add(PostSegment.decode(data, position));
+            position += 4 + data.getInt((int) position);
+        }
+        return records;
+    }
+
+    boolean checkRep() {
+        boolean ri = this.file != null && this.data != null
+                  && this.indexIds.length == this.indexOffsets.length
+                  && this.bloom.length > 0 && this.bloomHashes > 0;
+        for (int i = 1; i < this.indexIds.length; i++) {
+            ri = ri && this.indexIds[i - 1] < this.indexIds[i];
+        }
+        try {
+            List<Record> records = this.readAll();
+            ri = ri && records.size() == this.count;
+            for (Record record : records) {
+                ri = ri && this.mightContain(record.id);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return ri;
+    }
+
+    // Scrive `record`; se `text >= 0` il testo è quello del record in posizione
+    // `text`.
+    private static void encode(DataOutputStream out, Record record, long text) throws IOException {
+        out.writeInt(record.id);
+        out.writeInt(record.parentId);
+        out.writeInt(record.rootId);
+        out.writeLong(record.timestamp.getEpochSecond());
+        out.writeInt(record.timestamp.getNano());
+        out.writeByte(record.replyRestriction.ordinal());
+        out.writeUTF(record.author);
+        if (text < 0) {
+            out.writeByte(TEXT_INLINE);
+            out.writeUTF(record.text);
+        } else {
+            out.writeByte(TEXT_REFERENCE);
+            out.writeLong(text);
+        }
+        out.writeInt(record.likes.size());
+        for (String like : record.likes) {
+            out.writeUTF(like);
+        }
+        out.writeInt(record.replyIds.length);
+        for (int reply : record.replyIds) {
+            out.writeInt(reply);
+        }
+        out.flush();
+    }
+
+    // Decodifica il record che inizia, con la sua lunghezza, in `position`.
+    private static Record decode(ByteBuffer data, long position) throws IOException {
+        byte[] bytes = new byte[data.getInt((int) position)];
+        ByteBuffer slice = data.duplicate();
+        slice.position((int) position + 4);
+        slice.get(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int id = in.readInt();
+        int parentId = in.readInt();
+        int rootId = in.readInt();
+        Instant timestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        Post.ReplyRestriction restriction = Post.ReplyRestriction.values()[in.readByte()];
+        String author = in.readUTF();
+        String text;
+        if (in.readByte() == TEXT_INLINE) {
+            text = in.readUTF();
+        } else {
+            text = PostSegment.decode(data, in.readLong()).text;
+        }
+        int likesSize = in.readInt();
+        List<String> likes = new ArrayList<>(likesSize);
+        for (int i = 0; i < likesSize; i++) {
+            likes.add(in.readUTF());
+        }
+        int[] replyIds = new int[in.readInt()];
+        for (int i = 0; i < replyIds.length; i++) {
+            replyIds[i] = in.readInt();
+        }
+        return new Record(id, parentId, rootId, timestamp, restriction, author, text,
+                          Collections.unmodifiableList(likes), replyIds);
+    }
+
+    private static void addToBloom(long[] bloom, int id) {
+        int h1 = PostSegment.mix(id);
+        int h2 = PostSegment.mix(h1 ^ 0x5bd1e995);
+        long bits = 64L * bloom.length;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((h1 + (long) i * h2) & 0x7fffffffffffffffL) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    // Il passo finale di MurmurHash3, per distribuire ID consecutivi.
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,90 @@
+package net.filippocosta.microblog;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// OVERVIEW:
+//   Un `PostSpliterator` attraversa pigramente una sorgente di elementi di tipo
+//   `T` (per esempio i post interni di `SocialNetwork` oppure i loro ID),
+//   risolvendo ciascun elemento nel relativo post interno tramite `resolver` e
+//   scartando i post che non soddisfano `filter`. Ai consumatori vengono
+//   consegnate soltanto copie (`Post.deepCopy`) dei post accettati, e ciascuna
+//   copia viene creata solo nel momento in cui il post viene consumato: i post
+//   scartati o mai raggiunti (per esempio a causa di `Stream.limit`) non
+//   vengono mai copiati.
+//
+//   La suddivisione (`trySplit`) è delegata alla sorgente, il che permette
+//   l'attraversamento parallelo tramite `Stream.parallel`.
+class PostSpliterator<T> implements Spliterator<Post>, Consumer<T> {
+    // AF(s):
+    //   La sequenza delle copie di `s.resolver.apply(t)` per ogni elemento `t`
+    //   rimanente in `s.source` tale che `s.resolver.apply(t) != null` e
+    //   `s.filter == null || s.filter.test(s.resolver.apply(t))`.
+    // RI(s):
+    //   s.source != null && s.resolver != null
+
+    private final Spliterator<T> source;
+    private final Function<T, Post> resolver;
+    private final Predicate<Post> filter;
+    // L'ultimo elemento ricevuto dalla sorgente tramite `accept`.
+    private T current;
+
+    // REQUIRES:
+    //   `source != null && resolver != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `source == null || resolver == null`.
+    // EFFECTS:
+    //   Restituisce un nuovo `PostSpliterator` sulla sorgente `source`.
+    //   `resolver` può restituire `null` per gli elementi che non corrispondono
+    //   più ad alcun post (per esempio perché eliminato), che vengono saltati;
+    //   `filter` può essere `null`, nel qual caso tutti i post sono accettati.
+    PostSpliterator(Spliterator<T> source, Function<T, Post> resolver, Predicate<Post> filter) throws NullPointerException {
+        if (source == null || resolver == null) {
+            throw new NullPointerException();
+        }
+        this.source = source;
+        this.resolver = resolver;
+        this.filter = filter;
+    }
+
+    // Riceve un elemento dalla sorgente. Non fa parte dell'interfaccia pensata
+    // per gli utilizzatori di questa classe.
+    public void accept(T element) {
+        this.current = element;
+    }
+
+    public boolean tryAdvance(Consumer<? super Post> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        while (this.source.tryAdvance(this)) {
+            Post post = this.resolver.apply(this.current);
+            this.current = null;
+            if (post != null && (this.filter == null || this.filter.test(post))) {
+                action.accept(post.deepCopy());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Spliterator<Post> trySplit() {
+        Spliterator<T> prefix = this.source.trySplit();
+        if (prefix == null) {
+            return null;
+        }
+        return new PostSpliterator<T>(prefix, this.resolver, this.filter);
+    }
+
+    public long estimateSize() {
+        return this.source.estimateSize();
+    }
+
+    public int characteristics() {
+        // Le copie non sono ordinate secondo un `Comparator` e, in presenza di
+        // filtri o di elementi eliminati, il numero di elementi non è noto.
+        return (this.source.characteristics() & (ORDERED | DISTINCT | CONCURRENT | IMMUTABLE)) | NONNULL;
+    }
+}
@@ -0,0 +1,308 @@
+package net.filippocosta.microblog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// OVERVIEW:
+//   Rappresentazione compatta dei testi dei post: un testo è un array di byte
+//   immutabile il cui primo byte indica la codifica dei successivi,
+//     - `LATIN_1`: un byte per carattere, se tutti i caratteri sono < 256;
+//     - `UTF_8`: UTF-8, altrimenti;
+//     - `UTF_16`: due byte per carattere, per i testi con surrogati spaiati,
+//       che UTF-8 non può rappresentare.
+//   Rispetto a una `String` si risparmiano l'oggetto `String` stesso e, per i
+//   testi non Latin-1, la metà circa dei byte. Il testo viene decodificato
+//   soltanto quando è letto (`decode`); `contains` cerca un termine
+//   direttamente nei byte, e `substring` e `regionEquals` leggono e
+//   confrontano una parte del testo, indicata da posizioni nei byte, senza
+//   decodificare il resto.
+//
+//   I testi ripetuti (condivisioni, ondate di spam) vengono deduplicati: una
+//   tabella di dimensione fissa indirizzata dall'hash del contenuto ricorda
+//   gli ultimi testi codificati, e un testo uguale a quello nella sua casella
+//   ne riusa l'array. La tabella non cresce con il numero di post e, essendo
+//   lossy, non garantisce la deduplicazione di testi lontani nel tempo, ma
+//   cattura le ripetizioni ravvicinate che ne costituiscono la gran parte.
+final class PostText {
+    private static final byte LATIN_1 = 0;
+    private static final byte UTF_8 = 1;
+    private static final byte UTF_16 = 2;
+
+    // Numero di caselle della tabella dei testi recenti, potenza di due.
+    static final int TABLE_SIZE = 1 << 12;
+    private static final AtomicReferenceArray<byte[]> RECENT = new AtomicReferenceArray<>(TABLE_SIZE);
+    // Numero di codifiche che hanno riusato un array già presente.
+    private static final AtomicLong SHARED = new AtomicLong();
+
+    private PostText() {}
+
+    // REQUIRES:
+    //   `text != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `text == null`.
+    // MODIFIES:
+    //   La tabella dei testi recenti.
+    // EFFECTS:
+    //   Restituisce la rappresentazione compatta di `text`, eventualmente
+    //   condivisa con altri post. L'array restituito non va modificato.
+    static byte[] encode(String text) throws NullPointerException {
+        byte[] encoded = PostText.toBytes(text);
+        int slot = PostText.mix(Arrays.hashCode(encoded)) & (TABLE_SIZE - 1);
+        byte[] recent = RECENT.get(slot);
+        if (recent != null && Arrays.equals(recent, encoded)) {
+            SHARED.incrementAndGet();
+            return recent;
+        }
+        RECENT.set(slot, encoded);
+        return encoded;
+    }
+
+    // REQUIRES:
+    //   `text` è stato restituito da `encode`.
+    // EFFECTS:
+    //   Restituisce il testo rappresentato da `text`.
+    static String decode(byte[] text) {
+        switch (text[0]) {
+            case LATIN_1:
+                return new String(text, 1, text.length - 1, StandardCharsets.ISO_8859_1);
+            case UTF_8:
+                return new String(text, 1, text.length - 1, StandardCharsets.UTF_8);
+            default:
+                // Non `UTF_16BE`, che sostituirebbe i surrogati spaiati.
+                char[] chars = new char[(text.length - 1) / 2];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) (((text[1 + 2 * i] & 0xff) << 8) | (text[2 + 2 * i] & 0xff));
+                }
+                return new String(chars);
+        }
+    }
+
+    // REQUIRES:
+    //   `text` è stato restituito da `encode` e `term != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `term == null`.
+    // EFFECTS:
+    //   Restituisce `PostText.decode(text).contains(term)`, senza decodificare
+    //   il testo se codificato in Latin-1 o in UTF-8.
+    static boolean contains(byte[] text, String term) throws NullPointerException {
+        if (text[0] == LATIN_1) {
+            int length = term.length();
+            outer:
+            for (int i = 1; i + length <= text.length; i++) {
+                for (int j = 0; j < length; j++) {
+                    if ((text[i + j] & 0xff) != term.charAt(j)) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        } else if (text[0] == UTF_8 && PostText.isWellFormed(term)) {
+            // UTF-8 si auto-sincronizza: i byte di un termine compaiono nei byte
+            // del testo se e solo se il termine compare nel testo.
+            byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+            outer:
+            for (int i = 1; i + bytes.length <= text.length; i++) {
+                for (int j = 0; j < bytes.length; j++) {
+                    if (text[i + j] != bytes[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+        return PostText.decode(text).contains(term);
+    }
+
+    // REQUIRES:
+    //   `text` è stato restituito da `encode`, `decoded` è
+    //   `PostText.decode(text)` e `offsets[i]` è un indice in `decoded`, non
+    //   interno a una coppia di surrogati, per ogni `i >= from`.
+    // MODIFIES:
+    //   `offsets`.
+    // EFFECTS:
+    //   Sostituisce ogni `offsets[i]`, con `i >= from`, con la posizione in
+    //   `text` del carattere di indice `offsets[i]` in `decoded` (`text.length`
+    //   per `decoded.length()`).
+    static void toByteOffsets(byte[] text, String decoded, int[] offsets, int from) {
+        if (text[0] == LATIN_1) {
+            for (int i = from; i < offsets.length; i++) {
+                offsets[i] += 1;
+            }
+        } else if (text[0] == UTF_16) {
+            for (int i = from; i < offsets.length; i++) {
+                offsets[i] = 1 + 2 * offsets[i];
+            }
+        } else {
+            // La posizione nei byte di ogni indice di `decoded`.
+            int[] positions = new int[decoded.length() + 1];
+            int position = 1;
+            for (int i = 0; i < decoded.length(); i++) {
+                positions[i] = position;
+                char c = decoded.charAt(i);
+                if (c < 0x80) {
+                    position += 1;
+                } else if (c < 0x800) {
+                    position += 2;
+                } else if (Character.isHighSurrogate(c)) {
+                    positions[++i] = position;
+                    position += 4;
+                } else {
+                    position += 3;
+                }
+            }
+            positions[decoded.length()] = position;
+            for (int i = from; i < offsets.length; i++) {
+                offsets[i] = positions[offsets[i]];
+            }
+        }
+    }
+
+    // REQUIRES:
+    //   `text` è stato restituito da `encode` e `start` ed `end` sono
+    //   posizioni di caratteri ottenute con `toByteOffsets`, `start <= end`.
+    // EFFECTS:
+    //   Restituisce i caratteri del testo dalla posizione `start` (inclusa) a
+    //   `end` (esclusa), decodificando soltanto quei byte.
+    static String substring(byte[] text, int start, int end) {
+        switch (text[0]) {
+            case LATIN_1:
+                return new String(text, start, end - start, StandardCharsets.ISO_8859_1);
+            case UTF_8:
+                return new String(text, start, end - start, StandardCharsets.UTF_8);
+            default:
+                char[] chars = new char[(end - start) / 2];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) (((text[start + 2 * i] & 0xff) << 8) | (text[start + 2 * i + 1] & 0xff));
+                }
+                return new String(chars);
+        }
+    }
+
+    // REQUIRES:
+    //   Come `substring`, e `s != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `s == null`.
+    // EFFECTS:
+    //   Restituisce `PostText.substring(text, start, end).equals(s)`, senza
+    //   decodificare il testo né allocare memoria.
+    static boolean regionEquals(byte[] text, int start, int end, String s) throws NullPointerException {
+        if (text[0] == LATIN_1) {
+            if (end - start != s.length()) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if ((text[start + i] & 0xff) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (text[0] == UTF_16) {
+            if (end - start != 2 * s.length()) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if ((((text[start + 2 * i] & 0xff) << 8) | (text[start + 2 * i + 1] & 0xff)) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // Il testo è UTF-8 ben formato: si decodifica un code point alla volta
+        // e lo si confronta con i caratteri di `s`.
+        int j = 0;
+        for (int i = start; i < end; ) {
+            int b = text[i] & 0xff;
+            int codePoint;
+            if (b < 0x80) {
+                codePoint = b;
+                i += 1;
+            } else if (b < 0xe0) {
+                codePoint = ((b & 0x1f) << 6) | (text[i + 1] & 0x3f);
+                i += 2;
+            } else if (b < 0xf0) {
+                codePoint = ((b & 0x0f) << 12) | ((text[i + 1] & 0x3f) << 6) | (text[i + 2] & 0x3f);
+                i += 3;
+            } else {
+                codePoint = ((b & 0x07) << 18) | ((text[i + 1] & 0x3f) << 12)
+                          | ((text[i + 2] & 0x3f) << 6) | (text[i + 3] & 0x3f);
+                i += 4;
+            }
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if (j == s.length() || s.charAt(j) != codePoint) {
+                    return false;
+                }
+                j += 1;
+            } else {
+                if (j + 1 >= s.length()
+                    || s.charAt(j) != Character.highSurrogate(codePoint)
+                    || s.charAt(j + 1) != Character.lowSurrogate(codePoint)) {
+                    return false;
+                }
+                j += 2;
+            }
+        }
+        return j == s.length();
+    }
+
+    // Il numero di codifiche che hanno riusato il testo di un altro post.
+    static long getShared() {
+        return SHARED.get();
+    }
+
+    private static byte[] toBytes(String text) {
+        boolean latin1 = true;
+        for (int i = 0; i < text.length() && latin1; i++) {
+            latin1 = text.charAt(i) < 256;
+        }
+        byte kind;
+        byte[] bytes;
+        if (latin1) {
+            kind = LATIN_1;
+            bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        } else if (PostText.isWellFormed(text)) {
+            kind = UTF_8;
+            bytes = text.getBytes(StandardCharsets.UTF_8);
+        } else {
+            kind = UTF_16;
+            bytes = new byte[2 * text.length()];
+            for (int i = 0; i < text.length(); i++) {
+                bytes[2 * i] = (byte) (text.charAt(i) >>> 8);
+                bytes[2 * i + 1] = (byte) text.charAt(i);
+            }
+        }
+        byte[] encoded = new byte[bytes.length + 1];
+        encoded[0] = kind;
+        System.arraycopy(bytes, 0, encoded, 1, bytes.length);
+        return encoded;
+    }
+
+    // Restituisce `true` se e solo se `s` non contiene surrogati spaiati.
+    private static boolean isWellFormed(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c)) {
+                if (i + 1 == s.length() || !Character.isLowSurrogate(s.charAt(i + 1))) {
+                    return false;
+                }
+                i++;
+            } else if (Character.isLowSurrogate(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Il passo finale di MurmurHash3, per usare tutti i bit dell'hash.
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
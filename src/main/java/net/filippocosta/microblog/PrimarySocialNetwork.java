@@ -0,0 +1,247 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// OVERVIEW:
+//   Un `SocialNetworkWithReports` che fa da primario per una o più
+//   `ReadReplica`. Il tipo di dato astratto è quello di
+//   `SocialNetworkWithReports`, a cui si aggiunge il flusso ordinato delle
+//   mutazioni applicate:
+//     <{user_0, ... user_n}, {<post_0, segnalazioni_0>, ... <post_m, segnalazioni_m>},
+//      [mutation_1, ... mutation_k]>
+//
+//   Ogni operazione che modifica lo stato (`register`, `writePost`, `like`,
+//   `dislike`, `report` e `deletePost`) viene aggiunta al flusso solo se va a
+//   buon fine, con un numero di sequenza progressivo, e inoltrata a tutte le
+//   repliche. Le scritture sono serializzate, così che l'ordine del flusso
+//   coincida con quello in cui sono state applicate; le letture non
+//   attendono le scritture.
+//
+//   Del flusso il primario conserva soltanto le mutazioni che qualche
+//   replica non ha ancora confermato (`ReadReplica` conferma ogni blocco di
+//   mutazioni applicate): la memoria occupata dipende dal ritardo delle
+//   repliche, non dal numero di scritture. Una replica creata in un secondo
+//   momento non riparte dalla prima mutazione, ma da un'istantanea dello
+//   stato attuale del primario (`checkpoint`), e riceve poi le mutazioni
+//   successive.
+//
+//   Esempio di lettura delle proprie scritture (read-your-writes):
+//
+//     Post post = primary.writePost(builder);
+//     long sequence = primary.getSequence();
+//     if (replica.awaitSequence(sequence, 1, TimeUnit.SECONDS)) {
+//         ... la replica contiene `post` ...
+//     }
+public class PrimarySocialNetwork extends SocialNetworkWithReports {
+    // AF(c):
+    //   <AF_SocialNetworkWithReports(c), [m_1, ... m_c.sequence]>
+    //   dove le mutazioni confermate da tutte le repliche non sono più
+    //   conservate, e `c.log` contiene le restanti.
+    // RI(c):
+    //   RI_SocialNetworkWithReports(c)
+    //   && c.sequence >= 0
+    //   && c.log != null && c.replicas != null && c.acknowledged != null
+    //   && c.acknowledged.keySet() == {r | r ∈ c.replicas}
+    //   && (forall <r, s> ∈ c.acknowledged ==> 0 <= s <= c.sequence)
+    //   && (forall i | 0 <= i < c.log.size()
+    //       ==> c.log.get(i).getSequence() == c.sequence - c.log.size() + i + 1)
+    //   && (c.log.size() > 0
+    //       ==> (exists <r, s> ∈ c.acknowledged ==> s < c.log.getFirst().getSequence()))
+
+    private final Deque<Mutation> log = new ArrayDeque<>();
+    private final List<ReadReplica> replicas = new CopyOnWriteArrayList<>();
+    // Per ogni replica, il numero di sequenza dell'ultima mutazione che ha
+    // confermato.
+    private final Map<ReadReplica, Long> acknowledged = new HashMap<>();
+    // Il numero di sequenza dell'ultima mutazione applicata.
+    private long sequence = 0;
+
+    // Costruttore per la classe `PrimarySocialNetwork`.
+    //
+    // EFFECTS:
+    //   Restituisce un nuovo primario senza utenti, post né repliche, con un
+    //   flusso di mutazioni vuoto.
+    public PrimarySocialNetwork() {
+        super();
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di sequenza dell'ultima mutazione applicata, `0`
+    //   se non ne è stata applicata alcuna. Subito dopo una scrittura, il valore
+    //   restituito è maggiore o uguale al numero di sequenza della scrittura
+    //   stessa e può quindi essere passato a `ReadReplica.awaitSequence`.
+    public synchronized long getSequence() {
+        return this.sequence;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di mutazioni conservate perché non ancora
+    //   confermate da tutte le repliche.
+    synchronized int getLogSize() {
+        return this.log.size();
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Crea e restituisce una nuova replica di `this`, che parte dallo stato
+    //   attuale di `this` e riceverà tutte le mutazioni future. La replica va
+    //   chiusa con `ReadReplica.close` quando non serve più.
+    public synchronized ReadReplica createReplica() {
+        ReadReplica replica = new ReadReplica(this, this.checkpoint(), this.sequence);
+        this.replicas.add(replica);
+        this.acknowledged.put(replica, this.sequence);
+        return replica;
+    }
+
+    // Smette di inoltrare mutazioni a `replica`, invocato da `ReadReplica.close`.
+    synchronized void removeReplica(ReadReplica replica) {
+        this.replicas.remove(replica);
+        this.acknowledged.remove(replica);
+        this.truncate();
+    }
+
+    // Registra che `replica` ha applicato tutte le mutazioni fino alla numero
+    // `sequence`, invocato dal thread della replica dopo ogni blocco, e scarta
+    // le mutazioni ormai confermate da tutte le repliche.
+    synchronized void acknowledge(ReadReplica replica, long sequence) {
+        Long previous = this.acknowledged.get(replica);
+        if (previous != null && previous < sequence) {
+            this.acknowledged.put(replica, sequence);
+            this.truncate();
+        }
+    }
+
+    @Override
+    public synchronized String register(String username) throws NullPointerException, IllegalArgumentException {
+        super.register(username);
+        this.publish(Mutation.register(this.sequence + 1, username));
+        return username;
+    }
+
+    @Override
+    public synchronized Post writePost(Post.Builder builder) throws NullPointerException, IllegalArgumentException {
+        Post post = super.writePost(builder);
+        this.publish(Mutation.writePost(this.sequence + 1, post));
+        return post;
+    }
+
+    @Override
+    public synchronized void like(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        super.like(post, username);
+        this.publish(Mutation.onPost(this.sequence + 1, Mutation.Kind.LIKE, username, post.getId()));
+    }
+
+    @Override
+    public synchronized void dislike(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        super.dislike(post, username);
+        this.publish(Mutation.onPost(this.sequence + 1, Mutation.Kind.DISLIKE, username, post.getId()));
+    }
+
+    // Come `SocialNetworkWithReports.report(int, String)`. Anche
+    // `report(Post, String)` e `reportAll` passano da questo metodo.
+    @Override
+    public synchronized void report(int postId, String username) throws NullPointerException, PostReportException {
+        super.report(postId, username);
+        this.publish(Mutation.onPost(this.sequence + 1, Mutation.Kind.REPORT, username, postId));
+    }
+
+    @Override
+    public synchronized List<Integer> deletePost(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        List<Integer> deleted = super.deletePost(post, username);
+        this.publish(Mutation.onPost(this.sequence + 1, Mutation.Kind.DELETE_POST, username, post.getId()));
+        return deleted;
+    }
+
+    @Override
+    public synchronized boolean checkRep() {
+        boolean ri = super.checkRep()
+                  && this.sequence >= 0
+                  && this.acknowledged.size() == this.replicas.size();
+        long oldest = this.sequence;
+        for (ReadReplica replica : this.replicas) {
+            Long acknowledged = this.acknowledged.get(replica);
+            ri = ri && acknowledged != null && 0 <= acknowledged && acknowledged <= this.sequence;
+            if (acknowledged != null) {
+                oldest = Math.min(oldest, acknowledged);
+            }
+        }
+        long expected = this.sequence - this.log.size() + 1;
+        for (Mutation mutation : this.log) {
+            ri = ri && mutation.getSequence() == expected && mutation.getSequence() > oldest;
+            expected++;
+        }
+        return ri;
+    }
+
+    // Aggiunge `mutation` al flusso e la inoltra alle repliche. Va invocato
+    // detenendo il lock di `this`. Senza repliche la mutazione non va
+    // conservata: una replica futura partirà da `checkpoint`.
+    private void publish(Mutation mutation) {
+        this.sequence = mutation.getSequence();
+        if (this.replicas.isEmpty()) {
+            return;
+        }
+        this.log.addLast(mutation);
+        List<Mutation> batch = new ArrayList<>(1);
+        batch.add(mutation);
+        for (ReadReplica replica : this.replicas) {
+            replica.deliver(batch);
+        }
+    }
+
+    // Scarta le mutazioni confermate da tutte le repliche. Va invocato
+    // detenendo il lock di `this`.
+    private void truncate() {
+        long oldest = this.sequence;
+        for (long acknowledged : this.acknowledged.values()) {
+            oldest = Math.min(oldest, acknowledged);
+        }
+        while (!this.log.isEmpty() && this.log.peekFirst().getSequence() <= oldest) {
+            this.log.removeFirst();
+        }
+    }
+
+    // Restituisce le mutazioni che portano un social network vuoto nello
+    // stato attuale di `this`, tutte con il numero di sequenza attuale: le
+    // registrazioni degli utenti, poi i post in ordine di ID (ogni genitore
+    // precede le proprie risposte) con gli stessi ID e date di pubblicazione,
+    // infine like e segnalazioni. Va invocato detenendo il lock di `this`.
+    private List<Mutation> checkpoint() {
+        List<Mutation> mutations = new ArrayList<>();
+        for (String username : this.getUsers()) {
+            mutations.add(Mutation.register(this.sequence, username));
+        }
+        List<Integer> ids = new ArrayList<>();
+        Iterator<Integer> iterator = this.postIds();
+        while (iterator.hasNext()) {
+            ids.add(iterator.next());
+        }
+        Collections.sort(ids);
+        List<Mutation> interactions = new ArrayList<>();
+        for (int id : ids) {
+            Post post = this.peekPost(id);
+            mutations.add(Mutation.writePost(this.sequence, post));
+            for (String username : post.getLikes()) {
+                interactions.add(Mutation.onPost(this.sequence, Mutation.Kind.LIKE, username, id));
+            }
+            for (String username : this.getReporters(id)) {
+                interactions.add(Mutation.onPost(this.sequence, Mutation.Kind.REPORT, username, id));
+            }
+        }
+        mutations.addAll(interactions);
+        return mutations;
+    }
+}
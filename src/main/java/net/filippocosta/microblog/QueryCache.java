@@ -0,0 +1,196 @@
+package net.filippocosta.microblog;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// OVERVIEW:
+//   Cache dei risultati delle interrogazioni costose di un `SocialNetwork`
+//   (`containing`, `influencers`, `blacklist`). Ogni risultato è associato alla
+//   sua interrogazione e alle generazioni, lette prima di calcolarlo, delle
+//   strutture dati (`Structure`) da cui dipende. Ogni modifica di una
+//   struttura ne incrementa la generazione dopo essere stata applicata: un
+//   risultato le cui generazioni non sono più quelle correnti viene scartato
+//   alla lettura, e non viene quindi mai restituito un risultato obsoleto.
+//
+//   La cache è limitata sia nel numero di risultati sia nel loro peso totale
+//   (per esempio il numero di post), ed elimina per primi i risultati usati
+//   meno di recente. È disattivata di default: finché la capacità è zero,
+//   `get` restituisce sempre `null` e `put` non fa nulla.
+final class QueryCache implements CheckRep {
+    // AF(c):
+    //   {<k, e.value> | <k, e> ∈ c.entries
+    //                   && (forall i ==> c.generations[e.deps[i]] == e.stamp[i])}
+    //   con capacità <c.maxEntries, c.maxWeight>.
+    // RI(c):
+    //   c.entries != null && c.generations.length() == Structure.values().length
+    //   && c.maxEntries >= 0 && c.maxWeight >= 0
+    //   && c.entries.size() <= c.maxEntries
+    //   && c.weight == sum(e.weight | e ∈ c.entries.values()) && c.weight <= c.maxWeight
+
+    // OVERVIEW:
+    //   Le strutture dati da cui dipendono i risultati.
+    enum Structure {
+        // Gli ID dei post e i loro testi: `writePost` e `deletePost`.
+        POSTS,
+        // Gli utenti e gli archi del grafo dei follower: `register` e i like o
+        // le eliminazioni che cambiano un post di presentazione.
+        FOLLOWS,
+        // L'insieme dei post nella blacklist.
+        BLACKLIST,
+    }
+
+    // Le generazioni lette prima di calcolare un risultato.
+    static final class Stamp {
+        private final Structure[] deps;
+        private final long[] generations;
+
+        private Stamp(Structure[] deps, long[] generations) {
+            this.deps = deps;
+            this.generations = generations;
+        }
+    }
+
+    private static final class Entry {
+        private final Stamp stamp;
+        private final Object value;
+        private final long weight;
+
+        private Entry(Stamp stamp, Object value, long weight) {
+            this.stamp = stamp;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final AtomicLongArray generations = new AtomicLongArray(Structure.values().length);
+    // In ordine di accesso: il primo è quello usato meno di recente.
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile int maxEntries = 0;
+    private long maxWeight = 0;
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    // REQUIRES:
+    //   `maxEntries >= 0 && maxWeight >= 0`.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se i requisiti non sono rispettati.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Limita la cache a `maxEntries` risultati di peso totale `maxWeight`,
+    //   eliminando quelli usati meno di recente. Con `maxEntries == 0` la
+    //   cache viene svuotata e disattivata.
+    public synchronized void setCapacity(int maxEntries, long maxWeight) throws IllegalArgumentException {
+        if (maxEntries < 0 || maxWeight < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.evict();
+    }
+
+    public boolean isEnabled() {
+        return this.maxEntries > 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    // Incrementa la generazione di `structure`. Va invocato dopo averla
+    // modificata.
+    void bump(Structure structure) {
+        this.generations.incrementAndGet(structure.ordinal());
+    }
+
+    // Legge le generazioni correnti di `deps`. Va invocato prima di leggere
+    // le strutture per calcolare il risultato da passare a `put`.
+    Stamp stamp(Structure... deps) {
+        long[] generations = new long[deps.length];
+        for (int i = 0; i < deps.length; i++) {
+            generations[i] = this.generations.get(deps[i].ordinal());
+        }
+        return new Stamp(deps, generations);
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Restituisce il risultato associato a `key` se è ancora valido, `null`
+    //   altrimenti. I risultati obsoleti vengono eliminati.
+    synchronized Object get(Object key) {
+        if (this.maxEntries == 0) {
+            return null;
+        }
+        Entry entry = this.entries.get(key);
+        if (entry != null && !this.isCurrent(entry.stamp)) {
+            this.entries.remove(key);
+            this.weight -= entry.weight;
+            entry = null;
+        }
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.value;
+    }
+
+    // REQUIRES:
+    //   `stamp` è stato ottenuto con `stamp` prima di calcolare `value`, e
+    //   `value` non verrà più modificato.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Associa `value`, di peso `weight`, a `key`, a meno che sia già
+    //   obsoleto o più pesante dell'intera cache.
+    synchronized void put(Object key, Stamp stamp, Object value, long weight) {
+        if (this.maxEntries == 0 || weight > this.maxWeight || !this.isCurrent(stamp)) {
+            return;
+        }
+        Entry old = this.entries.put(key, new Entry(stamp, value, weight));
+        if (old != null) {
+            this.weight -= old.weight;
+        }
+        this.weight += weight;
+        this.evict();
+    }
+
+    public synchronized boolean checkRep() {
+        long weight = 0;
+        for (Entry entry : this.entries.values()) {
+            weight += entry.weight;
+        }
+        return this.maxEntries >= 0 && this.maxWeight >= 0
+            && this.entries.size() <= this.maxEntries
+            && weight == this.weight && weight <= this.maxWeight;
+    }
+
+    private boolean isCurrent(Stamp stamp) {
+        for (int i = 0; i < stamp.deps.length; i++) {
+            if (this.generations.get(stamp.deps[i].ordinal()) != stamp.generations[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Object, Entry>> eldest = this.entries.entrySet().iterator();
+        while (eldest.hasNext() && (this.entries.size() > this.maxEntries || this.weight > this.maxWeight)) {
+            this.weight -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// OVERVIEW:
+//   Una replica in sola lettura di un `PrimarySocialNetwork`. Il tipo di dato
+//   astratto è quello di `SocialNetworkWithReports`, assieme al numero di
+//   sequenza dell'ultima mutazione del primario applicata:
+//     <{user_0, ... user_n}, {<post_0, segnalazioni_0>, ... <post_m, segnalazioni_m>}, sequence>
+//
+//   Le mutazioni del primario vengono applicate in modo asincrono da un thread
+//   dedicato, nell'ordine del flusso e a blocchi: lo stato della replica è
+//   sempre quello del primario dopo la mutazione `sequence`, con un ritardo
+//   (replication lag) che dipende dal carico. I post della replica hanno gli
+//   stessi ID e le stesse date di pubblicazione di quelli del primario.
+//
+//   Le letture passano da `read`, che esegue un'interrogazione sullo stato
+//   della replica mentre nessuna mutazione è in corso; più letture possono
+//   essere eseguite in parallelo. Per leggere le proprie scritture basta
+//   attendere con `awaitSequence` il numero di sequenza restituito da
+//   `PrimarySocialNetwork.getSequence` dopo la scrittura.
+public class ReadReplica implements CheckRep, AutoCloseable {
+    // AF(c):
+    //   <AF_SocialNetworkWithReports(c.network), c.sequence>
+    // RI(c):
+    //   c.primary != null && c.network != null && c.pending != null
+    //   && c.lock != null && c.sequence >= 0
+    //   && (forall m ∈ c.pending ==> m.getSequence() > c.sequence)
+
+    // OVERVIEW:
+    //   Un'interrogazione in sola lettura sullo stato di una replica.
+    public interface Query<T> {
+        // REQUIRES:
+        //   `network` non viene modificato.
+        // EFFECTS:
+        //   Restituisce il risultato dell'interrogazione su `network`.
+        public T apply(SocialNetworkWithReports network);
+    }
+
+    private final PrimarySocialNetwork primary;
+    private final SocialNetworkWithReports network = new SocialNetworkWithReports();
+    private final BlockingQueue<Mutation> pending = new LinkedBlockingQueue<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Thread applier;
+    // Numero di sequenza dell'ultima mutazione applicata, protetto da `this`.
+    private long sequence = 0;
+    // L'errore che ha interrotto la replica, `null` se assente.
+    private volatile RuntimeException failure = null;
+
+    // Costruttore per la classe `ReadReplica`, usato da
+    // `PrimarySocialNetwork.createReplica`: la replica parte dallo stato
+    // ottenuto applicando `checkpoint`, ovvero quello del primario dopo la
+    // mutazione `sequence`.
+    ReadReplica(PrimarySocialNetwork primary, List<Mutation> checkpoint, long sequence) {
+        this.primary = primary;
+        for (Mutation mutation : checkpoint) {
+            mutation.applyTo(this.network);
+        }
+        this.sequence = sequence;
+        this.applier = new Thread(new Runnable() {
+            public void run() {
+                ReadReplica.this.applyLoop();
+            }
+        }, "ReadReplica");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    // Accoda `mutations` per l'applicazione asincrona.
+    void deliver(Collection<Mutation> mutations) {
+        this.pending.addAll(mutations);
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di sequenza dell'ultima mutazione applicata.
+    public synchronized long getSequence() {
+        return this.sequence;
+    }
+
+    // REQUIRES:
+    //   `unit != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `unit == null`.
+    //   `InterruptedException` se il thread viene interrotto durante l'attesa.
+    //   `IllegalStateException` se la replica è stata interrotta da un errore.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Attende al più `timeout` che la replica abbia applicato la mutazione
+    //   `sequence`. Restituisce `true` se e solo se vi è riuscita.
+    public boolean awaitSequence(long sequence, long timeout, TimeUnit unit) throws NullPointerException, InterruptedException, IllegalStateException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (this.sequence < sequence) {
+                this.checkFailure();
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+
+    // REQUIRES:
+    //   `query != null` e `query` non modifica lo stato della replica.
+    // THROWS:
+    //   `NullPointerException` se e solo se `query == null`.
+    //   `IllegalStateException` se la replica è stata interrotta da un errore.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Esegue `query` sullo stato attuale della replica e ne restituisce il
+    //   risultato.
+    public <T> T read(Query<T> query) throws NullPointerException, IllegalStateException {
+        if (query == null) {
+            throw new NullPointerException();
+        }
+        this.checkFailure();
+        this.lock.readLock().lock();
+        try {
+            return query.apply(this.network);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Scollega la replica dal primario e ne arresta il thread. Lo stato
+    //   raggiunto resta leggibile.
+    public void close() {
+        this.primary.removeReplica(this);
+        this.applier.interrupt();
+    }
+
+    public boolean checkRep() {
+        this.lock.readLock().lock();
+        try {
+            boolean ri = this.network.checkRep() && this.getSequence() >= 0;
+            long applied = this.getSequence();
+            for (Mutation mutation : this.pending) {
+                ri = ri && mutation.getSequence() > applied;
+            }
+            return ri;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void checkFailure() throws IllegalStateException {
+        if (this.failure != null) {
+            throw new IllegalStateException(this.failure);
+        }
+    }
+
+    // Applica le mutazioni in arrivo finché la replica non viene chiusa.
+    // Ogni blocco di mutazioni già accodate viene applicato sotto un'unica
+    // acquisizione del lock di scrittura, e poi confermato al primario.
+    private void applyLoop() {
+        List<Mutation> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(this.pending.take());
+                this.pending.drainTo(batch);
+                long applied;
+                this.lock.writeLock().lock();
+                try {
+                    for (Mutation mutation : batch) {
+                        mutation.applyTo(this.network);
+                    }
+                    applied = batch.get(batch.size() - 1).getSequence();
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+                synchronized (this) {
+                    this.sequence = applied;
+                    this.notifyAll();
+                }
+                this.primary.acknowledge(this, applied);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Replica chiusa.
+        } catch (RuntimeException e) {
+            this.failure = e;
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+}
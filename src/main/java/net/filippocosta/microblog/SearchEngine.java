@@ -0,0 +1,731 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// OVERVIEW:
+//   Un motore di ricerca sui post di un `SocialNetwork`, che risponde alle
+//   interrogazioni booleane di `SearchQuery` restituendo i `k` post con il
+//   punteggio più alto. Il tipo di dato astratto è la funzione
+//     search: <query, k> -> [post_0, ... post_j]
+//   con `j < k`, dove i post soddisfano `query` e sono in ordine di punteggio
+//   decrescente (a parità di punteggio, dal più recente). Il punteggio di un
+//   post `p` è
+//     testo(p) + likeWeight * ln(1 + |p.getLikes()|) + recencyWeight * 2^(-età(p) / halfLife)
+//   dove `testo(p)` è la somma delle IDF, `ln(1 + N / df)`, delle parole,
+//   degli hashtag, dei tag e degli autori dell'interrogazione presenti in `p`
+//   (escluse le negazioni).
+//
+//   Il motore si mantiene aggiornato tramite un `ChangeListener` sincrono
+//   registrato su `network` e costruisce un indice invertito: per ogni parola
+//   (in minuscolo), hashtag, tag e autore, la lista ordinata degli ID dei post
+//   che lo contengono. Le frasi vengono cercate come intersezione delle loro
+//   parole e poi verificate sul testo. I post eliminati vengono scartati al
+//   momento della ricerca e rimossi dall'indice a blocchi.
+//
+//   Le liste vengono visitate dal post più recente al più vecchio, saltando
+//   con una ricerca binaria ai soli ID che possono soddisfare l'intera
+//   interrogazione. Per non dover calcolare il punteggio di tutti i post che
+//   la soddisfano, lo spazio degli ID è inoltre diviso in blocchi di
+//   `BLOCK_SIZE` ID, per ciascuno dei quali si conoscono il massimo numero di
+//   like e la data di pubblicazione più recente: una volta raccolti `k` post,
+//   i blocchi il cui punteggio massimo non supera il `k`-esimo vengono
+//   saltati per intero.
+//
+//   Le ricerche possono essere eseguite da più thread contemporaneamente,
+//   anche durante le modifiche di `network`.
+class SearchEngine implements CheckRep, AutoCloseable {
+    // AF(c):
+    //   La funzione `search` descritta sopra sui post di `c.network`.
+    // RI(c):
+    //   c.network != null && c.postings != null && c.all != null
+    //   && (forall <k, l> ∈ c.postings ==> l != null && l.isSortedSet())
+    //   && c.all.isSortedSet()
+    //   && (forall id ∈ c.network.postIds() ==> c.all.contains(id))
+    //   && (forall id ∈ c.all ==> c.network.peekPost(id) != null || c.deleted.contains(id))
+    //   && c.maxLikes.length == c.maxTimestamps.length
+    //   && (forall id ∈ c.all, p = c.network.peekPost(id), p != null
+    //       ==> c.maxLikes[id / BLOCK_SIZE] >= p.getLikes().size()
+    //        && c.maxTimestamps[id / BLOCK_SIZE] >= p.getTimestamp().toEpochMilli())
+
+    // Numero di ID per blocco di punteggio massimo.
+    static final int BLOCK_SIZE = 256;
+    private static final int BLOCK_SHIFT = 8;
+    private static final double DEFAULT_LIKE_WEIGHT = 1.0;
+    private static final double DEFAULT_RECENCY_WEIGHT = 2.0;
+    private static final long DEFAULT_HALF_LIFE_MILLIS = 24L * 60 * 60 * 1000;
+    // Valore di `Cursor.doc()` prima della prima `next` e a lista esaurita.
+    private static final int START = Integer.MAX_VALUE;
+    private static final int END = -1;
+
+    // Una lista ordinata e senza ripetizioni di ID.
+    private static class PostingList {
+        private int[] ids = new int[2];
+        private int size = 0;
+
+        private void add(int id) {
+            if (this.size > 0 && this.ids[this.size - 1] >= id) {
+                int index = Arrays.binarySearch(this.ids, 0, this.size, id);
+                if (index >= 0) {
+                    return;
+                }
+                this.insert(-index - 1, id);
+            } else {
+                this.insert(this.size, id);
+            }
+        }
+
+        private void insert(int index, int id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+            }
+            System.arraycopy(this.ids, index, this.ids, index + 1, this.size - index);
+            this.ids[index] = id;
+            this.size++;
+        }
+
+        private boolean contains(int id) {
+            return Arrays.binarySearch(this.ids, 0, this.size, id) >= 0;
+        }
+
+        // Rimuove gli ID in `removed`.
+        private void removeAll(Set<Integer> removed) {
+            int kept = 0;
+            for (int i = 0; i < this.size; i++) {
+                if (!removed.contains(this.ids[i])) {
+                    this.ids[kept++] = this.ids[i];
+                }
+            }
+            this.size = kept;
+        }
+
+        private boolean isSortedSet() {
+            for (int i = 1; i < this.size; i++) {
+                if (this.ids[i - 1] >= this.ids[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final PostingList EMPTY = new PostingList();
+
+    private final SocialNetwork network;
+    private final ChangeListener listener;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Indice invertito: parole in minuscolo, "#hashtag" in minuscolo,
+    // "@tag" e "from:autore". Le chiavi non si confondono perché le parole non
+    // contengono né `#`, né `@`, né `:`.
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final PostingList all = new PostingList();
+    // Post eliminati ancora presenti nell'indice.
+    private final Set<Integer> deleted = new HashSet<>();
+    // Per ogni blocco di ID, il massimo numero di like (mai decrementato) e la
+    // data di pubblicazione più recente, in millisecondi.
+    private int[] maxLikes = new int[16];
+    private long[] maxTimestamps = new long[16];
+    private volatile double likeWeight = DEFAULT_LIKE_WEIGHT;
+    private volatile double recencyWeight = DEFAULT_RECENCY_WEIGHT;
+    private volatile long halfLifeMillis = DEFAULT_HALF_LIFE_MILLIS;
+    // Numero di post di cui è stato calcolato il punteggio, per i test.
+    private final AtomicLong scored = new AtomicLong();
+
+    // REQUIRES:
+    //   `network != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `network == null`.
+    // MODIFIES:
+    //   `network`.
+    // EFFECTS:
+    //   Indicizza i post di `network` e restituisce un motore di ricerca che
+    //   resta aggiornato finché non viene chiuso con `close`.
+    SearchEngine(SocialNetwork network) throws NullPointerException {
+        if (network == null) {
+            throw new NullPointerException();
+        }
+        this.network = network;
+        this.listener = new ChangeListener() {
+            public void changesPublished(List<ChangeEvent> events) {
+                SearchEngine.this.apply(events);
+            }
+        };
+        this.lock.writeLock().lock();
+        try {
+            // Prima il listener, poi i post già presenti: `index` ignora i
+            // post indicizzati due volte.
+            network.addChangeListener(this.listener, false);
+            List<Integer> ids = new ArrayList<>();
+            Iterator<Integer> iterator = network.postIds();
+            while (iterator.hasNext()) {
+                ids.add(iterator.next());
+            }
+            Collections.sort(ids);
+            for (int id : ids) {
+                Post post = network.peekPost(id);
+                if (post != null) {
+                    this.index(post);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Smette di seguire le modifiche di `network`.
+    public void close() {
+        this.network.removeChangeListener(this.listener);
+    }
+
+    // REQUIRES:
+    //   `likeWeight >= 0 && recencyWeight >= 0 && halfLifeMillis > 0`.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se i parametri non rispettano i
+    //   requisiti.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Imposta i pesi del punteggio e restituisce `this`.
+    SearchEngine setWeights(double likeWeight, double recencyWeight, long halfLifeMillis) throws IllegalArgumentException {
+        if (!(likeWeight >= 0) || !(recencyWeight >= 0) || halfLifeMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.likeWeight = likeWeight;
+        this.recencyWeight = recencyWeight;
+        this.halfLifeMillis = halfLifeMillis;
+        return this;
+    }
+
+    // Come `search(SearchQuery.parse(query), k)`.
+    List<Post> search(String query, int k) throws NullPointerException, IllegalArgumentException {
+        return this.search(SearchQuery.parse(query), k);
+    }
+
+    // REQUIRES:
+    //   `query != null && k >= 1`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `query == null`.
+    //   `IllegalArgumentException` se e solo se `k < 1`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce le copie dei (al più) `k` post che soddisfano `query` con
+    //   il punteggio più alto, in ordine di punteggio decrescente.
+    List<Post> search(SearchQuery query, int k) throws NullPointerException, IllegalArgumentException {
+        if (query == null) {
+            throw new NullPointerException();
+        } else if (k < 1) {
+            throw new IllegalArgumentException();
+        }
+        long now = System.currentTimeMillis();
+        double likeWeight = this.likeWeight;
+        double recencyWeight = this.recencyWeight;
+        long halfLife = this.halfLifeMillis;
+        // Min-heap dei migliori `k` post trovati finora.
+        PriorityQueue<Scored> heap = new PriorityQueue<>(k + 1);
+        List<Post> results;
+        long scoredPosts = 0;
+        this.lock.readLock().lock();
+        try {
+            Cursor cursor = this.cursor(query);
+            double maxText = cursor.maxScore();
+            int block = -1;
+            double blockBound = Double.POSITIVE_INFINITY;
+            int doc = cursor.next();
+            while (doc != END) {
+                int docBlock = doc >>> BLOCK_SHIFT;
+                if (docBlock != block) {
+                    block = docBlock;
+                    blockBound = maxText
+                               + likeWeight * Math.log1p(this.maxLikes[block])
+                               + recencyWeight * SearchEngine.recency(now - this.maxTimestamps[block], halfLife);
+                }
+                if (heap.size() == k && blockBound <= heap.peek().score) {
+                    // Nessun post del blocco può entrare tra i primi `k`.
+                    doc = cursor.advance((block << BLOCK_SHIFT) - 1);
+                    continue;
+                }
+                Post post = this.network.peekPost(doc);
+                if (post != null) {
+                    scoredPosts++;
+                    double score = cursor.score()
+                                 + likeWeight * Math.log1p(post.getLikes().size())
+                                 + recencyWeight * SearchEngine.recency(now - post.getTimestamp().toEpochMilli(), halfLife);
+                    if (heap.size() < k || score > heap.peek().score) {
+                        heap.add(new Scored(post, score));
+                        if (heap.size() > k) {
+                            heap.poll();
+                        }
+                    }
+                }
+                doc = cursor.next();
+            }
+            List<Scored> best = new ArrayList<>(heap);
+            Collections.sort(best, Collections.reverseOrder());
+            results = new ArrayList<>(best.size());
+            for (Scored entry : best) {
+                results.add(entry.post.deepCopy());
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        this.scored.addAndGet(scoredPosts);
+        return results;
+    }
+
+    // Restituisce il numero totale di post di cui è stato calcolato il
+    // punteggio dalla creazione di `this`.
+    long getScoredCount() {
+        return this.scored.get();
+    }
+
+    public boolean checkRep() {
+        this.lock.readLock().lock();
+        try {
+            boolean ri = this.all.isSortedSet() && this.maxLikes.length == this.maxTimestamps.length;
+            for (PostingList list : this.postings.values()) {
+                ri = ri && list.isSortedSet();
+            }
+            Iterator<Integer> iterator = this.network.postIds();
+            while (iterator.hasNext()) {
+                ri = ri && this.all.contains(iterator.next());
+            }
+            for (int i = 0; i < this.all.size; i++) {
+                int id = this.all.ids[i];
+                Post post = this.network.peekPost(id);
+                ri = ri && (post != null || this.deleted.contains(id));
+                if (post != null) {
+                    ri = ri
+                      && this.maxLikes[id >>> BLOCK_SHIFT] >= post.getLikes().size()
+                      && this.maxTimestamps[id >>> BLOCK_SHIFT] >= post.getTimestamp().toEpochMilli();
+                }
+            }
+            return ri;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private static double recency(long ageMillis, long halfLife) {
+        return java.lang.Math.pow(2, -(double) java.lang.Math.max(0, ageMillis) / halfLife);
+    }
+
+    // Aggiorna l'indice a fronte delle modifiche di `network`.
+    private void apply(List<ChangeEvent> events) {
+        this.lock.writeLock().lock();
+        try {
+            for (ChangeEvent event : events) {
+                switch (event.getKind()) {
+                    case POST_CREATED:
+                        Post post = this.network.peekPost(event.getPostId());
+                        if (post != null) {
+                            this.index(post);
+                        }
+                        break;
+                    case POST_DELETED:
+                        this.deleted.add(event.getPostId());
+                        break;
+                    case LIKE_CHANGED:
+                        Post liked = this.network.peekPost(event.getPostId());
+                        if (liked != null && event.getState()) {
+                            int block = event.getPostId() >>> BLOCK_SHIFT;
+                            this.maxLikes[block] = java.lang.Math.max(this.maxLikes[block], liked.getLikes().size());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            // Le liste vengono ripulite solo quando i post eliminati sono
+            // abbastanza da ripagare una visita dell'intero indice.
+            if (this.deleted.size() >= BLOCK_SIZE && this.deleted.size() * 8 >= this.all.size) {
+                for (PostingList list : this.postings.values()) {
+                    list.removeAll(this.deleted);
+                }
+                this.all.removeAll(this.deleted);
+                this.deleted.clear();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // Aggiunge `post` all'indice. Va invocato detenendo il lock di scrittura.
+    private void index(final Post post) {
+        final int id = post.getId();
+        if (this.all.contains(id)) {
+            return;
+        }
+        this.all.add(id);
+        this.posting("from:" + post.getAuthor()).add(id);
+        final String text = post.getText();
+        Tokenizer.tokenize(text, new Tokenizer.Sink() {
+            public void token(Tokenizer.Kind kind, int start, int end) {
+                String token = text.substring(start, end);
+                switch (kind) {
+                    case WORD:
+                        SearchEngine.this.posting(token.toLowerCase(Locale.ROOT)).add(id);
+                        break;
+                    case HASHTAG:
+                        SearchEngine.this.posting("#" + token.toLowerCase(Locale.ROOT)).add(id);
+                        break;
+                    case MENTION:
+                        SearchEngine.this.posting("@" + token).add(id);
+                        break;
+                }
+            }
+        });
+        int block = id >>> BLOCK_SHIFT;
+        if (block >= this.maxLikes.length) {
+            int length = java.lang.Math.max(block + 1, 2 * this.maxLikes.length);
+            this.maxLikes = Arrays.copyOf(this.maxLikes, length);
+            this.maxTimestamps = Arrays.copyOf(this.maxTimestamps, length);
+        }
+        this.maxLikes[block] = java.lang.Math.max(this.maxLikes[block], post.getLikes().size());
+        this.maxTimestamps[block] = java.lang.Math.max(this.maxTimestamps[block], post.getTimestamp().toEpochMilli());
+    }
+
+    private PostingList posting(String key) {
+        PostingList list = this.postings.get(key);
+        if (list == null) {
+            list = new PostingList();
+            this.postings.put(key, list);
+        }
+        return list;
+    }
+
+    // Costruisce il cursore di `query`. Va invocato detenendo il lock.
+    private Cursor cursor(SearchQuery query) {
+        switch (query.getKind()) {
+            case TERM:
+                return this.termCursor(query.getValue());
+            case HASHTAG:
+                return this.termCursor("#" + query.getValue());
+            case MENTION:
+                return this.termCursor("@" + query.getValue());
+            case AUTHOR:
+                return this.termCursor("from:" + query.getValue());
+            case PHRASE:
+                List<Cursor> words = new ArrayList<>();
+                for (String word : query.getWords()) {
+                    words.add(this.termCursor(word));
+                }
+                return new PhraseCursor(new AndCursor(words, Collections.<Cursor>emptyList()), query.getWords());
+            case NOT:
+                return new AndCursor(Collections.<Cursor>singletonList(new TermCursor(this.all, 0)),
+                                     Collections.singletonList(this.cursor(query.getChildren().get(0))));
+            case AND:
+                List<Cursor> required = new ArrayList<>();
+                List<Cursor> excluded = new ArrayList<>();
+                for (SearchQuery child : query.getChildren()) {
+                    if (child.getKind() == SearchQuery.Kind.NOT) {
+                        excluded.add(this.cursor(child.getChildren().get(0)));
+                    } else {
+                        required.add(this.cursor(child));
+                    }
+                }
+                if (required.isEmpty()) {
+                    required.add(new TermCursor(this.all, 0));
+                }
+                return new AndCursor(required, excluded);
+            default:
+                List<Cursor> alternatives = new ArrayList<>();
+                for (SearchQuery child : query.getChildren()) {
+                    alternatives.add(this.cursor(child));
+                }
+                return new OrCursor(alternatives);
+        }
+    }
+
+    private Cursor termCursor(String key) {
+        PostingList list = this.postings.get(key);
+        if (list == null) {
+            return new TermCursor(EMPTY, 0);
+        }
+        // Le liste non vengono ripulite a ogni eliminazione: `all.size` e
+        // `list.size` sovrastimano entrambi i post, l'IDF resta un'approssimazione.
+        return new TermCursor(list, java.lang.Math.log1p((double) this.all.size / list.size));
+    }
+
+    // Un post con il suo punteggio, ordinato per punteggio e poi per ID.
+    private static class Scored implements Comparable<Scored> {
+        private final Post post;
+        private final double score;
+
+        private Scored(Post post, double score) {
+            this.post = post;
+            this.score = score;
+        }
+
+        public int compareTo(Scored other) {
+            int cmp = Double.compare(this.score, other.score);
+            return cmp != 0 ? cmp : Integer.compare(this.post.getId(), other.post.getId());
+        }
+    }
+
+    // Un cursore visita, in ordine decrescente di ID, i post che soddisfano
+    // una (sotto)interrogazione.
+    private abstract static class Cursor {
+        // L'ID corrente: `START` prima della prima `next`, `END` a cursore
+        // esaurito.
+        abstract int doc();
+
+        // Passa all'ID successivo (minore) e lo restituisce.
+        abstract int next();
+
+        // Passa al più grande ID minore o uguale a `target`, se l'ID corrente
+        // è maggiore di `target`, e restituisce l'ID corrente.
+        abstract int advance(int target);
+
+        // Il punteggio testuale del post corrente.
+        abstract double score();
+
+        // Un limite superiore a `score()` per qualunque post.
+        abstract double maxScore();
+    }
+
+    private static class TermCursor extends Cursor {
+        private final int[] ids;
+        private final double idf;
+        private int position;
+        private int doc = START;
+
+        private TermCursor(PostingList list, double idf) {
+            this.ids = list.ids;
+            this.position = list.size;
+            this.idf = idf;
+        }
+
+        int doc() {
+            return this.doc;
+        }
+
+        int next() {
+            this.position--;
+            this.doc = this.position >= 0 ? this.ids[this.position] : END;
+            return this.doc;
+        }
+
+        int advance(int target) {
+            if (this.doc <= target) {
+                return this.doc;
+            }
+            int index = Arrays.binarySearch(this.ids, 0, java.lang.Math.max(0, this.position), target);
+            this.position = index >= 0 ? index : -index - 2;
+            this.doc = this.position >= 0 ? this.ids[this.position] : END;
+            return this.doc;
+        }
+
+        double score() {
+            return this.idf;
+        }
+
+        double maxScore() {
+            return this.idf;
+        }
+    }
+
+    private static class AndCursor extends Cursor {
+        private final List<Cursor> required;
+        private final List<Cursor> excluded;
+        private int doc = START;
+
+        private AndCursor(List<Cursor> required, List<Cursor> excluded) {
+            this.required = required;
+            this.excluded = excluded;
+        }
+
+        int doc() {
+            return this.doc;
+        }
+
+        int next() {
+            return this.align(this.required.get(0).next());
+        }
+
+        int advance(int target) {
+            if (this.doc <= target) {
+                return this.doc;
+            }
+            return this.align(this.required.get(0).advance(target));
+        }
+
+        // Porta tutti i cursori richiesti sul più grande ID comune minore o
+        // uguale a `candidate` che nessun cursore escluso contiene.
+        private int align(int candidate) {
+            while (candidate != END) {
+                boolean agreed = true;
+                for (Cursor cursor : this.required) {
+                    int doc = cursor.advance(candidate);
+                    if (doc != candidate) {
+                        candidate = doc;
+                        agreed = false;
+                        break;
+                    }
+                }
+                if (!agreed) {
+                    continue;
+                }
+                boolean rejected = false;
+                for (Cursor cursor : this.excluded) {
+                    if (cursor.advance(candidate) == candidate) {
+                        rejected = true;
+                        break;
+                    }
+                }
+                if (!rejected) {
+                    break;
+                }
+                candidate = this.required.get(0).advance(candidate - 1);
+            }
+            this.doc = candidate;
+            return candidate;
+        }
+
+        double score() {
+            double score = 0;
+            for (Cursor cursor : this.required) {
+                score += cursor.score();
+            }
+            return score;
+        }
+
+        double maxScore() {
+            double score = 0;
+            for (Cursor cursor : this.required) {
+                score += cursor.maxScore();
+            }
+            return score;
+        }
+    }
+
+    private static class OrCursor extends Cursor {
+        private final List<Cursor> alternatives;
+        private int doc = START;
+
+        private OrCursor(List<Cursor> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        int doc() {
+            return this.doc;
+        }
+
+        int next() {
+            for (Cursor cursor : this.alternatives) {
+                if (cursor.doc() == this.doc) {
+                    cursor.next();
+                }
+            }
+            return this.update();
+        }
+
+        int advance(int target) {
+            if (this.doc <= target) {
+                return this.doc;
+            }
+            for (Cursor cursor : this.alternatives) {
+                cursor.advance(target);
+            }
+            return this.update();
+        }
+
+        private int update() {
+            int doc = END;
+            for (Cursor cursor : this.alternatives) {
+                doc = java.lang.Math.max(doc, cursor.doc());
+            }
+            this.doc = doc;
+            return doc;
+        }
+
+        double score() {
+            double score = 0;
+            for (Cursor cursor : this.alternatives) {
+                if (cursor.doc() == this.doc) {
+                    score += cursor.score();
+                }
+            }
+            return score;
+        }
+
+        double maxScore() {
+            double score = 0;
+            for (Cursor cursor : this.alternatives) {
+                score += cursor.maxScore();
+            }
+            return score;
+        }
+    }
+
+    // Verifica sul testo i post che contengono tutte le parole di una frase.
+    private class PhraseCursor extends Cursor {
+        private final AndCursor words;
+        private final List<String> phrase;
+
+        private PhraseCursor(AndCursor words, List<String> phrase) {
+            this.words = words;
+            this.phrase = phrase;
+        }
+
+        int doc() {
+            return this.words.doc();
+        }
+
+        int next() {
+            return this.verify(this.words.next());
+        }
+
+        int advance(int target) {
+            if (this.doc() <= target) {
+                return this.doc();
+            }
+            return this.verify(this.words.advance(target));
+        }
+
+        private int verify(int doc) {
+            while (doc != END && !this.matches(SearchEngine.this.network.peekPost(doc))) {
+                doc = this.words.next();
+            }
+            return doc;
+        }
+
+        private boolean matches(Post post) {
+            if (post == null) {
+                // Post eliminato: verrà comunque scartato.
+                return true;
+            }
+            final String text = post.getText();
+            final List<String> words = new ArrayList<>();
+            Tokenizer.tokenize(text, new Tokenizer.Sink() {
+                public void token(Tokenizer.Kind kind, int start, int end) {
+                    // Hashtag e tag interrompono la frase.
+                    words.add(kind == Tokenizer.Kind.WORD ? text.substring(start, end).toLowerCase(Locale.ROOT) : null);
+                }
+            });
+            return Collections.indexOfSubList(words, this.phrase) >= 0;
+        }
+
+        double score() {
+            return this.words.score();
+        }
+
+        double maxScore() {
+            return this.words.maxScore();
+        }
+    }
+}
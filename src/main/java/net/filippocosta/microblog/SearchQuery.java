@@ -0,0 +1,402 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// OVERVIEW:
+//   Un'interrogazione booleana per `SearchEngine`. Il tipo di dato astratto è un
+//   albero i cui nodi possono essere:
+//     - `TERM`: i post che contengono la parola `value` (senza distinzione tra
+//       maiuscole e minuscole).
+//     - `PHRASE`: i post che contengono le parole `words`, consecutive e in
+//       quest'ordine.
+//     - `HASHTAG`: i post con l'hashtag `value` (senza distinzione tra
+//       maiuscole e minuscole).
+//     - `MENTION`: i post che taggano l'utente `value`.
+//     - `AUTHOR`: i post scritti dall'utente `value`.
+//     - `AND`, `OR`: l'intersezione e l'unione dei post dei figli.
+//     - `NOT`: i post che non soddisfano l'unico figlio.
+//   Le istanze sono immutabili.
+//
+//   Un'interrogazione si costruisce con i metodi statici oppure a partire da
+//   una stringa con `parse`, per esempio:
+//
+//     SearchQuery.parse("pizza (#napoli OR @alice) -\"senza glutine\" from:bob")
+final class SearchQuery {
+    // AF(q):
+    //   <q.kind, q.words, q.children>, con `value == q.words.get(0)`.
+    // RI(q):
+    //   q.kind != null && q.words != null && q.children != null
+    //   && (q.kind ∈ {TERM, HASHTAG, MENTION, AUTHOR} ==> q.words.size() == 1 && q.children.isEmpty())
+    //   && (q.kind == PHRASE ==> q.words.size() >= 1 && q.children.isEmpty())
+    //   && (q.kind ∈ {AND, OR} ==> q.words.isEmpty() && q.children.size() >= 1)
+    //   && (q.kind == NOT ==> q.words.isEmpty() && q.children.size() == 1)
+    //   && (forall w ∈ q.words ==> w != null && !w.isEmpty())
+    //   && (forall c ∈ q.children ==> c != null)
+
+    // I tipi di nodo.
+    enum Kind {
+        TERM,
+        PHRASE,
+        HASHTAG,
+        MENTION,
+        AUTHOR,
+        AND,
+        OR,
+        NOT,
+    }
+
+    // Profondità massima di annidamento di negazioni e parentesi in `parse`.
+    static final int MAX_DEPTH = 64;
+
+    private final Kind kind;
+    private final List<String> words;
+    private final List<SearchQuery> children;
+
+    private SearchQuery(Kind kind, List<String> words, List<SearchQuery> children) {
+        this.kind = kind;
+        this.words = Collections.unmodifiableList(words);
+        this.children = Collections.unmodifiableList(children);
+    }
+
+    // REQUIRES:
+    //   `word != null` e `word` è una parola secondo `Tokenizer`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `word == null`.
+    //   `IllegalArgumentException` se `word` non è una parola.
+    // EFFECTS:
+    //   Restituisce l'interrogazione dei post che contengono `word`.
+    static SearchQuery term(String word) throws NullPointerException, IllegalArgumentException {
+        return SearchQuery.leaf(Kind.TERM, SearchQuery.word(word));
+    }
+
+    // REQUIRES:
+    //   `words != null && words.length >= 1` e ogni elemento è una parola.
+    // THROWS:
+    //   `NullPointerException` se `words` o un suo elemento è `null`.
+    //   `IllegalArgumentException` se `words` è vuoto o contiene una non-parola.
+    // EFFECTS:
+    //   Restituisce l'interrogazione dei post che contengono `words`
+    //   consecutive e in ordine.
+    static SearchQuery phrase(String... words) throws NullPointerException, IllegalArgumentException {
+        if (words.length == 0) {
+            throw new IllegalArgumentException();
+        }
+        List<String> normalized = new ArrayList<>(words.length);
+        for (String word : words) {
+            normalized.add(SearchQuery.word(word));
+        }
+        return new SearchQuery(Kind.PHRASE, normalized, Collections.<SearchQuery>emptyList());
+    }
+
+    // THROWS:
+    //   `NullPointerException` se e solo se `tag == null`.
+    //   `IllegalArgumentException` se `tag` non è un hashtag valido (senza `#`).
+    // EFFECTS:
+    //   Restituisce l'interrogazione dei post con l'hashtag `tag`.
+    static SearchQuery hashtag(String tag) throws NullPointerException, IllegalArgumentException {
+        return SearchQuery.leaf(Kind.HASHTAG, SearchQuery.tag(tag).toLowerCase(Locale.ROOT));
+    }
+
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    //   `IllegalArgumentException` se `username` non è un tag valido (senza `@`).
+    // EFFECTS:
+    //   Restituisce l'interrogazione dei post che taggano `username`.
+    static SearchQuery mention(String username) throws NullPointerException, IllegalArgumentException {
+        return SearchQuery.leaf(Kind.MENTION, SearchQuery.tag(username));
+    }
+
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    //   `IllegalArgumentException` se e solo se `username` è vuoto.
+    // EFFECTS:
+    //   Restituisce l'interrogazione dei post scritti da `username`.
+    static SearchQuery author(String username) throws NullPointerException, IllegalArgumentException {
+        if (username.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        return SearchQuery.leaf(Kind.AUTHOR, username);
+    }
+
+    // THROWS:
+    //   `NullPointerException` se `queries` o un suo elemento è `null`.
+    //   `IllegalArgumentException` se e solo se `queries` è vuoto.
+    // EFFECTS:
+    //   Restituisce l'intersezione di `queries`.
+    static SearchQuery and(SearchQuery... queries) throws NullPointerException, IllegalArgumentException {
+        return SearchQuery.node(Kind.AND, queries);
+    }
+
+    // THROWS:
+    //   `NullPointerException` se `queries` o un suo elemento è `null`.
+    //   `IllegalArgumentException` se e solo se `queries` è vuoto.
+    // EFFECTS:
+    //   Restituisce l'unione di `queries`.
+    static SearchQuery or(SearchQuery... queries) throws NullPointerException, IllegalArgumentException {
+        return SearchQuery.node(Kind.OR, queries);
+    }
+
+    // THROWS:
+    //   `NullPointerException` se e solo se `query == null`.
+    // EFFECTS:
+    //   Restituisce il complemento di `query`.
+    static SearchQuery not(SearchQuery query) throws NullPointerException {
+        return SearchQuery.node(Kind.NOT, query);
+    }
+
+    // Analizza un'interrogazione testuale secondo la grammatica
+    //
+    //   or      := and ("OR" and)*
+    //   and     := unary (["AND"] unary)*
+    //   unary   := ("-" | "NOT") unary | primary
+    //   primary := "(" or ")" | '"' parola+ '"' | "#" hashtag | "@" tag
+    //            | "from:" utente | parola
+    //
+    // dove parole adiacenti sono in AND. Le parole chiave `AND`, `OR` e `NOT`
+    // vanno scritte in maiuscolo. L'analisi è ricorsiva: negazioni e parentesi
+    // possono essere annidate al più `MAX_DEPTH` livelli, così che una lunga
+    // sequenza di `-` non esaurisca lo stack del thread che la analizza.
+    //
+    // REQUIRES:
+    //   `query != null` e `query` rispetta la grammatica.
+    // THROWS:
+    //   `NullPointerException` se e solo se `query == null`.
+    //   `IllegalArgumentException` se `query` non rispetta la grammatica
+    //   oppure annida negazioni e parentesi oltre `MAX_DEPTH` livelli.
+    // EFFECTS:
+    //   Restituisce l'interrogazione descritta da `query`.
+    static SearchQuery parse(String query) throws NullPointerException, IllegalArgumentException {
+        Parser parser = new Parser(query);
+        SearchQuery result = parser.parseOr();
+        if (parser.peek() != null) {
+            throw new IllegalArgumentException("Token inatteso: " + parser.peek());
+        }
+        return result;
+    }
+
+    Kind getKind() {
+        return this.kind;
+    }
+
+    // Il valore di un nodo `TERM`, `HASHTAG`, `MENTION` o `AUTHOR`.
+    String getValue() {
+        return this.words.get(0);
+    }
+
+    List<String> getWords() {
+        return this.words;
+    }
+
+    List<SearchQuery> getChildren() {
+        return this.children;
+    }
+
+    @Override
+    public String toString() {
+        switch (this.kind) {
+            case TERM:
+                return this.getValue();
+            case PHRASE:
+                StringBuilder phrase = new StringBuilder("\"");
+                for (int i = 0; i < this.words.size(); i++) {
+                    phrase.append(i == 0 ? "" : " ").append(this.words.get(i));
+                }
+                return phrase.append('"').toString();
+            case HASHTAG:
+                return "#" + this.getValue();
+            case MENTION:
+                return "@" + this.getValue();
+            case AUTHOR:
+                return "from:" + this.getValue();
+            case NOT:
+                return "-" + this.children.get(0);
+            default:
+                StringBuilder node = new StringBuilder("(");
+                for (int i = 0; i < this.children.size(); i++) {
+                    node.append(i == 0 ? "" : this.kind == Kind.AND ? " AND " : " OR ").append(this.children.get(i));
+                }
+                return node.append(')').toString();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SearchQuery)) {
+            return false;
+        }
+        SearchQuery other = (SearchQuery) o;
+        return this.kind == other.kind && this.words.equals(other.words) && this.children.equals(other.children);
+    }
+
+    @Override
+    public int hashCode() {
+        return (this.kind.hashCode() * 31 + this.words.hashCode()) * 31 + this.children.hashCode();
+    }
+
+    private static SearchQuery leaf(Kind kind, String value) {
+        return new SearchQuery(kind, Collections.singletonList(value), Collections.<SearchQuery>emptyList());
+    }
+
+    private static SearchQuery node(Kind kind, SearchQuery... children) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException();
+        }
+        for (SearchQuery child : children) {
+            if (child == null) {
+                throw new NullPointerException();
+            }
+        }
+        return new SearchQuery(kind, Collections.<String>emptyList(), new ArrayList<>(Arrays.asList(children)));
+    }
+
+    // Normalizza una parola come fa `SearchEngine` durante l'indicizzazione.
+    private static String word(String word) throws NullPointerException, IllegalArgumentException {
+        if (word.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (!Tokenizer.isWordChar(word.charAt(i))) {
+                throw new IllegalArgumentException(word);
+            }
+        }
+        return word.toLowerCase(Locale.ROOT);
+    }
+
+    private static String tag(String tag) throws NullPointerException, IllegalArgumentException {
+        if (tag.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (!Tokenizer.isTagChar(tag.charAt(i))) {
+                throw new IllegalArgumentException(tag);
+            }
+        }
+        return tag;
+    }
+
+    // Analizzatore a discesa ricorsiva per `parse`.
+    private static class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private int position = 0;
+        private int depth = 0;
+
+        private Parser(String query) {
+            int i = 0;
+            while (i < query.length()) {
+                char c = query.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')' || (c == '-' && (i == 0 || !Tokenizer.isWordChar(query.charAt(i - 1))))) {
+                    this.tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '"') {
+                    int end = query.indexOf('"', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Virgolette non chiuse");
+                    }
+                    this.tokens.add(query.substring(i, end + 1));
+                    i = end + 1;
+                } else {
+                    int end = i;
+                    while (end < query.length()
+                           && !Character.isWhitespace(query.charAt(end))
+                           && "()\"".indexOf(query.charAt(end)) < 0) {
+                        end++;
+                    }
+                    this.tokens.add(query.substring(i, end));
+                    i = end;
+                }
+            }
+        }
+
+        private String peek() {
+            return this.position < this.tokens.size() ? this.tokens.get(this.position) : null;
+        }
+
+        private String take() {
+            String token = this.peek();
+            if (token == null) {
+                throw new IllegalArgumentException("Interrogazione incompleta");
+            }
+            this.position++;
+            return token;
+        }
+
+        // Scende di un livello di annidamento.
+        private void enter() throws IllegalArgumentException {
+            if (this.depth == MAX_DEPTH) {
+                throw new IllegalArgumentException("Interrogazione annidata oltre " + MAX_DEPTH + " livelli");
+            }
+            this.depth++;
+        }
+
+        private SearchQuery parseOr() {
+            List<SearchQuery> operands = new ArrayList<>();
+            operands.add(this.parseAnd());
+            while ("OR".equals(this.peek())) {
+                this.take();
+                operands.add(this.parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : SearchQuery.or(operands.toArray(new SearchQuery[0]));
+        }
+
+        private SearchQuery parseAnd() {
+            List<SearchQuery> operands = new ArrayList<>();
+            operands.add(this.parseUnary());
+            while (this.peek() != null && !this.peek().equals("OR") && !this.peek().equals(")")) {
+                if (this.peek().equals("AND")) {
+                    this.take();
+                }
+                operands.add(this.parseUnary());
+            }
+            return operands.size() == 1 ? operands.get(0) : SearchQuery.and(operands.toArray(new SearchQuery[0]));
+        }
+
+        private SearchQuery parseUnary() {
+            if ("-".equals(this.peek()) || "NOT".equals(this.peek())) {
+                this.take();
+                this.enter();
+                SearchQuery query = SearchQuery.not(this.parseUnary());
+                this.depth--;
+                return query;
+            }
+            return this.parsePrimary();
+        }
+
+        private SearchQuery parsePrimary() {
+            String token = this.take();
+            if (token.equals("(")) {
+                this.enter();
+                SearchQuery query = this.parseOr();
+                if (!")".equals(this.take())) {
+                    throw new IllegalArgumentException("Parentesi non chiusa");
+                }
+                this.depth--;
+                return query;
+            } else if (token.startsWith("\"")) {
+                final List<String> words = new ArrayList<>();
+                final String text = token.substring(1, token.length() - 1);
+                Tokenizer.tokenize(text, new Tokenizer.Sink() {
+                    public void token(Tokenizer.Kind kind, int start, int end) {
+                        if (kind == Tokenizer.Kind.WORD) {
+                            words.add(text.substring(start, end));
+                        }
+                    }
+                });
+                return SearchQuery.phrase(words.toArray(new String[0]));
+            } else if (token.startsWith("#")) {
+                return SearchQuery.hashtag(token.substring(1));
+            } else if (token.startsWith("@")) {
+                return SearchQuery.mention(token.substring(1));
+            } else if (token.startsWith("from:")) {
+                return SearchQuery.author(token.substring("from:".length()));
+            } else {
+                return SearchQuery.term(token);
+            }
+        }
+    }
+}
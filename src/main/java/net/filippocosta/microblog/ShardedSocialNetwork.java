@@ -0,0 +1,756 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+// OVERVIEW:
+//   Un social network MicroBlog suddiviso in `N` partizioni (shard) nello
+//   stesso processo, ciascuna un'istanza di `SocialNetworkWithReports`. Il
+//   tipo di dato astratto è lo stesso di `SocialNetworkWithReports`:
+//     <{user_0, ... user_n}, {<post_0, segnalazioni_0>, ... <post_m, segnalazioni_m>}>
+//
+//   Ogni utente appartiene alla partizione indicata dall'hash del suo nome
+//   (`shardOf`), che custodisce tutti i suoi post, i like e le segnalazioni
+//   che ricevono e quindi anche gli archi del grafo dei follower che puntano a
+//   lui. L'anagrafe degli utenti è invece replicata in tutte le partizioni,
+//   così che ciascuna possa convalidare da sé like e segnalazioni di utenti
+//   altrui e calcolare la soglia della blacklist sul numero totale di utenti.
+//
+//   Le operazioni su un singolo utente o post sono instradate alla partizione
+//   che li custodisce; `getPosts`, `containing`, `blacklist`, `getFollowees`,
+//   `getFollowers` e `influencers` interrogano tutte le partizioni in
+//   parallelo e ne uniscono i risultati (scatter-gather).
+//
+//   Questioni che attraversano le partizioni:
+//     - Un post può rispondere a un post di un'altra partizione: la risposta
+//       è custodita dalla partizione del suo autore, che risolve il genitore
+//       tramite `SocialNetwork.setPostResolver`. L'albero delle risposte è
+//       perciò condiviso tra le partizioni.
+//     - L'eliminazione di un post elimina le risposte, ovunque si trovino,
+//       dalle foglie verso la radice.
+//     - Un utente segue autori di qualunque partizione: ogni arco sta nella
+//       partizione dell'autore seguito, e `getFollowees` li riunisce.
+//
+//   Ogni partizione è protetta da un `ReentrantReadWriteLock`: le scritture su
+//   partizioni diverse procedono in parallelo. Le operazioni che coinvolgono
+//   più partizioni ne acquisiscono i lock in ordine crescente di indice.
+//   Le copie dei post includono l'intero sottoalbero delle risposte, che può
+//   attraversare qualunque partizione: le letture dei post di un singolo
+//   utente acquisiscono il lock di lettura della sua partizione e di quelle
+//   che custodiscono le risposte (`readThreads`), le interrogazioni su tutte
+//   le partizioni il lock di lettura di tutte. Nessuna vede mai un albero
+//   modificato a metà.
+class ShardedSocialNetwork implements CheckRep, AutoCloseable {
+    // AF(c):
+    //   <c.shards[0].getUsers(),
+    //    {<p, r> | exists i. <p, r> ∈ AF_SocialNetworkWithReports(c.shards[i])}>
+    // RI(c):
+    //   c.shards != null && c.shards.length >= 1
+    //   && c.locks != null && c.locks.length == c.shards.length
+    //   && c.executor != null
+    //   && (forall i. c.shards[i] != null && c.shards[i].checkRep()
+    //       && c.shards[i].getUsers() == c.shards[0].getUsers())
+    //   && (forall i, p ∈ c.shards[i].getPosts() ==> c.shardOf(p.getAuthor()) == i)
+
+    // Un'interrogazione eseguita su ciascuna partizione.
+    private interface ShardQuery<T> {
+        T apply(SocialNetworkWithReports shard);
+    }
+
+    private final SocialNetworkWithReports[] shards;
+    private final ReentrantReadWriteLock[] locks;
+    private final ExecutorService executor;
+
+    // Costruttore per la classe `ShardedSocialNetwork`.
+    //
+    // REQUIRES:
+    //   `shards >= 1`.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se `shards < 1`.
+    // EFFECTS:
+    //   Restituisce un nuovo social network senza utenti né post, suddiviso in
+    //   `shards` partizioni, con un thread per partizione per le interrogazioni
+    //   scatter-gather. I thread vanno rilasciati con `close`.
+    ShardedSocialNetwork(int shards) throws IllegalArgumentException {
+        if (shards < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.shards = new SocialNetworkWithReports[shards];
+        this.locks = new ReentrantReadWriteLock[shards];
+        Function<Integer, Post> resolver = new Function<Integer, Post>() {
+            public Post apply(Integer id) {
+                return ShardedSocialNetwork.this.findPost(id);
+            }
+        };
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new SocialNetworkWithReports();
+            this.shards[i].setPostResolver(resolver);
+            this.locks[i] = new ReentrantReadWriteLock();
+        }
+        this.executor = Executors.newFixedThreadPool(shards, new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ShardedSocialNetwork-" + this.count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Rilascia i thread usati per le interrogazioni scatter-gather. Dopo
+    //   `close` le interrogazioni su tutte le partizioni lanciano
+    //   `IllegalStateException`.
+    public void close() {
+        this.executor.shutdown();
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di partizioni.
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    // REQUIRES:
+    //   `username != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce l'indice della partizione che custodisce i post di
+    //   `username`.
+    public int shardOf(String username) throws NullPointerException {
+        int hash = username.hashCode();
+        // Rimescola i bit alti, come `HashMap`, prima di ridurre al modulo.
+        return java.lang.Math.floorMod(hash ^ (hash >>> 16), this.shards.length);
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce la partizione di indice `index`, per ispezionarne metriche
+    //   e strutture interne.
+    SocialNetworkWithReports getShard(int index) {
+        return this.shards[index];
+    }
+
+    // REQUIRES:
+    //   `username != null && User.usernameIsOk(username)`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    //   `IllegalArgumentException` se e solo se l'utente esiste già.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Registra `username` in tutte le partizioni e lo restituisce.
+    public String register(String username) throws NullPointerException, IllegalArgumentException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        int home = this.shardOf(username);
+        this.lockAll();
+        try {
+            this.shards[home].register(username);
+            for (int i = 0; i < this.shards.length; i++) {
+                if (i != home) {
+                    this.shards[i].register(username);
+                }
+            }
+            return username;
+        } finally {
+            this.unlockAll();
+        }
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se `username` è un utente registrato.
+    public boolean userExists(String username) {
+        return username != null && this.shards[this.shardOf(username)].userExists(username);
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce la lista degli utenti registrati.
+    public List<String> getUsers() {
+        return this.shards[0].getUsers();
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di utenti registrati.
+    public int getUserCount() {
+        return this.shards[0].getUserCount();
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetwork.writePost`.
+    // THROWS:
+    //   Come `SocialNetwork.writePost`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Pubblica il post nella partizione del suo autore e ne restituisce una
+    //   copia. Se il post risponde a un post di un'altra partizione, entrambe
+    //   le partizioni restano bloccate durante la pubblicazione.
+    public Post writePost(Post.Builder builder) throws NullPointerException, IllegalArgumentException {
+        if (builder == null) {
+            throw new NullPointerException();
+        }
+        int home = this.shardOf(builder.getAuthor());
+        int other = home;
+        if (builder.getParent() != null) {
+            Post parent = this.findPost(builder.getParent().getId());
+            if (parent == null) {
+                throw new IllegalArgumentException();
+            }
+            other = this.shardOf(parent.getAuthor());
+        }
+        int first = java.lang.Math.min(home, other);
+        int second = java.lang.Math.max(home, other);
+        this.locks[first].writeLock().lock();
+        this.locks[second].writeLock().lock();
+        try {
+            return this.shards[home].writePost(builder);
+        } finally {
+            this.locks[second].writeLock().unlock();
+            this.locks[first].writeLock().unlock();
+        }
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetwork.deletePost`.
+    // THROWS:
+    //   Come `SocialNetwork.deletePost`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Elimina `post` e tutte le sue risposte, in qualunque partizione si
+    //   trovino, e restituisce gli ID dei post eliminati in pre-ordine. Le
+    //   risposte sono eliminate una alla volta dalle foglie verso la radice,
+    //   così che nessuna partizione elimini post che non custodisce.
+    public List<Integer> deletePost(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        if (post == null || username == null) {
+            throw new NullPointerException();
+        }
+        this.lockAll();
+        try {
+            Post root = this.findPost(post.getId());
+            if (root == null || !root.getAuthor().equals(username)) {
+                throw new IllegalArgumentException();
+            }
+            List<Post> subtree = new ArrayList<>();
+            List<Post> stack = new ArrayList<>();
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                Post top = stack.remove(stack.size() - 1);
+                subtree.add(top);
+                List<Post> replies = top.getReplies();
+                for (int i = replies.size() - 1; i >= 0; i--) {
+                    stack.add(replies.get(i));
+                }
+            }
+            List<Integer> deleted = new ArrayList<>(subtree.size());
+            for (Post top : subtree) {
+                deleted.add(top.getId());
+            }
+            // In pre-ordine inverso ogni post viene dopo tutte le sue risposte.
+            for (int i = subtree.size() - 1; i >= 0; i--) {
+                Post top = subtree.get(i);
+                this.shards[this.shardOf(top.getAuthor())].deletePost(top, top.getAuthor());
+            }
+            return deleted;
+        } finally {
+            this.unlockAll();
+        }
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetwork.like`.
+    // THROWS:
+    //   Come `SocialNetwork.like`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Come `SocialNetwork.like`, nella partizione dell'autore di `post`.
+    public void like(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        if (post == null || username == null) {
+            throw new NullPointerException();
+        }
+        int shard = this.shardOf(post.getAuthor());
+        this.locks[shard].writeLock().lock();
+        try {
+            this.shards[shard].like(post, username);
+        } finally {
+            this.locks[shard].writeLock().unlock();
+        }
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetwork.dislike`.
+    // THROWS:
+    //   Come `SocialNetwork.dislike`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Come `SocialNetwork.dislike`, nella partizione dell'autore di `post`.
+    public void dislike(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        if (post == null || username == null) {
+            throw new NullPointerException();
+        }
+        int shard = this.shardOf(post.getAuthor());
+        this.locks[shard].writeLock().lock();
+        try {
+            this.shards[shard].dislike(post, username);
+        } finally {
+            this.locks[shard].writeLock().unlock();
+        }
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetworkWithReports.report(int, String)`.
+    // THROWS:
+    //   Come `SocialNetworkWithReports.report(int, String)`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Come `SocialNetworkWithReports.report(int, String)`, nella partizione
+    //   che custodisce il post.
+    public void report(int postId, String username) throws NullPointerException, PostReportException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        Post post = this.findPost(postId);
+        if (post == null) {
+            throw new PostReportException();
+        }
+        int shard = this.shardOf(post.getAuthor());
+        this.locks[shard].writeLock().lock();
+        try {
+            this.shards[shard].report(postId, username);
+        } finally {
+            this.locks[shard].writeLock().unlock();
+        }
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetworkWithReports.report(Post, String)`.
+    // THROWS:
+    //   Come `SocialNetworkWithReports.report(Post, String)`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Come `report(post.getId(), username)`.
+    public void report(Post post, String username) throws NullPointerException, PostReportException {
+        if (post == null) {
+            throw new NullPointerException();
+        }
+        this.report(post.getId(), username);
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetworkWithReports.postIsBlacklisted`.
+    // THROWS:
+    //   Come `SocialNetworkWithReports.postIsBlacklisted`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Come `SocialNetworkWithReports.postIsBlacklisted`.
+    public boolean postIsBlacklisted(Post post) throws NullPointerException, IllegalArgumentException {
+        if (post == null) {
+            throw new NullPointerException();
+        }
+        return this.shards[this.shardOf(post.getAuthor())].postIsBlacklisted(post);
+    }
+
+    // REQUIRES:
+    //   Esiste un post con ID `id`.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se il post non esiste.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una copia del post con ID `id`.
+    public Post getPostById(final int id) throws IllegalArgumentException {
+        Post post = this.findPost(id);
+        if (post == null) {
+            throw new IllegalArgumentException();
+        }
+        return this.readThreads(this.shardOf(post.getAuthor()), new ShardQuery<List<Post>>() {
+            public List<Post> apply(SocialNetworkWithReports shard) {
+                Post root = shard.peekPost(id);
+                return root == null ? Collections.<Post>emptyList() : Collections.singletonList(root);
+            }
+        }, new ShardQuery<Post>() {
+            public Post apply(SocialNetworkWithReports shard) {
+                return shard.getPostById(id);
+            }
+        });
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetwork.getPresentationPost`.
+    // THROWS:
+    //   Come `SocialNetwork.getPresentationPost`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Come `SocialNetwork.getPresentationPost`.
+    public Post getPresentationPost(final String username) throws NullPointerException, IllegalArgumentException {
+        return this.readThreads(this.shardOf(username), new ShardQuery<List<Post>>() {
+            public List<Post> apply(SocialNetworkWithReports shard) {
+                List<Post> roots = ShardedSocialNetwork.postsOf(shard, username);
+                return roots.isEmpty() ? roots : roots.subList(0, 1);
+            }
+        }, new ShardQuery<Post>() {
+            public Post apply(SocialNetworkWithReports shard) {
+                return shard.getPresentationPost(username);
+            }
+        });
+    }
+
+    // REQUIRES:
+    //   `username != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Come `SocialNetwork.writtenBy(String)`.
+    public List<Post> writtenBy(final String username) throws NullPointerException {
+        return this.readThreads(this.shardOf(username), new ShardQuery<List<Post>>() {
+            public List<Post> apply(SocialNetworkWithReports shard) {
+                return ShardedSocialNetwork.postsOf(shard, username);
+            }
+        }, new ShardQuery<List<Post>>() {
+            public List<Post> apply(SocialNetworkWithReports shard) {
+                return shard.writtenBy(username);
+            }
+        });
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una lista di copie di tutti i post, in ordine di ID.
+    public List<Post> getPosts() {
+        return ShardedSocialNetwork.sortedById(this.gatherPosts(new ShardQuery<List<Post>>() {
+            public List<Post> apply(SocialNetworkWithReports shard) {
+                return shard.getPosts();
+            }
+        }));
+    }
+
+    // REQUIRES:
+    //   Come `SocialNetwork.containing`.
+    // THROWS:
+    //   Come `SocialNetwork.containing`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce le copie dei post che contengono almeno una delle parole
+    //   in `words`, in ordine di ID.
+    public List<Post> containing(final List<String> words) throws NullPointerException {
+        if (words == null || words.contains(null)) {
+            throw new NullPointerException();
+        }
+        return ShardedSocialNetwork.sortedById(this.gatherPosts(new ShardQuery<List<Post>>() {
+            public List<Post> apply(SocialNetworkWithReports shard) {
+                return shard.containing(words);
+            }
+        }));
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce le copie dei post nella blacklist, in ordine di ID.
+    public List<Post> blacklist() {
+        return ShardedSocialNetwork.sortedById(this.gatherPosts(new ShardQuery<List<Post>>() {
+            public List<Post> apply(SocialNetworkWithReports shard) {
+                return shard.blacklist();
+            }
+        }));
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una nuova mappa che associa a ogni utente l'insieme degli
+    //   utenti che segue, riunendo gli archi di tutte le partizioni.
+    public Map<String, Set<String>> getFollowees() {
+        List<Map<String, Set<String>>> parts = this.gather(new ShardQuery<Map<String, Set<String>>>() {
+            public Map<String, Set<String>> apply(SocialNetworkWithReports shard) {
+                // Copia sotto il lock della partizione: gli insiemi interni
+                // non sono thread-safe.
+                Map<String, Set<String>> copy = new HashMap<>();
+                for (Map.Entry<String, Set<String>> entry : shard.getFollowees().entrySet()) {
+                    copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+                }
+                return copy;
+            }
+        });
+        Map<String, Set<String>> followees = parts.get(0);
+        for (int i = 1; i < parts.size(); i++) {
+            for (Map.Entry<String, Set<String>> entry : parts.get(i).entrySet()) {
+                // Un utente registrato tra le interrogazioni di due partizioni
+                // manca dalle prime.
+                Set<String> followed = followees.get(entry.getKey());
+                if (followed == null) {
+                    followed = new HashSet<>();
+                    followees.put(entry.getKey(), followed);
+                }
+                followed.addAll(entry.getValue());
+            }
+        }
+        return followees;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una nuova mappa che associa a ogni utente l'insieme dei
+    //   suoi follower.
+    public Map<String, Set<String>> getFollowers() {
+        return SocialNetwork.reverseFollowRelation(this.getFollowees());
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce gli utenti con più follower che utenti seguiti, come
+    //   `SocialNetwork.influencers(this.getFollowers())`.
+    public List<String> influencers() {
+        return SocialNetwork.influencers(this.getFollowers());
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce l'insieme degli utenti che hanno pubblicato almeno un post.
+    public Set<String> getMentionedUsers() {
+        Set<String> users = new HashSet<>();
+        for (Set<String> part : this.gather(new ShardQuery<Set<String>>() {
+            public Set<String> apply(SocialNetworkWithReports shard) {
+                return shard.getMentionedUsers();
+            }
+        })) {
+            users.addAll(part);
+        }
+        return users;
+    }
+
+    public boolean checkRep() {
+        this.lockAll();
+        try {
+            boolean ri = this.shards.length >= 1;
+            List<String> users = this.shards[0].getUsers();
+            Collections.sort(users);
+            for (int i = 0; i < this.shards.length; i++) {
+                List<String> shardUsers = this.shards[i].getUsers();
+                Collections.sort(shardUsers);
+                ri = ri && this.shards[i].checkRep() && shardUsers.equals(users);
+                for (Post post : this.shards[i].getPosts()) {
+                    ri = ri && this.shardOf(post.getAuthor()) == i;
+                }
+            }
+            return ri;
+        } finally {
+            this.unlockAll();
+        }
+    }
+
+    // Restituisce l'istanza interna del post con ID `id`, cercandola in tutte
+    // le partizioni, `null` se non esiste. Non richiede alcun lock: gli indici
+    // per ID delle partizioni sono mappe concorrenti.
+    private Post findPost(int id) {
+        for (SocialNetworkWithReports shard : this.shards) {
+            Post post = shard.internalPost(id);
+            if (post != null) {
+                return post;
+            }
+        }
+        return null;
+    }
+
+    // Esegue `query` sulla partizione `home` detenendo il lock di lettura di
+    // `home` e di tutte le partizioni che custodiscono le risposte, dirette e
+    // indirette, dei post restituiti da `roots` (istanze interne di `home`),
+    // e ne restituisce il risultato. Le partizioni necessarie si scoprono
+    // visitando le risposte sotto i lock già acquisiti: una risposta di una
+    // partizione non bloccata può ricevere risposte concorrenti, quindi la
+    // visita non scende oltre, rilascia i lock e riprova includendo anche
+    // quella partizione. I lock vengono acquisiti in ordine crescente di
+    // indice, come quelli degli scrittori.
+    private <T> T readThreads(int home, ShardQuery<List<Post>> roots, ShardQuery<T> query) {
+        boolean[] needed = new boolean[this.shards.length];
+        needed[home] = true;
+        while (true) {
+            boolean[] held = needed.clone();
+            for (int i = 0; i < held.length; i++) {
+                if (held[i]) {
+                    this.locks[i].readLock().lock();
+                }
+            }
+            try {
+                boolean complete = true;
+                List<Post> stack = new ArrayList<>(roots.apply(this.shards[home]));
+                while (!stack.isEmpty()) {
+                    Post top = stack.remove(stack.size() - 1);
+                    int shard = this.shardOf(top.getAuthor());
+                    if (!held[shard]) {
+                        needed[shard] = true;
+                        complete = false;
+                    } else {
+                        stack.addAll(top.getReplies());
+                    }
+                }
+                if (complete) {
+                    return query.apply(this.shards[home]);
+                }
+            } finally {
+                for (int i = held.length - 1; i >= 0; i--) {
+                    if (held[i]) {
+                        this.locks[i].readLock().unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    // Le istanze interne dei post di `username` custoditi da `shard`, in
+    // ordine di pubblicazione; vuota se l'utente non esiste.
+    private static List<Post> postsOf(SocialNetworkWithReports shard, String username) {
+        List<Post> posts = new ArrayList<>();
+        NavigableSet<Integer> ids = shard.postIds(username);
+        if (ids != null) {
+            for (int id : ids) {
+                Post post = shard.peekPost(id);
+                if (post != null) {
+                    posts.add(post);
+                }
+            }
+        }
+        return posts;
+    }
+
+    // Esegue `query` su tutte le partizioni in parallelo, ciascuna sotto il
+    // proprio lock di lettura, e ne restituisce i risultati in ordine di
+    // partizione.
+    private <T> List<T> gather(ShardQuery<T> query) {
+        return this.scatter(query, true);
+    }
+
+    // Come `gather`, per le interrogazioni che copiano post: le copie
+    // attraversano le partizioni, quindi i lock di lettura di tutte le
+    // partizioni vengono acquisiti dal chiamante per l'intera interrogazione.
+    // I thread dell'executor non acquisiscono lock: se attendessero un lock
+    // di lettura dietro uno scrittore in coda, che a sua volta attende i lock
+    // del chiamante, nessuno procederebbe.
+    private List<List<Post>> gatherPosts(ShardQuery<List<Post>> query) {
+        this.readLockAll();
+        try {
+            return this.scatter(query, false);
+        } finally {
+            this.readUnlockAll();
+        }
+    }
+
+    private <T> List<T> scatter(final ShardQuery<T> query, final boolean lock) {
+        List<Callable<T>> tasks = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            final int shard = i;
+            tasks.add(new Callable<T>() {
+                public T call() {
+                    if (!lock) {
+                        return query.apply(ShardedSocialNetwork.this.shards[shard]);
+                    }
+                    ShardedSocialNetwork.this.locks[shard].readLock().lock();
+                    try {
+                        return query.apply(ShardedSocialNetwork.this.shards[shard]);
+                    } finally {
+                        ShardedSocialNetwork.this.locks[shard].readLock().unlock();
+                    }
+                }
+            });
+        }
+        List<T> results = new ArrayList<>(this.shards.length);
+        try {
+            for (Future<T> future : this.executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        return results;
+    }
+
+    private static List<Post> sortedById(List<List<Post>> parts) {
+        List<Post> posts = new ArrayList<>();
+        for (List<Post> part : parts) {
+            posts.addAll(part);
+        }
+        Collections.sort(posts, new Comparator<Post>() {
+            public int compare(Post a, Post b) {
+                return Integer.compare(a.getId(), b.getId());
+            }
+        });
+        return posts;
+    }
+
+    private void lockAll() {
+        for (ReentrantReadWriteLock lock : this.locks) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = this.locks.length - 1; i >= 0; i--) {
+            this.locks[i].writeLock().unlock();
+        }
+    }
+
+    private void readLockAll() {
+        for (ReentrantReadWriteLock lock : this.locks) {
+            lock.readLock().lock();
+        }
+    }
+
+    private void readUnlockAll() {
+        for (int i = this.locks.length - 1; i >= 0; i--) {
+            this.locks[i].readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// OVERVIEW:
+//   Un'istantanea immutabile di un `SocialNetwork`, ottenuta con
+//   `SocialNetwork.snapshot` dopo `enableSnapshots`. Il tipo di dato astratto
+//   è quello di `SocialNetworkWithReports` in un singolo istante, assieme al
+//   numero di versione:
+//     <{user_0, ... user_n}, {<post_0, segnalazioni_0>, ... <post_m, segnalazioni_m>}, version>
+//   Le segnalazioni sono sempre vuote se la rete non è un
+//   `SocialNetworkWithReports`.
+//
+//   Le strutture sono mappe persistenti (`PersistentMap`): ogni modifica della
+//   rete produce una nuova versione che condivide con la precedente tutto ciò
+//   che non è cambiato, in tempo logaritmico. Anche i like di ciascun post
+//   stanno in una mappa persistente, separata dal post: un like costa
+//   O(log n) e non una copia della lista dei like. Un'istantanea può quindi essere
+//   letta a lungo, da qualunque thread e senza lock, mentre la rete continua a
+//   essere modificata: le versioni successive non la alterano.
+//
+//   I post di un'istantanea sono copie staccate dal proprio thread: non hanno
+//   né genitore né risposte. I metodi che restituiscono post ne restituiscono
+//   copie, come quelli di `SocialNetwork`.
+public final class Snapshot implements CheckRep {
+    // AF(s):
+    //   <s.followees.keys,
+    //    {<p con i like s.likes.get(p.getId()).keys ?: {}, s.reports.get(p.getId()) ?: {}>
+    //     | p ∈ s.postsById.values},
+    //    s.version>
+    // RI(s):
+    //   s.version >= 0
+    //   && s.followees.keys == s.postsByUser.keys
+    //   && (forall <k, v> ∈ s.followees ==> v.keys ⊆ s.followees.keys)
+    //   && (forall <k, v> ∈ s.postsByUser
+    //       ==> (forall id ∈ v.keys ==> s.postsById.get(id).getAuthor() == k))
+    //   && s.postsById.size == sum(v.size | v ∈ s.postsByUser.values)
+    //   && (forall <k, v> ∈ s.postsById
+    //       ==> v.getId() == k && v.getParent() == null && v.getLikes().isEmpty())
+    //   && (forall <k, v> ∈ s.likes
+    //       ==> s.postsById.containsKey(k)
+    //        && !v.isEmpty()
+    //        && (forall l ∈ v.keys ==> l != s.postsById.get(k).getAuthor()))
+    //   && (forall <k, v> ∈ s.reports
+    //       ==> s.postsById.containsKey(k)
+    //        && !v.isEmpty()
+    //        && (forall r ∈ v.keys ==> s.followees.containsKey(r)
+    //                               && r != s.postsById.get(k).getAuthor()))
+    //   && (forall <k, v> ∈ s.followees
+    //       ==> v.keys == {a | !s.postsByUser.get(a).isEmpty()
+    //                       && k ∈ s.likes.get(min(s.postsByUser.get(a).keys)).keys})
+
+    private final long version;
+    private final PersistentMap<String, PersistentMap<String, Boolean>> followees;
+    private final PersistentMap<String, PersistentMap<Integer, Boolean>> postsByUser;
+    // I post senza like: i like stanno in `likes`.
+    private final PersistentMap<Integer, Post> postsById;
+    // Gli utenti che hanno messo like a ciascun post, ciascuno con un numero
+    // d'ordine crescente, così che i like si restituiscano nell'ordine in cui
+    // sono stati messi; solo i post con almeno un like.
+    private final PersistentMap<Integer, PersistentMap<String, Long>> likes;
+    // Gli utenti che hanno segnalato ciascun post; solo i post segnalati.
+    private final PersistentMap<Integer, PersistentMap<String, Boolean>> reports;
+
+    private static final Comparator<Post> BY_ID = new Comparator<Post>() {
+        public int compare(Post a, Post b) {
+            return Integer.compare(a.getId(), b.getId());
+        }
+    };
+
+    private Snapshot(long version,
+                     PersistentMap<String, PersistentMap<String, Boolean>> followees,
+                     PersistentMap<String, PersistentMap<Integer, Boolean>> postsByUser,
+                     PersistentMap<Integer, Post> postsById,
+                     PersistentMap<Integer, PersistentMap<String, Long>> likes,
+                     PersistentMap<Integer, PersistentMap<String, Boolean>> reports) {
+        this.version = version;
+        this.followees = followees;
+        this.postsByUser = postsByUser;
+        this.postsById = postsById;
+        this.likes = likes;
+        this.reports = reports;
+    }
+
+    // OVERVIEW:
+    //   Mantiene l'istantanea corrente di un `SocialNetwork`: registrato come
+    //   `ChangeListener` sincrono, applica ogni blocco di eventi come una
+    //   nuova versione. I blocchi vengono applicati uno alla volta; la lettura
+    //   della versione corrente non attende. Ogni evento viene applicato con
+    //   lo stato che riporta, non con quello attuale della rete.
+    static final class Maintainer implements ChangeListener {
+        private final SocialNetwork network;
+        private volatile Snapshot current;
+        // Il numero d'ordine del prossimo like.
+        private long likeOrder = 0;
+
+        // Costruisce la prima versione a partire dallo stato attuale di
+        // `network`, che non deve essere modificato nel frattempo.
+        Maintainer(SocialNetwork network) {
+            this.network = network;
+            PersistentMap<String, PersistentMap<String, Boolean>> followees = PersistentMap.empty();
+            PersistentMap<String, PersistentMap<Integer, Boolean>> postsByUser = PersistentMap.empty();
+            PersistentMap<Integer, Post> postsById = PersistentMap.empty();
+            PersistentMap<Integer, PersistentMap<String, Long>> likes = PersistentMap.empty();
+            PersistentMap<Integer, PersistentMap<String, Boolean>> reports = PersistentMap.empty();
+            Map<String, Set<String>> live = network.getFollowees();
+            for (String username : network.getUsers()) {
+                followees = followees.plus(username, Snapshot.setOf(live.get(username)));
+                PersistentMap<Integer, Boolean> ids = PersistentMap.empty();
+                for (int id : network.postIds(username)) {
+                    Post post = network.peekPost(id);
+                    ids = ids.plus(id, Boolean.TRUE);
+                    postsById = postsById.plus(id, post.freeze(Collections.<String>emptyList()));
+                    if (!post.getLikes().isEmpty()) {
+                        PersistentMap<String, Long> likers = PersistentMap.empty();
+                        for (String liker : post.getLikes()) {
+                            likers = likers.plus(liker, this.likeOrder++);
+                        }
+                        likes = likes.plus(id, likers);
+                    }
+                    if (network instanceof SocialNetworkWithReports) {
+                        Set<String> reporters = ((SocialNetworkWithReports) network).getReporters(id);
+                        if (!reporters.isEmpty()) {
+                            reports = reports.plus(id, Snapshot.setOf(reporters));
+                        }
+                    }
+                }
+                postsByUser = postsByUser.plus(username, ids);
+            }
+            this.current = new Snapshot(0, followees, postsByUser, postsById, likes, reports);
+        }
+
+        // Restituisce la versione corrente.
+        Snapshot current() {
+            return this.current;
+        }
+
+        public synchronized void changesPublished(List<ChangeEvent> events) {
+            Snapshot previous = this.current;
+            PersistentMap<String, PersistentMap<String, Boolean>> followees = previous.followees;
+            PersistentMap<String, PersistentMap<Integer, Boolean>> postsByUser = previous.postsByUser;
+            PersistentMap<Integer, Post> postsById = previous.postsById;
+            PersistentMap<Integer, PersistentMap<String, Long>> likes = previous.likes;
+            PersistentMap<Integer, PersistentMap<String, Boolean>> reports = previous.reports;
+            for (ChangeEvent event : events) {
+                String username = event.getUsername();
+                int id = event.getPostId();
+                switch (event.getKind()) {
+                    case USER_REGISTERED:
+                        followees = followees.plus(username, PersistentMap.<String, Boolean>empty());
+                        postsByUser = postsByUser.plus(username, PersistentMap.<Integer, Boolean>empty());
+                        break;
+                    case POST_CREATED: {
+                        // Il post può essere già stato eliminato da un altro
+                        // thread, che ne ha pubblicato l'eliminazione prima.
+                        // Un post appena pubblicato non ha like: quelli già
+                        // messi arrivano con i propri eventi.
+                        Post post = this.network.peekPost(id);
+                        PersistentMap<Integer, Boolean> ids = postsByUser.get(username);
+                        if (post != null && ids != null) {
+                            postsById = postsById.plus(id, post.freeze(Collections.<String>emptyList()));
+                            postsByUser = postsByUser.plus(username, ids.plus(id, Boolean.TRUE));
+                        }
+                        break;
+                    }
+                    case LIKE_CHANGED: {
+                        if (postsById.containsKey(id)) {
+                            PersistentMap<String, Long> likers = likes.get(id);
+                            if (likers == null) {
+                                likers = PersistentMap.empty();
+                            }
+                            if (event.getState()) {
+                                if (!likers.containsKey(username)) {
+                                    likers = likers.plus(username, this.likeOrder++);
+                                }
+                            } else {
+                                likers = likers.minus(username);
+                            }
+                            likes = likers.isEmpty() ? likes.minus(id) : likes.plus(id, likers);
+                        }
+                        break;
+                    }
+                    case FOLLOW_CHANGED: {
+                        PersistentMap<String, Boolean> targets = followees.get(username);
+                        if (targets != null) {
+                            targets = event.getState()
+                                    ? targets.plus(event.getTarget(), Boolean.TRUE)
+                                    : targets.minus(event.getTarget());
+                            followees = followees.plus(username, targets);
+                        }
+                        break;
+                    }
+                    case POST_DELETED: {
+                        postsById = postsById.minus(id);
+                        likes = likes.minus(id);
+                        reports = reports.minus(id);
+                        PersistentMap<Integer, Boolean> ids = postsByUser.get(username);
+                        if (ids != null) {
+                            postsByUser = postsByUser.plus(username, ids.minus(id));
+                        }
+                        break;
+                    }
+                    case POST_REPORTED: {
+                        if (postsById.containsKey(id)) {
+                            PersistentMap<String, Boolean> reporters = reports.get(id);
+                            if (reporters == null) {
+                                reporters = PersistentMap.empty();
+                            }
+                            reports = reports.plus(id, reporters.plus(username, Boolean.TRUE));
+                        }
+                        break;
+                    }
+                    default:
+                        // La blacklist si ricava dalle segnalazioni e dal
+                        // numero di utenti.
+                        break;
+                }
+            }
+            if (followees != previous.followees || postsByUser != previous.postsByUser
+                || postsById != previous.postsById || likes != previous.likes || reports != previous.reports) {
+                this.current = new Snapshot(previous.version + 1, followees, postsByUser, postsById, likes, reports);
+            }
+        }
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di versione di `this`: `0` per la prima
+    //   istantanea, poi crescente di uno a ogni modifica della rete.
+    public long getVersion() {
+        return this.version;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una lista di tutti gli utenti registrati, come
+    //   `SocialNetwork.getUsers`. L'ordine non è specificato.
+    public List<String> getUsers() {
+        return new ArrayList<>(this.followees.asMap().keySet());
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di utenti registrati.
+    public int getUserCount() {
+        return this.followees.size();
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se `username` è un utente registrato.
+    public boolean userExists(String username) {
+        return username != null && this.followees.containsKey(username);
+    }
+
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se il post non esiste in `this`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una copia, senza genitore né risposte, del post con ID
+    //   `id`.
+    public Post getPostById(int id) throws IllegalArgumentException {
+        Post post = this.postsById.get(id);
+        if (post == null) {
+            throw new IllegalArgumentException();
+        }
+        return this.copy(post);
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una lista di copie di tutti i post. L'ordine non è
+    //   specificato.
+    public List<Post> getPosts() {
+        List<Post> posts = new ArrayList<>(this.postsById.size());
+        for (Map.Entry<Integer, Post> entry : this.postsById) {
+            posts.add(this.copy(entry.getValue()));
+        }
+        return posts;
+    }
+
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce le copie dei post di `username` in ordine di pubblicazione,
+    //   come `SocialNetwork.writtenBy(String)`; la lista è vuota se l'utente non
+    //   esiste.
+    public List<Post> writtenBy(String username) throws NullPointerException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        List<Post> posts = new ArrayList<>();
+        PersistentMap<Integer, Boolean> ids = this.postsByUser.get(username);
+        if (ids != null) {
+            for (Map.Entry<Integer, Boolean> entry : ids) {
+                posts.add(this.copy(this.postsById.get(entry.getKey())));
+            }
+            posts.sort(BY_ID);
+        }
+        return posts;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce la relazione dei seguiti, come `SocialNetwork.getFollowees`,
+    //   con insiemi non modificabili.
+    public Map<String, Set<String>> getFollowees() {
+        Map<String, Set<String>> followees = new HashMap<>();
+        for (Map.Entry<String, PersistentMap<String, Boolean>> entry : this.followees) {
+            followees.put(entry.getKey(), entry.getValue().asMap().keySet());
+        }
+        return Collections.unmodifiableMap(followees);
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce la relazione dei follower, come `SocialNetwork.getFollowers`.
+    public Map<String, Set<String>> getFollowers() {
+        return SocialNetwork.reverseFollowRelation(this.getFollowees());
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce gli utenti con almeno un post, come
+    //   `SocialNetwork.getMentionedUsers`.
+    public Set<String> getMentionedUsers() {
+        Set<String> mentionedUsers = new HashSet<>();
+        for (Map.Entry<String, PersistentMap<Integer, Boolean>> entry : this.postsByUser) {
+            if (!entry.getValue().isEmpty()) {
+                mentionedUsers.add(entry.getKey());
+            }
+        }
+        return mentionedUsers;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce gli utenti con più follower che utenti seguiti, come
+    //   `SocialNetwork.influencers(this.getFollowers())`.
+    public List<String> influencers() {
+        return SocialNetwork.influencers(this.getFollowers());
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce le copie dei post "blacklisted", come
+    //   `SocialNetworkWithReports.blacklist`. Il costo è proporzionale al
+    //   numero di post segnalati.
+    public List<Post> blacklist() {
+        int minReports = SocialNetworkWithReports.minReportsFor(this.getUserCount());
+        List<Post> blacklist = new ArrayList<>();
+        for (Map.Entry<Integer, PersistentMap<String, Boolean>> entry : this.reports) {
+            if (entry.getValue().size() >= minReports) {
+                blacklist.add(this.copy(this.postsById.get(entry.getKey())));
+            }
+        }
+        return blacklist;
+    }
+
+    // Verifica l'invariante di rappresentazione (RI) per l'instanza `this`.
+    //
+    // Nota bene: questo metodo è pensato unicamente per favorire il debugging e
+    // la realizzazione della batteria di test.
+    //
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se `this` verifica l'invariante di
+    //   rappresentazione della classe `Snapshot`, `false` altrimenti.
+    public boolean checkRep() {
+        boolean ri = this.version >= 0
+                  && this.followees.checkRep()
+                  && this.postsByUser.checkRep()
+                  && this.postsById.checkRep()
+                  && this.likes.checkRep()
+                  && this.reports.checkRep()
+                  && this.followees.asMap().keySet().equals(this.postsByUser.asMap().keySet());
+        // Il post di presentazione di ciascun utente, `null` se non ne ha.
+        Map<String, Post> presentationPosts = new HashMap<>();
+        int posts = 0;
+        for (Map.Entry<String, PersistentMap<Integer, Boolean>> entry : this.postsByUser) {
+            ri = ri && entry.getValue().checkRep();
+            Post first = null;
+            for (Map.Entry<Integer, Boolean> id : entry.getValue()) {
+                Post post = this.postsById.get(id.getKey());
+                ri = ri && post != null && post.getAuthor().equals(entry.getKey());
+                if (post != null && (first == null || post.getId() < first.getId())) {
+                    first = post;
+                }
+                posts++;
+            }
+            presentationPosts.put(entry.getKey(), first);
+        }
+        ri = ri && posts == this.postsById.size();
+        for (Map.Entry<Integer, Post> entry : this.postsById) {
+            Post post = entry.getValue();
+            ri = ri
+              && post.getId() == entry.getKey()
+              && post.getParent() == null
+              && post.getReplies().isEmpty()
+              && post.getLikes().isEmpty()
+              && post.checkRep();
+        }
+        for (Map.Entry<Integer, PersistentMap<String, Long>> entry : this.likes) {
+            Post post = this.postsById.get(entry.getKey());
+            ri = ri && post != null && !entry.getValue().isEmpty() && entry.getValue().checkRep();
+            for (Map.Entry<String, Long> liker : entry.getValue()) {
+                ri = ri && (post == null || !liker.getKey().equals(post.getAuthor()));
+            }
+        }
+        for (Map.Entry<String, PersistentMap<String, Boolean>> entry : this.followees) {
+            ri = ri && entry.getValue().checkRep();
+            for (Map.Entry<String, Boolean> followee : entry.getValue()) {
+                Post presentation = presentationPosts.get(followee.getKey());
+                PersistentMap<String, Long> likers =
+                    presentation == null ? null : this.likes.get(presentation.getId());
+                ri = ri && likers != null && likers.containsKey(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, Post> entry : presentationPosts.entrySet()) {
+            if (entry.getValue() != null) {
+                for (String follower : this.likesOf(entry.getValue().getId())) {
+                    PersistentMap<String, Boolean> followees = this.followees.get(follower);
+                    ri = ri && followees != null && followees.containsKey(entry.getKey());
+                }
+            }
+        }
+        for (Map.Entry<Integer, PersistentMap<String, Boolean>> entry : this.reports) {
+            Post post = this.postsById.get(entry.getKey());
+            ri = ri && post != null && !entry.getValue().isEmpty() && entry.getValue().checkRep();
+            for (Map.Entry<String, Boolean> reporter : entry.getValue()) {
+                ri = ri
+                  && this.followees.containsKey(reporter.getKey())
+                  && (post == null || !reporter.getKey().equals(post.getAuthor()));
+            }
+        }
+        return ri;
+    }
+
+    // Una copia di `post` (memorizzato in `this.postsById`) con i like che ha
+    // in `this`.
+    private Post copy(Post post) {
+        return post.freeze(this.likesOf(post.getId()));
+    }
+
+    // Gli utenti che hanno messo like al post `id` in `this`, nell'ordine in
+    // cui li hanno messi.
+    private List<String> likesOf(int id) {
+        PersistentMap<String, Long> likers = this.likes.get(id);
+        if (likers == null) {
+            return Collections.emptyList();
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(likers.size());
+        for (Map.Entry<String, Long> liker : likers) {
+            entries.add(liker);
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(a.getValue(), b.getValue());
+            }
+        });
+        List<String> result = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    // L'insieme persistente degli elementi di `set`.
+    private static PersistentMap<String, Boolean> setOf(Set<String> set) {
+        PersistentMap<String, Boolean> result = PersistentMap.empty();
+        for (String element : set) {
+            result = result.plus(element, Boolean.TRUE);
+        }
+        return result;
+    }
+}
@@ -2,11 +2,30 @@ package net.filippocosta.microblog;
 
 import java.util.Set;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 // OVERVIEW:
 //   Rappresenta il social network del servizio MicroBlog. Il tipo di dato
@@ -15,7 +34,7 @@ import java.util.HashMap;
 //   con `n <= m`.
 class SocialNetwork implements CheckRep {
     // AF(c):
-    //   <c.followes.keySet(), c.postsById.valuSet()>
+    //   <c.followes.keySet(), c.postsById.valuSet() ∪ AF(c.cold)>
     // RI(c):
     //   c.followees != null
     //   && c.postsByUser != null
@@ -31,18 +50,123 @@ class SocialNetwork implements CheckRep {
     //       ==> k != null
     //        && c.followees.containsKey(k)
     //        && v != null
-    //        && (forall i. 0 <= i < v.size() ==> v.get(i) != null
-    //                                         && c.postsById.containsKey(v.get(i).getId())
-    //                                         && c.postsById.containsValue(v.get(i))
-    //                                         && c.followees.containsKey(v.get(i).getAuthor())))
+    //        && (forall id ∈ v ==> c.postsById.containsKey(id)
+    //                           && c.postsById.get(id).getAuthor().equals(k)))
     //   && (forall <k, v>. c.postsById
     //       ==> k != null
     //        && v != null
-    //        && (forany <k1, v1>. c.postsByUser, v1.contains(v)))
+    //        && v.getId() == k
+    //        && c.postsByUser.get(v.getAuthor()).contains(k)
+    //        && (v.getParent() != null ==> c.lookupPost(v.getParent().getId()) == v.getParent())
+    //        && (forall r ∈ v.getReplies() ==> c.lookupPost(r.getId()) == r))
+    //   && c.postsByTime != null
+    //   && (forall k ∈ c.postsByTime
+    //       ==> c.postsById.containsKey(k.id)
+    //        && c.postsById.get(k.id).getTimestamp().equals(k.timestamp))
+    //   && c.postsByTime.size() == c.postsById.size() + #AF(c.cold)
+    //   && (forall <k, v>. c.followees
+    //       ==> v == {a | c.postsByUser.get(a).size() > 0
+    //                  && c.postsById.get(c.postsByUser.get(a).first()).isLikedBy(k)})
 
     private Map<String, Set<String>> followees;
-    private Map<String, List<Post>> postsByUser;
+    // Gli ID dei post di ciascun utente, in ordine di pubblicazione: il primo è
+    // quello del post di presentazione.
+    private Map<String, NavigableSet<Integer>> postsByUser;
     private Map<Integer, Post> postsById;
+    // Metriche delle operazioni pubbliche, disattivate di default.
+    private final Metrics metrics;
+    // Flusso delle modifiche per i `ChangeListener`.
+    private final ChangeFeed changes = new ChangeFeed();
+    // Nomi utente e numero di follower, per `completeUsername`.
+    private final UsernameIndex usernames = new UsernameIndex();
+    // Risultati delle interrogazioni costose, disattivata di default.
+    private final QueryCache cache = new QueryCache();
+    // Risolve gli ID dei post che non appartengono a `this` ma a cui i suoi
+    // post possono rispondere (vedi `setPostResolver`); `null` se assente.
+    private volatile Function<Integer, Post> postResolver = null;
+    // Archivio su disco dei thread compattati (vedi `enableColdStorage`);
+    // `null` se assente.
+    private volatile ColdStore cold = null;
+    // Numerazioni a intervalli dei thread letti con `getThread`, per ID della
+    // radice: costruite alla prima lettura e poi mantenute da `writePost` e
+    // `deletePost`.
+    private final Map<Integer, ThreadIndex> threads = new ConcurrentHashMap<>();
+    // Protegge le risposte dei post rispetto a `threads`: `writePost` aggiunge
+    // una risposta e la inserisce nella numerazione, `deletePost` stacca un
+    // post e lo rimuove dalla numerazione, `threadIndex` visita un thread e
+    // pubblica la numerazione, sempre detenendo questo lock. Così nessuna
+    // risposta pubblicata durante la visita manca dalla numerazione.
+    private final Object threadsLock = new Object();
+    // Versioni immutabili di `this` (vedi `enableSnapshots`); `null` se
+    // disattivate.
+    private volatile Snapshot.Maintainer snapshots = null;
+
+    // Risolve l'ID di un post nell'istanza interna corrispondente (`null` se il
+    // post è stato eliminato), per gli stream costruiti su indici di ID.
+    private final Function<Integer, Post> byId = new Function<Integer, Post>() {
+        public Post apply(Integer id) {
+            return SocialNetwork.this.peekPost(id);
+        }
+    };
+
+    private static final Function<Post, Post> IDENTITY = new Function<Post, Post>() {
+        public Post apply(Post post) {
+            return post;
+        }
+    };
+
+    // Indice temporale: le chiavi di tutti i post, ordinate per data di
+    // pubblicazione e poi per ID.
+    private NavigableSet<TimeKey> postsByTime;
+
+    // Chiave dell'indice temporale `postsByTime`. Le istanze sono immutabili.
+    private static class TimeKey implements Comparable<TimeKey> {
+        private final Instant timestamp;
+        private final int id;
+
+        private TimeKey(Instant timestamp, int id) {
+            this.timestamp = timestamp;
+            this.id = id;
+        }
+
+        private TimeKey(Post post) {
+            this(post.getTimestamp(), post.getId());
+        }
+
+        public int compareTo(TimeKey other) {
+            int cmp = this.timestamp.compareTo(other.timestamp);
+            return cmp != 0 ? cmp : Integer.compare(this.id, other.id);
+        }
+    }
+
+    // Filtro dei post che contengono almeno una delle parole cercate. Conta
+    // inoltre i post esaminati, per l'evento JFR di `containing`.
+    private static class TermFilter implements Predicate<Post> {
+        private final List<String> terms;
+        private int scanned = 0;
+
+        private TermFilter(List<String> words) throws NullPointerException {
+            if (words == null) {
+                throw new NullPointerException();
+            }
+            this.terms = new ArrayList<>(words);
+            for (String term : this.terms) {
+                if (term == null) {
+                    throw new NullPointerException();
+                }
+            }
+        }
+
+        public boolean test(Post post) {
+            this.scanned++;
+            for (String term : this.terms) {
+                if (post.textContains(term)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 
     // Costruttore per la classe `SocialNetwork`.
     //
@@ -51,9 +175,348 @@ class SocialNetwork implements CheckRep {
     //   Formalmente:
     //     <{}, {}>
     public SocialNetwork() {
-        this.followees = new HashMap<>();
-        this.postsByUser = new HashMap<>();
-        this.postsById = new HashMap<>();
+        // Mappe concorrenti così che le letture puntuali (`userExists`,
+        // `getPostById`, ...) restino sicure anche durante `register` e
+        // `writePost` invocati da altri thread.
+        this.followees = new ConcurrentHashMap<>();
+        this.postsByUser = new ConcurrentHashMap<>();
+        this.postsById = new ConcurrentHashMap<>();
+        this.postsByTime = new ConcurrentSkipListSet<>();
+        this.metrics = new Metrics(this);
+    }
+
+    // Restituisce il raccoglitore delle metriche di `this`: contatori e latenze
+    // di ogni operazione pubblica e dimensioni delle strutture dati interne.
+    // La raccolta è disattivata finché non viene attivata con
+    // `getMetrics().setEnabled(true)`; le metriche possono essere esposte via
+    // JMX con `getMetrics().register(name)`.
+    //
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il raccoglitore delle metriche di `this`.
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    // Restituisce la cache dei risultati di `containing`, `influencers` e, per
+    // `SocialNetworkWithReports`, `blacklist`. La cache è disattivata finché
+    // non viene attivata con `getQueryCache().setCapacity(entries, posts)`;
+    // da attivata, un'interrogazione ripetuta senza modifiche intermedie
+    // delle strutture da cui dipende costa quanto la copia del risultato.
+    //
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce la cache dei risultati di `this`.
+    public QueryCache getQueryCache() {
+        return this.cache;
+    }
+
+    // Attiva l'archiviazione su disco dei post: da ora in poi `compact` può
+    // spostare i thread più vecchi dallo heap a segmenti immutabili nella
+    // cartella `directory`, di cui restano in memoria soltanto un indice
+    // sparso e un filtro di Bloom per segmento, più una cache dei thread letti
+    // di recente limitata a `cachedPosts` post. Le interrogazioni continuano a
+    // vedere tutti i post; un post archiviato viene riportato nello heap, con
+    // il suo thread, la prima volta che viene modificato (like, risposta,
+    // eliminazione). Le interrogazioni che scorrono tutti i post (`containing`,
+    // gli stream) leggono i segmenti uno alla volta, soltanto quando
+    // l'attraversamento li raggiunge, e pagano la decodifica dei soli post
+    // archiviati che attraversano. Finché l'archiviazione non è attiva nulla
+    // cambia.
+    //
+    // REQUIRES:
+    //   `directory != null && cachedPosts >= 0` e l'archiviazione non è già
+    //   attiva.
+    // THROWS:
+    //   `NullPointerException` se e solo se `directory == null`.
+    //   `IllegalArgumentException` se e solo se `cachedPosts < 0`.
+    //   `IllegalStateException` se l'archiviazione è già attiva.
+    //   `IOException` se la cartella non può essere creata.
+    // MODIFIES:
+    //   `this` e il file system.
+    // EFFECTS:
+    //   Attiva l'archiviazione dei post nella cartella `directory`.
+    public synchronized void enableColdStorage(Path directory, int cachedPosts)
+        throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+        if (this.cold != null) {
+            throw new IllegalStateException();
+        }
+        this.cold = new ColdStore(directory, cachedPosts);
+    }
+
+    // Sposta su disco, in un nuovo segmento, i thread (un post che non è una
+    // risposta e tutte le sue risposte, dirette e indirette) i cui post sono
+    // stati tutti pubblicati prima di `threshold`. I thread con risposte
+    // custodite altrove (vedi `setPostResolver`) restano nello heap. Il
+    // segmento è su disco prima che i post lascino lo heap. Il valore astratto
+    // di `this` non cambia.
+    //
+    // REQUIRES:
+    //   `threshold != null`, l'archiviazione è attiva e nessun altro thread
+    //   modifica `this` durante la compattazione.
+    // THROWS:
+    //   `NullPointerException` se e solo se `threshold == null`.
+    //   `IllegalStateException` se l'archiviazione non è attiva.
+    //   `IOException` se il segmento non può essere scritto; in tal caso
+    //   nessun post lascia lo heap.
+    // MODIFIES:
+    //   `this` e il file system.
+    // EFFECTS:
+    //   Restituisce il numero di post spostati su disco.
+    public synchronized int compact(Instant threshold) throws NullPointerException, IllegalStateException, IOException {
+        if (threshold == null) {
+            throw new NullPointerException();
+        }
+        ColdStore cold = this.cold;
+        if (cold == null) {
+            throw new IllegalStateException();
+        }
+        List<PostSegment.Record> records = new ArrayList<>();
+        for (Post root : this.postsById.values()) {
+            if (root.getParent() != null) {
+                continue;
+            }
+            List<PostSegment.Record> thread = new ArrayList<>();
+            Deque<Post> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty() && thread != null) {
+                Post top = stack.pop();
+                if (!top.getTimestamp().isBefore(threshold) || this.postsById.get(top.getId()) != top) {
+                    thread = null;
+                } else {
+                    thread.add(PostSegment.record(top, root.getId()));
+                    for (Post reply : top.getReplies()) {
+                        stack.push(reply);
+                    }
+                }
+            }
+            if (thread != null) {
+                records.addAll(thread);
+            }
+        }
+        if (records.isEmpty()) {
+            return 0;
+        }
+        cold.archive(records);
+        for (PostSegment.Record record : records) {
+            this.postsById.remove(record.id);
+        }
+        return records.size();
+    }
+
+    // Attiva le istantanee (vedi `Snapshot`): da ora in poi ogni modifica di
+    // `this` produce, tramite un `ChangeListener` sincrono, una nuova versione
+    // immutabile di utenti, grafo dei follower, post e segnalazioni, che
+    // condivide con la precedente tutto ciò che non è cambiato. Le letture
+    // lunghe su un'istantanea (`blacklist`, `getMentionedUsers`, `influencers`,
+    // `checkRep`) vedono così un unico istante della rete senza bloccare chi
+    // scrive. Finché le istantanee non sono attive nulla cambia.
+    //
+    // REQUIRES:
+    //   Le istantanee non sono già attive e nessun altro thread modifica
+    //   `this` durante l'attivazione.
+    // THROWS:
+    //   `IllegalStateException` se le istantanee sono già attive.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Attiva le istantanee di `this`.
+    public synchronized void enableSnapshots() throws IllegalStateException {
+        if (this.snapshots != null) {
+            throw new IllegalStateException();
+        }
+        Snapshot.Maintainer snapshots = new Snapshot.Maintainer(this);
+        this.addChangeListener(snapshots, false);
+        this.snapshots = snapshots;
+    }
+
+    // REQUIRES:
+    //   Le istantanee sono attive (vedi `enableSnapshots`).
+    // THROWS:
+    //   `IllegalStateException` se le istantanee non sono attive.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce, in tempo costante, l'istantanea di `this` dopo l'ultima
+    //   modifica completata.
+    public Snapshot snapshot() throws IllegalStateException {
+        Snapshot.Maintainer snapshots = this.snapshots;
+        if (snapshots == null) {
+            throw new IllegalStateException();
+        }
+        return snapshots.current();
+    }
+
+    // Registra `listener`, che da ora in poi riceverà gli eventi di ogni
+    // modifica di `this`: registrazioni, pubblicazioni ed eliminazioni di post,
+    // like, archi del grafo dei follower e, per `SocialNetworkWithReports`,
+    // segnalazioni e ingressi o uscite dalla blacklist. Vedi `ChangeListener`
+    // per le garanzie di consegna. Finché non ci sono listener gli eventi non
+    // vengono nemmeno costruiti.
+    //
+    // REQUIRES:
+    //   `listener != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `listener == null`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Registra `listener` come listener sincrono se `async == false`,
+    //   asincrono altrimenti.
+    public void addChangeListener(ChangeListener listener, boolean async) throws NullPointerException {
+        this.changes.add(listener, async);
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Rimuove `listener` dai listener registrati, se presente. Gli eventi non
+    //   ancora consegnati a un listener asincrono vengono scartati.
+    public void removeChangeListener(ChangeListener listener) {
+        this.changes.remove(listener);
+    }
+
+    // Restituisce il flusso delle modifiche di `this`, per le sottoclassi.
+    ChangeFeed getChangeFeed() {
+        return this.changes;
+    }
+
+    // Permette ai post di `this` di rispondere a post custoditi altrove, per
+    // esempio in un'altra partizione di `ShardedSocialNetwork`: `writePost`
+    // e `checkRep` cercano il post genitore prima in `this` e poi, se assente,
+    // tramite `resolver`, che deve restituire l'istanza interna del post con
+    // l'ID dato oppure `null`.
+    //
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Imposta `resolver` come risolutore dei post esterni (`null` per
+    //   rimuoverlo).
+    void setPostResolver(Function<Integer, Post> resolver) {
+        this.postResolver = resolver;
+    }
+
+    // Invocato da `writePost` con il post appena creato, prima che diventi
+    // visibile alle letture e che `ChangeEvent.Kind.POST_CREATED` venga
+    // pubblicato: le sottoclassi vi preparano lo stato associato al post.
+    void postCreated(Post post) {
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce l'istanza interna (non una copia) del post di `this` con ID
+    //   `id`, `null` se non esiste. Se il post è archiviato su disco, il suo
+    //   thread viene prima riportato nello heap, così che possa essere
+    //   modificato.
+    Post internalPost(int id) {
+        Post post = this.postsById.get(id);
+        ColdStore cold = this.cold;
+        if (post == null && cold != null) {
+            post = cold.thaw(id, this.postsById);
+            if (post == null) {
+                // Scongelato nel frattempo da un altro thread, oppure inesistente.
+                post = this.postsById.get(id);
+            }
+        }
+        return post;
+    }
+
+    // Come `internalPost`, ma senza riportare nello heap i post archiviati: il
+    // post restituito va trattato in sola lettura.
+    Post peekPost(int id) {
+        Post post = this.postsById.get(id);
+        ColdStore cold = this.cold;
+        if (post == null && cold != null) {
+            post = cold.lookup(id);
+            if (post == null) {
+                post = this.postsById.get(id);
+            }
+        }
+        return post;
+    }
+
+    // Gli ID dei post di `username` in ordine di pubblicazione, come vista non
+    // modificabile dell'indice interno; `null` se l'utente non esiste.
+    NavigableSet<Integer> postIds(String username) {
+        NavigableSet<Integer> ids = this.postsByUser.get(username);
+        return ids == null ? null : Collections.unmodifiableNavigableSet(ids);
+    }
+
+    // Gli ID di tutti i post di `this`, archiviati compresi, in ordine non
+    // specificato. A differenza di `getPostsById` non copia né decodifica
+    // alcun post: serve agli indici costruiti su `this` (`SearchEngine`,
+    // `HotRanking`). Come gli indici interni, l'iteratore è debolmente
+    // consistente: non lancia `ConcurrentModificationException` e può
+    // riflettere soltanto in parte le modifiche concorrenti.
+    Iterator<Integer> postIds() {
+        final Iterator<NavigableSet<Integer>> users = this.postsByUser.values().iterator();
+        return new Iterator<Integer>() {
+            private Iterator<Integer> ids = Collections.emptyIterator();
+
+            public boolean hasNext() {
+                while (!this.ids.hasNext() && users.hasNext()) {
+                    this.ids = users.next().iterator();
+                }
+                return this.ids.hasNext();
+            }
+
+            public Integer next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.ids.next();
+            }
+        };
+    }
+
+    // Tutti i post di `this`, archiviati compresi: una vista di `postsById` se
+    // l'archivio è assente, altrimenti un'unica istantanea di heap e archivio
+    // che decodifica i post archiviati soltanto quando l'attraversamento li
+    // raggiunge (vedi `ColdStore.posts`). I post vanno trattati in sola
+    // lettura.
+    private Spliterator<Post> allPosts() {
+        ColdStore cold = this.cold;
+        if (cold == null) {
+            return this.postsById.values().spliterator();
+        }
+        return Spliterators.spliteratorUnknownSize(cold.posts(this.postsById), Spliterator.NONNULL);
+    }
+
+    // Come `internalPost`, ma ricorre al risolutore dei post esterni se il
+    // post non appartiene a `this`.
+    private Post lookupPost(int id) {
+        Post post = this.internalPost(id);
+        Function<Integer, Post> resolver = this.postResolver;
+        return post == null && resolver != null ? resolver.apply(id) : post;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce, per ogni struttura dati interna, il numero di elementi che
+    //   contiene. Le strutture che associano insiemi a chiavi contano la somma
+    //   delle dimensioni degli insiemi.
+    Map<String, Long> getStructureSizes() {
+        long followeeEdges = 0;
+        for (Set<String> followees : this.followees.values()) {
+            followeeEdges += followees.size();
+        }
+        long postsByUser = 0;
+        for (NavigableSet<Integer> ids : this.postsByUser.values()) {
+            postsByUser += ids.size();
+        }
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        sizes.put("users", (long) this.followees.size());
+        sizes.put("followees", followeeEdges);
+        sizes.put("postsByUser", postsByUser);
+        sizes.put("postsById", (long) this.postsById.size());
+        sizes.put("postsByTime", (long) this.postsByTime.size());
+        ColdStore cold = this.cold;
+        sizes.put("coldPosts", cold == null ? 0L : cold.size());
+        return sizes;
     }
 
     // MODIFIES:
@@ -66,13 +529,22 @@ class SocialNetwork implements CheckRep {
     //     {post_0, post_1, ... post_m}
 
     public List<Post> getPosts() {
-        List<Post> posts = new ArrayList<>();
-        for (Map.Entry<String, List<Post>> entry : this.postsByUser.entrySet()) {
-            for (Post post : entry.getValue()) {
-                posts.add(post.deepCopy());
+        long start = this.metrics.start();
+        try {
+            List<Post> posts = new ArrayList<>();
+            for (Map.Entry<String, NavigableSet<Integer>> entry : this.postsByUser.entrySet()) {
+                for (int id : entry.getValue()) {
+                    // Il post può essere eliminato durante la visita.
+                    Post post = this.peekPost(id);
+                    if (post != null) {
+                        posts.add(post.deepCopy());
+                    }
+                }
             }
+            return posts;
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_POSTS, start);
         }
-        return posts;
     }
 
     // MODIFIES:
@@ -85,11 +557,18 @@ class SocialNetwork implements CheckRep {
     //   e il valore restituito è
     //     {<user_0, posts_0>, <user_1, posts_1>, ... <user_n, posts_n>}
     public Map<Integer, Post> getPostsById() {
-        Map<Integer, Post> posts = new HashMap<>();
-        for (Map.Entry<Integer, Post> entry : this.postsById.entrySet()) {
-            posts.put(entry.getKey(), entry.getValue().deepCopy());
+        long start = this.metrics.start();
+        try {
+            Map<Integer, Post> posts = new HashMap<>();
+            Iterator<Post> all = Spliterators.iterator(this.allPosts());
+            while (all.hasNext()) {
+                Post post = all.next();
+                posts.put(post.getId(), post.deepCopy());
+            }
+            return posts;
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_POSTS_BY_ID, start);
         }
-        return posts;
     }
 
     // MODIFIES:
@@ -101,7 +580,68 @@ class SocialNetwork implements CheckRep {
     //   e il valore restituito è
     //     {user_0, user_1, ... user_n}
     public List<String> getUsers() {
-        return new ArrayList<String>(this.followees.keySet());
+        long start = this.metrics.start();
+        try {
+            return new ArrayList<String>(this.followees.keySet());
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_USERS, start);
+        }
+    }
+
+    // Completa il prefisso di un nome utente, per esempio mentre si scrive un
+    // tag. Il costo dipende da `k` e dalla lunghezza dei nomi utente, non dal
+    // numero di utenti registrati.
+    //
+    // REQUIRES:
+    //   `prefix != null && k >= 1`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `prefix == null`.
+    //   `IllegalArgumentException` se e solo se `k < 1`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce i (al più) `k` utenti di `this.getUsers()` il cui nome
+    //   inizia con `prefix`, in ordine decrescente di numero di follower e, a
+    //   parità, in ordine alfabetico.
+    public List<String> completeUsername(String prefix, int k) throws NullPointerException, IllegalArgumentException {
+        long start = this.metrics.start();
+        try {
+            return this.usernames.complete(prefix, k);
+        } finally {
+            this.metrics.stop(Metrics.Operation.COMPLETE_USERNAME, start);
+        }
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di utenti registrati a MicroBlog, ovvero
+    //   `this.getUsers().size()`, senza però costruire la lista degli utenti.
+    public int getUserCount() {
+        return this.followees.size();
+    }
+
+    // REQUIRES:
+    //   `this.getPostsById().containsKey(id)`.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se
+    //   `!this.getPostsById().containsKey(id)`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una copia del post con ID `id`, ovvero
+    //   `this.getPostsById().get(id)`, senza però copiare gli altri post.
+    public Post getPostById(int id) throws IllegalArgumentException {
+        long start = this.metrics.start();
+        try {
+            Post post = this.peekPost(id);
+            if (post == null) {
+                throw new IllegalArgumentException();
+            }
+            return post.deepCopy();
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_POST_BY_ID, start);
+        }
     }
 
     // MODIFIES:
@@ -112,7 +652,12 @@ class SocialNetwork implements CheckRep {
     //   coppie
     //     <user_i, {u ∈ this.getUsers() | this.getPresentationPost(user_i).getLikes().contains(u)}>
     public Map<String, Set<String>> getFollowers() {
-        return SocialNetwork.reverseFollowRelation(this.followees);
+        long start = this.metrics.start();
+        try {
+            return SocialNetwork.reverseFollowRelation(this.followees);
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_FOLLOWERS, start);
+        }
     }
 
     // MODIFIES:
@@ -125,7 +670,12 @@ class SocialNetwork implements CheckRep {
     //   tali per cui `followees_i` è l'insieme degli utenti al post di
     //   presentazione dei quali `user_i` ha messo like.
     public Map<String, Set<String>> getFollowees() {
-        return this.followees;
+        long start = this.metrics.start();
+        try {
+            return this.followees;
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_FOLLOWEES, start);
+        }
     }
 
     // MODIFIES:
@@ -135,7 +685,19 @@ class SocialNetwork implements CheckRep {
     //   MicroBlog:
     //     {s ∈ this.getUsers() | this.writtenBy(s).size() >= 1}
     public Set<String> getMentionedUsers() {
-        return SocialNetwork.getMentionedUsers(this.getPosts());
+        long start = this.metrics.start();
+        try {
+            // Non serve copiare i post: basta sapere quali utenti ne hanno almeno uno.
+            Set<String> mentionedUsers = new HashSet<>();
+            for (Map.Entry<String, NavigableSet<Integer>> entry : this.postsByUser.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    mentionedUsers.add(entry.getKey());
+                }
+            }
+            return mentionedUsers;
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_MENTIONED_USERS, start);
+        }
     }
 
     // REQUIRES:
@@ -216,6 +778,31 @@ class SocialNetwork implements CheckRep {
         return influencers;
     }
 
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce gli utenti con più follower che utenti seguiti, come
+    //   `SocialNetwork.influencers(this.getFollowers())`.
+    public List<String> influencers() {
+        long start = this.metrics.start();
+        try {
+            if (!this.cache.isEnabled()) {
+                return SocialNetwork.influencers(this.getFollowers());
+            }
+            @SuppressWarnings("unchecked")
+            List<String> cached = (List<String>) this.cache.get(Metrics.Operation.INFLUENCERS);
+            if (cached != null) {
+                return new ArrayList<>(cached);
+            }
+            QueryCache.Stamp stamp = this.cache.stamp(QueryCache.Structure.FOLLOWS);
+            List<String> influencers = SocialNetwork.influencers(this.getFollowers());
+            this.cache.put(Metrics.Operation.INFLUENCERS, stamp, new ArrayList<>(influencers), influencers.size());
+            return influencers;
+        } finally {
+            this.metrics.stop(Metrics.Operation.INFLUENCERS, start);
+        }
+    }
+
     // Crea e restituisce una mappa con gli stessi nomi utente di `followers` ma
     // invertendone la relazione binaria:
     //
@@ -282,16 +869,263 @@ class SocialNetwork implements CheckRep {
     //   `username`. Formalmente:
     //     {p ∈ this.getPosts() | String.equalst(p.getAuthor(), username)}
     public List<Post> writtenBy(String username) throws NullPointerException {
-        if (username == null) {
-            throw new NullPointerException();
-        } else if (!this.postsByUser.containsKey(username)) {
-            return new ArrayList<Post>();
-        } else {
+        long start = this.metrics.start();
+        try {
+            if (username == null) {
+                throw new NullPointerException();
+            } else if (!this.postsByUser.containsKey(username)) {
+                return new ArrayList<Post>();
+            } else {
+                List<Post> posts = new ArrayList<>();
+                for (int id : this.postsByUser.get(username)) {
+                    Post post = this.peekPost(id);
+                    if (post != null) {
+                        posts.add(post.deepCopy());
+                    }
+                }
+                return posts;
+            }
+        } finally {
+            this.metrics.stop(Metrics.Operation.WRITTEN_BY, start);
+        }
+    }
+
+    // Restituisce una pagina di post scritti dall'utente denominato `username`,
+    // in ordine di pubblicazione. La prima pagina si ottiene con
+    // `cursor == null`, le successive passando il cursore restituito dalla
+    // pagina precedente. Il costo di una pagina è proporzionale a `limit` (a
+    // meno di un fattore logaritmico), indipendentemente da quanto in profondità
+    // ci si trovi nella cronologia dell'utente.
+    //
+    // REQUIRES:
+    //   `username != null
+    //    && limit > 0
+    //    && (cursor == null || cursor è stato restituito da una pagina di
+    //        `writtenBy(username, ...)`)`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    //   `IllegalArgumentException` se e solo se `limit <= 0` oppure il cursore
+    //   non è valido.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una pagina con le copie dei (al più `limit`) post di
+    //   `this.writtenBy(username)` successivi al cursore, in ordine di
+    //   pubblicazione. I post pubblicati o eliminati tra una pagina e l'altra
+    //   vengono rispettivamente inclusi o esclusi dalle pagine successive.
+    public PostPage writtenBy(String username, String cursor, int limit) throws NullPointerException, IllegalArgumentException {
+        long start = this.metrics.start();
+        try {
+            if (username == null) {
+                throw new NullPointerException();
+            } else if (limit <= 0) {
+                throw new IllegalArgumentException();
+            }
+            NavigableSet<Integer> ids = this.postsByUser.get(username);
+            if (ids == null) {
+                return new PostPage(new ArrayList<Post>(), null);
+            }
+            if (cursor != null) {
+                long[] fields = SocialNetwork.decodeCursor(cursor, 'U');
+                if (fields.length != 1) {
+                    throw new IllegalArgumentException();
+                }
+                ids = ids.tailSet((int) fields[0], false);
+            }
             List<Post> posts = new ArrayList<>();
-            for (Post writtenBy : this.postsByUser.get(username)) {
-                posts.add(writtenBy.deepCopy());
+            String nextCursor = null;
+            for (int id : ids) {
+                Post post = this.peekPost(id);
+                if (post == null) {
+                    continue;
+                } else if (posts.size() == limit) {
+                    Post last = posts.get(posts.size() - 1);
+                    nextCursor = SocialNetwork.encodeCursor('U', last.getId());
+                    break;
+                }
+                posts.add(post.deepCopy());
             }
-            return posts;
+            return new PostPage(posts, nextCursor);
+        } finally {
+            this.metrics.stop(Metrics.Operation.WRITTEN_BY, start);
+        }
+    }
+
+    // Restituisce una pagina di post pubblicati nell'intervallo di tempo
+    // `[from, to)`, in ordine di pubblicazione (e di ID a parità di data). La
+    // prima pagina si ottiene con `cursor == null`, le successive passando il
+    // cursore restituito dalla pagina precedente. Il costo di una pagina è
+    // proporzionale a `limit` (a meno di un fattore logaritmico).
+    //
+    // REQUIRES:
+    //   `from != null
+    //    && to != null
+    //    && limit > 0
+    //    && (cursor == null || cursor è stato restituito da una pagina di
+    //        `postsBetween`)`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `from == null || to == null`.
+    //   `IllegalArgumentException` se e solo se `limit <= 0` oppure il cursore
+    //   non è valido.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce una pagina con le copie dei (al più `limit`) post
+    //     {p ∈ this.getPosts() | !p.getTimestamp().isBefore(from) && p.getTimestamp().isBefore(to)}
+    //   successivi al cursore, in ordine di pubblicazione.
+    public PostPage postsBetween(Instant from, Instant to, String cursor, int limit) throws NullPointerException, IllegalArgumentException {
+        long start = this.metrics.start();
+        try {
+            if (from == null || to == null) {
+                throw new NullPointerException();
+            } else if (limit <= 0) {
+                throw new IllegalArgumentException();
+            }
+            TimeKey fromKey = new TimeKey(from, Integer.MIN_VALUE);
+            TimeKey toKey = new TimeKey(to, Integer.MIN_VALUE);
+            if (fromKey.compareTo(toKey) >= 0) {
+                return new PostPage(new ArrayList<Post>(), null);
+            }
+            NavigableSet<TimeKey> keys = this.postsByTime.subSet(fromKey, true, toKey, false);
+            if (cursor != null) {
+                long[] fields = SocialNetwork.decodeCursor(cursor, 'T');
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException();
+                }
+                TimeKey after = new TimeKey(Instant.ofEpochSecond(fields[0], fields[1]), (int) fields[2]);
+                if (after.compareTo(fromKey) >= 0) {
+                    keys = keys.tailSet(after, false);
+                }
+            }
+            List<Post> posts = new ArrayList<>();
+            String nextCursor = null;
+            for (TimeKey key : keys) {
+                Post post = this.peekPost(key.id);
+                if (post == null) {
+                    continue;
+                } else if (posts.size() == limit) {
+                    Post last = posts.get(posts.size() - 1);
+                    nextCursor = SocialNetwork.encodeCursor('T',
+                        last.getTimestamp().getEpochSecond(),
+                        last.getTimestamp().getNano(),
+                        last.getId());
+                    break;
+                }
+                posts.add(post.deepCopy());
+            }
+            return new PostPage(posts, nextCursor);
+        } finally {
+            this.metrics.stop(Metrics.Operation.POSTS_BETWEEN, start);
+        }
+    }
+
+    // Restituisce il thread che parte dal post con ID `postId` (il post e le
+    // sue risposte, dirette e indirette) come lista piatta in visita
+    // anticipata: ogni post è seguito dalle proprie risposte, nell'ordine di
+    // pubblicazione, e la struttura si ricava da `Post.getDepth`. Per l'intera
+    // conversazione basta partire da `post.getRootId()`.
+    //
+    // Alla prima lettura di un thread ne viene costruita una numerazione a
+    // intervalli (vedi `ThreadIndex`), che `writePost` e `deletePost`
+    // mantengono aggiornata: da allora il costo è proporzionale al numero di
+    // post restituiti (a meno di un fattore logaritmico) e non alla dimensione
+    // del thread. I post custoditi altrove (vedi `setPostResolver`) impediscono
+    // di mantenere la numerazione, che in tal caso viene ricostruita a ogni
+    // lettura.
+    //
+    // REQUIRES:
+    //   `maxDepth >= 0 && limit > 0` e il post esiste.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se `maxDepth < 0 || limit <= 0`
+    //   oppure il post non esiste.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce, in visita anticipata, le copie dei primi (al più `limit`)
+    //   post del thread di `postId` a distanza al più `maxDepth` da esso. Le
+    //   copie non hanno né genitore né risposte, così che il costo di ciascuna
+    //   non dipenda dalla dimensione del thread.
+    public List<Post> getThread(int postId, int maxDepth, int limit) throws IllegalArgumentException {
+        long start = this.metrics.start();
+        try {
+            if (maxDepth < 0 || limit <= 0) {
+                throw new IllegalArgumentException();
+            }
+            Post post = this.peekPost(postId);
+            if (post == null) {
+                throw new IllegalArgumentException();
+            }
+            List<Integer> ids = this.threadIndex(post.getRootId()).preOrder(postId, maxDepth, limit);
+            if (ids == null) {
+                // La numerazione non è aggiornata: la si ricostruisce.
+                this.threads.remove(post.getRootId());
+                ids = this.threadIndex(post.getRootId()).preOrder(postId, maxDepth, limit);
+            }
+            List<Post> thread = new ArrayList<>(ids.size());
+            for (int id : ids) {
+                Post reply = this.peekThreadPost(id);
+                if (reply != null) {
+                    thread.add(reply.freeze());
+                }
+            }
+            return thread;
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_THREAD, start);
+        }
+    }
+
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se il post non esiste.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di risposte, dirette e indirette, del post con
+    //   ID `postId`, come `Post.totalReplies`, leggendolo dalla numerazione
+    //   del thread (vedi `getThread`) anziché visitando le risposte.
+    public int countReplies(int postId) throws IllegalArgumentException {
+        long start = this.metrics.start();
+        try {
+            Post post = this.peekPost(postId);
+            if (post == null) {
+                throw new IllegalArgumentException();
+            }
+            int count = this.threadIndex(post.getRootId()).countReplies(postId);
+            return count >= 0 ? count : post.totalReplies();
+        } finally {
+            this.metrics.stop(Metrics.Operation.COUNT_REPLIES, start);
+        }
+    }
+
+    // Come `peekPost`, ma ricorre al risolutore dei post esterni se il post
+    // non appartiene a `this`: le risposte di un thread possono essere
+    // custodite altrove.
+    private Post peekThreadPost(int id) {
+        Post post = this.peekPost(id);
+        Function<Integer, Post> resolver = this.postResolver;
+        return post == null && resolver != null ? resolver.apply(id) : post;
+    }
+
+    // Restituisce la numerazione del thread con radice `rootId`, costruendola
+    // se assente. La visita e la pubblicazione avvengono detenendo
+    // `threadsLock`, così che le risposte concorrenti non vadano perse.
+    private ThreadIndex threadIndex(int rootId) {
+        ThreadIndex index = this.threads.get(rootId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (this.threadsLock) {
+            index = this.threads.get(rootId);
+            if (index == null) {
+                Post root = this.peekThreadPost(rootId);
+                if (root == null) {
+                    throw new IllegalArgumentException();
+                }
+                index = new ThreadIndex(root);
+                if (this.postResolver == null) {
+                    this.threads.put(rootId, index);
+                }
+            }
+            return index;
         }
     }
 
@@ -339,21 +1173,117 @@ class SocialNetwork implements CheckRep {
     //   contengono una o più dei termini di ricerca richiesti. Formalmente:
     //     {p ∈ this.getPosts() | (forany i | 0 <= i < words.size(), p.getText().contains(i))}
     public List<Post> containing(List<String> words) throws NullPointerException {
-        if (words == null) {
-            throw new NullPointerException();
-        }
-        List<Post> results = new ArrayList<>();
-        for (Post post : this.getPosts()) {
-            for (String word : words) {
-                if (post == null) {
-                    throw new NullPointerException();
-                } else if (post.getText().contains(word)) {
-                    results.add(post.deepCopy());
-                    break;
+        long start = this.metrics.start();
+        try {
+            FlightRecorderEvents.Containing event = new FlightRecorderEvents.Containing();
+            event.begin();
+            TermFilter filter = new TermFilter(words);
+            List<Object> key = null;
+            QueryCache.Stamp stamp = null;
+            if (this.cache.isEnabled()) {
+                key = new ArrayList<Object>(filter.terms.size() + 1);
+                key.add(Metrics.Operation.CONTAINING);
+                key.addAll(filter.terms);
+                int[] ids = (int[]) this.cache.get(key);
+                if (ids != null) {
+                    List<Post> results = this.copyPosts(ids);
+                    if (event.shouldCommit()) {
+                        event.terms = filter.terms.size();
+                        event.resultSize = results.size();
+                        event.cached = true;
+                        event.commit();
+                    }
+                    return results;
+                }
+                stamp = this.cache.stamp(QueryCache.Structure.POSTS);
+            }
+            List<Post> results = new ArrayList<>();
+            Iterator<Post> posts = StreamSupport.stream(
+                new PostSpliterator<Post>(this.allPosts(), SocialNetwork.IDENTITY, filter),
+                false).iterator();
+            while (posts.hasNext()) {
+                results.add(posts.next());
+            }
+            if (event.shouldCommit()) {
+                event.terms = filter.terms.size();
+                event.postsScanned = filter.scanned;
+                event.resultSize = results.size();
+                event.commit();
+            }
+            if (key != null) {
+                int[] ids = new int[results.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = results.get(i).getId();
                 }
+                this.cache.put(key, stamp, ids, ids.length);
             }
+            return results;
+        } finally {
+            this.metrics.stop(Metrics.Operation.CONTAINING, start);
+        }
+    }
+
+    // Variante pigra di `getPosts`: i post vengono copiati soltanto quando sono
+    // effettivamente consumati dallo stream, che può essere interrotto in
+    // anticipo (per esempio con `limit` o `findFirst`) oppure attraversato in
+    // parallelo con `parallel`. Per un `Iterator` si usi `iterator()` sullo
+    // stream restituito. Lo stream riflette i post pubblicati o eliminati
+    // durante l'attraversamento in modo non deterministico, ma non solleva mai
+    // `ConcurrentModificationException`: ogni post viene copiato con
+    // `Post.deepCopy`, che legge like e risposte sotto il lock del post.
+    //
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce uno stream sulle copie dei post di `this.getPosts()`, in
+    //   ordine non specificato.
+    public Stream<Post> streamPosts() {
+        return StreamSupport.stream(
+            new PostSpliterator<Post>(this.allPosts(), SocialNetwork.IDENTITY, null),
+            false);
+    }
+
+    // Variante pigra di `writtenBy(username)`, con le stesse proprietà di
+    // `streamPosts`.
+    //
+    // REQUIRES:
+    //   `username != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce uno stream sulle copie dei post di `this.writtenBy(username)`,
+    //   in ordine di pubblicazione.
+    public Stream<Post> streamWrittenBy(String username) throws NullPointerException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        NavigableSet<Integer> ids = this.postsByUser.get(username);
+        if (ids == null) {
+            return StreamSupport.stream(Spliterators.<Post>emptySpliterator(), false);
         }
-        return results;
+        return StreamSupport.stream(new PostSpliterator<Integer>(ids.spliterator(), this.byId, null), false);
+    }
+
+    // Variante pigra di `containing(words)`, con le stesse proprietà di
+    // `streamPosts`. Soltanto i post che contengono almeno uno dei termini di
+    // ricerca vengono copiati.
+    //
+    // REQUIRES:
+    //   `words != null && (forall w ∈ words ==> w != null)`.
+    // THROWS:
+    //   `NullPointerException` se e solo se
+    //   `words == null || (forany i | 0 <= i < words.size(), w == null)`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce uno stream sulle copie dei post di `this.containing(words)`,
+    //   in ordine non specificato.
+    public Stream<Post> streamContaining(List<String> words) throws NullPointerException {
+        return StreamSupport.stream(
+            new PostSpliterator<Post>(this.allPosts(), SocialNetwork.IDENTITY, new TermFilter(words)),
+            false);
     }
 
     // Verifica l'estistenza dell'utente denominato `username` all'interno del
@@ -369,7 +1299,12 @@ class SocialNetwork implements CheckRep {
     //   Restituisce `true` se e solo se `this.getUsers().contains(username)`,
     //   `false` altrimenti.
     public boolean userExists(String username) {
-        return this.followees.containsKey(username);
+        long start = this.metrics.start();
+        try {
+            return this.followees.containsKey(username);
+        } finally {
+            this.metrics.stop(Metrics.Operation.USER_EXISTS, start);
+        }
     }
 
     // Crea un nuovo utente denominato `username` sul social network.
@@ -390,12 +1325,26 @@ class SocialNetwork implements CheckRep {
     //   Aggiunge `username` al registro interno degli utenti di MicroBlog e
     //   restituisce il nome utente invariato `username`.
     public String register(String username) throws NullPointerException, IllegalArgumentException {
-        if (this.userExists(username)) {
-            throw new IllegalArgumentException();
+        long start = this.metrics.start();
+        try {
+            if (username == null) {
+                throw new NullPointerException();
+            }
+            // L'utente diventa visibile (`userExists`) soltanto dopo che la sua
+            // insieme di post è stato creato.
+            if (this.postsByUser.putIfAbsent(username, new ConcurrentSkipListSet<Integer>()) != null) {
+                throw new IllegalArgumentException();
+            }
+            this.usernames.add(username);
+            this.followees.put(username, new HashSet<String>());
+            this.cache.bump(QueryCache.Structure.FOLLOWS);
+            if (this.changes.isActive()) {
+                this.changes.publish(ChangeEvent.userRegistered(username));
+            }
+            return username;
+        } finally {
+            this.metrics.stop(Metrics.Operation.REGISTER, start);
         }
-        this.followees.put(username, new HashSet<String>());
-        this.postsByUser.put(username, new ArrayList<Post>());
-        return username;
     }
 
     // Pubblica un post sul social network. Dato `builder` il parametro in
@@ -404,15 +1353,20 @@ class SocialNetwork implements CheckRep {
     //
     // REQUIRES:
     //   `post != null &&
-    //    && (post.getParent() != null ==> this.getPosts().contains(post.getParent());
+    //    && this.userExists(post.getAuthor())
+    //    && (post.getParent() != null ==> this.getPostsById().containsKey(post.getParent().getId()))`.
     // THROWS:
     //   `NullPointerException` se e solo se `post == null`.
-    //   `IllegalArgumentException` se e solo se
-    //   `post.getParent() != null && this.getPosts().contains(post.getParent())`.
+    //   `IllegalArgumentException` se e solo se `!this.userExists(post.getAuthor())`
+    //   oppure
+    //   `post.getParent() != null && !this.getPostsById().containsKey(post.getParent().getId())`.
     // MODIFIES:
     //   `this`.
     // EFFECTS:
-    //   Restituisce una copia del post creato su MicroBlog. Inoltre, formalmente,
+    //   Restituisce una copia del post creato su MicroBlog. Se il post è una
+    //   risposta, questa viene aggiunta alle risposte del post di MicroBlog con
+    //   lo stesso ID del genitore indicato in `builder` (che può quindi essere
+    //   anche una copia restituita da MicroBlog). Inoltre, formalmente,
     //   si ha che se
     //     this_pre := <{user_0, user_1, ... user_n}, {post_0, post_1, ... post_m}>
     //   allora
@@ -420,20 +1374,57 @@ class SocialNetwork implements CheckRep {
     //   e il valore restituito è
     //     <post_m+1>
     public Post writePost(Post.Builder builder) throws NullPointerException, IllegalArgumentException {
-        if (builder == null) {
-            throw new NullPointerException();
-        }
-        Post post = builder.build();
-        String author = post.getAuthor();
-        if (!this.userExists(author)) {
-            throw new IllegalArgumentException();
-        }
-        if (post.getParent() != null && this.getPosts().contains(post.getParent())) {
-            throw new IllegalArgumentException();
+        long start = this.metrics.start();
+        try {
+            if (builder == null) {
+                throw new NullPointerException();
+            }
+            String author = builder.getAuthor();
+            if (!this.userExists(author)) {
+                throw new IllegalArgumentException();
+            }
+            if (builder.getParent() != null) {
+                Post parent = this.lookupPost(builder.getParent().getId());
+                if (parent == null) {
+                    throw new IllegalArgumentException();
+                }
+                builder.resolveParent(parent);
+            }
+            FlightRecorderEvents.WritePost event = new FlightRecorderEvents.WritePost();
+            event.begin();
+            Post post;
+            if (builder.getParent() == null) {
+                post = builder.build();
+            } else {
+                synchronized (this.threadsLock) {
+                    post = builder.build();
+                    ThreadIndex index = this.threads.get(post.getRootId());
+                    if (index != null && !index.add(post)) {
+                        // Niente più spazio tra le etichette: l'indice verrà
+                        // ricostruito alla prossima lettura.
+                        this.threads.remove(post.getRootId());
+                    }
+                }
+            }
+            this.postCreated(post);
+            this.postsByUser.get(author).add(post.getId());
+            this.postsById.put(post.getId(), post);
+            this.postsByTime.add(new TimeKey(post));
+            this.cache.bump(QueryCache.Structure.POSTS);
+            if (event.shouldCommit()) {
+                event.postId = post.getId();
+                event.author = author;
+                event.parentId = post.getParent() == null ? -1 : post.getParent().getId();
+                event.textLength = post.getText().length();
+                event.commit();
+            }
+            if (this.changes.isActive()) {
+                this.changes.publish(ChangeEvent.postCreated(post));
+            }
+            return post.deepCopy();
+        } finally {
+            this.metrics.stop(Metrics.Operation.WRITE_POST, start);
         }
-        this.postsByUser.get(author).add(post);
-        this.postsById.put(post.getId(), post);
-        return post.deepCopy();
     }
 
     // REQUIRES:
@@ -445,22 +1436,47 @@ class SocialNetwork implements CheckRep {
     // THROWS:
     //   `NullPointerException` se e solo se `post == null || username == null`.
     //   `IllegalArgumentException` se e solo se
-    //   `!this.getPostsById().containsKey(post.getId())`.
+    //   `!this.getPostsById().containsKey(post.getId())` oppure
+    //   `!this.userExists(username)`.
     // EFFECTS:
     //   Aggiunge il like a `post` da parte di `username` e lo aggiunge alla lista
     //   di followers dell'autore se il post è di presentazione. Nessuna
     //   operazione viene effettuata se l'utente ha già messo like al post.
     public void like(Post post, String username) throws NullPointerException, IllegalArgumentException {
-        if (post == null || username == null) {
-            throw new NullPointerException();
-        }
-        Post internalPost = this.postsById.get(post.getId());
-        if (!internalPost.isLikedBy(username)) {
-            internalPost.toggleLike(username);
-            Post firstPost = this.getPresentationPost(post.getAuthor());
-            if (firstPost.getId() == post.getId()) {
-                this.followees.get(username).add(post.getAuthor());
+        long start = this.metrics.start();
+        try {
+            if (post == null || username == null) {
+                throw new NullPointerException();
             }
+            FlightRecorderEvents.Like event = new FlightRecorderEvents.Like();
+            event.begin();
+            boolean liked = false;
+            boolean followChanged = false;
+            Post internalPost = this.internalPost(post.getId());
+            Set<String> followees = this.followees.get(username);
+            if (internalPost == null || followees == null) {
+                throw new IllegalArgumentException();
+            }
+            if (!internalPost.isLikedBy(username)) {
+                liked = internalPost.toggleLike(username);
+                if (this.presentationPostId(post.getAuthor()) == post.getId()) {
+                    followChanged = followees.add(post.getAuthor());
+                    if (followChanged) {
+                        this.usernames.addFollowers(post.getAuthor(), 1);
+                        this.cache.bump(QueryCache.Structure.FOLLOWS);
+                    }
+                }
+            }
+            this.publishLikeChange(post, username, liked, followChanged, true);
+            if (event.shouldCommit()) {
+                event.postId = post.getId();
+                event.username = username;
+                event.like = true;
+                event.followChanged = followChanged;
+                event.commit();
+            }
+        } finally {
+            this.metrics.stop(Metrics.Operation.LIKE, start);
         }
     }
 
@@ -473,22 +1489,47 @@ class SocialNetwork implements CheckRep {
     // THROWS:
     //   `NullPointerException` se e solo se `post == null || username == null`.
     //   `IllegalArgumentException` se e solo se
-    //   `!this.getPostsById().contains(post.getId())`.
+    //   `!this.getPostsById().contains(post.getId())` oppure
+    //   `!this.userExists(username)`.
     // EFFECTS:
     //   Toglie il like a `post` da parte di `username` e lo rimuove alla lista
     //   di followers dell'autore se il post è di presentazione. Nessuna
     //   operazione viene effettuata se l'utente non ha già messo like al post.
     public void dislike(Post post, String username) throws NullPointerException, IllegalArgumentException {
-        if (post == null || username == null) {
-            throw new NullPointerException();
-        }
-        Post internalPost = this.postsById.get(post.getId());
-        if (internalPost.isLikedBy(username)) {
-            internalPost.toggleLike(username);
-        }
-        Post firstPost = this.getPresentationPost(post.getAuthor());
-        if (firstPost.getId() == post.getId()) {
-            this.followees.get(username).remove(post.getAuthor());
+        long start = this.metrics.start();
+        try {
+            if (post == null || username == null) {
+                throw new NullPointerException();
+            }
+            FlightRecorderEvents.Like event = new FlightRecorderEvents.Like();
+            event.begin();
+            boolean disliked = false;
+            boolean followChanged = false;
+            Post internalPost = this.internalPost(post.getId());
+            Set<String> followees = this.followees.get(username);
+            if (internalPost == null || followees == null) {
+                throw new IllegalArgumentException();
+            }
+            if (internalPost.isLikedBy(username)) {
+                disliked = !internalPost.toggleLike(username);
+            }
+            if (this.presentationPostId(post.getAuthor()) == post.getId()) {
+                followChanged = followees.remove(post.getAuthor());
+                if (followChanged) {
+                    this.usernames.addFollowers(post.getAuthor(), -1);
+                    this.cache.bump(QueryCache.Structure.FOLLOWS);
+                }
+            }
+            this.publishLikeChange(post, username, disliked, followChanged, false);
+            if (event.shouldCommit()) {
+                event.postId = post.getId();
+                event.username = username;
+                event.like = false;
+                event.followChanged = followChanged;
+                event.commit();
+            }
+        } finally {
+            this.metrics.stop(Metrics.Operation.DISLIKE, start);
         }
     }
 
@@ -503,17 +1544,191 @@ class SocialNetwork implements CheckRep {
     // EFFECTS:
     //   Restituisce una copia del post di presentazione scritto da `username`.
     public Post getPresentationPost(String username) throws NullPointerException, IllegalArgumentException {
-        if (username == null) {
-            throw new NullPointerException();
-        }
-        List<Post> posts = this.postsByUser.get(username);
-        if (posts.size() == 0) {
+        long start = this.metrics.start();
+        try {
+            if (username == null) {
+                throw new NullPointerException();
+            }
+            // Se il post di presentazione viene eliminato durante la lettura,
+            // lo diventa il successivo.
+            for (int id : this.postsByUser.get(username)) {
+                Post post = this.peekPost(id);
+                if (post != null) {
+                    return post.deepCopy();
+                }
+            }
             throw new IllegalArgumentException();
-        } else {
-            return posts.get(0).deepCopy();
+        } finally {
+            this.metrics.stop(Metrics.Operation.GET_PRESENTATION_POST, start);
+        }
+    }
+
+    // Elimina un post assieme a tutte le sue risposte, dirette e indirette, e ai
+    // relativi like. Se tra i post eliminati c'è il post di presentazione di un
+    // utente, il suo post successivo diventa quello di presentazione: chi aveva
+    // messo like al vecchio post di presentazione smette di seguire l'utente e
+    // chi ha messo like al nuovo inizia a seguirlo. Il costo è proporzionale al
+    // numero di post eliminati (a meno di fattori logaritmici) e non al numero
+    // totale di post.
+    //
+    // REQUIRES:
+    //   `post != null
+    //    && username != null
+    //    && this.getPostsById().containsKey(post.getId())
+    //    && String.equals(this.getPostsById().get(post.getId()).getAuthor(), username)`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `post == null || username == null`.
+    //   `IllegalArgumentException` se e solo se il post non esiste su MicroBlog
+    //   oppure `username` non ne è l'autore.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Se
+    //     this_pre := <{user_0, ... user_n}, {post_0, ... post_m}>
+    //   allora
+    //     this_post := <{user_0, ... user_n}, {post_0, ... post_m} \ D>
+    //   dove `D` è l'insieme composto da `post` e da tutte le sue risposte dirette
+    //   e indirette. Restituisce la lista degli ID dei post di `D`, in ordine di
+    //   visita anticipata (pre-order) a partire da `post`.
+    public List<Integer> deletePost(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        long start = this.metrics.start();
+        try {
+            if (post == null || username == null) {
+                throw new NullPointerException();
+            }
+            Post root = this.internalPost(post.getId());
+            if (root == null || !root.getAuthor().equals(username)) {
+                throw new IllegalArgumentException();
+            }
+            synchronized (this.threadsLock) {
+                root.detach();
+            }
+            List<Integer> deleted = new ArrayList<>();
+            List<ChangeEvent> events = this.changes.isActive() ? new ArrayList<ChangeEvent>() : null;
+            // Per ogni autore il cui post di presentazione viene eliminato, il
+            // vecchio post di presentazione (i cui like determinano i follower).
+            Map<String, Post> oldPresentationPosts = new HashMap<>();
+            Deque<Post> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Post top = stack.pop();
+                NavigableSet<Integer> ids = this.postsByUser.get(top.getAuthor());
+                if (ids.first() == top.getId() && !oldPresentationPosts.containsKey(top.getAuthor())) {
+                    oldPresentationPosts.put(top.getAuthor(), top);
+                }
+                ids.remove(top.getId());
+                this.postsById.remove(top.getId());
+                this.postsByTime.remove(new TimeKey(top));
+                deleted.add(top.getId());
+                if (events != null) {
+                    events.add(ChangeEvent.postDeleted(top));
+                }
+                List<Post> replies = top.getReplies();
+                for (int i = replies.size() - 1; i >= 0; i--) {
+                    stack.push(replies.get(i));
+                }
+            }
+            // Dopo aver rimosso i post, così che una numerazione costruita nel
+            // frattempo non li contenga più.
+            synchronized (this.threadsLock) {
+                if (root.getParent() == null) {
+                    this.threads.remove(root.getId());
+                } else {
+                    ThreadIndex index = this.threads.get(root.getRootId());
+                    if (index != null) {
+                        index.remove(root.getId());
+                    }
+                }
+            }
+            this.cache.bump(QueryCache.Structure.POSTS);
+            for (Map.Entry<String, Post> entry : oldPresentationPosts.entrySet()) {
+                String author = entry.getKey();
+                Set<String> unfollowed = new HashSet<>();
+                for (String follower : entry.getValue().getLikes()) {
+                    if (this.followees.get(follower).remove(author)) {
+                        this.usernames.addFollowers(author, -1);
+                        unfollowed.add(follower);
+                    }
+                }
+                NavigableSet<Integer> ids = this.postsByUser.get(author);
+                if (!ids.isEmpty()) {
+                    for (String follower : this.peekPost(ids.first()).getLikes()) {
+                        if (this.followees.get(follower).add(author)) {
+                            this.usernames.addFollowers(author, 1);
+                        }
+                        // Chi segue ancora l'autore tramite il nuovo post di
+                        // presentazione non ha cambiato stato.
+                        if (!unfollowed.remove(follower) && events != null) {
+                            events.add(ChangeEvent.followChanged(follower, author, true));
+                        }
+                    }
+                }
+                if (events != null) {
+                    for (String follower : unfollowed) {
+                        events.add(ChangeEvent.followChanged(follower, author, false));
+                    }
+                }
+            }
+            if (!oldPresentationPosts.isEmpty()) {
+                this.cache.bump(QueryCache.Structure.FOLLOWS);
+            }
+            if (events != null) {
+                this.changes.publish(events);
+            }
+            return deleted;
+        } finally {
+            this.metrics.stop(Metrics.Operation.DELETE_POST, start);
         }
     }
     
+    // Restituisce l'ID del post di presentazione di `author`, -1 se non ne ha.
+    // Non serve un registro a parte: il primo ID di `postsByUser` è sempre
+    // quello di presentazione, perché `writePost` aggiunge ID crescenti e
+    // `deletePost`, rimuovendolo, lascia in testa il post successivo. La testa
+    // di una `ConcurrentSkipListSet` si legge in tempo costante e senza copie.
+    private int presentationPostId(String author) {
+        NavigableSet<Integer> ids = this.postsByUser.get(author);
+        if (ids == null) {
+            return -1;
+        }
+        try {
+            return ids.first();
+        } catch (NoSuchElementException e) {
+            // L'ultimo post di `author` è stato eliminato nel frattempo.
+            return -1;
+        }
+    }
+
+    // Restituisce le copie dei post con ID `ids` non ancora eliminati, per i
+    // risultati della cache.
+    List<Post> copyPosts(int[] ids) {
+        List<Post> posts = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Post post = this.peekPost(id);
+            if (post != null) {
+                posts.add(post.deepCopy());
+            }
+        }
+        return posts;
+    }
+
+    // Pubblica gli eventi di un like (`like == true`) o di un dislike a `post`
+    // da parte di `username`: `changed` indica se il like è cambiato,
+    // `followChanged` se è cambiato l'arco tra `username` e l'autore.
+    private void publishLikeChange(Post post, String username, boolean changed, boolean followChanged, boolean like) {
+        if (!this.changes.isActive() || !(changed || followChanged)) {
+            return;
+        }
+        List<ChangeEvent> events = new ArrayList<>(2);
+        if (changed) {
+            events.add(ChangeEvent.likeChanged(username, post.getId(), like));
+        }
+        if (followChanged) {
+            events.add(ChangeEvent.followChanged(username, post.getAuthor(), like));
+        }
+        this.changes.publish(events);
+    }
+
     // Verifica l'invariante di rappresentazione (RI) per l'instanza `this`.
     //
     // Nota bene: questo metodo è pensato unicamente per favorire il debugging e
@@ -530,6 +1745,91 @@ class SocialNetwork implements CheckRep {
                 return false;
             }
         }
-        return true;
+        boolean ri = this.followees.keySet().equals(this.postsByUser.keySet());
+        for (Map.Entry<String, NavigableSet<Integer>> entry : this.postsByUser.entrySet()) {
+            for (int id : entry.getValue()) {
+                ri = ri
+                  && this.peekPost(id) != null
+                  && this.peekPost(id).getAuthor().equals(entry.getKey());
+            }
+        }
+        for (Map.Entry<Integer, Post> entry : this.postsById.entrySet()) {
+            Post post = entry.getValue();
+            ri = ri
+              && post.getId() == entry.getKey()
+              && this.postsByUser.get(post.getAuthor()).contains(post.getId())
+              && (post.getParent() == null || this.lookupPost(post.getParent().getId()) == post.getParent());
+            for (Post reply : post.getReplies()) {
+                ri = ri && this.lookupPost(reply.getId()) == reply;
+            }
+        }
+        for (Map.Entry<Integer, ThreadIndex> entry : this.threads.entrySet()) {
+            Post root = this.peekPost(entry.getKey());
+            ri = ri
+              && root != null
+              && root.getParent() == null
+              && entry.getValue().checkRep()
+              && entry.getValue().countReplies(root.getId()) == root.totalReplies();
+        }
+        ColdStore cold = this.cold;
+        ri = ri && (cold == null || cold.checkRep());
+        ri = ri && this.postsByTime.size() == this.postsById.size() + (cold == null ? 0 : cold.size());
+        for (TimeKey key : this.postsByTime) {
+            Post post = this.peekPost(key.id);
+            ri = ri && post != null && post.getTimestamp().equals(key.timestamp);
+        }
+        Map<String, Set<String>> followees = new HashMap<>();
+        for (String username : this.postsByUser.keySet()) {
+            followees.put(username, new HashSet<String>());
+        }
+        for (Map.Entry<String, NavigableSet<Integer>> entry : this.postsByUser.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                for (String follower : this.peekPost(entry.getValue().first()).getLikes()) {
+                    followees.get(follower).add(entry.getKey());
+                }
+            }
+        }
+        ri = ri
+          && this.usernames.checkRep()
+          && this.usernames.size() == followees.size()
+          && this.cache.checkRep();
+        Map<String, Set<String>> followers = SocialNetwork.reverseFollowRelation(followees);
+        for (Map.Entry<String, Set<String>> entry : followers.entrySet()) {
+            ri = ri && this.usernames.getFollowers(entry.getKey()) == entry.getValue().size();
+        }
+        return ri && followees.equals(this.followees);
+    }
+
+    // Codifica un cursore opaco di tipo `kind` a partire dai campi `fields`. I
+    // cursori sono stringhe del tipo "T1a.2b.3c", dove la lettera iniziale
+    // identifica l'interrogazione che li ha prodotti.
+    private static String encodeCursor(char kind, long... fields) {
+        StringBuilder cursor = new StringBuilder();
+        cursor.append(kind);
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                cursor.append('.');
+            }
+            cursor.append(Long.toHexString(fields[i]));
+        }
+        return cursor.toString();
+    }
+
+    // Decodifica un cursore prodotto da `encodeCursor(kind, ...)`, sollevando
+    // `IllegalArgumentException` se il cursore non è valido.
+    private static long[] decodeCursor(String cursor, char kind) throws IllegalArgumentException {
+        if (cursor.length() < 2 || cursor.charAt(0) != kind) {
+            throw new IllegalArgumentException();
+        }
+        String[] parts = cursor.substring(1).split("\\.");
+        long[] fields = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                fields[i] = Long.parseUnsignedLong(parts[i], 16);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException();
+        }
+        return fields;
     }
-}
\ No newline at end of file
+}
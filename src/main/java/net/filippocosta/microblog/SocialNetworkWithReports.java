@@ -1,11 +1,17 @@
 package net.filippocosta.microblog;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 // OVERVIEW:
 //   Questa sottoclasse di `SocialNetwork` aggiunge un'informazione (`reports`) al
@@ -20,17 +26,95 @@ import java.util.Set;
 //
 //   Ciò significa che a ogni post si aggiunge un insieme di segnalazioni da parte
 //   di altri utenti.
+//
+//   Le operazioni `report`, `reportAll` e `register` possono essere invocate
+//   contemporaneamente da più thread: le segnalazioni a post diversi non si
+//   contendono alcun lock.
 public class SocialNetworkWithReports extends SocialNetwork {
     // AF(s):
-    //   <c.followes.keySet(), c.reports>
+    //   <c.followes.keySet(), {<k, v.users> | <k, v> ∈ c.reports}>
     // RI(s):
     //   RI_SocialNetwork(s)
     //   && (forall <k, v> ∈ s.reports
-    //       ==>
-    //       (forall r ∈ v ==> s.getUsers().contains(r)
-    //                      && r != this.getPostsById().get(k).getAuthor()))
+    //       ==> v.author == this.getPostsById().get(k).getAuthor()
+    //        && (forall r ∈ v.users ==> s.getUsers().contains(r)
+    //                                && r != v.author))
+    //
+    //   && s.minReports == SocialNetworkWithReports.minReportsFor(s.getUserCount())
+    //   && (forall <k, v> ∈ s.reportCounts
+    //       ==> k >= 1
+    //        && (forall id ∈ v ==> s.reports.get(id).users.size() == k))
+    //   && (forall <k, v> ∈ s.reports
+    //       ==> (v.users.size() >= 1 ==> s.reportCounts.get(v.users.size()).contains(k))
+    //        && (s.blacklisted.contains(k) <==> v.users.size() >= s.minReports))
+
+    private ConcurrentMap<Integer, Reporters> reports;
+    // Indice ordinato per numero di segnalazioni: associa a ogni numero di
+    // segnalazioni `k >= 1` l'insieme degli ID dei post segnalati esattamente
+    // `k` volte. Quando la soglia si sposta (vedi `register`) basta visitare i
+    // soli insiemi compresi tra la vecchia e la nuova soglia. Gli insiemi vuoti
+    // non vengono rimossi: sono al più tanti quanti gli utenti.
+    private NavigableMap<Integer, Set<Integer>> reportCounts;
+    // ID dei post attualmente "blacklisted", mantenuto in modo incrementale.
+    private Set<Integer> blacklisted;
+    // Numero minimo di segnalazioni affinché un post sia "blacklisted".
+    private volatile int minReports;
+    // Lock che serializza gli spostamenti della soglia `minReports`.
+    private final Object minReportsLock = new Object();
+    private List<BlacklistListener> blacklistListeners;
+
+    // OVERVIEW:
+    //   Una segnalazione da consegnare in blocco tramite `reportAll`: l'utente
+    //   `username` segnala il post con ID `postId`. Le istanze sono immutabili.
+    public static class Report {
+        // AF(r):
+        //   <r.postId, r.username>
+        // RI(r):
+        //   r.username != null
+
+        private final int postId;
+        private final String username;
+
+        // REQUIRES:
+        //   `username != null`.
+        // THROWS:
+        //   `NullPointerException` se e solo se `username == null`.
+        // EFFECTS:
+        //   Restituisce la segnalazione <postId, username>.
+        public Report(int postId, String username) throws NullPointerException {
+            if (username == null) {
+                throw new NullPointerException();
+            }
+            this.postId = postId;
+            this.username = username;
+        }
+
+        public int getPostId() {
+            return this.postId;
+        }
+
+        public String getUsername() {
+            return this.username;
+        }
+    }
 
-    private Map<Integer, Set<String>> reports;
+    // L'insieme degli utenti che hanno segnalato un post, assieme all'autore
+    // del post stesso (così da convalidare una segnalazione senza dover copiare
+    // il post). Le istanze fanno anche da lock per il proprio post: finché lo si
+    // detiene, il numero di segnalazioni e l'appartenenza del post a
+    // `reportCounts` e `blacklisted` non possono cambiare.
+    private static class Reporters {
+        private final String author;
+        private final Set<String> users = new HashSet<>();
+        // Diventa `true` quando il post viene eliminato, così che una
+        // segnalazione concorrente all'eliminazione non reinserisca il post
+        // negli indici.
+        private boolean deleted = false;
+
+        private Reporters(String author) {
+            this.author = author;
+        }
+    }
 
     // Costruttore per la classe `SocialNeworkWithReports`.
     //
@@ -41,7 +125,11 @@ public class SocialNetworkWithReports extends SocialNetwork {
     //     <{}>
     public SocialNetworkWithReports() {
         super();
-        this.reports = new HashMap<>();
+        this.reports = new ConcurrentHashMap<>();
+        this.reportCounts = new ConcurrentSkipListMap<>();
+        this.blacklisted = new ConcurrentSkipListSet<>();
+        this.minReports = SocialNetworkWithReports.minReportsFor(0);
+        this.blacklistListeners = new CopyOnWriteArrayList<>();
     }
 
     // Segnala un post. Si noti che la segnalazione è irreversibile.
@@ -77,22 +165,210 @@ public class SocialNetworkWithReports extends SocialNetwork {
     //   dove `post_1` identifica il parametro `post`. Nessuna operazione viene
     //   effettuata in caso la segnalazione da parte dell'utente sia già presente.
     public void report(Post post, String username) throws NullPointerException, PostReportException {
-        if (post == null || username == null) {
+        long start = this.getMetrics().start();
+        try {
+            if (post == null || username == null) {
+                throw new NullPointerException();
+            }
+            this.report(post.getId(), username);
+        } finally {
+            this.getMetrics().stop(Metrics.Operation.REPORT, start);
+        }
+    }
+
+    // Segnala il post con ID `postId`. Equivale a `report(post, username)` dove
+    // `post.getId() == postId`, ma non richiede un'istanza di `Post`. La
+    // convalida della segnalazione richiede tempo costante.
+    //
+    // REQUIRES:
+    //   `username != null
+    //    && this.getUsers().contains(username)
+    //    && this.getPostsById().containsKey(postId)
+    //    && !String.equals(this.getPostsById().get(postId).getAuthor(), username)`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    //   `PostReportException` se e solo se le altre condizioni sopracitate non
+    //   sono rispettate.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Vedi `report(Post, String)`.
+    public void report(int postId, String username) throws NullPointerException, PostReportException {
+        long start = this.getMetrics().start();
+        FlightRecorderEvents.Report event = new FlightRecorderEvents.Report();
+        event.begin();
+        // Numero di segnalazioni del post dopo questa; `-1` se non valida.
+        int count = -1;
+        try {
+            if (username == null) {
+                throw new NullPointerException();
+            }
+            Reporters reporters = this.reports.get(postId);
+            if (reporters == null
+                || !this.userExists(username)
+                || username.equals(reporters.author)) {
+                throw new PostReportException();
+            }
+            synchronized (reporters) {
+                if (reporters.deleted) {
+                    throw new PostReportException();
+                }
+                boolean added = reporters.users.add(username);
+                count = reporters.users.size();
+                if (added) {
+                    List<ChangeEvent> events = null;
+                    if (this.getChangeFeed().isActive()) {
+                        events = new ArrayList<>(2);
+                        events.add(ChangeEvent.postReported(username, postId, count));
+                    }
+                    this.moveReportCount(postId, count - 1, count);
+                    this.updateBlacklisted(postId, count, events);
+                    if (events != null) {
+                        this.getChangeFeed().publish(events);
+                    }
+                }
+            }
+        } finally {
+            if (event.shouldCommit()) {
+                event.postId = postId;
+                event.username = username;
+                event.accepted = count >= 0;
+                event.reportCount = java.lang.Math.max(0, count);
+                event.blacklisted = this.blacklisted.contains(postId);
+                event.commit();
+            }
+            this.getMetrics().stop(Metrics.Operation.REPORT, start);
+        }
+    }
+
+    // Consegna in blocco un insieme di segnalazioni. Le segnalazioni valide
+    // vengono registrate come da `report(int, String)`, quelle non valide
+    // vengono scartate senza interrompere le altre. Il metodo può essere
+    // invocato da più thread contemporaneamente.
+    //
+    // REQUIRES:
+    //   `batch != null && (forall r ∈ batch ==> r != null)`.
+    // THROWS:
+    //   `NullPointerException` se e solo se
+    //   `batch == null || (forany r ∈ batch, r == null)`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Registra tutte le segnalazioni valide di `batch` e restituisce la lista,
+    //   nell'ordine di `batch`, di quelle scartate perché non valide.
+    public List<Report> reportAll(Collection<Report> batch) throws NullPointerException {
+        long start = this.getMetrics().start();
+        try {
+            if (batch == null) {
+                throw new NullPointerException();
+            }
+            List<Report> rejected = new ArrayList<>();
+            for (Report report : batch) {
+                if (report == null) {
+                    throw new NullPointerException();
+                }
+                try {
+                    this.report(report.getPostId(), report.getUsername());
+                } catch (PostReportException e) {
+                    rejected.add(report);
+                }
+            }
+            return rejected;
+        } finally {
+            this.getMetrics().stop(Metrics.Operation.REPORT_ALL, start);
+        }
+    }
+
+    // REQUIRES:
+    //   `listener != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `listener == null`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Registra `listener`, che da ora in poi riceverà una notifica a ogni
+    //   ingresso o uscita di un post dalla blacklist.
+    public void addBlacklistListener(BlacklistListener listener) throws NullPointerException {
+        if (listener == null) {
             throw new NullPointerException();
         }
-        if (!this.getUsers().contains(username)
-            || username == post.getAuthor()
-            || !this.getPostsById().containsKey(post.getId())) {
-            throw new PostReportException();
+        this.blacklistListeners.add(listener);
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Rimuove `listener` dalla lista dei listener registrati, se presente.
+    public void removeBlacklistListener(BlacklistListener listener) {
+        this.blacklistListeners.remove(listener);
+    }
+
+    @Override
+    public String register(String username) throws NullPointerException, IllegalArgumentException {
+        long start = this.getMetrics().start();
+        try {
+            super.register(username);
+            List<ChangeEvent> events = this.getChangeFeed().isActive() ? new ArrayList<ChangeEvent>() : null;
+            synchronized (this.minReportsLock) {
+                this.updateMinReports(SocialNetworkWithReports.minReportsFor(this.getUserCount()), events);
+            }
+            if (events != null) {
+                this.getChangeFeed().publish(events);
+            }
+            return username;
+        } finally {
+            this.getMetrics().stop(Metrics.Operation.REGISTER, start);
         }
-        this.reports.get(post.getId()).add(username);
     }
 
     @Override
     public Post writePost(Post.Builder builder) throws NullPointerException, IllegalArgumentException {
-        Post post = super.writePost(builder);
-        this.reports.put(post.getId(), new HashSet<String>());
-        return post;
+        long start = this.getMetrics().start();
+        try {
+            return super.writePost(builder);
+        } finally {
+            this.getMetrics().stop(Metrics.Operation.WRITE_POST, start);
+        }
+    }
+
+    // Il post si può segnalare non appena è visibile, anche da un listener
+    // di `ChangeEvent.Kind.POST_CREATED`.
+    @Override
+    void postCreated(Post post) {
+        this.reports.put(post.getId(), new Reporters(post.getAuthor()));
+    }
+
+    // Elimina un post e le sue risposte come `SocialNetwork.deletePost`,
+    // rimuovendo anche le relative segnalazioni. I post eliminati che erano
+    // nella blacklist ne escono, e i listener ne vengono notificati.
+    @Override
+    public List<Integer> deletePost(Post post, String username) throws NullPointerException, IllegalArgumentException {
+        long start = this.getMetrics().start();
+        try {
+            List<Integer> deleted = super.deletePost(post, username);
+            List<ChangeEvent> events = this.getChangeFeed().isActive() ? new ArrayList<ChangeEvent>() : null;
+            for (int id : deleted) {
+                Reporters reporters = this.reports.remove(id);
+                if (reporters == null) {
+                    // Già rimosso da un'eliminazione concorrente.
+                    continue;
+                }
+                synchronized (reporters) {
+                    reporters.deleted = true;
+                    Set<Integer> ids = this.reportCounts.get(reporters.users.size());
+                    if (ids != null) {
+                        ids.remove(id);
+                    }
+                    this.updateBlacklisted(id, 0, events);
+                }
+            }
+            if (events != null) {
+                this.getChangeFeed().publish(events);
+            }
+            return deleted;
+        } finally {
+            this.getMetrics().stop(Metrics.Operation.DELETE_POST, start);
+        }
     }
 
     // REQUIRES:
@@ -108,12 +384,17 @@ public class SocialNetworkWithReports extends SocialNetwork {
     //   non fa parte della specifica ed è da considerarsi un dettaglio
     //   dell'implementazione.
     public boolean postIsBlacklisted(Post post) throws NullPointerException, IllegalArgumentException {
-        if (post == null) {
-            throw new NullPointerException();
-        } else if (!this.reports.containsKey(post.getId())) {
-            throw new IllegalArgumentException();
-        } else {
-            return this.reports.get(post.getId()).size() > java.lang.Math.sqrt(this.getUsers().size());
+        long start = this.getMetrics().start();
+        try {
+            if (post == null) {
+                throw new NullPointerException();
+            } else if (!this.reports.containsKey(post.getId())) {
+                throw new IllegalArgumentException();
+            } else {
+                return this.blacklisted.contains(post.getId());
+            }
+        } finally {
+            this.getMetrics().stop(Metrics.Operation.POST_IS_BLACKLISTED, start);
         }
     }
 
@@ -131,13 +412,193 @@ public class SocialNetworkWithReports extends SocialNetwork {
     //     (this.postIsBlacklisted(this.getPosts().get(i))
     //      <==>
     //      this.blacklist().contains(this.getPosts().get(i)))
+    //
+    //   Il costo è proporzionale al numero di post restituiti e non al numero
+    //   totale di post o di utenti.
     public List<Post> blacklist() {
-        List<Post> blacklist = new ArrayList<>();
-        for (Post post : this.getPosts()) {
-            if (this.postIsBlacklisted(post)) {
-                blacklist.add(post.deepCopy());
+        long start = this.getMetrics().start();
+        try {
+            FlightRecorderEvents.Blacklist event = new FlightRecorderEvents.Blacklist();
+            event.begin();
+            QueryCache cache = this.getQueryCache();
+            QueryCache.Stamp stamp = null;
+            if (cache.isEnabled()) {
+                int[] ids = (int[]) cache.get(Metrics.Operation.BLACKLIST);
+                if (ids != null) {
+                    return this.copyPosts(ids);
+                }
+                stamp = cache.stamp(QueryCache.Structure.BLACKLIST);
+            }
+            List<Post> blacklist = new ArrayList<>();
+            for (int id : this.blacklisted) {
+                // Il post può essere eliminato mentre la blacklist viene letta.
+                Post post = this.peekPost(id);
+                if (post != null) {
+                    blacklist.add(post.deepCopy());
+                }
+            }
+            if (stamp != null) {
+                int[] ids = new int[blacklist.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = blacklist.get(i).getId();
+                }
+                cache.put(Metrics.Operation.BLACKLIST, stamp, ids, ids.length);
+            }
+            if (event.shouldCommit()) {
+                event.resultSize = blacklist.size();
+                event.commit();
+            }
+            return blacklist;
+        } finally {
+            this.getMetrics().stop(Metrics.Operation.BLACKLIST, start);
+        }
+    }
+
+    // Verifica l'invariante di rappresentazione (RI) per l'instanza `this`.
+    //
+    // Nota bene: questo metodo è pensato unicamente per favorire il debugging e
+    // la realizzazione della batteria di test.
+    //
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se `this` verifica l'invariante di
+    //   rappresentazione della classe `SocialNetworkWithReports`, `false`
+    //   altrimenti.
+    @Override
+    public boolean checkRep() {
+        boolean ri = super.checkRep()
+                  && this.minReports == SocialNetworkWithReports.minReportsFor(this.getUserCount());
+        for (Map.Entry<Integer, Set<Integer>> entry : this.reportCounts.entrySet()) {
+            ri = ri && entry.getKey() >= 1;
+            for (int id : entry.getValue()) {
+                ri = ri && this.reports.get(id).users.size() == entry.getKey();
+            }
+        }
+        for (Map.Entry<Integer, Reporters> entry : this.reports.entrySet()) {
+            int count = entry.getValue().users.size();
+            ri = ri
+              && !entry.getValue().users.contains(entry.getValue().author)
+              && (count == 0 || this.reportCounts.get(count).contains(entry.getKey()))
+              && this.blacklisted.contains(entry.getKey()) == (count >= this.minReports);
+        }
+        return ri;
+    }
+
+    @Override
+    Map<String, Long> getStructureSizes() {
+        Map<String, Long> sizes = super.getStructureSizes();
+        long reports = 0;
+        for (Reporters reporters : this.reports.values()) {
+            synchronized (reporters) {
+                reports += reporters.users.size();
+            }
+        }
+        sizes.put("reports", reports);
+        sizes.put("blacklisted", (long) this.blacklisted.size());
+        return sizes;
+    }
+
+    // Restituisce una copia dell'insieme degli utenti che hanno segnalato il
+    // post con ID `postId`, vuoto se il post non esiste, per costruire la
+    // prima versione di `Snapshot`.
+    Set<String> getReporters(int postId) {
+        Reporters reporters = this.reports.get(postId);
+        if (reporters == null) {
+            return new HashSet<>();
+        }
+        synchronized (reporters) {
+            return new HashSet<>(reporters.users);
+        }
+    }
+
+    // Calcola la soglia di segnalazioni oltre la quale un post è considerato
+    // "blacklisted" in un social network con `userCount` utenti. Un post è
+    // "blacklisted" se e solo se il numero delle sue segnalazioni è strettamente
+    // maggiore della radice quadrata del numero di utenti; trattandosi di
+    // numeri interi, ciò equivale ad avere almeno `floor(sqrt(userCount)) + 1`
+    // segnalazioni.
+    static int minReportsFor(int userCount) {
+        return (int) java.lang.Math.floor(java.lang.Math.sqrt(userCount)) + 1;
+    }
+
+    // Sposta il post con ID `id` dall'insieme dei post segnalati `from` volte a
+    // quello dei post segnalati `to` volte. Il post viene prima aggiunto al
+    // nuovo insieme e solo dopo rimosso dal vecchio, così che `updateMinReports`
+    // lo trovi sempre in almeno uno dei due.
+    //
+    // Nota bene: va invocato detenendo il lock del post.
+    private void moveReportCount(int id, int from, int to) {
+        Set<Integer> ids = this.reportCounts.get(to);
+        if (ids == null) {
+            Set<Integer> empty = ConcurrentHashMap.newKeySet();
+            ids = this.reportCounts.putIfAbsent(to, empty);
+            if (ids == null) {
+                ids = empty;
+            }
+        }
+        ids.add(id);
+        ids = this.reportCounts.get(from);
+        if (ids != null) {
+            ids.remove(id);
+        }
+    }
+
+    // Aggiorna l'appartenenza del post con ID `id`, segnalato `count` volte,
+    // alla blacklist secondo la soglia corrente e notifica i listener se
+    // l'appartenenza è cambiata, aggiungendo il relativo evento a `events` se
+    // non è `null`.
+    //
+    // Nota bene: va invocato detenendo il lock del post.
+    private void updateBlacklisted(int id, int count, List<ChangeEvent> events) {
+        boolean changed;
+        boolean isBlacklisted = count >= this.minReports;
+        if (isBlacklisted) {
+            changed = this.blacklisted.add(id);
+        } else {
+            changed = this.blacklisted.remove(id);
+        }
+        if (changed) {
+            this.getQueryCache().bump(QueryCache.Structure.BLACKLIST);
+            for (BlacklistListener listener : this.blacklistListeners) {
+                listener.blacklistChanged(id, isBlacklisted);
+            }
+            if (events != null) {
+                events.add(ChangeEvent.blacklistChanged(id, isBlacklisted));
+            }
+        }
+    }
+
+    // Aggiorna la soglia di segnalazioni a `newMinReports`. Vengono visitati
+    // soltanto i post il cui numero di segnalazioni è compreso tra la vecchia e
+    // la nuova soglia, ovvero gli unici il cui stato può cambiare. La nuova
+    // soglia viene pubblicata prima della visita: una segnalazione concorrente
+    // che sfugge alla visita vede necessariamente la nuova soglia.
+    //
+    // Gli eventi delle uscite e degli ingressi nella blacklist vengono aggiunti a
+    // `events` se non è `null`.
+    //
+    // Nota bene: va invocato detenendo `this.minReportsLock`.
+    private void updateMinReports(int newMinReports, List<ChangeEvent> events) {
+        int oldMinReports = this.minReports;
+        if (newMinReports == oldMinReports) {
+            return;
+        }
+        this.minReports = newMinReports;
+        int from = java.lang.Math.min(oldMinReports, newMinReports);
+        int to = java.lang.Math.max(oldMinReports, newMinReports);
+        for (Set<Integer> ids : this.reportCounts.subMap(from, true, to, false).values()) {
+            for (int id : ids) {
+                Reporters reporters = this.reports.get(id);
+                if (reporters == null) {
+                    continue;
+                }
+                synchronized (reporters) {
+                    if (!reporters.deleted) {
+                        this.updateBlacklisted(id, reporters.users.size(), events);
+                    }
+                }
             }
         }
-        return blacklist;
     }
-}
+}
\ No newline at end of file
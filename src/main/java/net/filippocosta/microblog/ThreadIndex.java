@@ -0,0 +1,211 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// OVERVIEW:
+//   Numerazione a intervalli di un thread, per `SocialNetwork.getThread`:
+//   ogni post riceve un'etichetta d'ingresso e una d'uscita, nell'ordine in
+//   cui una visita anticipata (pre-order) entra nel post ed esce da esso
+//   (Euler tour). Le risposte dirette e indirette di un post sono allora tutti
+//   e soli i post con etichetta d'ingresso compresa tra le due del post, e la
+//   visita anticipata del sottoalbero è una visita in ordine di etichetta: una
+//   query su un intervallo anziché una visita ricorsiva. Ogni post conosce
+//   anche la dimensione del proprio sottoalbero.
+//
+//   Le etichette sono distanziate, così che una nuova risposta (sempre
+//   l'ultima del proprio genitore) trovi posto senza rinumerare gli altri
+//   post; quando lo spazio tra due etichette si esaurisce `add` restituisce
+//   `false` e l'indice va ricostruito. Il tipo di dato astratto è la sequenza
+//   in visita anticipata degli ID dei post del thread, ciascuno con la propria
+//   profondità e la dimensione del proprio sottoalbero. I metodi possono
+//   essere invocati da più thread.
+final class ThreadIndex {
+    // AF(t):
+    //   [<n.id, n.depth, n.size> | n ∈ t.byEnter.values(), in ordine di n.enter]
+    // RI(t):
+    //   t.byEnter.size() == t.nodes.size()
+    //   && (forall n ∈ t.nodes.values()
+    //       ==> t.byEnter.get(n.enter) == n
+    //        && n.enter <= n.tail && n.tail < n.exit
+    //        && (n.parent != null
+    //            ==> n.parent.enter < n.enter && n.exit <= n.parent.tail
+    //             && n.depth == n.parent.depth + 1)
+    //        && n.size == 1 + #{m ∈ t.nodes.values() | n.enter < m.enter < n.exit})
+
+    // Lo spazio delle etichette, con margine perché le somme non traboccano.
+    private static final long SPACE = Long.MAX_VALUE / 2;
+
+    private static final class Node {
+        private final int id;
+        private final Node parent;
+        private final int depth;
+        private long enter;
+        private long exit;
+        // L'etichetta più alta usata nel sottoalbero prima di `exit`: la
+        // prossima risposta va subito dopo.
+        private long tail;
+        private int size = 1;
+
+        private Node(int id, Node parent, int depth) {
+            this.id = id;
+            this.parent = parent;
+            this.depth = depth;
+        }
+    }
+
+    private final NavigableMap<Long, Node> byEnter = new TreeMap<>();
+    private final Map<Integer, Node> nodes = new HashMap<>();
+
+    // Costruisce l'indice del thread con radice `root`, visitandone le
+    // risposte.
+    ThreadIndex(Post root) {
+        List<Node> order = new ArrayList<>();
+        Deque<Post> posts = new ArrayDeque<>();
+        Deque<Node> parents = new ArrayDeque<>();
+        // Il genitore fittizio della radice.
+        Node none = new Node(-1, null, -1);
+        posts.push(root);
+        parents.push(none);
+        while (!posts.isEmpty()) {
+            Post post = posts.pop();
+            Node parent = parents.pop();
+            Node node = new Node(post.getId(), parent == none ? null : parent, post.getDepth() - root.getDepth());
+            order.add(node);
+            List<Post> replies = post.getReplies();
+            for (int i = replies.size() - 1; i >= 0; i--) {
+                posts.push(replies.get(i));
+                parents.push(node);
+            }
+        }
+        // In ordine inverso ogni post precede il proprio genitore.
+        for (int i = order.size() - 1; i > 0; i--) {
+            order.get(i).parent.size += order.get(i).size;
+        }
+        long gap = SPACE / (2L * order.size() + 1);
+        for (int i = 0; i < order.size(); i++) {
+            // Prima dell'ingresso in un post ci sono `i` ingressi e le uscite
+            // dei post già chiusi, cioè tutti quelli precedenti tranne gli
+            // antenati.
+            Node node = order.get(i);
+            node.enter = (2L * i - node.depth + 1) * gap;
+            node.exit = node.enter + (2L * node.size - 1) * gap;
+            node.tail = node.exit - gap;
+            this.byEnter.put(node.enter, node);
+            this.nodes.put(node.id, node);
+        }
+    }
+
+    // REQUIRES:
+    //   `reply.getParent() != null`.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Aggiunge `reply` come ultima risposta del proprio genitore e
+    //   restituisce `true`; non fa nulla se `reply` è già presente. Restituisce
+    //   `false`, lasciando `this` invariato, se il genitore non è nell'indice
+    //   oppure non c'è più spazio tra le etichette: in tal caso l'indice va
+    //   ricostruito.
+    synchronized boolean add(Post reply) {
+        if (this.nodes.containsKey(reply.getId())) {
+            return true;
+        }
+        Node parent = this.nodes.get(reply.getParent().getId());
+        if (parent == null || parent.exit - parent.tail < 4) {
+            return false;
+        }
+        Node node = new Node(reply.getId(), parent, parent.depth + 1);
+        // La risposta occupa la prima metà dello spazio libero, lasciando la
+        // seconda alle risposte successive del genitore.
+        node.enter = parent.tail + 1;
+        node.tail = node.enter;
+        node.exit = parent.tail + (parent.exit - parent.tail) / 2;
+        parent.tail = node.exit;
+        this.byEnter.put(node.enter, node);
+        this.nodes.put(node.id, node);
+        for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.size++;
+        }
+        return true;
+    }
+
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Rimuove il post con ID `id` e tutte le sue risposte, dirette e
+    //   indirette, se presente.
+    synchronized void remove(int id) {
+        Node node = this.nodes.get(id);
+        if (node == null) {
+            return;
+        }
+        NavigableMap<Long, Node> subtree = this.byEnter.subMap(node.enter, true, node.exit, false);
+        for (Node removed : subtree.values()) {
+            this.nodes.remove(removed.id);
+        }
+        subtree.clear();
+        for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.size -= node.size;
+        }
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce gli ID, in visita anticipata, dei (al più `limit`) post del
+    //   sottoalbero del post con ID `id` a distanza al più `maxDepth` da esso;
+    //   `null` se il post non è nell'indice. Il costo è proporzionale al numero
+    //   di ID restituiti (a meno di un fattore logaritmico), anche quando
+    //   `maxDepth` esclude sottoalberi di grandi dimensioni.
+    synchronized List<Integer> preOrder(int id, int maxDepth, int limit) {
+        Node top = this.nodes.get(id);
+        if (top == null) {
+            return null;
+        }
+        List<Integer> ids = new ArrayList<>();
+        Map.Entry<Long, Node> entry = this.byEnter.ceilingEntry(top.enter);
+        while (entry != null && entry.getKey() < top.exit && ids.size() < limit) {
+            Node node = entry.getValue();
+            ids.add(node.id);
+            // Oltre la profondità massima si salta l'intero sottoalbero.
+            entry = node.depth - top.depth >= maxDepth
+                  ? this.byEnter.higherEntry(node.exit)
+                  : this.byEnter.higherEntry(entry.getKey());
+        }
+        return ids;
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di risposte, dirette e indirette, del post con ID
+    //   `id`; `-1` se il post non è nell'indice.
+    synchronized int countReplies(int id) {
+        Node node = this.nodes.get(id);
+        return node == null ? -1 : node.size - 1;
+    }
+
+    // Verifica l'invariante di rappresentazione (RI) per l'istanza `this`.
+    synchronized boolean checkRep() {
+        boolean ri = this.byEnter.size() == this.nodes.size();
+        for (Node node : this.nodes.values()) {
+            ri = ri
+              && this.byEnter.get(node.enter) == node
+              && node.enter <= node.tail && node.tail < node.exit
+              && node.size == this.byEnter.subMap(node.enter, true, node.exit, false).size();
+            if (node.parent != null) {
+                ri = ri
+                  && node.parent.enter < node.enter
+                  && node.exit <= node.parent.tail
+                  && node.depth == node.parent.depth + 1;
+            }
+        }
+        return ri;
+    }
+}
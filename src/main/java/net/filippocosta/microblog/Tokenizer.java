@@ -0,0 +1,106 @@
+package net.filippocosta.microblog;
+
+// OVERVIEW:
+//   Questa classe implementa un analizzatore lessicale (scanner) per il corpo di
+//   testo dei post. In un'unica passata sul testo, senza espressioni regolari e
+//   senza allocare alcun oggetto, riconosce tre tipi di token:
+//
+//     - Gli hashtag: un cancelletto seguito da uno o più caratteri tra lettere
+//       ASCII, cifre e trattino basso, ovvero `#[a-zA-Z0-9_]+`.
+//     - I tag (o menzioni): una chiocciola seguita da uno o più caratteri dello
+//       stesso insieme, ovvero `@[a-zA-Z0-9_]+`.
+//     - Le parole: sequenze massimali di lettere (anche non ASCII), cifre e
+//       trattini bassi che non fanno parte di un hashtag o di un tag.
+//
+//   I token vengono consegnati a un `Sink` sotto forma di coppie di indici nel
+//   testo originale; è il `Sink` a decidere se e quando estrarre le
+//   sottostringhe. Hashtag e tag sono riconosciuti esattamente come farebbe
+//   `Matcher.find` con le espressioni regolari sopracitate.
+final class Tokenizer {
+    // Questa classe non contiene alcuno stato interno e nessun costruttore
+    // pubblico. Ciò rende superfluo la descrizione di AF e RI.
+
+    // OVERVIEW:
+    //   Le tre categorie di token riconosciute da `Tokenizer`.
+    enum Kind {
+        // AF(k):
+        //   Non necessaria perchè tipo di dato concreto e astratto coincidono.
+        // RI(k):
+        //   true
+
+        WORD,
+        HASHTAG,
+        MENTION,
+    }
+
+    // OVERVIEW:
+    //   Destinatario dei token prodotti da `Tokenizer.tokenize`.
+    interface Sink {
+        // MODIFIES:
+        //   Dipende dall'implementazione.
+        // EFFECTS:
+        //   Riceve un token di tipo `kind` che occupa i caratteri
+        //   `text.substring(start, end)` del testo analizzato. Per hashtag e tag
+        //   l'intervallo esclude il carattere iniziale (`#` oppure `@`).
+        public void token(Kind kind, int start, int end);
+    }
+
+    private Tokenizer() {}
+
+    // REQUIRES:
+    //   `text != null && sink != null`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `text == null || sink == null`.
+    // MODIFIES:
+    //   `sink`.
+    // EFFECTS:
+    //   Consegna a `sink`, in ordine di presenza, tutti i token di `text`.
+    static void tokenize(String text, Sink sink) throws NullPointerException {
+        if (text == null || sink == null) {
+            throw new NullPointerException();
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if ((c == '#' || c == '@') && i + 1 < length && Tokenizer.isTagChar(text.charAt(i + 1))) {
+                int end = i + 2;
+                while (end < length && Tokenizer.isTagChar(text.charAt(end))) {
+                    end++;
+                }
+                sink.token(c == '#' ? Kind.HASHTAG : Kind.MENTION, i + 1, end);
+                i = end;
+            } else if (Tokenizer.isWordChar(c)) {
+                int end = i + 1;
+                while (end < length && Tokenizer.isWordChar(text.charAt(end))) {
+                    end++;
+                }
+                sink.token(Kind.WORD, i, end);
+                i = end;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se `c` può far parte di un hashtag o di un
+    //   tag, ovvero `c ∈ [a-zA-Z0-9_]`, `false` altrimenti.
+    static boolean isTagChar(char c) {
+        return (c >= 'a' && c <= 'z')
+            || (c >= 'A' && c <= 'Z')
+            || (c >= '0' && c <= '9')
+            || c == '_';
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce `true` se e solo se `c` può far parte di una parola, `false`
+    //   altrimenti.
+    static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
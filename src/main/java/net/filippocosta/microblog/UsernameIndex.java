@@ -0,0 +1,337 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// OVERVIEW:
+//   Indice dei nomi utente per il completamento dei prefissi: associa a ogni
+//   utente registrato il suo numero di follower e restituisce, dato un
+//   prefisso, i `k` utenti che iniziano con quel prefisso e hanno più
+//   follower. Il tipo di dato astratto è la mappa
+//     {<user_0, followers_0>, <user_1, followers_1>, ... <user_n, followers_n>}
+//
+//   È realizzato come un trie compresso (ogni arco è etichettato da una
+//   sottostringa, così che i nodi siano al più `2n`) in cui ogni nodo conosce
+//   il massimo numero di follower del suo sottoalbero. `complete` visita i
+//   nodi dal più promettente, fermandosi dopo `k` utenti: il costo dipende
+//   da `k` e dalla lunghezza dei nomi, non dal numero di utenti.
+//
+//   Le etichette non vengono copiate: ogni nodo punta a un nome utente del
+//   suo sottoalbero e ne ricorda soltanto la lunghezza del prefisso. I figli
+//   sono ordinati per primo carattere dell'etichetta e cercati per bisezione,
+//   così che un nodo occupi spazio solo per i caratteri effettivamente
+//   presenti tra i nomi utente.
+//
+//   I metodi sono sincronizzati: le modifiche costano `O(lunghezza del nome)`.
+class UsernameIndex implements CheckRep {
+    // AF(c):
+    //   {<n.key, n.followers> | n nodo di c.root && n.followers >= 0}
+    // RI(c):
+    //   c.root != null && c.root.end == 0
+    //   && (forall n nodo di c.root ==>
+    //          n.key != null
+    //       && (n != c.root ==> n.end > 0 && n.end <= n.key.length())
+    //       && (n.followers >= 0 ==> n.end == n.key.length())
+    //       && n.max == max({n.followers} ∪ {f.max | f ∈ n.children})
+    //       && (forall f ∈ n.children ==> f.end > n.end
+    //                                  && f.key.startsWith(n.key.substring(0, n.end)))
+    //       && i figli hanno primi caratteri dell'etichetta distinti e ordinati)
+    //   && (forall n nodo di c.root, n != c.root ==> n.followers >= 0 || n.children.length >= 2)
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static class Node {
+        // Un nome utente del sottoalbero: il cammino dalla radice al nodo è
+        // `key.substring(0, end)`.
+        private String key;
+        private int end;
+        private Node[] children = NO_CHILDREN;
+        // Numero di follower dell'utente `key` se `end == key.length()` e il
+        // nodo corrisponde a un utente registrato, -1 altrimenti.
+        private int followers = -1;
+        // Massimo di `followers` nel sottoalbero, -1 se non contiene utenti.
+        private int max = -1;
+
+        private Node(String key, int end) {
+            this.key = key;
+            this.end = end;
+        }
+
+        private char label(int depth) {
+            return this.key.charAt(depth);
+        }
+
+        // L'indice del figlio il cui arco inizia con `c`, oppure
+        // `-(punto di inserimento) - 1`.
+        private int find(int depth, char c) {
+            int low = 0;
+            int high = this.children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char label = this.children[mid].label(depth);
+                if (label < c) {
+                    low = mid + 1;
+                } else if (label > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private void insertChild(int index, Node child) {
+            Node[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.children, 0, children, 0, index);
+            children[index] = child;
+            System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+            this.children = children;
+        }
+
+        private void updateMax() {
+            int max = this.followers;
+            for (Node child : this.children) {
+                max = java.lang.Math.max(max, child.max);
+            }
+            this.max = max;
+        }
+    }
+
+    // Un nodo da visitare (`user == false`) oppure un utente da restituire,
+    // in ordine di follower decrescenti e poi di nome crescente. Il nome di un
+    // nodo è il suo cammino, che precede tutti i nomi del sottoalbero.
+    private static class Candidate implements Comparable<Candidate> {
+        private final Node node;
+        private final boolean user;
+        private final int followers;
+
+        private Candidate(Node node, boolean user) {
+            this.node = node;
+            this.user = user;
+            this.followers = user ? node.followers : node.max;
+        }
+
+        public int compareTo(Candidate other) {
+            if (this.followers != other.followers) {
+                return this.followers > other.followers ? -1 : 1;
+            }
+            int length = java.lang.Math.min(this.node.end, other.node.end);
+            for (int i = 0; i < length; i++) {
+                char a = this.node.key.charAt(i);
+                char b = other.node.key.charAt(i);
+                if (a != b) {
+                    return a < b ? -1 : 1;
+                }
+            }
+            // A parità di prefisso, il nodo più in alto precede.
+            return Integer.compare(this.node.end, other.node.end);
+        }
+    }
+
+    private final Node root = new Node("", 0);
+    private int size = 0;
+
+    // REQUIRES:
+    //   `username != null` e `username` non è già presente.
+    // THROWS:
+    //   `NullPointerException` se e solo se `username == null`.
+    //   `IllegalArgumentException` se e solo se `username` è già presente.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Aggiunge `username` con zero follower.
+    synchronized void add(String username) throws NullPointerException, IllegalArgumentException {
+        if (username == null) {
+            throw new NullPointerException();
+        }
+        Node node = this.root;
+        List<Node> path = new ArrayList<>();
+        while (true) {
+            path.add(node);
+            int depth = node.end;
+            if (depth == username.length()) {
+                // Il nome è un prefisso di nomi già presenti.
+                if (node.followers >= 0) {
+                    throw new IllegalArgumentException();
+                }
+                node.key = username;
+                node.followers = 0;
+                break;
+            }
+            int index = node.find(depth, username.charAt(depth));
+            if (index < 0) {
+                Node leaf = new Node(username, username.length());
+                leaf.followers = 0;
+                leaf.max = 0;
+                node.insertChild(-index - 1, leaf);
+                break;
+            }
+            Node child = node.children[index];
+            int common = depth;
+            int limit = java.lang.Math.min(child.end, username.length());
+            while (common < limit && child.key.charAt(common) == username.charAt(common)) {
+                common++;
+            }
+            if (common == child.end) {
+                node = child;
+                continue;
+            }
+            // L'arco va diviso in `common`.
+            Node split = new Node(child.key, common);
+            split.children = new Node[] {child};
+            split.max = child.max;
+            node.children[index] = split;
+            node = split;
+        }
+        this.size++;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            path.get(i).updateMax();
+        }
+    }
+
+    // REQUIRES:
+    //   `username` è presente e il suo numero di follower resta non negativo.
+    // THROWS:
+    //   `IllegalArgumentException` se e solo se i requisiti non sono rispettati.
+    // MODIFIES:
+    //   `this`.
+    // EFFECTS:
+    //   Somma `delta` al numero di follower di `username`.
+    synchronized void addFollowers(String username, int delta) throws IllegalArgumentException {
+        List<Node> path = this.path(username);
+        Node node = path == null ? null : path.get(path.size() - 1);
+        if (node == null || node.followers < 0 || node.followers + delta < 0) {
+            throw new IllegalArgumentException();
+        }
+        node.followers += delta;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            path.get(i).updateMax();
+        }
+    }
+
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce il numero di follower di `username`, -1 se non è presente.
+    synchronized int getFollowers(String username) {
+        List<Node> path = username == null ? null : this.path(username);
+        return path == null ? -1 : path.get(path.size() - 1).followers;
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    // REQUIRES:
+    //   `prefix != null && k >= 1`.
+    // THROWS:
+    //   `NullPointerException` se e solo se `prefix == null`.
+    //   `IllegalArgumentException` se e solo se `k < 1`.
+    // MODIFIES:
+    //   Nessuna modifica.
+    // EFFECTS:
+    //   Restituisce i (al più) `k` nomi utente che iniziano con `prefix`, in
+    //   ordine di follower decrescenti e, a parità, in ordine alfabetico.
+    synchronized List<String> complete(String prefix, int k) throws NullPointerException, IllegalArgumentException {
+        if (prefix == null) {
+            throw new NullPointerException();
+        } else if (k < 1) {
+            throw new IllegalArgumentException();
+        }
+        List<String> result = new ArrayList<>();
+        Node node = this.root;
+        int depth = 0;
+        while (depth < prefix.length()) {
+            int index = node.find(node.end, prefix.charAt(node.end));
+            if (index < 0) {
+                return result;
+            }
+            node = node.children[index];
+            int limit = java.lang.Math.min(node.end, prefix.length());
+            for (int i = depth + 1; i < limit; i++) {
+                if (node.key.charAt(i) != prefix.charAt(i)) {
+                    return result;
+                }
+            }
+            depth = limit;
+        }
+        if (node.max < 0) {
+            return result;
+        }
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(new Candidate(node, false));
+        while (!queue.isEmpty() && result.size() < k) {
+            Candidate candidate = queue.poll();
+            if (candidate.user) {
+                result.add(candidate.node.key);
+                continue;
+            }
+            if (candidate.node.followers >= 0) {
+                queue.add(new Candidate(candidate.node, true));
+            }
+            for (Node child : candidate.node.children) {
+                queue.add(new Candidate(child, false));
+            }
+        }
+        return result;
+    }
+
+    public synchronized boolean checkRep() {
+        int[] users = new int[1];
+        return this.root.end == 0 && this.checkNode(this.root, users) && users[0] == this.size;
+    }
+
+    private boolean checkNode(Node node, int[] users) {
+        boolean ri = node.key != null
+                  && (node == this.root || (node.end > 0 && node.end <= node.key.length()))
+                  && (node.followers < 0 || node.end == node.key.length())
+                  && (node == this.root || node.followers >= 0 || node.children.length >= 2);
+        int max = node.followers;
+        String path = node.key.substring(0, node.end);
+        for (int i = 0; i < node.children.length && ri; i++) {
+            Node child = node.children[i];
+            ri = child.end > node.end
+              && child.key.startsWith(path)
+              && (i == 0 || node.children[i - 1].label(node.end) < child.label(node.end))
+              && this.checkNode(child, users);
+            max = java.lang.Math.max(max, child.max);
+        }
+        if (node.followers >= 0) {
+            users[0]++;
+        }
+        return ri && node.max == max;
+    }
+
+    // Il cammino dalla radice al nodo di `username`, `null` se non esiste.
+    private List<Node> path(String username) {
+        List<Node> path = new ArrayList<>();
+        Node node = this.root;
+        path.add(node);
+        while (node.end < username.length()) {
+            int index = node.find(node.end, username.charAt(node.end));
+            if (index < 0) {
+                return null;
+            }
+            node = node.children[index];
+            if (node.end > username.length() || !username.regionMatches(0, node.key, 0, node.end)) {
+                return null;
+            }
+            path.add(node);
+        }
+        return path;
+    }
+
+    // Usato solo dai test: il numero di nodi del trie.
+    synchronized int nodeCount() {
+        int count = 0;
+        List<Node> stack = new ArrayList<>(Arrays.asList(this.root));
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            count++;
+            stack.addAll(Arrays.asList(node.children));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,244 @@
+package net.filippocosta.microblog;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Misura quanta memoria heap costa ciascuna entità di MicroBlog: utenti, post,
+// like, archi del grafo dei follower e segnalazioni. Il costo di un post è
+// suddiviso tra l'oggetto `Post` in sé (con `Instant` e liste di like e
+// risposte), i tag estratti dal testo e gli indici di `SocialNetwork`.
+//
+// Ogni misura confronta gli oggetti vivi, per classe, prima e dopo aver creato
+// `n` entità dello stesso tipo. Gli oggetti vivi sono contati con l'istogramma
+// delle classi di HotSpot (`jcmd GC.class_histogram`), che esegue una garbage
+// collection completa: a differenza dell'heap occupato riportato da
+// `MemoryMXBean`, non dipende dal collector né dalle TLAB assegnate ai thread.
+// Le stringhe (nomi utente e testi) sono create prima della misura:
+// appartengono al chiamante e non vengono contate. I post però non
+// conservano la `String` del testo ma una sua codifica compatta (`PostText`),
+// che è contata in `post.object`.
+//
+// Gli array di interi (`[I`) sono esclusi dall'istogramma, perché HotSpot
+// riempie lo spazio inutilizzato delle TLAB con array di interi fittizi,
+// indistinguibili da quelli veri. Gli unici array di interi allocati da
+// MicroBlog sono gli indici dei tag di `Post`, la cui dimensione viene quindi
+// calcolata a partire dalla loro lunghezza.
+//
+// Da riga di comando stampa il resoconto per reti di dimensione crescente e,
+// per la rete più grande, il dettaglio per classe:
+//
+//   java net.filippocosta.microblog.HeapFootprint 1000 10000 100000
+public class HeapFootprint {
+    // Chiavi del resoconto, in byte per entità.
+    public static final String USER = "user";
+    public static final String POST_OBJECT = "post.object";
+    public static final String POST_TAGS = "post.tags";
+    public static final String POST_INDEXES = "post.indexes";
+    public static final String LIKE = "like";
+    public static final String FOLLOW = "follow";
+    public static final String REPORT = "report";
+
+    private static final String[] KEYS = {USER, POST_OBJECT, POST_TAGS, POST_INDEXES, LIKE, FOLLOW, REPORT};
+
+    // Restituisce il costo medio, in byte, di ciascuna entità in una rete con
+    // `n` utenti e `n` post, più altrettanti post di presentazione.
+    public static Map<String, Double> measure(int n) {
+        return HeapFootprint.measure(n, null);
+    }
+
+    // Come `measure(n)`; se `classes != null`, vi aggiunge inoltre per ogni
+    // entità il costo medio suddiviso per classe.
+    public static Map<String, Double> measure(int n, Map<String, Map<String, Double>> classes) {
+        if (n < 3) {
+            throw new IllegalArgumentException();
+        }
+        Map<String, Double> report = new LinkedHashMap<>();
+        String[] users = new String[n];
+        String[] texts = new String[n];
+        for (int i = 0; i < n; i++) {
+            users[i] = Workload.username(i);
+            texts[i] = "Post numero " + i + " di " + users[i] + " #tag" + (i % 100) + " @" + users[(i + 1) % n];
+        }
+
+        // Utenti.
+        SocialNetworkWithReports network = new SocialNetworkWithReports();
+        Map<String, Long> before = HeapFootprint.histogram();
+        for (int i = 0; i < n; i++) {
+            network.register(users[i]);
+        }
+        HeapFootprint.record(report, classes, USER, before, n);
+
+        // Post isolati, senza alcun indice.
+        Post[] posts = new Post[n];
+        before = HeapFootprint.histogram();
+        for (int i = 0; i < n; i++) {
+            posts[i] = new Post.Builder(users[i], texts[i]).build();
+        }
+        HeapFootprint.record(report, classes, POST_OBJECT, before, n);
+        long tags = 0;
+        for (int i = 0; i < n; i++) {
+            int offsets = 1 + 2 * (posts[i].getHashtags().size() + posts[i].getTaggedUsers().size());
+            tags += HeapFootprint.align(16 + 4L * offsets);
+        }
+        report.put(POST_TAGS, (double) tags / n);
+        Reference.reachabilityFence(posts);
+        posts = null;
+
+        // Post di presentazione, inseriti negli indici: la differenza rispetto
+        // ai post isolati è il costo degli indici. Delle copie restituite da
+        // `writePost` si conserva soltanto l'ID, così che non vengano contate.
+        int[] presentation = new int[n];
+        before = HeapFootprint.histogram();
+        for (int i = 0; i < n; i++) {
+            presentation[i] = network.writePost(new Post.Builder(users[i], texts[i])).getId();
+        }
+        HeapFootprint.record(report, classes, POST_INDEXES, before, n);
+        report.put(POST_INDEXES, report.get(POST_INDEXES) - report.get(POST_OBJECT));
+        int[] ordinary = new int[n];
+        for (int i = 0; i < n; i++) {
+            ordinary[i] = network.writePost(new Post.Builder(users[i], texts[i])).getId();
+        }
+
+        // Like a post ordinari, uno per post.
+        before = HeapFootprint.histogram();
+        for (int i = 0; i < n; i++) {
+            network.like(network.getPostById(ordinary[i]), users[(i + 1) % n]);
+        }
+        HeapFootprint.record(report, classes, LIKE, before, n);
+
+        // Like a post di presentazione: oltre al like creano un arco nel
+        // grafo dei follower.
+        before = HeapFootprint.histogram();
+        for (int i = 0; i < n; i++) {
+            network.like(network.getPostById(presentation[i]), users[(i + 1) % n]);
+        }
+        HeapFootprint.record(report, classes, FOLLOW, before, n);
+        report.put(FOLLOW, report.get(FOLLOW) - report.get(LIKE));
+
+        // Segnalazioni, una per post ordinario.
+        before = HeapFootprint.histogram();
+        for (int i = 0; i < n; i++) {
+            try {
+                network.report(ordinary[i], users[(i + 2) % n]);
+            } catch (PostReportException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        HeapFootprint.record(report, classes, REPORT, before, n);
+        Reference.reachabilityFence(network);
+        Reference.reachabilityFence(users);
+        Reference.reachabilityFence(texts);
+        Reference.reachabilityFence(presentation);
+        Reference.reachabilityFence(ordinary);
+        return report;
+    }
+
+    // Registra in `report` (e in `classes`, se presente) il costo medio di
+    // `n` entità di tipo `key`, create dopo l'istogramma `before`.
+    private static void record(Map<String, Double> report,
+                               Map<String, Map<String, Double>> classes,
+                               String key,
+                               Map<String, Long> before,
+                               int n) {
+        Map<String, Long> after = HeapFootprint.histogram();
+        Set<String> names = new HashSet<>(before.keySet());
+        names.addAll(after.keySet());
+        Map<String, Double> perClass = new HashMap<>();
+        long total = 0;
+        for (String name : names) {
+            long delta = HeapFootprint.get(after, name) - HeapFootprint.get(before, name);
+            total += delta;
+            // Sotto un byte per entità è rumore (classi caricate, cache, ...).
+            if (Math.abs(delta) >= n) {
+                perClass.put(name, (double) delta / n);
+            }
+        }
+        report.put(key, (double) total / n);
+        if (classes != null) {
+            classes.put(key, perClass);
+        }
+    }
+
+    private static long get(Map<String, Long> histogram, String name) {
+        Long bytes = histogram.get(name);
+        return bytes == null ? 0 : bytes;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // Restituisce, per ogni classe, i byte occupati dalle sue istanze vive,
+    // esclusi gli array di interi.
+    private static Map<String, Long> histogram() {
+        String output;
+        try {
+            output = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName("com.sun.management:type=DiagnosticCommand"),
+                "gcClassHistogram",
+                new Object[] {null},
+                new String[] {String[].class.getName()});
+        } catch (JMException e) {
+            throw new IllegalStateException("Istogramma delle classi non disponibile", e);
+        }
+        // Righe nel formato "   1:   25367   891848  [B (java.base@17)".
+        Map<String, Long> histogram = new HashMap<>();
+        for (String line : output.split("\n")) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length >= 4 && fields[0].endsWith(":") && !fields[3].equals("[I")) {
+                histogram.put(fields[3], Long.parseLong(fields[2]));
+            }
+        }
+        return histogram;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[] {1000, 10000, 100000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        List<Map<String, Double>> reports = new ArrayList<>();
+        Map<String, Map<String, Double>> classes = new LinkedHashMap<>();
+        for (int size : sizes) {
+            reports.add(HeapFootprint.measure(size, classes));
+        }
+        System.out.printf("%-14s", "bytes/entity");
+        for (int size : sizes) {
+            System.out.printf(" %10d", size);
+        }
+        System.out.println();
+        for (String key : KEYS) {
+            System.out.printf("%-14s", key);
+            for (Map<String, Double> report : reports) {
+                System.out.printf(" %10.1f", report.get(key));
+            }
+            System.out.println();
+        }
+        for (String key : KEYS) {
+            if (!classes.containsKey(key)) {
+                continue;
+            }
+            System.out.printf("%n%s (%d):%n", key, sizes[sizes.length - 1]);
+            List<Map.Entry<String, Double>> entries = new ArrayList<>(classes.get(key).entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+                public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+                    return Double.compare(b.getValue(), a.getValue());
+                }
+            });
+            for (Map.Entry<String, Double> entry : entries) {
+                System.out.printf("  %8.1f  %s%n", entry.getValue(), entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package net.filippocosta.microblog;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Misura throughput e latenze di un `MicroBlogServer` popolato da un
+// `Workload`, con `clients` client concorrenti che inviano richieste HTTP su
+// connessioni persistenti (keep-alive), come `LoadDriver` fa direttamente su
+// un `SocialNetwork`. Ogni client è un thread virtuale: il numero di client
+// può così superare di molto quello dei processori.
+//
+// Da riga di comando avvia un servizio locale e accetta argomenti
+// `chiave=valore`, per esempio:
+//
+//   java net.filippocosta.microblog.HttpLoadDriver seed=7 users=10000 posts=100000 clients=1000 operations=200
+public class HttpLoadDriver {
+
+    // Le operazioni eseguite dal driver, con i loro pesi nel mix.
+    public enum Operation {
+        GET_POST(60),
+        TIMELINE(20),
+        SEARCH(3),
+        WRITE_POST(5),
+        LIKE(12);
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private final Workload workload;
+    private final URI base;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    // Risposte con un codice di errore diverso da quelli attesi.
+    private final AtomicLong errors = new AtomicLong();
+
+    // `workload` deve essere già stato usato per popolare la rete servita
+    // all'indirizzo `base`.
+    public HttpLoadDriver(Workload workload, URI base) {
+        if (workload == null || base == null) {
+            throw new NullPointerException();
+        }
+        this.workload = workload;
+        this.base = base;
+    }
+
+    // Esegue `operations` richieste per ciascuno dei `clients` client e
+    // restituisce le latenze in nanosecondi per tipo di operazione, seguite
+    // dalla durata complessiva nell'ultima riga.
+    public long[][] run(int clients, final int operations) throws InterruptedException {
+        if (clients < 1 || operations < 0) {
+            throw new IllegalArgumentException();
+        }
+        final long seed = this.workload.getConfig().getSeed();
+        List<Future<long[][]>> futures = new ArrayList<>();
+        long begin = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                final int index = c;
+                futures.add(executor.submit(new Callable<long[][]>() {
+                    public long[][] call() throws IOException, InterruptedException {
+                        return HttpLoadDriver.this.work(new Random(seed + index), operations);
+                    }
+                }));
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        Operation[] kinds = Operation.values();
+        long[][] latencies = new long[kinds.length + 1][0];
+        for (Future<long[][]> future : futures) {
+            long[][] samples;
+            try {
+                samples = future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            for (int k = 0; k < kinds.length; k++) {
+                int size = latencies[k].length;
+                latencies[k] = Arrays.copyOf(latencies[k], size + samples[k].length);
+                System.arraycopy(samples[k], 0, latencies[k], size, samples[k].length);
+            }
+        }
+        for (int k = 0; k < kinds.length; k++) {
+            Arrays.sort(latencies[k]);
+        }
+        latencies[kinds.length] = new long[] {elapsed};
+        return latencies;
+    }
+
+    // Il numero di risposte inattese ricevute finora.
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    private long[][] work(Random random, int operations) throws IOException, InterruptedException {
+        Operation[] kinds = Operation.values();
+        int total = 0;
+        for (Operation kind : kinds) {
+            total += kind.weight;
+        }
+        long[][] latencies = new long[kinds.length][operations];
+        int[] counts = new int[kinds.length];
+        List<String> users = this.workload.getUsers();
+        List<Post> posts = this.workload.getPosts().isEmpty()
+                         ? this.workload.getPresentationPosts()
+                         : this.workload.getPosts();
+        Workload.Zipf hot = new Workload.Zipf(posts.size(), this.workload.getConfig().getZipfExponent());
+        // Gli hashtag estratti sono quelli del vocabolario di `workload`.
+        Workload.Zipf tags = new Workload.Zipf(this.workload.getConfig().getHashtags(),
+                                               this.workload.getConfig().getZipfExponent());
+        Workload.Zipf popularity = new Workload.Zipf(users.size(), this.workload.getConfig().getZipfExponent());
+        for (int i = 0; i < operations; i++) {
+            int r = random.nextInt(total);
+            int k = 0;
+            while (r >= kinds[k].weight) {
+                r -= kinds[k].weight;
+                k++;
+            }
+            Post post = posts.get(posts.size() - 1 - hot.sample(random));
+            int u = random.nextInt(users.size());
+            if (users.get(u).equals(post.getAuthor())) {
+                u = (u + 1) % users.size();
+            }
+            String user = users.get(u);
+            HttpRequest request;
+            switch (kinds[k]) {
+                case GET_POST:
+                    request = this.get("/posts/" + post.getId());
+                    break;
+                case TIMELINE:
+                    request = this.get("/users/" + HttpLoadDriver.encode(users.get(popularity.sample(random))) + "/timeline?limit=20");
+                    break;
+                case SEARCH:
+                    request = this.get("/search?k=10&q=" + HttpLoadDriver.encode("#tag" + tags.sample(random)));
+                    break;
+                case WRITE_POST:
+                    request = this.post("/posts", HttpLoadDriver.object("author", user,
+                                                                        "text", this.workload.text(random, tags, popularity)));
+                    break;
+                default:
+                    request = this.post("/posts/" + post.getId() + "/like", HttpLoadDriver.object("username", user));
+                    break;
+            }
+            long begin = System.nanoTime();
+            HttpResponse<byte[]> response = this.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            latencies[k][counts[k]++] = System.nanoTime() - begin;
+            // Il like di un post già piaciuto è un 400 legittimo.
+            if (response.statusCode() >= 500 || (response.statusCode() >= 400 && kinds[k] != Operation.LIKE)) {
+                this.errors.incrementAndGet();
+            }
+        }
+        for (int j = 0; j < kinds.length; j++) {
+            latencies[j] = Arrays.copyOf(latencies[j], counts[j]);
+        }
+        return latencies;
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(this.base.resolve(path)).GET().build();
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(this.base.resolve(path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+
+    // Un oggetto JSON con i campi stringa `fields`, alternati ai loro nomi.
+    static String object(String... fields) {
+        StringWriter out = new StringWriter();
+        JsonWriter json = new JsonWriter(out);
+        try {
+            json.beginObject();
+            for (int i = 0; i < fields.length; i += 2) {
+                json.name(fields[i]).value(fields[i + 1]);
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    // Il percentile `percentile` (tra 0 e 100) di `sorted`, `0` se è vuoto.
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(sorted.length * percentile / 100);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Workload.Config config = new Workload.Config();
+        int clients = 1000;
+        int operations = 100;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "seed": config.setSeed(Long.parseLong(value)); break;
+                case "users": config.setUsers(Integer.parseInt(value)); break;
+                case "posts": config.setPosts(Integer.parseInt(value)); break;
+                case "clients": clients = Integer.parseInt(value); break;
+                case "operations": operations = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException(arg);
+            }
+        }
+        MicroBlogServer.enableNoDelay();
+        SocialNetworkWithReports network = new SocialNetworkWithReports();
+        Workload workload = config.build().populate(network);
+        try (MicroBlogServer server = new MicroBlogServer(network, new InetSocketAddress("127.0.0.1", 0))) {
+            server.start();
+            HttpLoadDriver driver = new HttpLoadDriver(workload, URI.create("http://127.0.0.1:" + server.getPort()));
+            long[][] latencies = driver.run(clients, operations);
+            Operation[] kinds = Operation.values();
+            long elapsed = latencies[kinds.length][0];
+            long total = (long) clients * operations;
+            System.out.printf("%d requests from %d clients in %.3f s: %.0f req/s, %d errors%n",
+                              total, clients, elapsed / 1e9, total * 1e9 / Math.max(1, elapsed), driver.getErrors());
+            System.out.printf("%-16s %10s %10s %10s %10s%n", "operation", "count", "p50_us", "p99_us", "p999_us");
+            for (Operation kind : kinds) {
+                long[] sorted = latencies[kind.ordinal()];
+                System.out.printf("%-16s %10d %10.1f %10.1f %10.1f%n", kind.name(), sorted.length,
+                                  HttpLoadDriver.percentile(sorted, 50) / 1e3,
+                                  HttpLoadDriver.percentile(sorted, 99) / 1e3,
+                                  HttpLoadDriver.percentile(sorted, 99.9) / 1e3);
+            }
+        }
+    }
+}
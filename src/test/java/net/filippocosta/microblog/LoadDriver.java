@@ -0,0 +1,303 @@
+package net.filippocosta.microblog;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Misura throughput e latenze di un `SocialNetwork` popolato da un `Workload`,
+// eseguendo da `threads` thread un mix configurabile di letture e scritture.
+//
+// Ogni thread estrae le proprie operazioni da un generatore inizializzato con
+// `seed + indice del thread`, per cui la sequenza di operazioni è
+// riproducibile; l'interleaving tra i thread ovviamente no.
+//
+// `SocialNetwork` garantisce letture puntuali sicure durante le scritture, ma
+// non scritture concorrenti su uno stesso post o utente (per esempio due
+// `like` allo stesso post). Per questo il driver esegue le scritture in mutua
+// esclusione e le letture in parallelo, tramite un `ReadWriteLock`: le latenze
+// misurate includono l'attesa del lock, come le vedrebbe un client.
+//
+// Da riga di comando accetta argomenti `chiave=valore`, per esempio:
+//
+//   java net.filippocosta.microblog.LoadDriver seed=7 users=10000 posts=100000 threads=8 operations=200000 reports=true
+public class LoadDriver {
+
+    // Le operazioni eseguite dal driver.
+    public enum Operation {
+        GET_POST_BY_ID,
+        WRITTEN_BY,
+        GET_FOLLOWERS,
+        CONTAINING,
+        WRITE_POST,
+        LIKE,
+        REPORT,
+    }
+
+    // Pesi di default del mix: 90% letture, 10% scritture. `CONTAINING` e
+    // `GET_FOLLOWERS` scandiscono l'intera rete e sono quindi rari.
+    private static final int[] DEFAULT_MIX = {60, 20, 1, 1, 5, 12, 1};
+
+    private final Workload workload;
+    private final SocialNetwork network;
+    private final int[] mix = DEFAULT_MIX.clone();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // `workload` deve essere già stato usato per popolare `network`.
+    public LoadDriver(Workload workload, SocialNetwork network) {
+        if (workload == null || network == null) {
+            throw new NullPointerException();
+        }
+        this.workload = workload;
+        this.network = network;
+        if (!(network instanceof SocialNetworkWithReports)) {
+            this.mix[Operation.REPORT.ordinal()] = 0;
+        }
+    }
+
+    // Imposta il peso relativo di `operation` nel mix e restituisce `this`.
+    public LoadDriver setWeight(Operation operation, int weight) {
+        if (weight < 0 || (operation == Operation.REPORT && weight > 0
+                           && !(this.network instanceof SocialNetworkWithReports))) {
+            throw new IllegalArgumentException();
+        }
+        this.mix[operation.ordinal()] = weight;
+        return this;
+    }
+
+    // Esegue `operations` operazioni per ciascuno dei `threads` thread e
+    // restituisce i risultati. Lancia `IllegalArgumentException` se tutti i
+    // pesi del mix sono nulli.
+    public Result run(int threads, final int operations) throws InterruptedException {
+        int total = 0;
+        for (int weight : this.mix) {
+            total += weight;
+        }
+        if (threads < 1 || operations < 0 || total == 0) {
+            throw new IllegalArgumentException();
+        }
+        final long seed = this.workload.getConfig().getSeed();
+        final long[][][] samples = new long[threads][][];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    samples[index] = LoadDriver.this.work(new Random(seed + index), operations);
+                }
+            }, "LoadDriver-" + t);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        return new Result(samples, elapsed);
+    }
+
+    // Esegue `operations` operazioni e restituisce, per ciascun tipo di
+    // operazione, le latenze misurate in nanosecondi.
+    private long[][] work(Random random, int operations) {
+        Operation[] kinds = Operation.values();
+        int total = 0;
+        for (int weight : this.mix) {
+            total += weight;
+        }
+        long[][] latencies = new long[kinds.length][operations];
+        int[] counts = new int[kinds.length];
+        List<String> users = this.workload.getUsers();
+        List<Post> posts = this.workload.getPosts().isEmpty()
+                         ? this.workload.getPresentationPosts()
+                         : this.workload.getPosts();
+        Workload.Zipf hot = new Workload.Zipf(posts.size(), this.workload.getConfig().getZipfExponent());
+        // Gli hashtag estratti sono quelli del vocabolario di `workload`.
+        Workload.Zipf tags = new Workload.Zipf(this.workload.getConfig().getHashtags(),
+                                               this.workload.getConfig().getZipfExponent());
+        Workload.Zipf popularity = new Workload.Zipf(users.size(), this.workload.getConfig().getZipfExponent());
+        for (int i = 0; i < operations; i++) {
+            int r = random.nextInt(total);
+            int k = 0;
+            while (r >= this.mix[k]) {
+                r -= this.mix[k];
+                k++;
+            }
+            Operation kind = kinds[k];
+            // I post più recenti sono i più consultati.
+            Post post = posts.get(posts.size() - 1 - hot.sample(random));
+            int u = random.nextInt(users.size());
+            if (users.get(u).equals(post.getAuthor())) {
+                // Nessuno può mettere like ai propri post o segnalarli.
+                u = (u + 1) % users.size();
+            }
+            String user = users.get(u);
+            boolean write = kind == Operation.WRITE_POST || kind == Operation.LIKE || kind == Operation.REPORT;
+            long begin = System.nanoTime();
+            (write ? this.lock.writeLock() : this.lock.readLock()).lock();
+            try {
+                switch (kind) {
+                    case GET_POST_BY_ID:
+                        this.network.getPostById(post.getId());
+                        break;
+                    case WRITTEN_BY:
+                        this.network.writtenBy(users.get(popularity.sample(random)), null, 20);
+                        break;
+                    case GET_FOLLOWERS:
+                        this.network.getFollowers();
+                        break;
+                    case CONTAINING:
+                        this.network.containing(Arrays.asList("#tag" + tags.sample(random)));
+                        break;
+                    case WRITE_POST:
+                        this.network.writePost(new Post.Builder(user, this.workload.text(random, tags, popularity)));
+                        break;
+                    case LIKE:
+                        this.network.like(post, user);
+                        break;
+                    case REPORT:
+                        try {
+                            ((SocialNetworkWithReports) this.network).report(post.getId(), user);
+                        } catch (PostReportException e) {
+                            // Post eliminato nel frattempo: è comunque un'operazione.
+                        }
+                        break;
+                }
+            } finally {
+                (write ? this.lock.writeLock() : this.lock.readLock()).unlock();
+            }
+            latencies[k][counts[k]++] = System.nanoTime() - begin;
+        }
+        for (int j = 0; j < kinds.length; j++) {
+            latencies[j] = Arrays.copyOf(latencies[j], counts[j]);
+        }
+        return latencies;
+    }
+
+    // Risultati di un'esecuzione di `run`.
+    public static class Result {
+        private final long elapsedNanos;
+        private final Map<Operation, long[]> latencies = new EnumMap<>(Operation.class);
+        private long operations = 0;
+
+        private Result(long[][][] samples, long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+            for (Operation operation : Operation.values()) {
+                int size = 0;
+                for (long[][] thread : samples) {
+                    size += thread[operation.ordinal()].length;
+                }
+                long[] merged = new long[size];
+                int offset = 0;
+                for (long[][] thread : samples) {
+                    long[] part = thread[operation.ordinal()];
+                    System.arraycopy(part, 0, merged, offset, part.length);
+                    offset += part.length;
+                }
+                Arrays.sort(merged);
+                this.latencies.put(operation, merged);
+                this.operations += size;
+            }
+        }
+
+        public long getOperations() {
+            return this.operations;
+        }
+
+        public long getOperations(Operation operation) {
+            return this.latencies.get(operation).length;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        // Operazioni al secondo, su tutti i thread.
+        public double getThroughput() {
+            return this.operations * 1e9 / Math.max(1, this.elapsedNanos);
+        }
+
+        // Restituisce il percentile `percentile` (tra 0 e 100) della latenza
+        // di `operation` in nanosecondi, `0` se non è mai stata eseguita.
+        public long percentile(Operation operation, double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException();
+            }
+            long[] sorted = this.latencies.get(operation);
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(sorted.length * percentile / 100);
+            return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d operations in %.3f s: %.0f ops/s%n",
+                                        this.operations, this.elapsedNanos / 1e9, this.getThroughput()));
+            report.append(String.format("%-16s %10s %10s %10s %10s %10s%n",
+                                        "operation", "count", "p50_us", "p90_us", "p99_us", "p999_us"));
+            for (Operation operation : Operation.values()) {
+                if (this.getOperations(operation) == 0) {
+                    continue;
+                }
+                report.append(String.format("%-16s %10d %10.1f %10.1f %10.1f %10.1f%n",
+                                            operation.name(),
+                                            this.getOperations(operation),
+                                            this.percentile(operation, 50) / 1e3,
+                                            this.percentile(operation, 90) / 1e3,
+                                            this.percentile(operation, 99) / 1e3,
+                                            this.percentile(operation, 99.9) / 1e3));
+            }
+            return report.toString();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Workload.Config config = new Workload.Config();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int operations = 100000;
+        boolean reports = false;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "seed": config.setSeed(Long.parseLong(value)); break;
+                case "users": config.setUsers(Integer.parseInt(value)); break;
+                case "posts": config.setPosts(Integer.parseInt(value)); break;
+                case "follows": config.setFollows(Integer.parseInt(value)); break;
+                case "likes": config.setLikes(Integer.parseInt(value)); break;
+                case "zipf": config.setZipfExponent(Double.parseDouble(value)); break;
+                case "replies": config.setReplyProbability(Double.parseDouble(value)); break;
+                case "hashtags": config.setHashtags(Integer.parseInt(value)); break;
+                case "threads": threads = Integer.parseInt(value); break;
+                case "operations": operations = Integer.parseInt(value); break;
+                case "reports": reports = Boolean.parseBoolean(value); break;
+                default: throw new IllegalArgumentException(arg);
+            }
+        }
+        SocialNetwork network = reports ? new SocialNetworkWithReports() : new SocialNetwork();
+        long begin = System.nanoTime();
+        Workload workload = config.build().populate(network);
+        System.out.printf("populated %d users, %d posts in %.3f s%n",
+                          workload.getUsers().size(),
+                          workload.getUsers().size() + workload.getPosts().size(),
+                          (System.nanoTime() - begin) / 1e9);
+        System.out.print(new LoadDriver(workload, network).run(threads, operations));
+    }
+}
@@ -6,10 +6,42 @@ public class Main {
         System.out.println("");
         TestUser.run();
         System.out.println("");
+        TestTokenizer.run();
+        System.out.println("");
         TestPost.run();
         System.out.println("");
         TestSocialNetwork.run();
         System.out.println("");
         TestSocialNetworkWithReports.run();
+        System.out.println("");
+        TestMetrics.run();
+        System.out.println("");
+        TestQueryCache.run();
+        System.out.println("");
+        TestFlightRecorderEvents.run();
+        System.out.println("");
+        TestWorkload.run();
+        System.out.println("");
+        TestHeapFootprint.run();
+        System.out.println("");
+        TestShardedSocialNetwork.run();
+        System.out.println("");
+        TestReplication.run();
+        System.out.println("");
+        TestChangeListener.run();
+        System.out.println("");
+        TestSearchEngine.run();
+        System.out.println("");
+        TestColdStore.run();
+        System.out.println("");
+        TestMicroBlogServer.run();
+        System.out.println("");
+        TestMutationPipeline.run();
+        System.out.println("");
+        TestSnapshot.run();
+        System.out.println("");
+        TestThread.run();
+        System.out.println("");
+        TestHotRanking.run();
     }
 }
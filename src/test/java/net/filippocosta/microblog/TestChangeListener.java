@@ -0,0 +1,274 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class TestChangeListener {
+
+    // Registra i blocchi ricevuti.
+    private static class Recorder implements ChangeListener {
+        private final List<List<ChangeEvent>> batches = new ArrayList<>();
+
+        public synchronized void changesPublished(List<ChangeEvent> events) {
+            this.batches.add(new ArrayList<>(events));
+        }
+
+        private synchronized List<ChangeEvent.Kind> lastKinds() {
+            List<ChangeEvent.Kind> kinds = new ArrayList<>();
+            for (ChangeEvent event : this.batches.get(this.batches.size() - 1)) {
+                kinds.add(event.getKind());
+            }
+            return kinds;
+        }
+    }
+
+    // Mantiene in modo incrementale la mappa dei follower e l'insieme dei post.
+    private static class Followers implements ChangeListener {
+        private final Map<String, Set<String>> followers = new HashMap<>();
+        private final Set<Integer> posts = new HashSet<>();
+        private int events = 0;
+
+        public synchronized void changesPublished(List<ChangeEvent> batch) {
+            for (ChangeEvent event : batch) {
+                this.events++;
+                switch (event.getKind()) {
+                    case USER_REGISTERED:
+                        this.followers.put(event.getUsername(), new HashSet<String>());
+                        break;
+                    case FOLLOW_CHANGED:
+                        if (event.getState()) {
+                            this.followers.get(event.getTarget()).add(event.getUsername());
+                        } else {
+                            this.followers.get(event.getTarget()).remove(event.getUsername());
+                        }
+                        break;
+                    case POST_CREATED:
+                        this.posts.add(event.getPostId());
+                        break;
+                    case POST_DELETED:
+                        this.posts.remove(event.getPostId());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            this.notifyAll();
+        }
+    }
+
+    public static boolean testSyncBatches() {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Recorder recorder = new Recorder();
+        microblog.addChangeListener(recorder, false);
+        microblog.register("Alice");
+        microblog.register("Bob");
+        boolean success = recorder.lastKinds().equals(Arrays.asList(ChangeEvent.Kind.USER_REGISTERED));
+        Post presentation = microblog.writePost(new Post.Builder("Alice", "Ciao"));
+        Post reply = microblog.writePost(new Post.Builder("Bob", "Ciao Alice").inResponseTo(presentation));
+        ChangeEvent created = recorder.batches.get(recorder.batches.size() - 1).get(0);
+        success = success
+               && created.getKind() == ChangeEvent.Kind.POST_CREATED
+               && created.getPostId() == reply.getId()
+               && created.getParentId() == presentation.getId();
+        // Il like al post di presentazione e il nuovo follower arrivano assieme.
+        microblog.like(presentation, "Bob");
+        success = success
+               && recorder.lastKinds().equals(Arrays.asList(ChangeEvent.Kind.LIKE_CHANGED,
+                                                            ChangeEvent.Kind.FOLLOW_CHANGED));
+        // Un like ripetuto non cambia nulla e non produce eventi.
+        int batches = recorder.batches.size();
+        microblog.like(presentation, "Bob");
+        success = success && recorder.batches.size() == batches;
+        microblog.dislike(presentation, "Bob");
+        ChangeEvent follow = recorder.batches.get(recorder.batches.size() - 1).get(1);
+        success = success
+               && !follow.getState()
+               && follow.getUsername().equals("Bob")
+               && follow.getTarget().equals("Alice");
+        try {
+            // Con due o tre utenti la soglia è di due segnalazioni.
+            microblog.report(reply, "Alice");
+        } catch (PostReportException e) {
+            return false;
+        }
+        success = success && recorder.lastKinds().equals(Arrays.asList(ChangeEvent.Kind.POST_REPORTED));
+        microblog.register("Charlie");
+        try {
+            microblog.report(reply, "Charlie");
+        } catch (PostReportException e) {
+            return false;
+        }
+        success = success
+               && recorder.lastKinds().equals(Arrays.asList(ChangeEvent.Kind.POST_REPORTED,
+                                                            ChangeEvent.Kind.BLACKLIST_CHANGED));
+        // L'eliminazione produce un blocco con i post eliminati e uno con le
+        // uscite dalla blacklist.
+        batches = recorder.batches.size();
+        microblog.deletePost(presentation, "Alice");
+        success = success
+               && recorder.batches.size() == batches + 2
+               && recorder.batches.get(batches).size() == 2
+               && recorder.batches.get(batches).get(0).getKind() == ChangeEvent.Kind.POST_DELETED
+               && recorder.batches.get(batches).get(1).getPostId() == reply.getId()
+               && recorder.lastKinds().equals(Arrays.asList(ChangeEvent.Kind.BLACKLIST_CHANGED));
+        microblog.removeChangeListener(recorder);
+        batches = recorder.batches.size();
+        microblog.register("Dave");
+        return success && recorder.batches.size() == batches;
+    }
+
+    public static boolean testIncrementalFollowers() {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Followers followers = new Followers();
+        microblog.addChangeListener(followers, false);
+        Workload workload = new Workload.Config().setSeed(9).setUsers(300).setPosts(3000).build().populate(microblog);
+        // Eliminare dei post di presentazione sposta i follower.
+        for (int i = 0; i < 10; i++) {
+            microblog.deletePost(workload.getPresentationPosts().get(i), Workload.username(i));
+        }
+        return followers.followers.equals(microblog.getFollowers())
+            && followers.posts.equals(microblog.getPostsById().keySet());
+    }
+
+    public static boolean testAsyncDelivery() throws InterruptedException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Followers followers = new Followers();
+        final CountDownLatch first = new CountDownLatch(1);
+        final List<Integer> sizes = new ArrayList<>();
+        microblog.addChangeListener(followers, true);
+        microblog.addChangeListener(new ChangeListener() {
+            public void changesPublished(List<ChangeEvent> events) {
+                try {
+                    // Trattiene il primo blocco, così che i successivi si
+                    // accumulino in un unico blocco.
+                    first.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                synchronized (sizes) {
+                    sizes.add(events.size());
+                }
+            }
+        }, true);
+        for (int i = 0; i < 100; i++) {
+            microblog.register(Workload.username(i));
+        }
+        first.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        synchronized (followers) {
+            while (followers.events < 100 && System.nanoTime() < deadline) {
+                followers.wait(100);
+            }
+        }
+        while (System.nanoTime() < deadline) {
+            synchronized (sizes) {
+                int total = 0;
+                for (int size : sizes) {
+                    total += size;
+                }
+                if (total == 100) {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+        synchronized (sizes) {
+            return followers.followers.keySet().equals(new HashSet<>(microblog.getUsers()))
+                && sizes.size() < 100;
+        }
+    }
+
+    // Un listener che lancia un'eccezione non interrompe l'operazione: viene
+    // rimosso e l'eccezione finisce nel log.
+    public static boolean testFailingListeners() throws InterruptedException {
+        final List<LogRecord> records = new ArrayList<>();
+        Logger logger = Logger.getLogger(ChangeFeed.class.getName());
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                synchronized (records) {
+                    records.add(record);
+                    records.notifyAll();
+                }
+            }
+
+            public void flush() {}
+
+            public void close() {}
+        };
+        logger.addHandler(handler);
+        logger.setUseParentHandlers(false);
+        try {
+            SocialNetwork microblog = new SocialNetwork();
+            final AtomicInteger syncCalls = new AtomicInteger(0);
+            final AtomicInteger asyncCalls = new AtomicInteger(0);
+            Followers followers = new Followers();
+            microblog.addChangeListener(new ChangeListener() {
+                public void changesPublished(List<ChangeEvent> events) {
+                    syncCalls.incrementAndGet();
+                    throw new IllegalStateException("sincrono");
+                }
+            }, false);
+            microblog.addChangeListener(followers, false);
+            microblog.addChangeListener(new ChangeListener() {
+                public void changesPublished(List<ChangeEvent> events) {
+                    asyncCalls.incrementAndGet();
+                    throw new IllegalStateException("asincrono");
+                }
+            }, true);
+            microblog.register("Alice");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            synchronized (records) {
+                while (records.size() < 2 && System.nanoTime() < deadline) {
+                    records.wait(100);
+                }
+            }
+            microblog.register("Bob");
+            Post post = microblog.writePost(new Post.Builder("Alice", "Ciao"));
+            microblog.like(post, "Bob");
+            Thread.sleep(50);
+            synchronized (records) {
+                return records.size() == 2
+                    && records.get(0).getThrown() instanceof IllegalStateException
+                    && records.get(1).getThrown() instanceof IllegalStateException
+                    && syncCalls.get() == 1
+                    && asyncCalls.get() == 1
+                    && microblog.userExists("Bob")
+                    && followers.followers.equals(microblog.getFollowers())
+                    && microblog.checkRep();
+            }
+        } finally {
+            logger.removeHandler(handler);
+            logger.setUseParentHandlers(true);
+        }
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestChangeListener.testSyncBatches",
+                             TestChangeListener.testSyncBatches());
+        UnitTest.runAndPrint("TestChangeListener.testIncrementalFollowers",
+                             TestChangeListener.testIncrementalFollowers());
+        try {
+            UnitTest.runAndPrint("TestChangeListener.testAsyncDelivery",
+                                 TestChangeListener.testAsyncDelivery());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestChangeListener.testAsyncDelivery", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestChangeListener.testFailingListeners",
+                                 TestChangeListener.testFailingListeners());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestChangeListener.testFailingListeners", false);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package net.filippocosta.microblog;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class TestColdStore {
+
+    // Tutti i campi osservabili di `post`, per confrontare i post prima e
+    // dopo la compattazione.
+    private static String describe(Post post) {
+        List<String> likes = new ArrayList<>(post.getLikes());
+        Collections.sort(likes);
+        List<Integer> replies = new ArrayList<>();
+        for (Post reply : post.getReplies()) {
+            replies.add(reply.getId());
+        }
+        return post.getId() + "|" + post.getAuthor() + "|" + post.getText() + "|" + post.getTimestamp()
+             + "|" + post.getReplyRestriction() + "|" + likes
+             + "|" + (post.getParent() == null ? -1 : post.getParent().getId()) + "|" + replies;
+    }
+
+    private static Map<Integer, String> describe(Map<Integer, Post> posts) {
+        Map<Integer, String> described = new TreeMap<>();
+        for (Map.Entry<Integer, Post> entry : posts.entrySet()) {
+            described.put(entry.getKey(), TestColdStore.describe(entry.getValue()));
+        }
+        return described;
+    }
+
+    private static List<String> describe(List<Post> posts) {
+        List<String> described = new ArrayList<>();
+        for (Post post : posts) {
+            described.add(TestColdStore.describe(post));
+        }
+        Collections.sort(described);
+        return described;
+    }
+
+    // Le cartelle temporanee dei test contengono soltanto file.
+    private static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public static boolean testSegmentRoundTrip() throws IOException {
+        Path directory = Files.createTempDirectory("microblog-segment");
+        try {
+            SocialNetwork microblog = new SocialNetwork();
+            microblog.register("Alice");
+            microblog.register("Bob");
+            List<PostSegment.Record> records = new ArrayList<>();
+            List<Post> posts = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Post post = microblog.writePost(new Post.Builder(i % 2 == 0 ? "Alice" : "Bob", "Post numero " + i + " è qui"));
+                microblog.like(post, i % 2 == 0 ? "Bob" : "Alice");
+                post = microblog.getPostById(post.getId());
+                posts.add(post);
+                records.add(PostSegment.record(post, post.getId()));
+            }
+            Collections.reverse(records);
+            PostSegment segment = PostSegment.write(directory.resolve("test.seg"), records);
+            boolean success = segment.size() == 100 && segment.checkRep();
+            for (Post post : posts) {
+                PostSegment.Record record = segment.read(post.getId());
+                success = success
+                       && record != null
+                       && record.author.equals(post.getAuthor())
+                       && record.text.equals(post.getText())
+                       && record.timestamp.equals(post.getTimestamp())
+                       && record.likes.equals(new ArrayList<>(post.getLikes()))
+                       && record.parentId == -1
+                       && record.replyIds.length == 0;
+            }
+            // Gli ID assenti vengono quasi sempre scartati dal filtro di Bloom.
+            int falsePositives = 0;
+            int base = posts.get(posts.size() - 1).getId() + 1;
+            for (int id = base; id < base + 10000; id++) {
+                if (segment.mightContain(id)) {
+                    falsePositives++;
+                }
+                success = success && segment.read(id) == null;
+            }
+            success = success && falsePositives < 500 && !segment.mightContain(posts.get(0).getId() - 1);
+            // I testi ripetuti sono scritti una sola volta per segmento.
+            String spam = "Offerta imperdibile, clicca qui e vinci subito un premio fantastico!";
+            List<PostSegment.Record> repeated = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Post post = microblog.writePost(new Post.Builder("Alice", spam));
+                repeated.add(PostSegment.record(microblog.getPostById(post.getId()), post.getId()));
+            }
+            PostSegment spamSegment = PostSegment.write(directory.resolve("spam.seg"), repeated);
+            for (PostSegment.Record record : repeated) {
+                success = success && spamSegment.read(record.id).text.equals(spam);
+            }
+            success = success && Files.size(directory.resolve("spam.seg")) < 100 * spam.length();
+            try {
+                PostSegment.write(directory.resolve("vuoto.seg"), new ArrayList<PostSegment.Record>());
+                return false;
+            } catch (IllegalArgumentException e) {}
+            return success && PostSegment.open(directory.resolve("test.seg")).read(posts.get(50).getId()) != null;
+        } finally {
+            TestColdStore.delete(directory);
+        }
+    }
+
+    public static boolean testTransparentCompaction() throws IOException {
+        Path directory = Files.createTempDirectory("microblog-cold");
+        try {
+            SocialNetwork microblog = new SocialNetwork();
+            try {
+                microblog.compact(Instant.now());
+                return false;
+            } catch (IllegalStateException e) {}
+            Workload workload = new Workload.Config().setSeed(11).setUsers(40).setPosts(400)
+                .setReplyProbability(0.4).build().populate(microblog);
+            microblog.enableColdStorage(directory, 50);
+            Map<Integer, String> before = TestColdStore.describe(microblog.getPostsById());
+            List<String> containing = TestColdStore.describe(microblog.containing(Arrays.asList("ciao", "#tag2")));
+            List<String> presentation = new ArrayList<>();
+            for (String user : workload.getUsers()) {
+                presentation.add(TestColdStore.describe(microblog.getPresentationPost(user)));
+            }
+            // Una soglia successiva a tutti i post della workload e precedente
+            // al post recente.
+            Instant last = Instant.now();
+            Instant threshold;
+            do {
+                threshold = Instant.now();
+            } while (!threshold.isAfter(last));
+            microblog.writePost(new Post.Builder(workload.getUsers().get(0), "Un post recente"));
+            Map<Integer, String> expected = TestColdStore.describe(microblog.getPostsById());
+            int moved = microblog.compact(Instant.now().minusSeconds(3600));
+            moved += microblog.compact(threshold);
+            boolean success = moved == before.size()
+                           && microblog.getMetrics().getStructureSizes().get("coldPosts") == moved
+                           && microblog.getMetrics().getStructureSizes().get("postsById") == 1
+                           && microblog.compact(threshold) == 0
+                           && TestColdStore.describe(microblog.getPostsById()).equals(expected)
+                           && TestColdStore.describe(microblog.containing(Arrays.asList("ciao", "#tag2"))).equals(containing)
+                           && microblog.getPosts().size() == expected.size()
+                           && microblog.streamPosts().count() == expected.size();
+            // Gli ID dei post archiviati si elencano senza copiarli.
+            Set<Integer> ids = new HashSet<>();
+            Iterator<Integer> iterator = microblog.postIds();
+            while (iterator.hasNext()) {
+                ids.add(iterator.next());
+            }
+            success = success && ids.equals(expected.keySet());
+            for (int i = 0; i < workload.getUsers().size(); i++) {
+                String user = workload.getUsers().get(i);
+                success = success
+                       && TestColdStore.describe(microblog.getPresentationPost(user)).equals(presentation.get(i))
+                       && microblog.writtenBy(user).size() == microblog.streamWrittenBy(user).count();
+            }
+            for (int id : before.keySet()) {
+                success = success && TestColdStore.describe(microblog.getPostById(id)).equals(before.get(id));
+            }
+            return success && microblog.checkRep();
+        } finally {
+            TestColdStore.delete(directory);
+        }
+    }
+
+    public static boolean testThawOnWrite() throws IOException {
+        Path directory = Files.createTempDirectory("microblog-thaw");
+        try {
+            SocialNetwork microblog = new SocialNetwork();
+            microblog.register("Alice");
+            microblog.register("Bob");
+            microblog.register("Charlie");
+            Post alice = microblog.writePost(new Post.Builder("Alice", "Ciao sono Alice"));
+            Post bob = microblog.writePost(new Post.Builder("Bob", "Ciao sono Bob"));
+            Post reply = microblog.writePost(new Post.Builder("Bob", "Benvenuta").inResponseTo(alice));
+            Post nested = microblog.writePost(new Post.Builder("Alice", "Grazie").inResponseTo(reply));
+            Post other = microblog.writePost(new Post.Builder("Charlie", "Un altro thread"));
+            microblog.enableColdStorage(directory, 0);
+            boolean success = microblog.compact(Instant.now().plusSeconds(1)) == 5
+                           && microblog.getMetrics().getStructureSizes().get("postsById") == 0;
+            // Un like a una risposta riporta nello heap l'intero thread.
+            microblog.like(nested, "Charlie");
+            Map<String, Long> sizes = microblog.getMetrics().getStructureSizes();
+            success = success
+                   && sizes.get("postsById") == 3 && sizes.get("coldPosts") == 2
+                   && microblog.getPostById(nested.getId()).isLikedBy("Charlie")
+                   && microblog.getPostById(alice.getId()).getReplies().get(0).getReplies().get(0).isLikedBy("Charlie")
+                   && microblog.checkRep();
+            // Un like al post di presentazione archiviato cambia i follower.
+            microblog.like(bob, "Alice");
+            success = success
+                   && microblog.getFollowers().get("Bob").equals(Collections.singleton("Alice"))
+                   && microblog.completeUsername("", 1).equals(Arrays.asList("Bob"));
+            // Una risposta a un post archiviato.
+            Post answer = microblog.writePost(new Post.Builder("Alice", "Ciao Charlie").inResponseTo(other));
+            success = success
+                   && microblog.getPostById(other.getId()).getReplies().get(0).getId() == answer.getId()
+                   && microblog.getMetrics().getStructureSizes().get("coldPosts") == 0
+                   && microblog.checkRep();
+            // Archiviati di nuovo, i thread si eliminano senza lasciare tracce.
+            success = success && microblog.compact(Instant.now().plusSeconds(1)) == 6;
+            List<Integer> deleted = microblog.deletePost(alice, "Alice");
+            success = success
+                   && deleted.equals(Arrays.asList(alice.getId(), reply.getId(), nested.getId()))
+                   && microblog.getPosts().size() == 3
+                   && microblog.getPresentationPost("Alice").getId() == answer.getId()
+                   && !microblog.getFollowees().get("Alice").isEmpty();
+            try {
+                microblog.getPostById(reply.getId());
+                return false;
+            } catch (IllegalArgumentException e) {}
+            return success && microblog.checkRep();
+        } finally {
+            TestColdStore.delete(directory);
+        }
+    }
+
+    public static boolean testScanDuringThaw() throws IOException {
+        Path directory = Files.createTempDirectory("microblog-scan");
+        try {
+            SocialNetwork microblog = new SocialNetwork();
+            microblog.register("Alice");
+            microblog.register("Bob");
+            microblog.enableColdStorage(directory, 0);
+            List<Post> posts = new ArrayList<>();
+            // Due segmenti, più alcuni post rimasti nello heap.
+            for (int segment = 0; segment < 2; segment++) {
+                for (int i = 0; i < 20; i++) {
+                    posts.add(microblog.writePost(new Post.Builder("Alice", "Segmento " + segment + " post " + i)));
+                }
+                microblog.compact(Instant.now().plusSeconds(1));
+            }
+            for (int i = 0; i < 5; i++) {
+                posts.add(microblog.writePost(new Post.Builder("Bob", "Nello heap " + i)));
+            }
+            // I thread scongelati durante l'attraversamento compaiono una e una
+            // sola volta, come all'inizio dell'attraversamento.
+            Iterator<Post> stream = microblog.streamPosts().iterator();
+            List<Integer> seen = new ArrayList<>();
+            seen.add(stream.next().getId());
+            for (int i = 0; i < 40; i += 3) {
+                microblog.like(posts.get(i), "Bob");
+            }
+            while (stream.hasNext()) {
+                seen.add(stream.next().getId());
+            }
+            Set<Integer> expected = new HashSet<>();
+            for (Post post : posts) {
+                expected.add(post.getId());
+            }
+            return seen.size() == posts.size()
+                && new HashSet<>(seen).equals(expected)
+                && microblog.getPostsById().keySet().equals(expected)
+                && microblog.containing(Arrays.asList("Segmento")).size() == 40
+                && microblog.checkRep();
+        } finally {
+            TestColdStore.delete(directory);
+        }
+    }
+
+    public static void run() {
+        try {
+            UnitTest.runAndPrint("TestColdStore.testSegmentRoundTrip",
+                                 TestColdStore.testSegmentRoundTrip());
+        } catch (IOException e) {
+            UnitTest.runAndPrint("TestColdStore.testSegmentRoundTrip", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestColdStore.testTransparentCompaction",
+                                 TestColdStore.testTransparentCompaction());
+        } catch (IOException e) {
+            UnitTest.runAndPrint("TestColdStore.testTransparentCompaction", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestColdStore.testThawOnWrite",
+                                 TestColdStore.testThawOnWrite());
+        } catch (IOException e) {
+            UnitTest.runAndPrint("TestColdStore.testThawOnWrite", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestColdStore.testScanDuringThaw",
+                                 TestColdStore.testScanDuringThaw());
+        } catch (IOException e) {
+            UnitTest.runAndPrint("TestColdStore.testScanDuringThaw", false);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package net.filippocosta.microblog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class TestFlightRecorderEvents {
+    static String userAlice = "Alice";
+    static String userBob = "super_bob99";
+    static String userCharlie = "Charlie";
+
+    public static boolean testEventsRecorded() throws IOException, PostReportException {
+        Path file = Files.createTempFile("microblog", ".jfr");
+        Map<String, RecordedEvent> events = new HashMap<>();
+        List<RecordedEvent> searches = new ArrayList<>();
+        try (Recording recording = new Recording()) {
+            for (String name : Arrays.asList("WritePost", "Like", "Containing", "DeepCopy", "Report", "Blacklist")) {
+                recording.enable("net.filippocosta.microblog." + name).withoutThreshold();
+            }
+            recording.start();
+            SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+            microblog.register(userAlice);
+            microblog.register(userBob);
+            microblog.register(userCharlie);
+            Post post = microblog.writePost(new Post.Builder(userAlice, "Ciao #mondo"));
+            microblog.like(post, userBob);
+            microblog.dislike(post, userBob);
+            microblog.containing(Arrays.asList("Ciao"));
+            // Una ricerca ripetuta con la cache attiva produce comunque
+            // l'evento.
+            microblog.getQueryCache().setCapacity(16, 1024);
+            microblog.containing(Arrays.asList("Ciao"));
+            microblog.containing(Arrays.asList("Ciao"));
+            microblog.report(post, userBob);
+            microblog.report(post, userCharlie);
+            try {
+                microblog.report(post, userAlice);
+            } catch (PostReportException e) {
+                // Atteso: l'autore non può segnalare i propri post.
+            }
+            microblog.blacklist();
+            recording.stop();
+            recording.dump(file);
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String name = event.getEventType().getName();
+                if (name.endsWith("Containing")) {
+                    searches.add(event);
+                }
+                // Per ogni tipo si conserva il primo evento; per `Like` e
+                // `Report` l'ultimo.
+                if (!events.containsKey(name) || name.endsWith("Like") || name.endsWith("Report")) {
+                    events.put(name, event);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        RecordedEvent write = events.get("net.filippocosta.microblog.WritePost");
+        RecordedEvent like = events.get("net.filippocosta.microblog.Like");
+        RecordedEvent containing = events.get("net.filippocosta.microblog.Containing");
+        RecordedEvent copy = events.get("net.filippocosta.microblog.DeepCopy");
+        RecordedEvent report = events.get("net.filippocosta.microblog.Report");
+        RecordedEvent blacklist = events.get("net.filippocosta.microblog.Blacklist");
+        return write != null
+            && write.getString("author").equals(userAlice)
+            && write.getInt("parentId") == -1
+            && write.getInt("textLength") == 11
+            && like != null
+            && !like.getBoolean("like")
+            && like.getString("username").equals(userBob)
+            && containing != null
+            && containing.getInt("postsScanned") == 1
+            && containing.getInt("resultSize") == 1
+            && !containing.getBoolean("cached")
+            && searches.size() == 3
+            && !searches.get(1).getBoolean("cached")
+            && searches.get(2).getBoolean("cached")
+            && searches.get(2).getInt("postsScanned") == 0
+            && searches.get(2).getInt("resultSize") == 1
+            && copy != null
+            && copy.getInt("postsCopied") == 1
+            && report != null
+            && !report.getBoolean("accepted")
+            && report.getString("username").equals(userAlice)
+            && blacklist != null
+            && blacklist.getInt("resultSize") == 1;
+    }
+
+    public static void run() {
+        try {
+            UnitTest.runAndPrint("TestFlightRecorderEvents.testEventsRecorded", TestFlightRecorderEvents.testEventsRecorded());
+        } catch (IOException | PostReportException e) {
+            UnitTest.runAndPrint("TestFlightRecorderEvents.testEventsRecorded", false);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.filippocosta.microblog;
+
+import java.util.Map;
+
+public class TestHeapFootprint {
+    // Budget in byte per entità, con circa il 20% di margine rispetto ai
+    // valori misurati su HotSpot a 64 bit con compressed oops. Un
+    // cambiamento che li supera va giustificato e i budget aggiornati.
+    static final int USER_BUDGET = 256;
+    // Comprende l'array del testo compatto (`Post.text`, circa 72 byte per i
+    // testi di prova), prima escluso: senza testo il budget era di 144 byte.
+    static final int POST_OBJECT_BUDGET = 224;
+    static final int POST_TAGS_BUDGET = 48;
+    static final int POST_INDEXES_BUDGET = 480;
+    static final int LIKE_BUDGET = 72;
+    static final int FOLLOW_BUDGET = 136;
+    static final int REPORT_BUDGET = 208;
+
+    static Map<String, Double> footprint = null;
+
+    static Map<String, Double> footprint() {
+        if (footprint == null) {
+            footprint = HeapFootprint.measure(20000);
+        }
+        return footprint;
+    }
+
+    public static boolean testUser() {
+        double bytes = footprint().get(HeapFootprint.USER);
+        return bytes > 0 && bytes <= USER_BUDGET;
+    }
+
+    public static boolean testPost() {
+        Map<String, Double> footprint = footprint();
+        return footprint.get(HeapFootprint.POST_OBJECT) > 0
+            && footprint.get(HeapFootprint.POST_OBJECT) <= POST_OBJECT_BUDGET
+            && footprint.get(HeapFootprint.POST_TAGS) <= POST_TAGS_BUDGET
+            && footprint.get(HeapFootprint.POST_INDEXES) > 0
+            && footprint.get(HeapFootprint.POST_INDEXES) <= POST_INDEXES_BUDGET;
+    }
+
+    public static boolean testLikeAndFollow() {
+        Map<String, Double> footprint = footprint();
+        return footprint.get(HeapFootprint.LIKE) > 0
+            && footprint.get(HeapFootprint.LIKE) <= LIKE_BUDGET
+            && footprint.get(HeapFootprint.FOLLOW) > 0
+            && footprint.get(HeapFootprint.FOLLOW) <= FOLLOW_BUDGET;
+    }
+
+    public static boolean testReport() {
+        double bytes = footprint().get(HeapFootprint.REPORT);
+        return bytes > 0 && bytes <= REPORT_BUDGET;
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestHeapFootprint.testUser", TestHeapFootprint.testUser());
+        UnitTest.runAndPrint("TestHeapFootprint.testPost", TestHeapFootprint.testPost());
+        UnitTest.runAndPrint("TestHeapFootprint.testLikeAndFollow", TestHeapFootprint.testLikeAndFollow());
+        UnitTest.runAndPrint("TestHeapFootprint.testReport", TestHeapFootprint.testReport());
+    }
+}
@@ -0,0 +1,164 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class TestHotRanking {
+
+    private static final long HOUR = 60L * 60 * 1000;
+
+    // Il punteggio di `post` all'istante `now` calcolato direttamente, come
+    // riferimento per `HotRanking`.
+    private static double score(Post post, long now, long halfLife) {
+        double weight = 1 + post.getLikes().size() + HotRanking.REPLY_WEIGHT * post.totalReplies();
+        return weight * Math.pow(2, -(double) (now - post.getTimestamp().toEpochMilli()) / halfLife);
+    }
+
+    // Verifica che `ids` contenga tutti i post di `microblog` con l'hashtag
+    // `hashtag` (tutti se `null`), in ordine di punteggio non crescente.
+    private static boolean ranked(SocialNetwork microblog, List<Integer> ids, String hashtag, long halfLife) {
+        long now = System.currentTimeMillis();
+        int expected = 0;
+        for (Post post : microblog.getPostsById().values()) {
+            if (hashtag == null || post.getHashtags().contains(hashtag)) {
+                expected++;
+            }
+        }
+        boolean success = ids.size() == expected && new HashSet<>(ids).size() == expected;
+        for (int i = 1; i < ids.size(); i++) {
+            double previous = TestHotRanking.score(microblog.getPostById(ids.get(i - 1)), now, halfLife);
+            double current = TestHotRanking.score(microblog.getPostById(ids.get(i)), now, halfLife);
+            success = success && previous >= current * (1 - 1e-9);
+        }
+        return success;
+    }
+
+    public static boolean testRanking() {
+        SocialNetwork microblog = new SocialNetwork();
+        microblog.register("Alice");
+        microblog.register("Bob");
+        microblog.register("Carol");
+        Post cats = microblog.writePost(new Post.Builder("Alice", "Parliamo di #gatti"));
+        Post dogs = microblog.writePost(new Post.Builder("Bob", "Parliamo di #cani"));
+        Post quiet = microblog.writePost(new Post.Builder("Carol", "Nessuno mi legge"));
+        HotRanking hot = new HotRanking(microblog, HOUR);
+        // A parità di punteggio prevale il più recente.
+        boolean success = hot.topIds(null, 10).equals(List.of(quiet.getId(), dogs.getId(), cats.getId()))
+                       && hot.topIds(null, 1).equals(List.of(quiet.getId()))
+                       && hot.checkRep();
+        microblog.like(cats, "Bob");
+        success = success
+               && hot.topIds(null, 10).get(0) == cats.getId()
+               && hot.topIds("GATTI", 10).equals(List.of(cats.getId()))
+               && hot.topIds("pesci", 10).isEmpty();
+        // Una risposta vale più di un like, anche per gli antenati.
+        Post reply = microblog.writePost(new Post.Builder("Alice", "I #cani sono meglio").inResponseTo(dogs));
+        Post nested = microblog.writePost(new Post.Builder("Carol", "Concordo").inResponseTo(reply));
+        success = success
+               && hot.topIds(null, 2).equals(List.of(dogs.getId(), reply.getId()))
+               && hot.topIds("cani", 10).equals(List.of(dogs.getId(), reply.getId()))
+               && hot.checkRep();
+        microblog.dislike(cats, "Bob");
+        microblog.deletePost(reply, "Alice");
+        success = success
+               && hot.topIds("cani", 10).equals(List.of(dogs.getId()))
+               && hot.topIds(null, 10).equals(List.of(quiet.getId(), dogs.getId(), cats.getId()))
+               && hot.top(null, 1).get(0).getText().equals("Nessuno mi legge")
+               && hot.checkRep();
+        // Il punteggio si dimezza a ogni periodo senza riscalare nulla.
+        long published = dogs.getTimestamp().toEpochMilli();
+        success = success
+               && Math.abs(hot.score(dogs.getId(), published) - 1) < 1e-9
+               && Math.abs(hot.score(dogs.getId(), published + 2 * HOUR) - 0.25) < 1e-9
+               && Math.abs(hot.score(dogs.getId(), published + 1000 * HOUR) * Math.pow(2, 1000) - 1) < 1e-6;
+        try {
+            hot.score(nested.getId(), published);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            hot.topIds(null, 0);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            new HotRanking(microblog, 0);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            new HotRanking(null, HOUR);
+            return false;
+        } catch (NullPointerException e) {}
+        hot.close();
+        microblog.like(cats, "Carol");
+        return success && hot.topIds(null, 1).get(0) == quiet.getId();
+    }
+
+    public static boolean testRandomUpdates() {
+        SocialNetwork microblog = new SocialNetwork();
+        String[] users = {"Alice", "Bob", "Carol", "Dan", "Eve"};
+        String[] hashtags = {"gatti", "cani", "pesci"};
+        for (String user : users) {
+            microblog.register(user);
+        }
+        // Tempo di dimezzamento breve, così che l'età conti quanto i like.
+        long halfLife = 20;
+        HotRanking hot = new HotRanking(microblog, halfLife);
+        Random random = new Random(11);
+        List<Post> posts = new ArrayList<>();
+        boolean success = true;
+        for (int i = 0; i < 600; i++) {
+            String user = users[random.nextInt(users.length)];
+            int action = posts.isEmpty() ? 0 : random.nextInt(5);
+            if (action <= 1) {
+                Post.Builder builder = new Post.Builder(user, "Post " + i + " #" + hashtags[random.nextInt(hashtags.length)]);
+                if (action == 1) {
+                    builder.inResponseTo(posts.get(random.nextInt(posts.size())));
+                }
+                posts.add(microblog.writePost(builder));
+            } else if (action <= 3) {
+                Post post = posts.get(random.nextInt(posts.size()));
+                if (!post.getAuthor().equals(user)) {
+                    if (action == 2) {
+                        microblog.like(post, user);
+                    } else {
+                        microblog.dislike(post, user);
+                    }
+                }
+            } else if (random.nextInt(4) == 0) {
+                Post post = posts.remove(random.nextInt(posts.size()));
+                microblog.deletePost(post, post.getAuthor());
+                // Le risposte eliminate assieme al post.
+                for (int j = posts.size() - 1; j >= 0; j--) {
+                    if (!microblog.getPostsById().containsKey(posts.get(j).getId())) {
+                        posts.remove(j);
+                    }
+                }
+            }
+            if (i % 50 == 0) {
+                success = success && hot.checkRep();
+            }
+        }
+        success = success && TestHotRanking.ranked(microblog, hot.topIds(null, 1000), null, halfLife);
+        for (String hashtag : hashtags) {
+            success = success && TestHotRanking.ranked(microblog, hot.topIds(hashtag, 1000), hashtag, halfLife);
+        }
+        // Una nuova classifica sugli stessi post concorda con quella aggiornata.
+        HotRanking rebuilt = new HotRanking(microblog, halfLife);
+        success = success
+               && rebuilt.topIds(null, 1000).equals(hot.topIds(null, 1000))
+               && rebuilt.checkRep()
+               && hot.checkRep()
+               && microblog.checkRep();
+        rebuilt.close();
+        hot.close();
+        return success;
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestHotRanking.testRanking",
+                             TestHotRanking.testRanking());
+        UnitTest.runAndPrint("TestHotRanking.testRandomUpdates",
+                             TestHotRanking.testRandomUpdates());
+    }
+}
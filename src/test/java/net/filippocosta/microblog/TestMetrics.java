@@ -0,0 +1,85 @@
+package net.filippocosta.microblog;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class TestMetrics {
+    static String userAlice = "Alice";
+    static String userBob = "super_bob99";
+    static String userCharlie = "Charlie";
+
+    public static boolean testDisabledByDefault() {
+        SocialNetwork microblog = new SocialNetwork();
+        microblog.register(userAlice);
+        microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        Metrics metrics = microblog.getMetrics();
+        return !metrics.isEnabled()
+            && metrics.getOperationCounts().get("REGISTER") == 0
+            && metrics.getOperationCounts().get("WRITE_POST") == 0;
+    }
+
+    public static boolean testCountsAndSizes() throws PostReportException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Metrics metrics = microblog.getMetrics();
+        metrics.setEnabled(true);
+        microblog.register(userAlice);
+        microblog.register(userBob);
+        microblog.register(userCharlie);
+        Post post = microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        microblog.like(post, userBob);
+        microblog.report(post, userBob);
+        microblog.report(post, userCharlie);
+        microblog.blacklist();
+        Map<String, Long> counts = metrics.getOperationCounts();
+        Map<String, Long> sizes = metrics.getStructureSizes();
+        return counts.get("REGISTER") == 3
+            && counts.get("WRITE_POST") == 1
+            && counts.get("LIKE") == 1
+            && counts.get("REPORT") == 2
+            && counts.get("BLACKLIST") == 1
+            // Le operazioni annidate non vengono contate.
+            && counts.get("GET_POST_BY_ID") == 0
+            && counts.get("USER_EXISTS") == 0
+            && metrics.getLatencyPercentile("WRITE_POST", 50) > 0
+            && metrics.getLatencyPercentile("REPORT", 50) <= metrics.getLatencyPercentile("REPORT", 100)
+            && sizes.get("users") == 3
+            && sizes.get("postsById") == 1
+            && sizes.get("followees") == 1
+            && sizes.get("reports") == 2
+            && sizes.get("blacklisted") == 1
+            && metrics.dump().contains("WRITE_POST");
+    }
+
+    public static boolean testJmx() throws JMException {
+        SocialNetwork microblog = new SocialNetwork();
+        microblog.register(userAlice);
+        ObjectName name = microblog.getMetrics().register("TestMetrics.testJmx");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.setAttribute(name, new javax.management.Attribute("Enabled", true));
+            microblog.register(userBob);
+            return microblog.getMetrics().isEnabled()
+                && microblog.getMetrics().getOperationCounts().get("REGISTER") == 1
+                && server.invoke(name, "dump", new Object[0], new String[0]).toString().contains("REGISTER");
+        } finally {
+            microblog.getMetrics().unregister("TestMetrics.testJmx");
+        }
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestMetrics.testDisabledByDefault", TestMetrics.testDisabledByDefault());
+        try {
+            UnitTest.runAndPrint("TestMetrics.testCountsAndSizes", TestMetrics.testCountsAndSizes());
+        } catch (PostReportException e) {
+            UnitTest.runAndPrint("TestMetrics.testCountsAndSizes", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestMetrics.testJmx", TestMetrics.testJmx());
+        } catch (JMException e) {
+            UnitTest.runAndPrint("TestMetrics.testJmx", false);
+        }
+    }
+}
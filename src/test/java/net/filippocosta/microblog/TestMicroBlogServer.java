@@ -0,0 +1,179 @@
+package net.filippocosta.microblog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+public class TestMicroBlogServer {
+    private static final HttpClient CLIENT = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private static MicroBlogServer start(SocialNetworkWithReports network) throws IOException {
+        MicroBlogServer server = new MicroBlogServer(network, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        return server;
+    }
+
+    private static HttpResponse<String> send(MicroBlogServer server, String method, String path, String body)
+        throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + path));
+        request.method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+        return CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> json(HttpResponse<String> response) {
+        return (Map<String, Object>) JsonParser.parse(response.body());
+    }
+
+    public static boolean testEndpoints() throws IOException, InterruptedException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        try (MicroBlogServer server = TestMicroBlogServer.start(microblog)) {
+            boolean success = TestMicroBlogServer.send(server, "POST", "/users", "{\"username\": \"Alice\"}").statusCode() == 201
+                           && TestMicroBlogServer.send(server, "POST", "/users", "{\"username\": \"Bob\"}").statusCode() == 201
+                           && TestMicroBlogServer.send(server, "POST", "/users", "{\"username\": \"Bob\"}").statusCode() == 409;
+            HttpResponse<String> created = TestMicroBlogServer.send(server, "POST", "/posts",
+                "{\"author\": \"Alice\", \"text\": \"Ciao \\\"mondo\\\" \\u2028 #saluti\"}");
+            Map<String, Object> post = TestMicroBlogServer.json(created);
+            long id = (Long) post.get("id");
+            success = success
+                   && created.statusCode() == 201
+                   && post.get("text").equals("Ciao \"mondo\" \u2028 #saluti")
+                   && post.get("parent") == null
+                   && post.get("replyRestriction").equals("EVERYONE")
+                   && microblog.getPostById((int) id).getText().equals(post.get("text"));
+            HttpResponse<String> reply = TestMicroBlogServer.send(server, "POST", "/posts",
+                "{\"author\": \"Bob\", \"text\": \"Ciao Alice\", \"parent\": " + id + "}");
+            long replyId = (Long) TestMicroBlogServer.json(reply).get("id");
+            success = success
+                   && reply.statusCode() == 201
+                   && (Long) TestMicroBlogServer.json(reply).get("parent") == id
+                   && TestMicroBlogServer.send(server, "POST", "/posts/" + id + "/like", "{\"username\": \"Bob\"}").statusCode() == 204
+                   && TestMicroBlogServer.send(server, "POST", "/posts/" + id + "/like", "{\"username\": \"Alice\"}").statusCode() == 400;
+            Map<String, Object> read = TestMicroBlogServer.json(TestMicroBlogServer.send(server, "GET", "/posts/" + id, null));
+            success = success
+                   && read.get("likes").equals(List.of("Bob"))
+                   && read.get("replies").equals(List.of(replyId))
+                   && TestMicroBlogServer.send(server, "POST", "/posts/" + id + "/dislike", "{\"username\": \"Bob\"}").statusCode() == 204
+                   && microblog.getPostById((int) id).getLikes().isEmpty();
+            Map<String, Object> search = TestMicroBlogServer.json(TestMicroBlogServer.send(server, "GET", "/search?q=%23saluti", null));
+            List<?> found = (List<?>) search.get("posts");
+            success = success
+                   && found.size() == 1
+                   && (Long) ((Map<?, ?>) found.get(0)).get("id") == id;
+            Map<String, Object> hot = TestMicroBlogServer.json(TestMicroBlogServer.send(server, "GET", "/hot?tag=saluti&k=5", null));
+            List<?> hottest = (List<?>) hot.get("posts");
+            success = success
+                   && hottest.size() == 1
+                   && (Long) ((Map<?, ?>) hottest.get(0)).get("id") == id;
+            TestMicroBlogServer.send(server, "POST", "/posts", "{\"author\": \"Bob\", \"text\": \"Secondo post\"}");
+            Map<String, Object> page = TestMicroBlogServer.json(TestMicroBlogServer.send(server, "GET", "/users/Bob/timeline?limit=1", null));
+            success = success
+                   && ((List<?>) page.get("posts")).size() == 1
+                   && page.get("next") != null
+                   && ((List<?>) TestMicroBlogServer.json(TestMicroBlogServer.send(server, "GET", "/users/Bob/timeline?cursor="
+                                                                                + page.get("next"), null)).get("posts")).size() == 1
+                   && TestMicroBlogServer.send(server, "GET", "/users/Carol/timeline", null).statusCode() == 404
+                   && TestMicroBlogServer.send(server, "GET", "/posts/424242", null).statusCode() == 404
+                   && TestMicroBlogServer.send(server, "GET", "/posts/abc", null).statusCode() == 404
+                   && TestMicroBlogServer.send(server, "GET", "/nowhere", null).statusCode() == 404
+                   && TestMicroBlogServer.send(server, "DELETE", "/posts/" + id, null).statusCode() == 405
+                   && TestMicroBlogServer.send(server, "POST", "/posts", "{\"author\": ").statusCode() == 400
+                   && TestMicroBlogServer.send(server, "POST", "/posts", "[]").statusCode() == 400
+                   && TestMicroBlogServer.send(server, "POST", "/posts", "[".repeat(32 * 1024)).statusCode() == 400
+                   && TestMicroBlogServer.send(server, "POST", "/posts",
+                                               "[".repeat(JsonParser.MAX_DEPTH) + "]".repeat(JsonParser.MAX_DEPTH)).statusCode() == 400
+                   && TestMicroBlogServer.send(server, "POST", "/posts", "{\"author\": \"Dan\", \"text\": \"x\"}").statusCode() == 400
+                   && TestMicroBlogServer.send(server, "GET", "/search?q=x&k=0", null).statusCode() == 400
+                   && TestMicroBlogServer.send(server, "GET", "/search?q=" + "-".repeat(5000) + "ciao", null).statusCode() == 400
+                   && TestMicroBlogServer.send(server, "GET", "/hot?k=1000", null).statusCode() == 400
+                   && TestMicroBlogServer.send(server, "POST", "/users",
+                                               "{\"username\": \"" + "x".repeat(MicroBlogServer.MAX_BODY) + "\"}").statusCode() == 413;
+            // Le proprie segnalazioni non sono ammesse.
+            success = success
+                   && TestMicroBlogServer.send(server, "POST", "/posts/" + id + "/report", "{\"username\": \"Alice\"}").statusCode() == 409;
+            return success && microblog.checkRep();
+        }
+    }
+
+    public static boolean testBatchPipelining() throws IOException, InterruptedException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        try (MicroBlogServer server = TestMicroBlogServer.start(microblog)) {
+            StringBuilder batch = new StringBuilder();
+            batch.append("{\"method\": \"POST\", \"path\": \"/users\", \"body\": {\"username\": \"Alice\"}}\n");
+            batch.append("{\"method\": \"POST\", \"path\": \"/users\", \"body\": {\"username\": \"Bob\"}}\n");
+            batch.append("\n");
+            for (int i = 0; i < 50; i++) {
+                batch.append("{\"method\": \"POST\", \"path\": \"/posts\", \"body\": {\"author\": \"Alice\", \"text\": \"Post " + i + "\"}}\n");
+            }
+            batch.append("{\"method\": \"GET\", \"path\": \"/users/Alice/timeline?limit=100\"}\n");
+            batch.append("{\"method\": \"GET\", \"path\": \"/posts/424242\"}\n");
+            batch.append("non è JSON\n");
+            // Una riga troppo lunga viene rifiutata senza interrompere le altre.
+            batch.append("x".repeat(MicroBlogServer.MAX_BODY + 1)).append("\n");
+            batch.append("{\"method\": \"GET\", \"path\": \"/posts/424242\"}\n");
+            HttpResponse<String> response = TestMicroBlogServer.send(server, "POST", "/batch", batch.toString());
+            String[] lines = response.body().split("\n");
+            boolean success = response.statusCode() == 200 && lines.length == 57;
+            for (int i = 0; success && i < 52; i++) {
+                success = ((Long) ((Map<?, ?>) JsonParser.parse(lines[i])).get("status")) == 201;
+            }
+            Map<?, ?> timeline = (Map<?, ?>) ((Map<?, ?>) JsonParser.parse(lines[52])).get("body");
+            List<?> posts = (List<?>) timeline.get("posts");
+            success = success
+                   && posts.size() == 50
+                   && ((Map<?, ?>) posts.get(49)).get("text").equals("Post 49")
+                   && timeline.get("next") == null
+                   && (Long) ((Map<?, ?>) JsonParser.parse(lines[53])).get("status") == 404
+                   && (Long) ((Map<?, ?>) JsonParser.parse(lines[54])).get("status") == 400
+                   && (Long) ((Map<?, ?>) JsonParser.parse(lines[55])).get("status") == 413
+                   && (Long) ((Map<?, ?>) JsonParser.parse(lines[56])).get("status") == 404
+                   && TestMicroBlogServer.send(server, "GET", "/batch", null).statusCode() == 405;
+            return success && microblog.writtenBy("Alice").size() == 50 && microblog.checkRep();
+        }
+    }
+
+    public static boolean testLoad() throws IOException, InterruptedException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Workload workload = new Workload.Config().setSeed(11).setUsers(100).setPosts(1000).build().populate(microblog);
+        try (MicroBlogServer server = TestMicroBlogServer.start(microblog)) {
+            HttpLoadDriver driver = new HttpLoadDriver(workload, URI.create("http://127.0.0.1:" + server.getPort()));
+            int clients = 200;
+            int operations = 10;
+            long[][] latencies = driver.run(clients, operations);
+            long requests = 0;
+            for (int k = 0; k < HttpLoadDriver.Operation.values().length; k++) {
+                requests += latencies[k].length;
+            }
+            return requests == clients * operations
+                && driver.getErrors() == 0
+                && latencies[HttpLoadDriver.Operation.values().length][0] > 0
+                && microblog.checkRep();
+        }
+    }
+
+    public static void run() {
+        try {
+            UnitTest.runAndPrint("TestMicroBlogServer.testEndpoints",
+                                 TestMicroBlogServer.testEndpoints());
+        } catch (IOException | InterruptedException e) {
+            UnitTest.runAndPrint("TestMicroBlogServer.testEndpoints", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestMicroBlogServer.testBatchPipelining",
+                                 TestMicroBlogServer.testBatchPipelining());
+        } catch (IOException | InterruptedException e) {
+            UnitTest.runAndPrint("TestMicroBlogServer.testBatchPipelining", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestMicroBlogServer.testLoad",
+                                 TestMicroBlogServer.testLoad());
+        } catch (IOException | InterruptedException e) {
+            UnitTest.runAndPrint("TestMicroBlogServer.testLoad", false);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestMutationPipeline {
+
+    // Restituisce la causa con cui `future` è stato completato, `null` se
+    // completato normalmente.
+    private static Throwable failure(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause();
+        }
+    }
+
+    public static boolean testAsyncMutations() {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        microblog.register("Alice");
+        microblog.register("Bob");
+        try (MutationPipeline pipeline = new MutationPipeline(microblog, 4)) {
+            final Post post = pipeline.writePost(new Post.Builder("Alice", "Ciao #pipeline")).join();
+            CompletableFuture<Post> reply = pipeline.writePost(new Post.Builder("Bob", "Ciao Alice").inResponseTo(post));
+            CompletableFuture<Void> like = pipeline.like(post.getId(), "Bob");
+            CompletableFuture<Void> missing = pipeline.like(424242, "Bob");
+            CompletableFuture<Void> stranger = pipeline.like(post.getId(), "Carol");
+            CompletableFuture<Void> ownReport = pipeline.report(post.getId(), "Alice");
+            CompletableFuture<Void> report = pipeline.report(post.getId(), "Bob");
+            boolean success = reply.join().getParent().getId() == post.getId()
+                           && TestMutationPipeline.failure(like) == null
+                           && TestMutationPipeline.failure(missing) instanceof IllegalArgumentException
+                           && TestMutationPipeline.failure(stranger) instanceof IllegalArgumentException
+                           && TestMutationPipeline.failure(ownReport) instanceof PostReportException
+                           && TestMutationPipeline.failure(report) == null
+                           && pipeline.getPublished() == 7;
+            // Completato il future, la lettura vede la scrittura.
+            List<String> likes = pipeline.read(new ReadReplica.Query<List<String>>() {
+                public List<String> apply(SocialNetworkWithReports network) {
+                    return network.getPostById(post.getId()).getLikes();
+                }
+            });
+            success = success && likes.size() == 1 && likes.get(0).equals("Bob");
+            pipeline.dislike(post.getId(), "Bob").join();
+            success = success
+                   && microblog.getPostById(post.getId()).getLikes().isEmpty()
+                   && microblog.writtenBy("Bob").size() == 1
+                   && pipeline.checkRep();
+            try {
+                pipeline.writePost(null);
+                return false;
+            } catch (NullPointerException e) {}
+            return success;
+        }
+    }
+
+    public static boolean testConcurrentProducers() throws InterruptedException {
+        final SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        final int producers = 8;
+        final int posts = 500;
+        for (int i = 0; i < producers; i++) {
+            microblog.register("user" + i);
+        }
+        final Post target = microblog.writePost(new Post.Builder("user0", "Post da apprezzare"));
+        // Un buffer piccolo, perché i produttori debbano attendere lo scrittore.
+        final MutationPipeline pipeline = new MutationPipeline(microblog, 8);
+        final List<List<CompletableFuture<?>>> futures = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int t = 0; t < producers; t++) {
+            final String author = "user" + t;
+            final List<CompletableFuture<?>> own = new ArrayList<>();
+            futures.add(own);
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < posts; i++) {
+                        own.add(pipeline.writePost(new Post.Builder(author, "Post " + i + " di " + author)));
+                    }
+                    if (!author.equals("user0")) {
+                        own.add(pipeline.like(target.getId(), author));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        boolean success = true;
+        for (List<CompletableFuture<?>> own : futures) {
+            for (CompletableFuture<?> future : own) {
+                success = success && TestMutationPipeline.failure(future) == null;
+            }
+        }
+        pipeline.close();
+        success = success
+               && pipeline.getPublished() == producers * posts + producers - 1
+               && microblog.getPostById(target.getId()).getLikes().size() == producers - 1
+               && microblog.getPosts().size() == producers * posts + 1;
+        // Gli ID rispettano l'ordine di accodamento di ciascun produttore.
+        for (int t = 0; t < producers; t++) {
+            List<Post> written = microblog.writtenBy("user" + t);
+            // `user0` è anche l'autore di `target`.
+            int offset = written.size() - posts;
+            for (int i = 0; i < posts; i++) {
+                success = success && written.get(offset + i).getText().equals("Post " + i + " di user" + t);
+            }
+        }
+        return success && pipeline.checkRep();
+    }
+
+    public static boolean testClose() {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        microblog.register("Alice");
+        MutationPipeline pipeline = new MutationPipeline(microblog, 16);
+        List<CompletableFuture<Post>> pending = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            pending.add(pipeline.writePost(new Post.Builder("Alice", "Post " + i)));
+        }
+        pipeline.close();
+        // Le mutazioni accodate prima della chiusura vengono applicate.
+        boolean success = pipeline.getPublished() == 100 && microblog.writtenBy("Alice").size() == 100;
+        for (CompletableFuture<Post> future : pending) {
+            success = success && future.isDone() && !future.isCompletedExceptionally();
+        }
+        try {
+            pipeline.like(0, "Alice");
+            return false;
+        } catch (IllegalStateException e) {}
+        pipeline.close();
+        try {
+            new MutationPipeline(microblog, 12);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        return success && pipeline.checkRep();
+    }
+
+    // Un errore durante l'applicazione chiude la coda senza lasciare future
+    // in sospeso né produttori in attesa.
+    public static boolean testWriterError() throws InterruptedException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        microblog.register("Alice");
+        final AtomicInteger created = new AtomicInteger(0);
+        microblog.addChangeListener(new ChangeListener() {
+            public void changesPublished(List<ChangeEvent> events) {
+                if (events.get(0).getKind() == ChangeEvent.Kind.POST_CREATED
+                    && created.incrementAndGet() == 3) {
+                    throw new AssertionError("Errore simulato");
+                }
+            }
+        }, false);
+        final MutationPipeline pipeline = new MutationPipeline(microblog, 4);
+        final List<CompletableFuture<Post>> pending = new ArrayList<>();
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        CompletableFuture<Post> future = pipeline.writePost(new Post.Builder("Alice", "Post " + i));
+                        synchronized (pending) {
+                            pending.add(future);
+                        }
+                    }
+                } catch (IllegalStateException e) {
+                    // Coda già chiusa dall'errore.
+                }
+            }
+        });
+        producer.setDaemon(true);
+        producer.start();
+        producer.join(10000);
+        if (producer.isAlive()) {
+            return false;
+        }
+        pipeline.close();
+        boolean success = true;
+        synchronized (pending) {
+            success = pending.size() >= 3
+                   && TestMutationPipeline.failure(pending.get(0)) == null
+                   && TestMutationPipeline.failure(pending.get(1)) == null
+                   && TestMutationPipeline.failure(pending.get(2)) instanceof AssertionError;
+            for (int i = 3; i < pending.size(); i++) {
+                success = success
+                       && TestMutationPipeline.failure(pending.get(i)) instanceof IllegalStateException;
+            }
+        }
+        try {
+            pipeline.like(0, "Alice");
+            return false;
+        } catch (IllegalStateException e) {}
+        return success && created.get() == 3 && microblog.writtenBy("Alice").size() == 3;
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestMutationPipeline.testAsyncMutations",
+                             TestMutationPipeline.testAsyncMutations());
+        try {
+            UnitTest.runAndPrint("TestMutationPipeline.testConcurrentProducers",
+                                 TestMutationPipeline.testConcurrentProducers());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestMutationPipeline.testConcurrentProducers", false);
+        }
+        UnitTest.runAndPrint("TestMutationPipeline.testClose",
+                             TestMutationPipeline.testClose());
+        try {
+            UnitTest.runAndPrint("TestMutationPipeline.testWriterError",
+                                 TestMutationPipeline.testWriterError());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestMutationPipeline.testWriterError", false);
+        }
+    }
+}
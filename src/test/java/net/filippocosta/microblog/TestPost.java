@@ -1,5 +1,6 @@
 package net.filippocosta.microblog;
 
+import java.util.List;
 import net.filippocosta.microblog.Post.ReplyRestriction;
 
 public class TestPost {
@@ -87,6 +88,26 @@ public class TestPost {
             && post.getTaggedUsers().size() == 1;
     }
 
+    public static boolean testTagsAreReadOnly() {
+        Post post = new Post.Builder(userBob, "#uno @Alice #due @Charlie")
+            .setReplyRestriction(ReplyRestriction.ONLY_AUTHOR_OR_TAGGED_USERS)
+            .build();
+        // Il testo viene analizzato soltanto al primo accesso.
+        boolean success = post.userCanReply(userAlice)
+                       && !post.userCanReply("Alic")
+                       && post.getHashtags().size() == 2
+                       && post.getHashtags().get(1).equals("due")
+                       && post.getTaggedUsers().size() == 2
+                       && post.getTaggedUsers().get(1).equals("Charlie")
+                       && post.deepCopy().getTaggedUsers().equals(post.getTaggedUsers())
+                       && post.checkRep();
+        try {
+            post.getHashtags().add("tre");
+            return false;
+        } catch (UnsupportedOperationException e) {}
+        return success;
+    }
+
     public static boolean testConversation() {
         Post parent = new Post.Builder(userCharlie, "Ciao!").build();
         Post reply1 = new Post.Builder(userCharlie, "Quasi dimenticavo, buona giornata a tutti!")
@@ -132,6 +153,53 @@ public class TestPost {
         return success && post.getLikes().size() == 2;
     }
 
+    public static boolean testCompactText() {
+        String[] texts = {
+            "Ciao a tutti! #estate @Bob",
+            "Perché sì, è così",
+            "Buongiorno \u2600 #sole \ud83d\ude00 fine",
+            "Surrogato spaiato \ud83d qui",
+            "",
+        };
+        String[] terms = {"", "Ciao", "è così", "\u2600", "\ud83d\ude00", "\ud83d", "#sole", "@Bob", "assente", "fine", "qui"};
+        boolean success = true;
+        for (String text : texts) {
+            Post post = new Post.Builder(userAlice, text).build();
+            success = success && post.getText().equals(text) && post.checkRep();
+            for (String term : terms) {
+                success = success && post.textContains(term) == text.contains(term);
+            }
+        }
+        // Hashtag e tag si leggono e si confrontano nei byte, in ogni codifica.
+        String[] tagged = {
+            "Latin-1 #caffè @Bob_1",
+            "☀ UTF-8 😀 #caffè @Bob_1 ☀",
+            "UTF-16 \ud83d #caffè @Bob_1",
+        };
+        for (String text : tagged) {
+            Post post = new Post.Builder(userAlice, text)
+                .setReplyRestriction(ReplyRestriction.ONLY_AUTHOR_OR_TAGGED_USERS)
+                .build();
+            success = success
+                   && post.getHashtags().equals(List.of("caff"))
+                   && !post.getHashtags().contains("caffè")
+                   && post.getTaggedUsers().equals(List.of("Bob_1"))
+                   && post.userCanReply("Bob_1")
+                   && !post.userCanReply("Bob_")
+                   && !post.userCanReply("Bob_12")
+                   && post.checkRep();
+        }
+        // Testi uguali, anche se non sono la stessa `String`, condividono la
+        // stessa rappresentazione.
+        long shared = PostText.getShared();
+        Post first = new Post.Builder(userAlice, new String("Offerta imperdibile!")).build();
+        Post second = new Post.Builder(userBob, new String("Offerta imperdibile!")).build();
+        return success
+            && PostText.getShared() > shared
+            && first.getText().equals(second.getText())
+            && second.deepCopy().getText().equals("Offerta imperdibile!");
+    }
+
     public static void run() {
         UnitTest.runAndPrint("TestPost.testDefaultReplyRestriction", TestPost.testDefaultReplyRestriction());
         UnitTest.runAndPrint("TestPost.testSetReplyRestiction", TestPost.testSetReplyRestriction());
@@ -140,7 +208,9 @@ public class TestPost {
         UnitTest.runAndPrint("TestPost.testConstructorWithNull", TestPost.testConstructorWithNull());
         UnitTest.runAndPrint("TestPost.testHashtags", TestPost.testHashtags());
         UnitTest.runAndPrint("TestPost.testTaggedUsers", TestPost.testTaggedUsers());
+        UnitTest.runAndPrint("TestPost.testTagsAreReadOnly", TestPost.testTagsAreReadOnly());
         UnitTest.runAndPrint("TestPost.testConversation", TestPost.testConversation());
         UnitTest.runAndPrint("TestPost.testLikes", TestPost.testLikes());
+        UnitTest.runAndPrint("TestPost.testCompactText", TestPost.testCompactText());
     }
 }
@@ -0,0 +1,182 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class TestQueryCache {
+
+    private static Set<Integer> ids(List<Post> posts) {
+        Set<Integer> ids = new HashSet<>();
+        for (Post post : posts) {
+            ids.add(post.getId());
+        }
+        return ids;
+    }
+
+    public static boolean testDisabledByDefault() {
+        SocialNetwork microblog = new SocialNetwork();
+        microblog.register("Alice");
+        microblog.writePost(new Post.Builder("Alice", "Ciao"));
+        microblog.containing(Arrays.asList("Ciao"));
+        microblog.containing(Arrays.asList("Ciao"));
+        QueryCache cache = microblog.getQueryCache();
+        return !cache.isEnabled() && cache.size() == 0 && cache.getHits() == 0 && cache.getMisses() == 0;
+    }
+
+    public static boolean testInvalidation() throws PostReportException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        QueryCache cache = microblog.getQueryCache();
+        cache.setCapacity(16, 1000);
+        microblog.register("Alice");
+        microblog.register("Bob");
+        Post presentation = microblog.writePost(new Post.Builder("Alice", "Ciao a tutti"));
+        Post other = microblog.writePost(new Post.Builder("Alice", "Ciao di nuovo"));
+        List<String> words = Arrays.asList("Ciao");
+        boolean success = microblog.containing(words).size() == 2
+                       && microblog.containing(words).size() == 2
+                       && cache.getHits() == 1;
+        // Un like a un post qualsiasi non cambia i risultati di `containing`,
+        // ma le copie restituite riflettono comunque il nuovo like.
+        microblog.like(other, "Bob");
+        List<Post> found = microblog.containing(words);
+        success = success && cache.getHits() == 2;
+        for (Post post : found) {
+            success = success && post.getLikes().size() == (post.getId() == other.getId() ? 1 : 0);
+        }
+        // Modificare le copie restituite non altera la cache.
+        found.get(0).toggleLike("Charlie");
+        success = success && microblog.containing(words).get(0).getLikes().size() <= 1;
+        // Un nuovo post invalida `containing`, non `influencers`.
+        success = success && microblog.influencers().isEmpty();
+        long hits = cache.getHits();
+        microblog.writePost(new Post.Builder("Bob", "Ciao Alice"));
+        success = success
+               && microblog.containing(words).size() == 3
+               && microblog.influencers().isEmpty()
+               && cache.getHits() == hits + 1;
+        // Un like al post di presentazione cambia il grafo dei follower.
+        microblog.like(presentation, "Bob");
+        success = success && microblog.influencers().equals(Arrays.asList("Alice"));
+        // La blacklist cambia con le segnalazioni e con la soglia.
+        success = success && microblog.blacklist().isEmpty();
+        microblog.report(other, "Bob");
+        success = success && microblog.blacklist().isEmpty();
+        microblog.register("Charlie");
+        microblog.report(other, "Charlie");
+        success = success && TestQueryCache.ids(microblog.blacklist()).equals(new HashSet<>(Arrays.asList(other.getId())));
+        microblog.deletePost(other, "Alice");
+        success = success
+               && microblog.blacklist().isEmpty()
+               && microblog.containing(words).size() == 2
+               && microblog.influencers().equals(Arrays.asList("Alice"));
+        return success && microblog.checkRep();
+    }
+
+    public static boolean testEviction() {
+        SocialNetwork microblog = new SocialNetwork();
+        QueryCache cache = microblog.getQueryCache();
+        cache.setCapacity(2, 12);
+        microblog.register("Alice");
+        for (int i = 0; i < 8; i++) {
+            microblog.writePost(new Post.Builder("Alice", "Post " + (i % 2 == 0 ? "uno" : "due")));
+        }
+        microblog.containing(Arrays.asList("uno"));
+        microblog.containing(Arrays.asList("due"));
+        // `uno` diventa il più recente, `Post` (8 post) fa uscire `due`.
+        microblog.containing(Arrays.asList("uno"));
+        microblog.containing(Arrays.asList("Post"));
+        boolean success = cache.size() == 2 && cache.getHits() == 1 && cache.checkRep();
+        microblog.containing(Arrays.asList("uno"));
+        microblog.containing(Arrays.asList("Post"));
+        microblog.containing(Arrays.asList("due"));
+        success = success && cache.getHits() == 3;
+        // Un risultato più pesante della cache non viene memorizzato.
+        for (int i = 0; i < 5; i++) {
+            microblog.writePost(new Post.Builder("Alice", "Post uno"));
+        }
+        microblog.containing(Arrays.asList("Post"));
+        microblog.containing(Arrays.asList("Post"));
+        success = success && cache.getHits() == 3 && cache.checkRep();
+        cache.setCapacity(0, 0);
+        try {
+            cache.setCapacity(-1, 10);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        return success && cache.size() == 0 && !cache.isEnabled();
+    }
+
+    public static boolean testNeverStale() throws PostReportException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        microblog.getQueryCache().setCapacity(8, 100000);
+        Workload workload = new Workload.Config().setSeed(3).setUsers(30).setPosts(200).build().populate(microblog);
+        Random random = new Random(3);
+        List<Post> posts = new ArrayList<>(workload.getPosts());
+        List<String> words = Arrays.asList("ciao", "#tag1");
+        boolean success = true;
+        for (int i = 0; i < 400 && success; i++) {
+            String user = Workload.username(random.nextInt(30));
+            Post target = posts.get(random.nextInt(posts.size()));
+            switch (random.nextInt(5)) {
+                case 0:
+                    posts.add(microblog.writePost(new Post.Builder(user, "ciao " + i)));
+                    break;
+                case 1:
+                    Post presentation = workload.getPresentationPosts().get(random.nextInt(30));
+                    if (!user.equals(presentation.getAuthor()) && microblog.getPostsById().containsKey(presentation.getId())) {
+                        microblog.like(presentation, user);
+                    }
+                    break;
+                case 2:
+                    try {
+                        microblog.report(target, user);
+                    } catch (PostReportException e) {}
+                    break;
+                case 3:
+                    if (microblog.getPostsById().containsKey(target.getId())) {
+                        microblog.deletePost(target, target.getAuthor());
+                    }
+                    break;
+                default:
+                    microblog.register("nuovo" + i);
+                    break;
+            }
+            Set<Integer> expected = new HashSet<>();
+            Set<Integer> blacklisted = new HashSet<>();
+            for (Post post : microblog.getPosts()) {
+                if (post.getText().contains("ciao") || post.getText().contains("#tag1")) {
+                    expected.add(post.getId());
+                }
+                if (microblog.postIsBlacklisted(post)) {
+                    blacklisted.add(post.getId());
+                }
+            }
+            success = TestQueryCache.ids(microblog.containing(words)).equals(expected)
+                   && TestQueryCache.ids(microblog.blacklist()).equals(blacklisted)
+                   && microblog.influencers().equals(SocialNetwork.influencers(microblog.getFollowers()));
+        }
+        return success && microblog.getQueryCache().getHits() > 0 && microblog.checkRep();
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestQueryCache.testDisabledByDefault",
+                             TestQueryCache.testDisabledByDefault());
+        try {
+            UnitTest.runAndPrint("TestQueryCache.testInvalidation",
+                                 TestQueryCache.testInvalidation());
+        } catch (PostReportException e) {
+            UnitTest.runAndPrint("TestQueryCache.testInvalidation", false);
+        }
+        UnitTest.runAndPrint("TestQueryCache.testEviction",
+                             TestQueryCache.testEviction());
+        try {
+            UnitTest.runAndPrint("TestQueryCache.testNeverStale",
+                                 TestQueryCache.testNeverStale());
+        } catch (PostReportException e) {
+            UnitTest.runAndPrint("TestQueryCache.testNeverStale", false);
+        }
+    }
+}
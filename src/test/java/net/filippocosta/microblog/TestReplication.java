@@ -0,0 +1,182 @@
+package net.filippocosta.microblog;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class TestReplication {
+
+    public static boolean testReplicaConverges() throws InterruptedException {
+        final PrimarySocialNetwork primary = new PrimarySocialNetwork();
+        try (ReadReplica replica = primary.createReplica()) {
+            new Workload.Config().setSeed(3).setUsers(100).setPosts(1000).build().populate(primary);
+            List<Post> posts = primary.writtenBy(Workload.username(0));
+            for (Post post : posts) {
+                try {
+                    primary.report(post, Workload.username(1));
+                } catch (PostReportException e) {
+                    return false;
+                }
+            }
+            primary.deletePost(posts.get(posts.size() - 1), Workload.username(0));
+            if (!replica.awaitSequence(primary.getSequence(), 10, TimeUnit.SECONDS)) {
+                return false;
+            }
+            return TestReplication.sameState(primary, replica) && replica.checkRep() && primary.checkRep();
+        }
+    }
+
+    public static boolean testLateReplica() throws InterruptedException {
+        PrimarySocialNetwork primary = new PrimarySocialNetwork();
+        new Workload.Config().setSeed(4).setUsers(50).setPosts(200).build().populate(primary);
+        // Senza repliche il primario non conserva le mutazioni: una replica
+        // creata dopo le scritture parte da un'istantanea del suo stato.
+        boolean success = primary.getLogSize() == 0;
+        try (ReadReplica replica = primary.createReplica()) {
+            success = success
+                   && replica.getSequence() == primary.getSequence()
+                   && TestReplication.sameState(primary, replica);
+            // E segue le scritture successive, anche su post dell'istantanea.
+            primary.register("Zoe");
+            Post post = primary.writePost(new Post.Builder("Zoe", "Arrivo in ritardo"));
+            for (String username : primary.getUsers()) {
+                if (!username.equals("Zoe")) {
+                    primary.like(post, username);
+                }
+            }
+            for (Post other : primary.writtenBy(primary.getUsers().get(0))) {
+                if (other.userCanReply("Zoe")) {
+                    primary.writePost(new Post.Builder("Zoe", "Rispondo").inResponseTo(other));
+                }
+            }
+            return success
+                && replica.awaitSequence(primary.getSequence(), 10, TimeUnit.SECONDS)
+                && TestReplication.sameState(primary, replica)
+                && replica.checkRep()
+                && primary.checkRep();
+        }
+    }
+
+    public static boolean testLogTruncated() throws InterruptedException {
+        PrimarySocialNetwork primary = new PrimarySocialNetwork();
+        ReadReplica first = primary.createReplica();
+        ReadReplica second = primary.createReplica();
+        new Workload.Config().setSeed(6).setUsers(20).setPosts(100).build().populate(primary);
+        boolean success = first.awaitSequence(primary.getSequence(), 10, TimeUnit.SECONDS)
+                       && second.awaitSequence(primary.getSequence(), 10, TimeUnit.SECONDS);
+        // Le mutazioni confermate da entrambe le repliche vengono scartate.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (primary.getLogSize() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        success = success && primary.getLogSize() == 0 && primary.checkRep();
+        // Una replica chiusa non trattiene il flusso.
+        first.close();
+        second.close();
+        primary.register("Zoe");
+        success = success && primary.getLogSize() == 0 && primary.checkRep();
+        return success;
+    }
+
+    public static boolean testReadYourWrites() throws InterruptedException {
+        PrimarySocialNetwork primary = new PrimarySocialNetwork();
+        try (ReadReplica replica = primary.createReplica()) {
+            primary.register("Alice");
+            primary.register("Bob");
+            Post root = primary.writePost(new Post.Builder("Alice", "Ciao a tutti"));
+            boolean success = true;
+            for (int i = 0; i < 100; i++) {
+                final Post reply = primary.writePost(new Post.Builder("Bob", "Risposta " + i).inResponseTo(root));
+                primary.like(reply, "Alice");
+                success = success && replica.awaitSequence(primary.getSequence(), 10, TimeUnit.SECONDS);
+                Post replicated = replica.read(new ReadReplica.Query<Post>() {
+                    public Post apply(SocialNetworkWithReports network) {
+                        return network.getPostById(reply.getId());
+                    }
+                });
+                success = success
+                       && replicated.getText().equals(reply.getText())
+                       && replicated.getTimestamp().equals(reply.getTimestamp())
+                       && replicated.getParent().getId() == root.getId()
+                       && replicated.isLikedBy("Alice");
+            }
+            return success && replica.getSequence() == primary.getSequence();
+        }
+    }
+
+    public static boolean testRejectedWritesNotPublished() {
+        PrimarySocialNetwork primary = new PrimarySocialNetwork();
+        primary.register("Alice");
+        Post post = primary.writePost(new Post.Builder("Alice", "Ciao"));
+        long sequence = primary.getSequence();
+        try {
+            primary.register("Alice");
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            primary.report(post, "Alice");
+            return false;
+        } catch (PostReportException e) {}
+        return primary.getSequence() == sequence && sequence == 2;
+    }
+
+    public static void run() {
+        try {
+            UnitTest.runAndPrint("TestReplication.testReplicaConverges",
+                                 TestReplication.testReplicaConverges());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestReplication.testReplicaConverges", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestReplication.testLateReplica",
+                                 TestReplication.testLateReplica());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestReplication.testLateReplica", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestReplication.testLogTruncated",
+                                 TestReplication.testLogTruncated());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestReplication.testLogTruncated", false);
+        }
+        try {
+            UnitTest.runAndPrint("TestReplication.testReadYourWrites",
+                                 TestReplication.testReadYourWrites());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestReplication.testReadYourWrites", false);
+        }
+        UnitTest.runAndPrint("TestReplication.testRejectedWritesNotPublished",
+                             TestReplication.testRejectedWritesNotPublished());
+    }
+
+    // Confronta utenti, post (con like e genitori), grafo dei follower e
+    // blacklist del primario e della replica.
+    private static boolean sameState(final SocialNetworkWithReports primary, ReadReplica replica) {
+        return replica.read(new ReadReplica.Query<Boolean>() {
+            public Boolean apply(SocialNetworkWithReports network) {
+                Map<Integer, Post> expected = primary.getPostsById();
+                Map<Integer, Post> actual = network.getPostsById();
+                boolean same = expected.keySet().equals(actual.keySet());
+                for (Map.Entry<Integer, Post> entry : expected.entrySet()) {
+                    Post p = entry.getValue();
+                    Post q = actual.get(entry.getKey());
+                    same = same
+                        && q != null
+                        && p.getText().equals(q.getText())
+                        && p.getTimestamp().equals(q.getTimestamp())
+                        && p.getLikes().equals(q.getLikes())
+                        && (p.getParent() == null
+                            ? q.getParent() == null
+                            : q.getParent() != null && p.getParent().getId() == q.getParent().getId());
+                }
+                Set<String> users = new HashSet<>(primary.getUsers());
+                return same
+                    && users.equals(new HashSet<>(network.getUsers()))
+                    && primary.getFollowers().equals(network.getFollowers())
+                    && primary.blacklist().size() == network.blacklist().size();
+            }
+        });
+    }
+}
@@ -0,0 +1,231 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public class TestSearchEngine {
+
+    // Valuta `query` su `post` senza indici, per confrontarla con il motore.
+    private static boolean matches(SearchQuery query, Post post) {
+        final String text = post.getText();
+        final List<String> words = new ArrayList<>();
+        final Set<String> hashtags = new HashSet<>();
+        final Set<String> mentions = new HashSet<>();
+        Tokenizer.tokenize(text, new Tokenizer.Sink() {
+            public void token(Tokenizer.Kind kind, int start, int end) {
+                String token = text.substring(start, end);
+                switch (kind) {
+                    case WORD:
+                        words.add(token.toLowerCase(Locale.ROOT));
+                        break;
+                    case HASHTAG:
+                        words.add(null);
+                        hashtags.add(token.toLowerCase(Locale.ROOT));
+                        break;
+                    case MENTION:
+                        words.add(null);
+                        mentions.add(token);
+                        break;
+                }
+            }
+        });
+        switch (query.getKind()) {
+            case TERM:
+                return words.contains(query.getValue());
+            case PHRASE:
+                return Collections.indexOfSubList(words, query.getWords()) >= 0;
+            case HASHTAG:
+                return hashtags.contains(query.getValue());
+            case MENTION:
+                return mentions.contains(query.getValue());
+            case AUTHOR:
+                return post.getAuthor().equals(query.getValue());
+            case NOT:
+                return !TestSearchEngine.matches(query.getChildren().get(0), post);
+            case AND:
+                for (SearchQuery child : query.getChildren()) {
+                    if (!TestSearchEngine.matches(child, post)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                for (SearchQuery child : query.getChildren()) {
+                    if (TestSearchEngine.matches(child, post)) {
+                        return true;
+                    }
+                }
+                return false;
+        }
+    }
+
+    private static Set<Integer> ids(List<Post> posts) {
+        Set<Integer> ids = new HashSet<>();
+        for (Post post : posts) {
+            ids.add(post.getId());
+        }
+        return ids;
+    }
+
+    public static boolean testParse() {
+        SearchQuery query = SearchQuery.parse("Pizza (#Napoli OR @alice) -\"senza glutine\" from:bob");
+        boolean success = query.equals(SearchQuery.and(SearchQuery.term("pizza"),
+                                                       SearchQuery.or(SearchQuery.hashtag("napoli"),
+                                                                      SearchQuery.mention("alice")),
+                                                       SearchQuery.not(SearchQuery.phrase("senza", "glutine")),
+                                                       SearchQuery.author("bob")));
+        // `AND` lega più di `OR`, e `NOT` equivale a `-`.
+        success = success
+               && SearchQuery.parse("a AND b OR NOT c").equals(
+                      SearchQuery.or(SearchQuery.and(SearchQuery.term("a"), SearchQuery.term("b")),
+                                     SearchQuery.not(SearchQuery.term("c"))))
+               && SearchQuery.parse(query.toString()).equals(query)
+               && SearchQuery.parse("-".repeat(SearchQuery.MAX_DEPTH) + "a").getKind() == SearchQuery.Kind.NOT
+               && SearchQuery.parse("(".repeat(SearchQuery.MAX_DEPTH) + "a" + ")".repeat(SearchQuery.MAX_DEPTH))
+                      .equals(SearchQuery.term("a"));
+        // Un annidamento più profondo viene rifiutato anziché esaurire lo stack.
+        String[] invalid = {"", "(a", "a)", "\"a b", "a OR", "#", "from:", "-",
+                            "-".repeat(5000) + "ciao",
+                            "-".repeat(SearchQuery.MAX_DEPTH + 1) + "a",
+                            "(".repeat(SearchQuery.MAX_DEPTH + 1) + "a" + ")".repeat(SearchQuery.MAX_DEPTH + 1)};
+        for (String text : invalid) {
+            try {
+                SearchQuery.parse(text);
+                return false;
+            } catch (IllegalArgumentException e) {}
+        }
+        try {
+            SearchQuery.parse(null);
+            return false;
+        } catch (NullPointerException e) {}
+        return success;
+    }
+
+    public static boolean testBooleanSemantics() {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Workload workload = new Workload.Config().setSeed(17).setUsers(100).setPosts(2000)
+                                                 .setHashtags(20).setHashtagProbability(0.5)
+                                                 .setMentionProbability(0.3).build().populate(microblog);
+        try (SearchEngine engine = new SearchEngine(microblog)) {
+            boolean success = engine.checkRep();
+            String[] queries = {
+                "pizza",
+                "PIZZA mare",
+                "pizza OR mare OR treno",
+                "#tag1 -caffè",
+                "\"ciao oggi\"",
+                "(sole OR pioggia) AND NOT (festa OR amici)",
+                "-ciao",
+                "from:" + Workload.username(0) + " OR @" + Workload.username(1),
+                "\"grazie tutti\" OR (#tag2 libro)",
+                "inesistente",
+            };
+            Collection<Post> posts = microblog.getPostsById().values();
+            for (String text : queries) {
+                SearchQuery query = SearchQuery.parse(text);
+                Set<Integer> expected = new HashSet<>();
+                for (Post post : posts) {
+                    if (TestSearchEngine.matches(query, post)) {
+                        expected.add(post.getId());
+                    }
+                }
+                List<Post> found = engine.search(query, posts.size());
+                success = success && TestSearchEngine.ids(found).equals(expected) && found.size() == expected.size();
+            }
+            try {
+                engine.search("pizza", 0);
+                return false;
+            } catch (IllegalArgumentException e) {}
+            return success && workload.getPosts().size() == 2000;
+        }
+    }
+
+    public static boolean testRanking() throws InterruptedException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        for (int i = 0; i < 5; i++) {
+            microblog.register(Workload.username(i));
+        }
+        try (SearchEngine engine = new SearchEngine(microblog)) {
+            Post old = microblog.writePost(new Post.Builder(Workload.username(0), "Pizza a pranzo"));
+            Thread.sleep(50);
+            Post recent = microblog.writePost(new Post.Builder(Workload.username(1), "Pizza a cena"));
+            Post other = microblog.writePost(new Post.Builder(Workload.username(2), "Pasta a cena"));
+            // Con lo stesso numero di like vince il post più recente.
+            engine.setWeights(1, 1, 10);
+            boolean success = TestSearchEngine.ids(engine.search("pizza", 1)).equals(Collections.singleton(recent.getId()));
+            // Il post che contiene entrambe le parole precede gli altri.
+            List<Post> found = engine.search("pizza OR cena", 3);
+            success = success && found.size() == 3 && found.get(0).getId() == recent.getId();
+            // I like, aggiornati dal listener, ribaltano la classifica.
+            for (int i = 1; i < 5; i++) {
+                microblog.like(old, Workload.username(i));
+            }
+            found = engine.search("pizza", 2);
+            success = success
+                   && found.size() == 2
+                   && found.get(0).getId() == old.getId()
+                   && found.get(0).getLikes().size() == 4
+                   && found.get(1).getId() == recent.getId();
+            // I post eliminati spariscono dai risultati.
+            microblog.deletePost(old, Workload.username(0));
+            found = engine.search("pizza OR pasta", 10);
+            return success
+                && TestSearchEngine.ids(found).equals(new HashSet<>(Arrays.asList(recent.getId(), other.getId())))
+                && engine.checkRep();
+        }
+    }
+
+    public static boolean testTopKSkipsBlocks() {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Workload workload = new Workload.Config().setSeed(23).setUsers(50).setPosts(5000).build().populate(microblog);
+        try (SearchEngine engine = new SearchEngine(microblog)) {
+            // Solo la recenza distingue i post: i primi 10 sono i più recenti e
+            // i blocchi più vecchi vanno scartati senza valutarne i post.
+            engine.setWeights(0, 1, 1);
+            int matching = 0;
+            for (Post post : microblog.getPostsById().values()) {
+                if (TestSearchEngine.matches(SearchQuery.term("ciao"), post)) {
+                    matching++;
+                }
+            }
+            List<Post> found = engine.search("ciao", 10);
+            List<Integer> expected = new ArrayList<>();
+            for (Post post : workload.getPosts()) {
+                if (TestSearchEngine.matches(SearchQuery.term("ciao"), post)) {
+                    expected.add(post.getId());
+                }
+            }
+            Collections.sort(expected, Collections.reverseOrder());
+            List<Integer> ids = new ArrayList<>();
+            for (Post post : found) {
+                ids.add(post.getId());
+            }
+            // I post più recenti hanno la data più recente, a meno di post
+            // pubblicati nello stesso millisecondo, ordinati per ID.
+            return ids.equals(expected.subList(0, 10))
+                && matching > 1000
+                && engine.getScoredCount() < matching / 4;
+        }
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestSearchEngine.testParse",
+                             TestSearchEngine.testParse());
+        UnitTest.runAndPrint("TestSearchEngine.testBooleanSemantics",
+                             TestSearchEngine.testBooleanSemantics());
+        try {
+            UnitTest.runAndPrint("TestSearchEngine.testRanking",
+                                 TestSearchEngine.testRanking());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestSearchEngine.testRanking", false);
+        }
+        UnitTest.runAndPrint("TestSearchEngine.testTopKSkipsBlocks",
+                             TestSearchEngine.testTopKSkipsBlocks());
+    }
+}
@@ -0,0 +1,320 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestShardedSocialNetwork {
+
+    public static boolean testRouting() {
+        try (ShardedSocialNetwork microblog = new ShardedSocialNetwork(4)) {
+            for (int i = 0; i < 16; i++) {
+                microblog.register(Workload.username(i));
+            }
+            boolean success = microblog.getUserCount() == 16 && microblog.checkRep();
+            for (int i = 0; i < 16; i++) {
+                String username = Workload.username(i);
+                Post post = microblog.writePost(new Post.Builder(username, "Ciao da " + username));
+                int home = microblog.shardOf(username);
+                // Il post è custodito soltanto dalla partizione del suo autore.
+                for (int s = 0; s < microblog.getShardCount(); s++) {
+                    success = success
+                           && (microblog.getShard(s).internalPost(post.getId()) != null) == (s == home);
+                }
+                success = success
+                       && microblog.getPostById(post.getId()).getAuthor().equals(username)
+                       && microblog.writtenBy(username).size() == 1;
+            }
+            try {
+                microblog.register(Workload.username(3));
+                return false;
+            } catch (IllegalArgumentException e) {}
+            return success && microblog.checkRep();
+        }
+    }
+
+    public static boolean testCrossShardReplies() {
+        try (ShardedSocialNetwork microblog = new ShardedSocialNetwork(4)) {
+            String[] users = TestShardedSocialNetwork.usersOnDistinctShards(microblog, 3);
+            for (String user : users) {
+                microblog.register(user);
+            }
+            Post root = microblog.writePost(new Post.Builder(users[0], "Radice"));
+            Post reply = microblog.writePost(new Post.Builder(users[1], "Risposta").inResponseTo(root));
+            Post nested = microblog.writePost(new Post.Builder(users[2], "Risposta alla risposta").inResponseTo(reply));
+            Post other = microblog.writePost(new Post.Builder(users[0], "Altra").inResponseTo(root));
+            boolean success = microblog.checkRep()
+                           && microblog.getPostById(root.getId()).totalReplies() == 3
+                           && microblog.getPostById(nested.getId()).getParent().getId() == reply.getId();
+            try {
+                // Solo l'autore può eliminare il post.
+                microblog.deletePost(root, users[1]);
+                return false;
+            } catch (IllegalArgumentException e) {}
+            List<Integer> deleted = microblog.deletePost(root, users[0]);
+            success = success
+                   && deleted.equals(Arrays.asList(root.getId(), reply.getId(), nested.getId(), other.getId()))
+                   && microblog.getPosts().isEmpty()
+                   && microblog.checkRep();
+            try {
+                microblog.getPostById(nested.getId());
+                return false;
+            } catch (IllegalArgumentException e) {}
+            return success;
+        }
+    }
+
+    public static boolean testCrossShardFollows() {
+        try (ShardedSocialNetwork microblog = new ShardedSocialNetwork(4)) {
+            String[] users = TestShardedSocialNetwork.usersOnDistinctShards(microblog, 3);
+            for (String user : users) {
+                microblog.register(user);
+                microblog.writePost(new Post.Builder(user, "Ciao, sono " + user));
+            }
+            microblog.like(microblog.getPresentationPost(users[0]), users[1]);
+            microblog.like(microblog.getPresentationPost(users[0]), users[2]);
+            microblog.like(microblog.getPresentationPost(users[1]), users[2]);
+            boolean success = microblog.getFollowees().get(users[2]).size() == 2
+                           && microblog.getFollowers().get(users[0]).size() == 2
+                           && microblog.influencers().equals(Arrays.asList(users[0]))
+                           && microblog.checkRep();
+            microblog.dislike(microblog.getPresentationPost(users[0]), users[2]);
+            return success
+                && microblog.getFollowees().get(users[2]).size() == 1
+                && microblog.getFollowers().get(users[0]).size() == 1
+                && microblog.checkRep();
+        }
+    }
+
+    public static boolean testMatchesSingleNetwork() {
+        Workload.Config config = new Workload.Config().setSeed(5).setUsers(200).setPosts(2000);
+        SocialNetworkWithReports single = new SocialNetworkWithReports();
+        config.build().populate(single);
+        try (ShardedSocialNetwork microblog = new ShardedSocialNetwork(4)) {
+            TestShardedSocialNetwork.populate(microblog, single);
+            boolean success = microblog.checkRep()
+                           && microblog.getFollowers().equals(single.getFollowers())
+                           && microblog.getFollowees().equals(single.getFollowees())
+                           && microblog.influencers().equals(SocialNetwork.influencers(single.getFollowers()))
+                           && microblog.getMentionedUsers().equals(single.getMentionedUsers())
+                           && microblog.getPosts().size() == single.getPosts().size();
+            List<String> words = Arrays.asList("#tag0", "#tag1", "pizza");
+            // L'ordine di `SocialNetwork.containing` non è specificato, quello
+            // di `ShardedSocialNetwork.containing` è per ID.
+            List<Post> expected = single.containing(words);
+            Collections.sort(expected, new Comparator<Post>() {
+                public int compare(Post a, Post b) {
+                    return Integer.compare(a.getId(), b.getId());
+                }
+            });
+            List<Post> actual = microblog.containing(words);
+            success = success && expected.size() == actual.size();
+            for (int i = 0; success && i < expected.size(); i++) {
+                success = expected.get(i).getText().equals(actual.get(i).getText())
+                       && expected.get(i).getAuthor().equals(actual.get(i).getAuthor());
+            }
+            // Quindici utenti segnalano ogni post di `user000000`: con 200
+            // utenti la soglia è di 15 segnalazioni.
+            List<Post> posts = microblog.writtenBy(Workload.username(0));
+            try {
+                for (Post post : posts) {
+                    for (int u = 1; u <= 15; u++) {
+                        microblog.report(post, Workload.username(u));
+                    }
+                }
+            } catch (PostReportException e) {
+                return false;
+            }
+            return success
+                && microblog.blacklist().size() == posts.size()
+                && microblog.postIsBlacklisted(posts.get(0))
+                && microblog.checkRep();
+        }
+    }
+
+    public static boolean testConcurrentWrites() {
+        final ShardedSocialNetwork microblog = new ShardedSocialNetwork(4);
+        final int numUsers = 32;
+        for (int i = 0; i < numUsers; i++) {
+            microblog.register(Workload.username(i));
+        }
+        final Post root = microblog.writePost(new Post.Builder(Workload.username(0), "Radice"));
+        // Autori custoditi da partizioni diverse: i loro post vengono scritti
+        // in parallelo, senza passare dal lock della partizione di `root`.
+        final String[] authors = TestShardedSocialNetwork.usersOnDistinctShards(microblog, microblog.getShardCount());
+        final int rootsPerThread = 2000;
+        final int[][] ids = new int[8][rootsPerThread];
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int u = 1 + offset; u < numUsers; u += 8) {
+                            String username = Workload.username(u);
+                            Post post = microblog.writePost(new Post.Builder(username, "Risposta").inResponseTo(root));
+                            microblog.like(root, username);
+                            microblog.like(post, Workload.username(0));
+                            microblog.containing(Arrays.asList("Risposta"));
+                            // La copia di `root` attraversa le risposte di
+                            // tutte le partizioni mentre gli altri thread
+                            // rispondono e mettono like.
+                            microblog.getPostById(root.getId());
+                        }
+                        String author = authors[offset % authors.length];
+                        for (int i = 0; i < rootsPerThread; i++) {
+                            ids[offset][i] = microblog.writePost(new Post.Builder(author, "Indipendente " + i)).getId();
+                        }
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        // Ogni post ha un ID diverso da tutti gli altri.
+        Set<Integer> distinct = new HashSet<>();
+        for (int[] written : ids) {
+            for (int id : written) {
+                distinct.add(id);
+            }
+        }
+        boolean success = failures.get() == 0
+                       && distinct.size() == 8 * rootsPerThread
+                       && !distinct.contains(root.getId())
+                       && microblog.getPostById(root.getId()).getReplies().size() == numUsers - 1
+                       && microblog.getPostById(root.getId()).getLikes().size() == numUsers - 1
+                       && microblog.containing(Arrays.asList("Risposta")).size() == numUsers - 1
+                       && microblog.checkRep();
+        microblog.close();
+        return success;
+    }
+
+    public static boolean testReadsLockOnlyTheirShards() throws InterruptedException {
+        try (final ShardedSocialNetwork microblog = new ShardedSocialNetwork(4)) {
+            final String[] users = TestShardedSocialNetwork.usersOnDistinctShards(microblog, 3);
+            for (String user : users) {
+                microblog.register(user);
+            }
+            final Post root = microblog.writePost(new Post.Builder(users[0], "Radice"));
+            microblog.writePost(new Post.Builder(users[1], "Risposta").inResponseTo(root));
+            // Uno scrittore resta bloccato nella partizione di `users[2]`,
+            // detenendone il lock di scrittura.
+            final CountDownLatch entered = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            microblog.getShard(microblog.shardOf(users[2])).addChangeListener(new ChangeListener() {
+                public void changesPublished(List<ChangeEvent> events) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, false);
+            Thread writer = new Thread(new Runnable() {
+                public void run() {
+                    microblog.writePost(new Post.Builder(users[2], "Scrittura lenta"));
+                }
+            });
+            writer.start();
+            entered.await();
+            // Le letture su partizioni diverse non lo attendono, anche quando
+            // il thread attraversa due partizioni.
+            final AtomicInteger reads = new AtomicInteger();
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    if (microblog.getPostById(root.getId()).totalReplies() == 1
+                        && microblog.writtenBy(users[0]).size() == 1
+                        && microblog.getPresentationPost(users[1]).getParent().getId() == root.getId()) {
+                        reads.incrementAndGet();
+                    }
+                }
+            });
+            reader.start();
+            reader.join(10000);
+            boolean success = reads.get() == 1;
+            release.countDown();
+            writer.join();
+            reader.join();
+            return success && microblog.writtenBy(users[2]).size() == 1 && microblog.checkRep();
+        }
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestShardedSocialNetwork.testRouting",
+                             TestShardedSocialNetwork.testRouting());
+        UnitTest.runAndPrint("TestShardedSocialNetwork.testCrossShardReplies",
+                             TestShardedSocialNetwork.testCrossShardReplies());
+        UnitTest.runAndPrint("TestShardedSocialNetwork.testCrossShardFollows",
+                             TestShardedSocialNetwork.testCrossShardFollows());
+        UnitTest.runAndPrint("TestShardedSocialNetwork.testMatchesSingleNetwork",
+                             TestShardedSocialNetwork.testMatchesSingleNetwork());
+        UnitTest.runAndPrint("TestShardedSocialNetwork.testConcurrentWrites",
+                             TestShardedSocialNetwork.testConcurrentWrites());
+        try {
+            UnitTest.runAndPrint("TestShardedSocialNetwork.testReadsLockOnlyTheirShards",
+                                 TestShardedSocialNetwork.testReadsLockOnlyTheirShards());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestShardedSocialNetwork.testReadsLockOnlyTheirShards", false);
+        }
+    }
+
+    // Restituisce `count` nomi utente custoditi da partizioni diverse.
+    private static String[] usersOnDistinctShards(ShardedSocialNetwork microblog, int count) {
+        String[] users = new String[count];
+        boolean[] taken = new boolean[microblog.getShardCount()];
+        int found = 0;
+        for (int i = 0; found < count; i++) {
+            String username = Workload.username(i);
+            if (!taken[microblog.shardOf(username)]) {
+                taken[microblog.shardOf(username)] = true;
+                users[found++] = username;
+            }
+        }
+        return users;
+    }
+
+    // Ripete su `microblog` utenti, post e like di `single`, nello stesso
+    // ordine.
+    private static void populate(ShardedSocialNetwork microblog, SocialNetwork single) {
+        for (String username : single.getUsers()) {
+            microblog.register(username);
+        }
+        Map<Integer, Post> copies = new HashMap<>();
+        // I genitori precedono le risposte in ordine di ID.
+        List<Integer> ids = new ArrayList<>(single.getPostsById().keySet());
+        Collections.sort(ids);
+        for (int id : ids) {
+            Post post = single.getPostById(id);
+            Post.Builder builder = new Post.Builder(post.getAuthor(), post.getText());
+            if (post.getParent() != null) {
+                builder.inResponseTo(copies.get(post.getParent().getId()));
+            }
+            copies.put(post.getId(), microblog.writePost(builder));
+        }
+        for (Post post : single.getPosts()) {
+            for (String username : post.getLikes()) {
+                microblog.like(copies.get(post.getId()), username);
+            }
+        }
+    }
+}
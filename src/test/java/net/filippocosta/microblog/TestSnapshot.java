@@ -0,0 +1,275 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TestSnapshot {
+
+    // Gli ID dei post di `posts`.
+    private static Set<Integer> ids(List<Post> posts) {
+        Set<Integer> ids = new HashSet<>();
+        for (Post post : posts) {
+            ids.add(post.getId());
+        }
+        return ids;
+    }
+
+    public static boolean testPersistentMap() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+        // Le versioni precedenti, con il contenuto che avevano.
+        List<PersistentMap<Integer, Integer>> versions = new ArrayList<>();
+        List<Map<Integer, Integer>> contents = new ArrayList<>();
+        boolean success = true;
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            if (i % 100 == 0) {
+                success = success && map.checkRep();
+            }
+            if (i % 1000 == 0) {
+                versions.add(map);
+                contents.add(new HashMap<>(expected));
+            }
+            success = success && map.size() == expected.size() && Objects.equals(map.get(key), expected.get(key));
+        }
+        success = success && map.asMap().equals(expected) && map.checkRep();
+        for (int i = 0; i < versions.size(); i++) {
+            success = success && versions.get(i).asMap().equals(contents.get(i)) && versions.get(i).checkRep();
+        }
+        // Chiavi con lo stesso hash.
+        PersistentMap<String, Boolean> collisions = PersistentMap.<String, Boolean>empty()
+            .plus("Aa", true).plus("BB", false).plus("AaAa", true).plus("BBBB", true).plus("AaBB", true);
+        PersistentMap<String, Boolean> removed = collisions.minus("Aa").minus("AaAa").minus("BBBB");
+        success = success
+               && collisions.size() == 5
+               && collisions.get("BB") == Boolean.FALSE
+               && collisions.checkRep()
+               && removed.size() == 2
+               && !removed.containsKey("Aa")
+               && removed.get("BB") == Boolean.FALSE
+               && removed.get("AaBB") == Boolean.TRUE
+               && removed.checkRep()
+               && collisions.minus("CC") == collisions
+               && collisions.plus("BB", Boolean.FALSE) == collisions
+               && removed.minus("BB").minus("AaBB").isEmpty();
+        try {
+            map.plus(null, 0);
+            return false;
+        } catch (NullPointerException e) {}
+        return success;
+    }
+
+    public static boolean testPointInTime() throws PostReportException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        microblog.register("Alice");
+        microblog.register("Bob");
+        microblog.register("Carol");
+        Post alice = microblog.writePost(new Post.Builder("Alice", "Ciao a tutti"));
+        microblog.like(alice, "Bob");
+        microblog.report(alice.getId(), "Bob");
+        microblog.enableSnapshots();
+        Snapshot before = microblog.snapshot();
+        Post bob = microblog.writePost(new Post.Builder("Bob", "Sono Bob"));
+        Post reply = microblog.writePost(new Post.Builder("Carol", "Ciao Alice").inResponseTo(alice));
+        microblog.like(bob, "Carol");
+        microblog.like(alice, "Carol");
+        microblog.report(alice.getId(), "Carol");
+        microblog.register("Dan");
+        boolean success = before.getVersion() == 0
+                       && before.getUserCount() == 3
+                       && before.getPosts().size() == 1
+                       && before.getFollowers().get("Alice").equals(Set.of("Bob"))
+                       && before.getMentionedUsers().equals(Set.of("Alice"))
+                       && before.getPostById(alice.getId()).getLikes().equals(List.of("Bob"))
+                       && before.blacklist().isEmpty()
+                       && before.checkRep();
+        Snapshot after = microblog.snapshot();
+        success = success
+               && after.getVersion() > before.getVersion()
+               && after.getUserCount() == 4
+               && after.getFollowers().equals(microblog.getFollowers())
+               && after.getMentionedUsers().equals(microblog.getMentionedUsers())
+               && new HashSet<>(after.influencers()).equals(new HashSet<>(microblog.influencers()))
+               && TestSnapshot.ids(after.blacklist()).equals(TestSnapshot.ids(microblog.blacklist()))
+               && TestSnapshot.ids(after.getPosts()).equals(microblog.getPostsById().keySet())
+               && after.writtenBy("Carol").size() == 1
+               && after.writtenBy("Eve").isEmpty()
+               && after.getPostById(reply.getId()).getParent() == null
+               && after.checkRep();
+        // Una copia restituita non altera l'istantanea.
+        after.getPostById(bob.getId()).toggleLike("Alice");
+        success = success && after.getPostById(bob.getId()).getLikes().equals(List.of("Carol"));
+        microblog.deletePost(alice, "Alice");
+        Snapshot deleted = microblog.snapshot();
+        success = success
+               && after.getPosts().size() == 3
+               && after.getFollowers().get("Alice").size() == 2
+               && deleted.getPosts().size() == 1
+               && deleted.getFollowers().equals(microblog.getFollowers())
+               && deleted.blacklist().isEmpty()
+               && deleted.checkRep();
+        try {
+            deleted.getPostById(alice.getId());
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            microblog.enableSnapshots();
+            return false;
+        } catch (IllegalStateException e) {}
+        try {
+            new SocialNetwork().snapshot();
+            return false;
+        } catch (IllegalStateException e) {}
+        return success && microblog.checkRep();
+    }
+
+    public static boolean testLikes() {
+        SocialNetwork microblog = new SocialNetwork();
+        microblog.register("Alice");
+        for (int i = 0; i < 20; i++) {
+            microblog.register("Utente" + i);
+        }
+        Post alice = microblog.writePost(new Post.Builder("Alice", "Ciao a tutti"));
+        microblog.like(alice, "Utente0");
+        microblog.enableSnapshots();
+        Snapshot first = microblog.snapshot();
+        for (int i = 1; i < 20; i++) {
+            microblog.like(alice, "Utente" + i);
+        }
+        Snapshot all = microblog.snapshot();
+        microblog.dislike(alice, "Utente0");
+        microblog.dislike(alice, "Utente7");
+        Snapshot fewer = microblog.snapshot();
+        microblog.like(alice, "Utente0");
+        Snapshot again = microblog.snapshot();
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i < 20; i++) {
+            if (i != 7) {
+                expected.add("Utente" + i);
+            }
+        }
+        expected.add("Utente0");
+        // Ogni versione conserva i like che aveva, nell'ordine in cui sono
+        // stati messi.
+        return first.getPostById(alice.getId()).getLikes().equals(List.of("Utente0"))
+            && all.getPostById(alice.getId()).getLikes().size() == 20
+            && all.getPostById(alice.getId()).getLikes().get(19).equals("Utente19")
+            && !fewer.getPostById(alice.getId()).isLikedBy("Utente0")
+            && !fewer.getPostById(alice.getId()).isLikedBy("Utente7")
+            && fewer.getPostById(alice.getId()).getLikes().size() == 18
+            && again.getPostById(alice.getId()).getLikes().equals(expected)
+            && again.getPostById(alice.getId()).getLikes()
+                    .equals(microblog.getPostById(alice.getId()).getLikes())
+            && again.getFollowers().equals(microblog.getFollowers())
+            && first.checkRep()
+            && all.checkRep()
+            && fewer.checkRep()
+            && again.checkRep()
+            && microblog.checkRep();
+    }
+
+    public static boolean testConcurrentReads() throws InterruptedException {
+        final SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        final int users = 20;
+        for (int i = 0; i < users; i++) {
+            microblog.register("user" + i);
+            microblog.writePost(new Post.Builder("user" + i, "Presentazione di user" + i));
+        }
+        microblog.enableSnapshots();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                Random random = new Random(7);
+                for (int i = 0; i < 2000; i++) {
+                    String author = "user" + random.nextInt(users);
+                    String other = "user" + random.nextInt(users);
+                    Post post = microblog.writePost(new Post.Builder(author, "Post " + i));
+                    if (!other.equals(author)) {
+                        microblog.like(microblog.getPresentationPost(author), other);
+                        try {
+                            microblog.report(post.getId(), other);
+                        } catch (PostReportException e) {
+                            failed.set(true);
+                        }
+                    }
+                    if (i % 10 == 0) {
+                        microblog.deletePost(post, author);
+                    }
+                }
+                done.set(true);
+            }
+        });
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                public void run() {
+                    long version = -1;
+                    while (!done.get()) {
+                        Snapshot snapshot = microblog.snapshot();
+                        // Le letture lunghe vedono un unico istante.
+                        if (snapshot.getVersion() < version
+                            || !snapshot.checkRep()
+                            || snapshot.getUserCount() != users
+                            || snapshot.influencers() == null) {
+                            failed.set(true);
+                        }
+                        for (Post post : snapshot.blacklist()) {
+                            snapshot.getPostById(post.getId());
+                        }
+                        version = snapshot.getVersion();
+                    }
+                }
+            });
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        Snapshot last = microblog.snapshot();
+        return !failed.get()
+            && last.getFollowers().equals(microblog.getFollowers())
+            && TestSnapshot.ids(last.getPosts()).equals(microblog.getPostsById().keySet())
+            && TestSnapshot.ids(last.blacklist()).equals(TestSnapshot.ids(microblog.blacklist()))
+            && last.checkRep()
+            && microblog.checkRep();
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestSnapshot.testPersistentMap",
+                             TestSnapshot.testPersistentMap());
+        try {
+            UnitTest.runAndPrint("TestSnapshot.testPointInTime",
+                                 TestSnapshot.testPointInTime());
+        } catch (PostReportException e) {
+            UnitTest.runAndPrint("TestSnapshot.testPointInTime", false);
+        }
+        UnitTest.runAndPrint("TestSnapshot.testLikes",
+                             TestSnapshot.testLikes());
+        try {
+            UnitTest.runAndPrint("TestSnapshot.testConcurrentReads",
+                                 TestSnapshot.testConcurrentReads());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestSnapshot.testConcurrentReads", false);
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package net.filippocosta.microblog;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 public class TestSocialNetwork {
     static String userAlice = "Alice";
@@ -77,11 +85,266 @@ public class TestSocialNetwork {
             .equals(SocialNetwork.guessFollowers(microblog.getPosts()));
     }
 
+    public static boolean testDeletePost() {
+        SocialNetwork microblog = socialNetworkWithUsers();
+        Post p1 = microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        Post p2 = microblog.writePost(new Post.Builder(userAlice, "Buonasera"));
+        // La risposta di Bob è anche il suo post di presentazione.
+        Post p3 = microblog.writePost(new Post.Builder(userBob, "Ciao Alice!").inResponseTo(p1));
+        Post p4 = microblog.writePost(new Post.Builder(userCharlie, "Ciao Bob!").inResponseTo(p3));
+        Post p5 = microblog.writePost(new Post.Builder(userBob, "Buongiorno"));
+        microblog.like(p1, userCharlie);
+        microblog.like(p2, userBob);
+        microblog.like(p3, userCharlie);
+        microblog.like(p5, userAlice);
+        boolean success = microblog.checkRep()
+                       && microblog.getPostById(p1.getId()).totalReplies() == 2
+                       && microblog.getFollowees().get(userCharlie).contains(userAlice)
+                       && microblog.getFollowees().get(userCharlie).contains(userBob)
+                       && microblog.getFollowees().get(userBob).size() == 0;
+        try {
+            // Solo l'autore può eliminare un post.
+            microblog.deletePost(p1, userBob);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        List<Integer> deleted = microblog.deletePost(p1, userAlice);
+        success = success
+               && deleted.equals(Arrays.asList(p1.getId(), p3.getId(), p4.getId()))
+               && microblog.getPosts().size() == 2
+               && !microblog.getPostsById().containsKey(p3.getId())
+               && microblog.writtenBy(userCharlie).size() == 0
+               // I nuovi post di presentazione sono `p2` e `p5`.
+               && microblog.getPresentationPost(userAlice).getId() == p2.getId()
+               && microblog.getPresentationPost(userBob).getId() == p5.getId()
+               && microblog.getFollowees().get(userCharlie).size() == 0
+               && microblog.getFollowees().get(userBob).contains(userAlice)
+               && microblog.getFollowees().get(userAlice).contains(userBob)
+               && microblog.checkRep();
+        try {
+            microblog.deletePost(p1, userAlice);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        return success;
+    }
+
+    public static boolean testPagination() {
+        SocialNetwork microblog = socialNetworkWithUsers();
+        List<Post> posts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            posts.add(microblog.writePost(new Post.Builder(userAlice, String.format("Post %d", i))));
+            microblog.writePost(new Post.Builder(userBob, String.format("Risposta %d", i)));
+        }
+        // Pagine di due post di Alice alla volta.
+        List<Integer> ids = new ArrayList<>();
+        PostPage page = microblog.writtenBy(userAlice, null, 2);
+        int pages = 1;
+        for (Post post : page.getPosts()) {
+            ids.add(post.getId());
+        }
+        while (page.hasNext()) {
+            page = microblog.writtenBy(userAlice, page.getNextCursor(), 2);
+            pages++;
+            for (Post post : page.getPosts()) {
+                ids.add(post.getId());
+            }
+        }
+        boolean success = pages == 3
+                       && ids.equals(Arrays.asList(posts.get(0).getId(), posts.get(1).getId(),
+                                                   posts.get(2).getId(), posts.get(3).getId(),
+                                                   posts.get(4).getId()));
+        // Tutti i post da quello di Alice `posts.get(1)` in poi, escluso
+        // `posts.get(4)`, tre alla volta.
+        Instant from = posts.get(1).getTimestamp();
+        Instant to = posts.get(4).getTimestamp();
+        int expected = 0;
+        for (Post post : microblog.getPosts()) {
+            if (!post.getTimestamp().isBefore(from) && post.getTimestamp().isBefore(to)) {
+                expected++;
+            }
+        }
+        page = microblog.postsBetween(from, to, null, 3);
+        String timeCursor = page.getNextCursor();
+        success = success && page.getPosts().get(0).getId() == posts.get(1).getId();
+        int found = page.getPosts().size();
+        Post last = page.getPosts().get(found - 1);
+        while (page.hasNext()) {
+            page = microblog.postsBetween(from, to, page.getNextCursor(), 3);
+            for (Post post : page.getPosts()) {
+                success = success && post.getTimestamp().compareTo(last.getTimestamp()) >= 0;
+                last = post;
+            }
+            found += page.getPosts().size();
+        }
+        success = success
+               && found == expected
+               && microblog.postsBetween(to, from, null, 3).getPosts().size() == 0;
+        try {
+            // Un cursore di `postsBetween` non è valido per `writtenBy`.
+            microblog.writtenBy(userAlice, timeCursor, 2);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        return success && microblog.checkRep();
+    }
+
+    public static boolean testStreams() {
+        SocialNetwork microblog = socialNetworkWithUsers();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(microblog.writePost(new Post.Builder(userAlice, String.format("Post %d #tag%d", i, i % 3))).getId());
+        }
+        microblog.writePost(new Post.Builder(userBob, "Ciao #tag0"));
+        List<Post> firstPosts = microblog.streamWrittenBy(userAlice).limit(3).collect(Collectors.<Post>toList());
+        return microblog.streamPosts().count() == 101
+            && microblog.streamPosts().parallel().count() == 101
+            && firstPosts.size() == 3
+            && firstPosts.get(0).getId() == ids.get(0)
+            && firstPosts.get(2).getId() == ids.get(2)
+            && microblog.streamWrittenBy(userCharlie).count() == 0
+            && microblog.streamContaining(Arrays.asList("#tag0")).parallel().count() == 35
+            && microblog.containing(Arrays.asList("#tag0", "Post 1")).size()
+               == microblog.streamContaining(Arrays.asList("#tag0", "Post 1")).count()
+            && microblog.getMentionedUsers().size() == 2;
+    }
+
+    // Gli stream copiano i post mentre un altro thread mette e toglie like e
+    // pubblica risposte.
+    public static boolean testStreamsDuringLikes() throws InterruptedException {
+        final SocialNetwork microblog = socialNetworkWithUsers();
+        final List<String> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add("Utente" + i);
+            microblog.register("Utente" + i);
+        }
+        final Post root = microblog.writePost(new Post.Builder(userAlice, "Radice"));
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int round = 0; round < 200; round++) {
+                    for (String user : users) {
+                        microblog.like(root, user);
+                    }
+                    microblog.writePost(new Post.Builder(userBob, "Risposta " + round).inResponseTo(root));
+                    for (String user : users) {
+                        microblog.dislike(root, user);
+                    }
+                }
+                done.set(true);
+            }
+        });
+        writer.start();
+        boolean success = true;
+        try {
+            while (!done.get()) {
+                success = success && microblog.streamPosts().count() >= 1;
+                success = success && microblog.streamWrittenBy(userAlice).count() == 1;
+            }
+        } catch (ConcurrentModificationException e) {
+            success = false;
+        }
+        writer.join();
+        return success
+            && microblog.getPostById(root.getId()).getReplies().size() == 200
+            && microblog.getPostById(root.getId()).getLikes().isEmpty()
+            && microblog.checkRep();
+    }
+
+    public static boolean testCompleteUsername() {
+        SocialNetwork microblog = socialNetworkWithUsers();
+        microblog.register("Ali");
+        microblog.register("Alicia");
+        Post presentation = microblog.writePost(new Post.Builder("Alicia", "Ciao"));
+        microblog.like(presentation, userBob);
+        boolean success = microblog.completeUsername("Ali", 10).equals(Arrays.asList("Alicia", "Ali", userAlice))
+                       && microblog.completeUsername("Ali", 1).equals(Arrays.asList("Alicia"))
+                       && microblog.completeUsername("Alic", 10).equals(Arrays.asList("Alicia", userAlice))
+                       && microblog.completeUsername("alice", 10).isEmpty()
+                       && microblog.completeUsername("", 2).equals(Arrays.asList("Alicia", "Ali"));
+        // Il follower si perde con il post di presentazione.
+        microblog.deletePost(presentation, "Alicia");
+        success = success && microblog.completeUsername("Ali", 10).equals(Arrays.asList("Ali", userAlice, "Alicia"));
+        try {
+            microblog.completeUsername("Ali", 0);
+            return false;
+        } catch (IllegalArgumentException e) {}
+
+        // Confronto con l'ordinamento di tutti gli utenti.
+        microblog = new SocialNetwork();
+        new Workload.Config().setSeed(5).setUsers(2000).setPosts(500).setFollows(8000).build().populate(microblog);
+        final Map<String, Set<String>> followers = microblog.getFollowers();
+        List<String> users = microblog.getUsers();
+        Collections.sort(users, new Comparator<String>() {
+            public int compare(String a, String b) {
+                int cmp = Integer.compare(followers.get(b).size(), followers.get(a).size());
+                return cmp != 0 ? cmp : a.compareTo(b);
+            }
+        });
+        for (String prefix : Arrays.asList("", "user", "user0001", "user00012", "user001999", "user1")) {
+            List<String> expected = new ArrayList<>();
+            for (String user : users) {
+                if (user.startsWith(prefix) && expected.size() < 10) {
+                    expected.add(user);
+                }
+            }
+            success = success && microblog.completeUsername(prefix, 10).equals(expected);
+        }
+        return success && microblog.checkRep();
+    }
+
+    public static boolean testLikeChecks() {
+        SocialNetwork microblog = socialNetworkWithUsers();
+        Post presentation = microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        Post second = microblog.writePost(new Post.Builder(userAlice, "Secondo post"));
+        microblog.like(second, userBob);
+        Post third = microblog.writePost(new Post.Builder(userAlice, "Terzo post"));
+        // Il like non copia il post di presentazione, e non consuma ID.
+        boolean success = third.getId() == second.getId() + 1
+                       && microblog.getFollowers().get(userAlice).isEmpty();
+        microblog.like(presentation, userBob);
+        success = success && microblog.getFollowers().get(userAlice).contains(userBob);
+        try {
+            microblog.like(presentation, "Sconosciuto");
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            microblog.dislike(presentation, "Sconosciuto");
+            return false;
+        } catch (IllegalArgumentException e) {}
+        // Eliminato il post di presentazione, tocca al secondo, già piaciuto a
+        // Bob: Bob continua a seguire Alice e un dislike lo smette.
+        microblog.deletePost(presentation, userAlice);
+        try {
+            microblog.like(presentation, userCharlie);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            microblog.dislike(presentation, userBob);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        success = success && microblog.getFollowers().get(userAlice).contains(userBob);
+        microblog.dislike(second, userBob);
+        success = success && microblog.getFollowers().get(userAlice).isEmpty();
+        // Con il terzo post non cambia nulla.
+        microblog.like(third, userCharlie);
+        return success && microblog.getFollowers().get(userAlice).isEmpty() && microblog.checkRep();
+    }
+
     public static void run() {
         UnitTest.runAndPrint("TestSocialNework.testWrittenBy", TestSocialNetwork.testWrittenBy());
         UnitTest.runAndPrint("TestSocialNework.testInfluencers", TestSocialNetwork.testInfluencers());
         UnitTest.runAndPrint("TestSocialNework.testGetters", TestSocialNetwork.testGetters());
         UnitTest.runAndPrint("TestSocialNework.testGuessFollowers", TestSocialNetwork.testGuessFollowers());
+        UnitTest.runAndPrint("TestSocialNework.testDeletePost", TestSocialNetwork.testDeletePost());
+        UnitTest.runAndPrint("TestSocialNework.testPagination", TestSocialNetwork.testPagination());
+        UnitTest.runAndPrint("TestSocialNework.testStreams", TestSocialNetwork.testStreams());
+        try {
+            UnitTest.runAndPrint("TestSocialNework.testStreamsDuringLikes",
+                                 TestSocialNetwork.testStreamsDuringLikes());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestSocialNework.testStreamsDuringLikes", false);
+        }
+        UnitTest.runAndPrint("TestSocialNework.testCompleteUsername", TestSocialNetwork.testCompleteUsername());
+        UnitTest.runAndPrint("TestSocialNework.testLikeChecks", TestSocialNetwork.testLikeChecks());
     }
 
     private static SocialNetwork socialNetworkWithUsers() {
@@ -1,5 +1,9 @@
 package net.filippocosta.microblog;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class TestSocialNetworkWithReports {
     static String userAlice = "Alice";
     static String userBob = "super_bob99";
@@ -39,12 +43,185 @@ public class TestSocialNetworkWithReports {
     }
 
 
+    public static boolean testBlacklistThresholdMoves() {
+        SocialNetworkWithReports microblog = socialNetworkWithUsers();
+        Post p1 = microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        Post p2 = microblog.writePost(new Post.Builder(userBob, "Buonasera"));
+        try {
+            // Con tre utenti la soglia è di due segnalazioni.
+            microblog.report(p1, userBob);
+            microblog.report(p1, userCharlie);
+            microblog.report(p2, userAlice);
+        } catch (PostReportException e) {
+            return false;
+        }
+        boolean success = microblog.checkRep()
+                       && microblog.postIsBlacklisted(p1)
+                       && !microblog.postIsBlacklisted(p2)
+                       && microblog.blacklist().size() == 1;
+        // Con cinque utenti la soglia sale a tre segnalazioni.
+        microblog.register("Dave");
+        microblog.register("Eve");
+        success = success
+               && microblog.checkRep()
+               && !microblog.postIsBlacklisted(p1)
+               && microblog.blacklist().size() == 0;
+        try {
+            microblog.report(p1, "Dave");
+            microblog.report(p2, "Dave");
+            // Una segnalazione ripetuta non viene conteggiata.
+            microblog.report(p2, "Dave");
+        } catch (PostReportException e) {
+            return false;
+        }
+        success = success
+               && microblog.checkRep()
+               && microblog.postIsBlacklisted(p1)
+               && !microblog.postIsBlacklisted(p2)
+               && microblog.blacklist().size() == 1
+               && microblog.blacklist().get(0).getId() == p1.getId();
+        return success;
+    }
+
+    public static boolean testDeleteReportedPost() {
+        SocialNetworkWithReports microblog = socialNetworkWithUsers();
+        Post p1 = microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        Post p2 = microblog.writePost(new Post.Builder(userBob, "Ciao Alice").inResponseTo(p1));
+        try {
+            microblog.report(p2, userAlice);
+            microblog.report(p2, userCharlie);
+        } catch (PostReportException e) {
+            return false;
+        }
+        boolean success = microblog.postIsBlacklisted(p2);
+        microblog.deletePost(p1, userAlice);
+        success = success && microblog.blacklist().size() == 0 && microblog.checkRep();
+        try {
+            microblog.report(p2, userCharlie);
+            return false;
+        } catch (PostReportException e) {}
+        return success;
+    }
+
+    public static boolean testReportAll() {
+        SocialNetworkWithReports microblog = socialNetworkWithUsers();
+        Post p1 = microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        final AtomicInteger transitions = new AtomicInteger();
+        microblog.addBlacklistListener(new BlacklistListener() {
+            public void blacklistChanged(int postId, boolean blacklisted) {
+                transitions.incrementAndGet();
+            }
+        });
+        List<SocialNetworkWithReports.Report> batch = new ArrayList<>();
+        batch.add(new SocialNetworkWithReports.Report(p1.getId(), userBob));
+        // L'autore non può segnalare il proprio post.
+        batch.add(new SocialNetworkWithReports.Report(p1.getId(), userAlice));
+        // Utente inesistente.
+        batch.add(new SocialNetworkWithReports.Report(p1.getId(), "Mallory"));
+        // Post inesistente.
+        batch.add(new SocialNetworkWithReports.Report(-1, userBob));
+        batch.add(new SocialNetworkWithReports.Report(p1.getId(), userCharlie));
+        List<SocialNetworkWithReports.Report> rejected = microblog.reportAll(batch);
+        boolean success = rejected.size() == 3
+                       && rejected.get(0) == batch.get(1)
+                       && microblog.postIsBlacklisted(p1)
+                       && transitions.get() == 1;
+        // L'uscita dalla blacklist dovuta a una nuova registrazione è notificata.
+        microblog.register("Dave");
+        microblog.register("Eve");
+        return success
+            && !microblog.postIsBlacklisted(p1)
+            && transitions.get() == 2
+            && microblog.checkRep();
+    }
+
+    public static boolean testConcurrentReports() {
+        final SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        final int numUsers = 64;
+        final int numPosts = 32;
+        for (int i = 0; i < numUsers; i++) {
+            microblog.register(String.format("user%d", i));
+        }
+        final List<Post> posts = new ArrayList<>();
+        for (int i = 0; i < numPosts; i++) {
+            posts.add(microblog.writePost(new Post.Builder("user0", String.format("Post %d", i))));
+        }
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    // Il post `i` riceve una segnalazione da ciascuno degli
+                    // utenti `1..i`.
+                    for (int u = 1 + offset; u < numUsers; u += 8) {
+                        for (int i = u; i < numPosts; i++) {
+                            try {
+                                microblog.report(posts.get(i), String.format("user%d", u));
+                            } catch (PostReportException e) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        // Con 64 utenti la soglia è di 9 segnalazioni.
+        return failures.get() == 0
+            && microblog.blacklist().size() == numPosts - 9
+            && microblog.checkRep();
+    }
+
+    public static boolean testReportFromListener() {
+        final SocialNetworkWithReports microblog = socialNetworkWithUsers();
+        final AtomicInteger failures = new AtomicInteger();
+        // Un listener sincrono segnala ogni post appena pubblicato.
+        microblog.addChangeListener(new ChangeListener() {
+            public void changesPublished(List<ChangeEvent> events) {
+                for (ChangeEvent event : events) {
+                    if (event.getKind() == ChangeEvent.Kind.POST_CREATED) {
+                        try {
+                            microblog.report(event.getPostId(), userCharlie);
+                        } catch (PostReportException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        }, false);
+        Post p1 = microblog.writePost(new Post.Builder(userAlice, "Ciao"));
+        Post p2 = microblog.writePost(new Post.Builder(userBob, "Ciao Alice").inResponseTo(p1));
+        return failures.get() == 0
+            && microblog.getReporters(p1.getId()).contains(userCharlie)
+            && microblog.getReporters(p2.getId()).contains(userCharlie)
+            && microblog.checkRep();
+    }
 
     public static void run() {
         UnitTest.runAndPrint("TestSocialNeworkWithReports.testBlacklist",
                              TestSocialNetworkWithReports.testBlacklist());
         UnitTest.runAndPrint("TestSocialNeworkWithReports.testAuthorReportFails",
                              TestSocialNetworkWithReports.testAuthorReportFails());
+        UnitTest.runAndPrint("TestSocialNeworkWithReports.testBlacklistThresholdMoves",
+                             TestSocialNetworkWithReports.testBlacklistThresholdMoves());
+        UnitTest.runAndPrint("TestSocialNeworkWithReports.testDeleteReportedPost",
+                             TestSocialNetworkWithReports.testDeleteReportedPost());
+        UnitTest.runAndPrint("TestSocialNeworkWithReports.testReportAll",
+                             TestSocialNetworkWithReports.testReportAll());
+        UnitTest.runAndPrint("TestSocialNeworkWithReports.testConcurrentReports",
+                             TestSocialNetworkWithReports.testConcurrentReports());
+        UnitTest.runAndPrint("TestSocialNeworkWithReports.testReportFromListener",
+                             TestSocialNetworkWithReports.testReportFromListener());
     }
 
     private static SocialNetworkWithReports socialNetworkWithUsers() {
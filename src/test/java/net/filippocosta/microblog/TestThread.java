@@ -0,0 +1,173 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+public class TestThread {
+
+    // Gli ID dei post di `posts`, nell'ordine della lista.
+    private static List<Integer> ids(List<Post> posts) {
+        List<Integer> ids = new ArrayList<>();
+        for (Post post : posts) {
+            ids.add(post.getId());
+        }
+        return ids;
+    }
+
+    // La visita anticipata del thread di `post` calcolata ricorsivamente, come
+    // riferimento per `getThread`.
+    private static List<Integer> preOrder(Post post, int maxDepth, int limit) {
+        List<Integer> ids = new ArrayList<>();
+        Deque<Post> stack = new ArrayDeque<>();
+        stack.push(post);
+        while (!stack.isEmpty() && ids.size() < limit) {
+            Post top = stack.pop();
+            ids.add(top.getId());
+            if (top.getDepth() - post.getDepth() < maxDepth) {
+                List<Post> replies = top.getReplies();
+                for (int i = replies.size() - 1; i >= 0; i--) {
+                    stack.push(replies.get(i));
+                }
+            }
+        }
+        return ids;
+    }
+
+    public static boolean testGetThread() {
+        SocialNetwork microblog = new SocialNetwork();
+        microblog.register("Alice");
+        microblog.register("Bob");
+        Post root = microblog.writePost(new Post.Builder("Alice", "Di che cosa parliamo?"));
+        Post a = microblog.writePost(new Post.Builder("Bob", "Di gatti").inResponseTo(root));
+        Post b = microblog.writePost(new Post.Builder("Alice", "Di cani").inResponseTo(root));
+        Post aa = microblog.writePost(new Post.Builder("Alice", "Va bene").inResponseTo(a));
+        Post aaa = microblog.writePost(new Post.Builder("Bob", "Allora iniziamo").inResponseTo(aa));
+        List<Post> thread = microblog.getThread(root.getId(), 10, 10);
+        boolean success = TestThread.ids(thread).equals(List.of(root.getId(), a.getId(), aa.getId(), aaa.getId(), b.getId()))
+                       && thread.get(3).getDepth() == 3
+                       && thread.get(3).getRootId() == root.getId()
+                       && thread.get(3).getParent() == null
+                       && thread.get(3).getReplies().isEmpty()
+                       && aaa.getRootId() == root.getId()
+                       && root.getRootId() == root.getId()
+                       && root.getDepth() == 0
+                       && TestThread.ids(microblog.getThread(root.getId(), 1, 10)).equals(List.of(root.getId(), a.getId(), b.getId()))
+                       && TestThread.ids(microblog.getThread(root.getId(), 0, 10)).equals(List.of(root.getId()))
+                       && TestThread.ids(microblog.getThread(root.getId(), 10, 2)).equals(List.of(root.getId(), a.getId()))
+                       && TestThread.ids(microblog.getThread(a.getId(), 10, 10)).equals(List.of(a.getId(), aa.getId(), aaa.getId()))
+                       && microblog.countReplies(root.getId()) == 4
+                       && microblog.countReplies(a.getId()) == 2
+                       && microblog.countReplies(b.getId()) == 0;
+        // Le modifiche successive aggiornano la numerazione.
+        Post ab = microblog.writePost(new Post.Builder("Bob", "Anzi, di pesci").inResponseTo(a));
+        microblog.deletePost(aa, "Alice");
+        success = success
+               && TestThread.ids(microblog.getThread(root.getId(), 10, 10)).equals(List.of(root.getId(), a.getId(), ab.getId(), b.getId()))
+               && microblog.countReplies(root.getId()) == 3
+               && microblog.checkRep();
+        microblog.deletePost(root, "Alice");
+        try {
+            microblog.getThread(root.getId(), 10, 10);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            microblog.getThread(b.getId(), -1, 10);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        try {
+            microblog.getThread(b.getId(), 1, 0);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        return success && microblog.checkRep();
+    }
+
+    public static boolean testLargeThread() {
+        SocialNetwork microblog = new SocialNetwork();
+        microblog.register("Alice");
+        microblog.register("Bob");
+        Post root = microblog.writePost(new Post.Builder("Alice", "Un thread molto lungo"));
+        microblog.getThread(root.getId(), 1, 1);
+        Random random = new Random(3);
+        List<Post> posts = new ArrayList<>();
+        posts.add(root);
+        // Lunghe catene di risposte all'ultima risposta e lunghe sequenze di
+        // risposte allo stesso post esauriscono lo spazio tra le etichette.
+        Post last = root;
+        for (int i = 0; i < 3000; i++) {
+            Post parent;
+            switch (random.nextInt(3)) {
+                case 0: parent = last; break;
+                case 1: parent = root; break;
+                default: parent = posts.get(random.nextInt(posts.size())); break;
+            }
+            last = microblog.writePost(new Post.Builder(i % 2 == 0 ? "Bob" : "Alice", "Risposta " + i).inResponseTo(parent));
+            posts.add(last);
+        }
+        Post internal = microblog.getPostById(root.getId());
+        boolean success = TestThread.ids(microblog.getThread(root.getId(), Integer.MAX_VALUE, Integer.MAX_VALUE))
+                              .equals(TestThread.preOrder(internal, Integer.MAX_VALUE, Integer.MAX_VALUE))
+                       && TestThread.ids(microblog.getThread(root.getId(), 3, 500))
+                              .equals(TestThread.preOrder(internal, 3, 500))
+                       && microblog.countReplies(root.getId()) == 3000;
+        for (int i = 0; i < 20; i++) {
+            Post post = microblog.getPostById(posts.get(random.nextInt(posts.size())).getId());
+            success = success
+                   && TestThread.ids(microblog.getThread(post.getId(), 2, 50)).equals(TestThread.preOrder(post, 2, 50))
+                   && microblog.countReplies(post.getId()) == post.totalReplies();
+        }
+        return success && microblog.checkRep();
+    }
+
+    public static boolean testConcurrentReplies() {
+        boolean success = true;
+        // La corsa tra la costruzione della numerazione e le risposte non si
+        // presenta a ogni esecuzione.
+        for (int round = 0; round < 5; round++) {
+            success = success && TestThread.concurrentReplies(20000);
+        }
+        return success;
+    }
+
+    // Pubblica `replies` risposte in un thread mentre un altro legge il thread.
+    private static boolean concurrentReplies(final int replies) {
+        final SocialNetwork microblog = new SocialNetwork();
+        microblog.register("Alice");
+        microblog.register("Bob");
+        final Post root = microblog.writePost(new Post.Builder("Alice", "Rispondete pure"));
+        // Le catene di risposte esauriscono lo spazio tra le etichette, così
+        // che la numerazione venga ricostruita anche durante le scritture.
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                Post last = root;
+                for (int i = 0; i < replies; i++) {
+                    Post parent = i % 3 == 0 ? root : last;
+                    last = microblog.writePost(new Post.Builder(i % 2 == 0 ? "Bob" : "Alice", "Risposta " + i).inResponseTo(parent));
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            microblog.getThread(root.getId(), 1, 1);
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return microblog.countReplies(root.getId()) == replies
+            && microblog.getThread(root.getId(), Integer.MAX_VALUE, Integer.MAX_VALUE).size() == replies + 1
+            && microblog.checkRep();
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestThread.testGetThread",
+                             TestThread.testGetThread());
+        UnitTest.runAndPrint("TestThread.testLargeThread",
+                             TestThread.testLargeThread());
+        UnitTest.runAndPrint("TestThread.testConcurrentReplies",
+                             TestThread.testConcurrentReplies());
+    }
+}
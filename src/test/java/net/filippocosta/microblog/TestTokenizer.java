@@ -0,0 +1,83 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class TestTokenizer {
+
+    public static boolean testTokenKinds() {
+        List<String> tokens = tokenize("Ciao @Marco, oggi è #sabato_mattina!");
+        return tokens.size() == 5
+            && tokens.get(0).equals("WORD:Ciao")
+            && tokens.get(1).equals("MENTION:Marco")
+            && tokens.get(2).equals("WORD:oggi")
+            && tokens.get(3).equals("WORD:è")
+            && tokens.get(4).equals("HASHTAG:sabato_mattina");
+    }
+
+    public static boolean testEmptyAndLoneMarkers() {
+        return tokenize("").size() == 0
+            && tokenize("# @ ## @@").size() == 0
+            && tokenize("##ciao").get(0).equals("HASHTAG:ciao")
+            && tokenize("a#b@c").size() == 3;
+    }
+
+    public static boolean testMatchesRegex() {
+        // Gli hashtag e i tag devono coincidere con quelli trovati dalle
+        // espressioni regolari usate in precedenza da `Post`.
+        Pattern hashtagRegex = Pattern.compile("#[a-zA-Z0-9_]+");
+        Pattern mentionRegex = Pattern.compile("@[a-zA-Z0-9_]+");
+        String alphabet = "ab_9Z #@#@ è!.";
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(Post.MAX_LENGTH);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            List<String> expected = new ArrayList<>();
+            List<String> actual = new ArrayList<>();
+            Matcher hashtags = hashtagRegex.matcher(text);
+            while (hashtags.find()) {
+                expected.add("HASHTAG:" + hashtags.group().substring(1));
+            }
+            Matcher mentions = mentionRegex.matcher(text);
+            while (mentions.find()) {
+                expected.add("MENTION:" + mentions.group().substring(1));
+            }
+            for (String token : tokenize(text.toString())) {
+                if (token.startsWith("HASHTAG:")) {
+                    actual.add(token);
+                }
+            }
+            for (String token : tokenize(text.toString())) {
+                if (token.startsWith("MENTION:")) {
+                    actual.add(token);
+                }
+            }
+            if (!expected.equals(actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestTokenizer.testTokenKinds", TestTokenizer.testTokenKinds());
+        UnitTest.runAndPrint("TestTokenizer.testEmptyAndLoneMarkers", TestTokenizer.testEmptyAndLoneMarkers());
+        UnitTest.runAndPrint("TestTokenizer.testMatchesRegex", TestTokenizer.testMatchesRegex());
+    }
+
+    private static List<String> tokenize(final String text) {
+        final List<String> tokens = new ArrayList<>();
+        Tokenizer.tokenize(text, new Tokenizer.Sink() {
+            public void token(Tokenizer.Kind kind, int start, int end) {
+                tokens.add(kind + ":" + text.substring(start, end));
+            }
+        });
+        return tokens;
+    }
+}
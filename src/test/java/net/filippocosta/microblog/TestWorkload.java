@@ -0,0 +1,121 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestWorkload {
+
+    public static boolean testReproducible() {
+        Workload.Config config = new Workload.Config().setSeed(7).setUsers(200).setPosts(1000);
+        SocialNetwork first = new SocialNetwork();
+        SocialNetwork second = new SocialNetwork();
+        Workload a = config.build().populate(first);
+        Workload b = config.build().populate(second);
+        boolean same = a.getPosts().size() == b.getPosts().size()
+                    && first.getFollowees().equals(second.getFollowees());
+        for (int i = 0; same && i < a.getPosts().size(); i++) {
+            Post x = a.getPosts().get(i);
+            Post y = b.getPosts().get(i);
+            same = x.getAuthor().equals(y.getAuthor())
+                && x.getText().equals(y.getText())
+                && (x.getParent() == null) == (y.getParent() == null);
+        }
+        SocialNetwork other = new SocialNetwork();
+        Workload c = new Workload.Config().setSeed(8).setUsers(200).setPosts(1000).build().populate(other);
+        boolean different = false;
+        for (int i = 0; !different && i < a.getPosts().size(); i++) {
+            different = !c.getPosts().get(i).getText().equals(a.getPosts().get(i).getText());
+        }
+        return same && different && first.checkRep();
+    }
+
+    public static boolean testPowerLawFollowers() {
+        SocialNetwork microblog = new SocialNetwork();
+        new Workload.Config().setSeed(1).setUsers(1000).setPosts(0).setFollows(10).build().populate(microblog);
+        List<Integer> followers = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : microblog.getFollowers().entrySet()) {
+            followers.add(entry.getValue().size());
+        }
+        while (followers.size() < 1000) {
+            followers.add(0);
+        }
+        Collections.sort(followers);
+        int median = followers.get(followers.size() / 2);
+        int max = followers.get(followers.size() - 1);
+        // Con una legge di potenza il più seguito ha ordini di grandezza più
+        // follower dell'utente mediano.
+        return max > 50 * Math.max(1, median);
+    }
+
+    public static boolean testReplyChains() {
+        SocialNetwork microblog = new SocialNetwork();
+        Workload workload = new Workload.Config().setSeed(3).setUsers(50).setPosts(2000)
+                                                 .setReplyProbability(0.9).setMaxReplyDepth(10)
+                                                 .build().populate(microblog);
+        int deepest = 0;
+        for (Post post : workload.getPosts()) {
+            int depth = 0;
+            for (Post p = post.getParent(); p != null; p = p.getParent()) {
+                depth++;
+            }
+            deepest = Math.max(deepest, depth);
+        }
+        return deepest == 10 && microblog.checkRep();
+    }
+
+    public static boolean testDriver() throws InterruptedException {
+        SocialNetworkWithReports microblog = new SocialNetworkWithReports();
+        Workload workload = new Workload.Config().setSeed(5).setUsers(100).setPosts(500).build().populate(microblog);
+        LoadDriver.Result result = new LoadDriver(workload, microblog).run(4, 2000);
+        long sum = 0;
+        for (LoadDriver.Operation operation : LoadDriver.Operation.values()) {
+            sum += result.getOperations(operation);
+        }
+        return result.getOperations() == 8000
+            && sum == 8000
+            && result.getThroughput() > 0
+            && result.percentile(LoadDriver.Operation.GET_POST_BY_ID, 50)
+               <= result.percentile(LoadDriver.Operation.GET_POST_BY_ID, 99)
+            && result.toString().contains("GET_POST_BY_ID")
+            && microblog.checkRep()
+            && TestWorkload.testDriverConfig();
+    }
+
+    // Il driver usa il vocabolario di hashtag del carico e rifiuta un mix
+    // senza operazioni.
+    private static boolean testDriverConfig() throws InterruptedException {
+        SocialNetwork microblog = new SocialNetwork();
+        Workload workload = new Workload.Config().setSeed(6).setUsers(50).setPosts(100).setHashtags(3)
+                                                 .setHashtagProbability(1).build().populate(microblog);
+        LoadDriver driver = new LoadDriver(workload, microblog);
+        for (LoadDriver.Operation operation : LoadDriver.Operation.values()) {
+            driver.setWeight(operation, 0);
+        }
+        try {
+            driver.run(2, 10);
+            return false;
+        } catch (IllegalArgumentException e) {}
+        driver.setWeight(LoadDriver.Operation.WRITE_POST, 1).run(2, 500);
+        boolean success = microblog.getPosts().size() == 50 + 100 + 1000;
+        for (Post post : microblog.getPosts()) {
+            for (String hashtag : post.getHashtags()) {
+                success = success && (hashtag.equals("tag0") || hashtag.equals("tag1") || hashtag.equals("tag2"));
+            }
+        }
+        return success;
+    }
+
+    public static void run() {
+        UnitTest.runAndPrint("TestWorkload.testReproducible", TestWorkload.testReproducible());
+        UnitTest.runAndPrint("TestWorkload.testPowerLawFollowers", TestWorkload.testPowerLawFollowers());
+        UnitTest.runAndPrint("TestWorkload.testReplyChains", TestWorkload.testReplyChains());
+        try {
+            UnitTest.runAndPrint("TestWorkload.testDriver", TestWorkload.testDriver());
+        } catch (InterruptedException e) {
+            UnitTest.runAndPrint("TestWorkload.testDriver", false);
+        }
+    }
+}
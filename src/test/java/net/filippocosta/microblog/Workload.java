@@ -0,0 +1,299 @@
+package net.filippocosta.microblog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Generatore di carichi sintetici: costruisce su un `SocialNetwork` una rete di
+// utenti e post con distribuzioni realistiche, in modo interamente
+// riproducibile a partire da un seme.
+//
+//   - La popolarità degli utenti segue una legge di Zipf: sia gli autori dei
+//     post sia gli utenti seguiti (tramite like ai post di presentazione)
+//     vengono estratti da questa distribuzione, per cui il numero di follower
+//     segue una legge di potenza.
+//   - Una parte dei post risponde a post recenti, prolungando le catene di
+//     risposte fino a `maxReplyDepth` livelli.
+//   - Hashtag e tag sono estratti da vocabolari con distribuzione di Zipf.
+//
+// Esempio:
+//
+//   Workload workload = new Workload.Config().setSeed(42).setUsers(1000).build();
+//   workload.populate(new SocialNetworkWithReports());
+public class Workload {
+
+    // Parametri del carico. Ogni metodo `set*` restituisce `this`.
+    public static class Config {
+        private long seed = 1;
+        private int users = 1000;
+        private int posts = 10000;
+        private int follows = 20;
+        private int likes = 5;
+        private double zipfExponent = 1.1;
+        private double replyProbability = 0.3;
+        private int maxReplyDepth = 32;
+        private int hashtags = 200;
+        private double hashtagProbability = 0.5;
+        private double mentionProbability = 0.2;
+
+        public Config setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        // Numero di utenti registrati.
+        public Config setUsers(int users) {
+            if (users < 2) {
+                throw new IllegalArgumentException();
+            }
+            this.users = users;
+            return this;
+        }
+
+        // Numero di post pubblicati, esclusi i post di presentazione.
+        public Config setPosts(int posts) {
+            if (posts < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.posts = posts;
+            return this;
+        }
+
+        // Numero medio di utenti seguiti da ciascun utente.
+        public Config setFollows(int follows) {
+            if (follows < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.follows = follows;
+            return this;
+        }
+
+        // Numero medio di like (a post che non sono di presentazione) messi da
+        // ciascun utente.
+        public Config setLikes(int likes) {
+            if (likes < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.likes = likes;
+            return this;
+        }
+
+        // Esponente delle distribuzioni di Zipf: più è alto, più la
+        // popolarità è concentrata su pochi utenti e hashtag.
+        public Config setZipfExponent(double zipfExponent) {
+            if (zipfExponent <= 0) {
+                throw new IllegalArgumentException();
+            }
+            this.zipfExponent = zipfExponent;
+            return this;
+        }
+
+        public Config setReplyProbability(double replyProbability) {
+            if (replyProbability < 0 || replyProbability > 1) {
+                throw new IllegalArgumentException();
+            }
+            this.replyProbability = replyProbability;
+            return this;
+        }
+
+        public Config setMaxReplyDepth(int maxReplyDepth) {
+            if (maxReplyDepth < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.maxReplyDepth = maxReplyDepth;
+            return this;
+        }
+
+        // Dimensione del vocabolario di hashtag.
+        public Config setHashtags(int hashtags) {
+            if (hashtags < 1) {
+                throw new IllegalArgumentException();
+            }
+            this.hashtags = hashtags;
+            return this;
+        }
+
+        public Config setHashtagProbability(double hashtagProbability) {
+            if (hashtagProbability < 0 || hashtagProbability > 1) {
+                throw new IllegalArgumentException();
+            }
+            this.hashtagProbability = hashtagProbability;
+            return this;
+        }
+
+        public Config setMentionProbability(double mentionProbability) {
+            if (mentionProbability < 0 || mentionProbability > 1) {
+                throw new IllegalArgumentException();
+            }
+            this.mentionProbability = mentionProbability;
+            return this;
+        }
+
+        public long getSeed() {
+            return this.seed;
+        }
+
+        public double getZipfExponent() {
+            return this.zipfExponent;
+        }
+
+        public int getHashtags() {
+            return this.hashtags;
+        }
+
+        public Workload build() {
+            return new Workload(this);
+        }
+    }
+
+    // Distribuzione di Zipf sui ranghi `0..n-1`: il rango `k` ha probabilità
+    // proporzionale a `1 / (k + 1)^exponent`.
+    public static class Zipf {
+        private final double[] cdf;
+
+        public Zipf(int n, double exponent) {
+            if (n < 1) {
+                throw new IllegalArgumentException();
+            }
+            this.cdf = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                this.cdf[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                this.cdf[k] /= sum;
+            }
+        }
+
+        public int sample(Random random) {
+            int i = Arrays.binarySearch(this.cdf, random.nextDouble());
+            i = i >= 0 ? i : -i - 1;
+            return Math.min(i, this.cdf.length - 1);
+        }
+    }
+
+    private static final String[] WORDS = {
+        "ciao", "oggi", "domani", "sempre", "tutti", "grazie", "bello", "nuovo",
+        "lavoro", "casa", "mare", "montagna", "musica", "film", "libro", "caffè",
+        "pizza", "treno", "sole", "pioggia", "amici", "festa", "corso", "esame",
+    };
+
+    private final Config config;
+    private final List<String> users = new ArrayList<>();
+    private final List<Post> presentationPosts = new ArrayList<>();
+    private final List<Post> posts = new ArrayList<>();
+
+    private Workload(Config config) {
+        this.config = config;
+    }
+
+    public Config getConfig() {
+        return this.config;
+    }
+
+    // Popola `network`, che deve essere vuoto, e restituisce `this`. A parità
+    // di configurazione, sequenza di invocazioni e testi pubblicati sono
+    // identici; cambiano solo gli ID dei post.
+    public Workload populate(SocialNetwork network) {
+        Config c = this.config;
+        Random random = new Random(c.seed);
+        Zipf popularity = new Zipf(c.users, c.zipfExponent);
+        Zipf tags = new Zipf(c.hashtags, c.zipfExponent);
+
+        for (int i = 0; i < c.users; i++) {
+            String username = Workload.username(i);
+            network.register(username);
+            this.users.add(username);
+            this.presentationPosts.add(network.writePost(new Post.Builder(username, "Ciao, sono " + username + "!")));
+        }
+
+        // Grafo dei follower: il numero di utenti seguiti è uniforme attorno
+        // alla media, chi viene seguito è estratto per popolarità.
+        for (int i = 0; i < c.users; i++) {
+            int follows = c.follows == 0 ? 0 : random.nextInt(2 * c.follows + 1);
+            for (int j = 0; j < follows; j++) {
+                int followee = popularity.sample(random);
+                if (followee != i) {
+                    network.like(this.presentationPosts.get(followee), this.users.get(i));
+                }
+            }
+        }
+
+        // Catene di risposte ancora aperte, con la rispettiva profondità.
+        List<Post> tips = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        for (int i = 0; i < c.posts; i++) {
+            String author = this.users.get(popularity.sample(random));
+            Post.Builder builder = new Post.Builder(author, this.text(random, tags, popularity));
+            int tip = -1;
+            if (!tips.isEmpty() && random.nextDouble() < c.replyProbability) {
+                tip = random.nextInt(tips.size());
+                builder.inResponseTo(tips.get(tip));
+            }
+            Post post = network.writePost(builder);
+            this.posts.add(post);
+            if (tip < 0) {
+                tips.add(post);
+                depths.add(0);
+            } else if (depths.get(tip) + 1 < c.maxReplyDepth) {
+                tips.set(tip, post);
+                depths.set(tip, depths.get(tip) + 1);
+            } else {
+                tips.remove(tip);
+                depths.remove(tip);
+            }
+        }
+
+        if (!this.posts.isEmpty()) {
+            for (int i = 0; i < c.users; i++) {
+                int likes = c.likes == 0 ? 0 : random.nextInt(2 * c.likes + 1);
+                for (int j = 0; j < likes; j++) {
+                    Post post = this.posts.get(random.nextInt(this.posts.size()));
+                    if (!post.getAuthor().equals(this.users.get(i))) {
+                        network.like(post, this.users.get(i));
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    // Restituisce un testo casuale di al più 140 caratteri.
+    String text(Random random, Zipf tags, Zipf mentions) {
+        StringBuilder text = new StringBuilder();
+        int words = 3 + random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (random.nextDouble() < this.config.hashtagProbability) {
+            text.append(" #tag").append(tags.sample(random));
+        }
+        if (random.nextDouble() < this.config.mentionProbability) {
+            text.append(" @").append(Workload.username(mentions.sample(random)));
+        }
+        return text.length() <= 140 ? text.toString() : text.substring(0, 140);
+    }
+
+    public List<String> getUsers() {
+        return this.users;
+    }
+
+    public List<Post> getPresentationPosts() {
+        return this.presentationPosts;
+    }
+
+    // I post pubblicati da `populate`, esclusi quelli di presentazione,
+    // nell'ordine di pubblicazione.
+    public List<Post> getPosts() {
+        return this.posts;
+    }
+
+    static String username(int i) {
+        return String.format("user%06d", i);
+    }
+}